@@ -21,12 +21,14 @@ import com.github.joschi.jadconfig.ValidationException;
 import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.converters.TrimmedStringSetConverter;
 import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.github.joschi.jadconfig.validators.DirectoryPathReadableValidator;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.validators.PositiveLongValidator;
 import com.github.joschi.jadconfig.validators.StringNotBlankValidator;
 import com.github.joschi.jadconfig.validators.URIAbsoluteValidator;
+import org.graylog2.outputs.QueuedMessageOutput;
 import org.graylog2.plugin.BaseConfiguration;
 import org.graylog2.utilities.IPSubnetConverter;
 import org.jboss.netty.handler.ipfilter.IpSubnet;
@@ -63,6 +65,27 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "output_flush_interval", required = true, validator = PositiveIntegerValidator.class)
     private int outputFlushInterval = 1;
 
+    @Parameter(value = "output_async_flush")
+    private boolean outputAsyncFlush = false;
+
+    @Parameter(value = "output_max_inflight_batches", required = true, validator = PositiveIntegerValidator.class)
+    private int outputMaxInflightBatches = 4;
+
+    @Parameter(value = "output_batch_size_adaptive")
+    private boolean outputBatchSizeAdaptive = false;
+
+    @Parameter(value = "output_batch_size_min", validator = PositiveIntegerValidator.class)
+    private int outputBatchSizeMin = 100;
+
+    @Parameter(value = "output_batch_size_max", validator = PositiveIntegerValidator.class)
+    private int outputBatchSizeMax = 5000;
+
+    @Parameter(value = "output_batch_target_latency", validator = PositiveDurationValidator.class)
+    private Duration outputBatchTargetLatency = Duration.seconds(1L);
+
+    @Parameter(value = "output_batch_max_request_size")
+    private Size outputBatchMaxRequestSize = Size.megabytes(10L);
+
     @Parameter(value = "outputbuffer_processors", required = true, validator = PositiveIntegerValidator.class)
     private int outputBufferProcessors = 3;
 
@@ -75,6 +98,9 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "outputbuffer_processor_keep_alive_time", validator = PositiveIntegerValidator.class)
     private int outputBufferProcessorKeepAliveTime = 5000;
 
+    @Parameter(value = "outputbuffer_processor_inline_default_output")
+    private boolean outputBufferProcessorInlineDefaultOutput = false;
+
     @Parameter("rules_file")
     private String droolsRulesFile;
 
@@ -111,9 +137,27 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "stream_processing_max_faults", validator = PositiveIntegerValidator.class)
     private int streamProcessingMaxFaults = 3;
 
+    @Parameter(value = "stream_processing_regex_automaton")
+    private boolean streamProcessingRegexAutomaton = true;
+
     @Parameter(value = "output_module_timeout", validator = PositiveLongValidator.class)
     private long outputModuleTimeout = 10000;
 
+    @Parameter(value = "gelf_chunks_max_size", required = true)
+    private Size gelfChunksMaxSize = Size.megabytes(64L);
+
+    @Parameter(value = "output_queue_size", validator = PositiveIntegerValidator.class)
+    private int outputQueueSize = 1000;
+
+    @Parameter(value = "output_queue_workers", validator = PositiveIntegerValidator.class)
+    private int outputQueueWorkers = 1;
+
+    @Parameter(value = "output_queue_batch_size", validator = PositiveIntegerValidator.class)
+    private int outputQueueBatchSize = 100;
+
+    @Parameter(value = "output_queue_full_policy")
+    private String outputQueueFullPolicy = "block";
+
     @Parameter(value = "output_fault_count_threshold", validator = PositiveLongValidator.class)
     private long outputFaultCountThreshold = 5;
 
@@ -179,6 +223,34 @@ public class Configuration extends BaseConfiguration {
         return outputFlushInterval;
     }
 
+    public boolean isOutputAsyncFlush() {
+        return outputAsyncFlush;
+    }
+
+    public int getOutputMaxInflightBatches() {
+        return outputMaxInflightBatches;
+    }
+
+    public boolean isOutputBatchSizeAdaptive() {
+        return outputBatchSizeAdaptive;
+    }
+
+    public int getOutputBatchSizeMin() {
+        return outputBatchSizeMin;
+    }
+
+    public int getOutputBatchSizeMax() {
+        return outputBatchSizeMax;
+    }
+
+    public Duration getOutputBatchTargetLatency() {
+        return outputBatchTargetLatency;
+    }
+
+    public Size getOutputBatchMaxRequestSize() {
+        return outputBatchMaxRequestSize;
+    }
+
     public int getOutputBufferProcessors() {
         return outputBufferProcessors;
     }
@@ -195,6 +267,10 @@ public class Configuration extends BaseConfiguration {
         return outputBufferProcessorKeepAliveTime;
     }
 
+    public boolean isOutputBufferProcessorInlineDefaultOutput() {
+        return outputBufferProcessorInlineDefaultOutput;
+    }
+
     public String getDroolsRulesFile() {
         return droolsRulesFile;
     }
@@ -250,10 +326,34 @@ public class Configuration extends BaseConfiguration {
         return streamProcessingMaxFaults;
     }
 
+    public boolean isStreamProcessingRegexAutomaton() {
+        return streamProcessingRegexAutomaton;
+    }
+
+    public Size getGelfChunksMaxSize() {
+        return gelfChunksMaxSize;
+    }
+
     public long getOutputModuleTimeout() {
         return outputModuleTimeout;
     }
 
+    public int getOutputQueueSize() {
+        return outputQueueSize;
+    }
+
+    public int getOutputQueueWorkers() {
+        return outputQueueWorkers;
+    }
+
+    public int getOutputQueueBatchSize() {
+        return outputQueueBatchSize;
+    }
+
+    public String getOutputQueueFullPolicy() {
+        return outputQueueFullPolicy;
+    }
+
     public long getOutputFaultCountThreshold() {
         return outputFaultCountThreshold;
     }
@@ -327,6 +427,24 @@ public class Configuration extends BaseConfiguration {
         }
     }
 
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateOutputQueueFullPolicy() throws ValidationException {
+        try {
+            QueuedMessageOutput.FullQueuePolicy.fromString(getOutputQueueFullPolicy());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(e.getMessage());
+        }
+    }
+
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateOutputBatchSizeRange() throws ValidationException {
+        if (getOutputBatchSizeMin() > getOutputBatchSizeMax()) {
+            throw new ValidationException("\"output_batch_size_min\" must not be greater than \"output_batch_size_max\".");
+        }
+    }
+
     @ValidatorMethod
     @SuppressWarnings("unused")
     public void validateNetworkInterfaces() throws ValidationException {
@@ -23,6 +23,7 @@ import org.graylog2.filters.ExtractorFilter;
 import org.graylog2.filters.RulesFilter;
 import org.graylog2.filters.StaticFieldFilter;
 import org.graylog2.filters.StreamMatcherFilter;
+import org.graylog2.filters.blacklist.Blacklist;
 import org.graylog2.plugin.filters.MessageFilter;
 
 import java.net.URI;
@@ -40,7 +41,7 @@ public class MessageFilterBindings extends AbstractModule {
         // built it drools rules
         final Multibinder<URI> rulesUrls = Multibinder.newSetBinder(binder(), URI.class);
         try {
-            final URI blacklistRulesUri = Resources.getResource("blacklist.drl").toURI();
+            final URI blacklistRulesUri = Resources.getResource(Blacklist.RULES_FILE).toURI();
             rulesUrls.addBinding().toInstance(blacklistRulesUri);
         } catch (URISyntaxException ignored) {
             // Ignore
@@ -37,6 +37,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -97,9 +98,25 @@ public class OutputBuffer extends Buffer {
     }
 
     public void insertBlocking(Message message) {
+        // the output threads must not write to the message, not even its lazily generated id
+        message.materializeId();
         insert(message);
     }
 
+    /**
+     * Inserts all messages with as few ring buffer claims as possible.
+     */
+    public void insertBlocking(List<Message> messages) {
+        messages.forEach(Message::materializeId);
+        final int size = messages.size();
+        int offset = 0;
+        while (offset < size) {
+            final int length = Math.min(size - offset, ringBufferSize);
+            insert(messages.subList(offset, offset + length).toArray(new Message[length]));
+            offset += length;
+        }
+    }
+
     @Override
     protected void afterInsert(int n) {
         incomingMessages.mark(n);
@@ -28,6 +28,7 @@ import com.lmax.disruptor.WorkHandler;
 import org.graylog2.Configuration;
 import org.graylog2.outputs.DefaultMessageOutput;
 import org.graylog2.outputs.OutputRouter;
+import org.graylog2.outputs.QueuedMessageOutput;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ServerStatus;
@@ -37,6 +38,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -56,6 +59,9 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
     private static final String PROCESS_TIME_METRICNAME = name(OutputBufferProcessor.class, "processTime");
 
     private final ExecutorService executor;
+    private final MetricRegistry metricRegistry;
+    // only accessed by the outputbuffer thread running this processor
+    private final Map<Class<? extends MessageOutput>, OutputMetrics> outputMetrics = new HashMap<>();
 
     private final Configuration configuration;
     private final ServerStatus serverStatus;
@@ -66,6 +72,7 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
 
     private final OutputRouter outputRouter;
     private final MessageOutput defaultMessageOutput;
+    private final boolean inlineDefaultOutput;
 
     @Inject
     public OutputBufferProcessor(Configuration configuration,
@@ -74,9 +81,11 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
                                  OutputRouter outputRouter,
                                  @DefaultMessageOutput MessageOutput defaultMessageOutput) {
         this.configuration = configuration;
+        this.metricRegistry = metricRegistry;
         this.serverStatus = serverStatus;
         this.outputRouter = outputRouter;
         this.defaultMessageOutput = defaultMessageOutput;
+        this.inlineDefaultOutput = configuration.isOutputBufferProcessorInlineDefaultOutput();
 
         final String nameFormat = "outputbuffer-processor-executor-%d";
         final int corePoolSize = configuration.getOutputBufferProcessorThreadsCorePoolSize();
@@ -109,10 +118,14 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
      * The stream outputs are time limited so one bad output does not impact throughput too much. Essentially this means
      * that the work of writing to the outputs is performed, but the writer threads will not wait forever for stream
      * outputs to finish their work. <b>This might lead to increased memory usage!</b>
+     * Stream outputs launched by the {@link org.graylog2.outputs.OutputRegistry} are {@link QueuedMessageOutput}s though,
+     * which are written on the calling thread as this only adds the message to their bounded queue.
      * </p>
      * <p>
      * The default output, however, is allowed to block and is not subject to time limiting. This is important because it
      * can exert back pressure on the processing pipeline this way, making sure we don't run into excessive heap usage.
+     * If {@link Configuration#isOutputBufferProcessorInlineDefaultOutput()} is enabled, the default output is written
+     * on the calling thread while the stream outputs are running, which saves the hand-off to the executor.
      * </p>
      *
      * @param event the message to write to outputs
@@ -132,6 +145,24 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         final Set<MessageOutput> messageOutputs = outputRouter.getStreamOutputsForMessage(msg);
         msg.recordCounter(serverStatus, "matched-outputs", messageOutputs.size());
 
+        if (inlineDefaultOutput) {
+            writeWithInlineDefaultOutput(msg, messageOutputs);
+        } else {
+            writeWithExecutor(msg, messageOutputs);
+        }
+
+        if (msg.hasRecordings()) {
+            LOG.debug("Message event trace: {}", msg.recordingsAsString());
+        }
+
+        outputThroughput.inc();
+
+        LOG.debug("Wrote message <{}> to all outputs. Finished handling.", msg.getId());
+
+        event.clearMessages();
+    }
+
+    private void writeWithExecutor(Message msg, Set<MessageOutput> messageOutputs) throws InterruptedException {
         final Future<?> defaultOutputCompletion = processMessage(msg, defaultMessageOutput);
 
         final CountDownLatch streamOutputsDoneSignal = new CountDownLatch(messageOutputs.size());
@@ -152,16 +183,49 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         } else {
             LOG.error("The default output future was null, this is a bug!");
         }
+    }
 
-        if (msg.hasRecordings()) {
-            LOG.debug("Message event trace: {}", msg.recordingsAsString());
+    private void writeWithInlineDefaultOutput(Message msg, Set<MessageOutput> messageOutputs) throws InterruptedException {
+        if (messageOutputs.isEmpty()) {
+            writeInline(msg, defaultMessageOutput);
+            return;
         }
 
-        outputThroughput.inc();
+        // start the stream outputs first, so they are running while the default output is written
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(configuration.getOutputModuleTimeout());
+        final CountDownLatch streamOutputsDoneSignal = new CountDownLatch(messageOutputs.size());
+        for (final MessageOutput output : messageOutputs) {
+            processMessage(msg, output, streamOutputsDoneSignal);
+        }
 
-        LOG.debug("Wrote message <{}> to all outputs. Finished handling.", msg.getId());
+        // blocking in the default output exerts the back pressure to the system
+        writeInline(msg, defaultMessageOutput);
 
-        event.clearMessages();
+        // Wait until all writer threads for stream outputs have finished or the timeout since starting them is reached.
+        if (!streamOutputsDoneSignal.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            LOG.warn("Timeout reached. Not waiting any longer for stream output writer threads to complete.");
+        }
+    }
+
+    private void writeInline(final Message msg, final MessageOutput output) {
+        if (output == null) {
+            LOG.error("Output was null!");
+            return;
+        }
+        if (!output.isRunning()) {
+            LOG.debug("Skipping stopped output {}", output.getClass().getName());
+            return;
+        }
+
+        LOG.debug("Writing message to [{}].", output.getClass());
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Message id for [{}]: <{}>", output.getClass(), msg.getId());
+        }
+        try (Timer.Context ignored = processTime.time()) {
+            output.write(msg);
+        } catch (Exception e) {
+            LOG.error("Error in output [" + output.getClass() + "].", e);
+        }
     }
 
     private Future<?> processMessage(final Message msg, final MessageOutput defaultMessageOutput) {
@@ -178,15 +242,27 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
             return Futures.immediateCancelledFuture();
         }
 
+        if (output instanceof QueuedMessageOutput) {
+            // queued outputs only enqueue the message, depending on their policy they block when the queue is full
+            writeInline(msg, output);
+            doneSignal.countDown();
+            return Futures.immediateFuture(null);
+        }
+
+        final OutputMetrics metrics = outputMetrics.computeIfAbsent(output.getClass(), OutputMetrics::new);
         Future<?> future = null;
         try {
             LOG.debug("Writing message to [{}].", output.getClass());
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Message id for [{}]: <{}>", output.getClass(), msg.getId());
             }
+            final long submitTime = System.nanoTime();
+            metrics.queueSize.inc();
             future = executor.submit(new Runnable() {
                 @Override
                 public void run() {
+                    metrics.queueSize.dec();
+                    metrics.waitTime.update(System.nanoTime() - submitTime, TimeUnit.NANOSECONDS);
                     try (Timer.Context ignored = processTime.time()) {
                         output.write(msg);
                     } catch (Exception e) {
@@ -198,8 +274,22 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
             });
         } catch (Exception e) {
             LOG.error("Could not write message batch to output [" + output.getClass() + "].", e);
+            metrics.queueSize.dec();
             doneSignal.countDown();
         }
         return future;
     }
+
+    /**
+     * Metrics of the messages waiting in the executor to be written to an output type, shared by all processors.
+     */
+    private class OutputMetrics {
+        private final Counter queueSize;
+        private final Timer waitTime;
+
+        private OutputMetrics(Class<? extends MessageOutput> outputClass) {
+            this.queueSize = metricRegistry.counter(name(outputClass, "executorQueueSize"));
+            this.waitTime = metricRegistry.timer(name(outputClass, "executorWaitTime"));
+        }
+    }
 }
@@ -20,6 +20,7 @@ import com.github.rvesse.airline.builder.CliBuilder;
 import com.google.common.collect.ImmutableSet;
 import org.graylog2.bootstrap.CliCommand;
 import org.graylog2.bootstrap.CliCommandsProvider;
+import org.graylog2.commands.journal.JournalBenchmark;
 import org.graylog2.commands.journal.JournalDecode;
 import org.graylog2.commands.journal.JournalShow;
 import org.graylog2.commands.journal.JournalTruncate;
@@ -37,7 +38,8 @@ public class ServerCommandsProvider implements CliCommandsProvider {
                         ImmutableSet.of(
                                 JournalShow.class,
                                 JournalTruncate.class,
-                                JournalDecode.class
+                                JournalDecode.class,
+                                JournalBenchmark.class
                         ));
 
     }
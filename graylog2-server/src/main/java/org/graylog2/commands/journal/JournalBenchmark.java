@@ -0,0 +1,162 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.commands.journal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import com.github.rvesse.airline.annotations.Command;
+import com.github.rvesse.airline.annotations.Option;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.journal.KafkaJournal;
+import org.joda.time.Duration;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+@Command(name = "benchmark", description = "Measures the journal write throughput for different group commit intervals")
+public class JournalBenchmark extends AbstractJournalCommand {
+
+    @Option(name = {"-i", "--intervals"}, description = "Comma separated group commit intervals in milliseconds, 0 disables group commit")
+    private String intervals = "0,1,5,10,50,100";
+
+    @Option(name = {"-n", "--messages"}, description = "Number of messages to write for every interval")
+    private int messageCount = 1_000_000;
+
+    @Option(name = {"-s", "--message-size"}, description = "Size of the messages in bytes")
+    private int messageSize = 512;
+
+    @Option(name = {"-b", "--batch-size"}, description = "Number of messages written at once")
+    private int batchSize = 1000;
+
+    @Option(name = {"-p", "--partitions"}, description = "Number of journal partitions, each written by its own thread")
+    private int partitions = 1;
+
+    @Option(name = {"--directory"}, description = "Directory for the temporary journals, should be on the same disk as the message journal")
+    private String directory = null;
+
+    public JournalBenchmark() {
+        super("benchmark-journal");
+    }
+
+    @Override
+    protected void startCommand() {
+        // the configured journal might be in use by a running server, only temporary journals are written
+        runCommand();
+    }
+
+    @Override
+    protected void runCommand() {
+        final File baseDirectory = directory == null ? Files.createTempDir() : new File(directory);
+        final ServerStatus serverStatus = injector.getInstance(ServerStatus.class);
+        final byte[] payload = new byte[messageSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        System.out.println(String.format(Locale.ENGLISH, "%d messages of %d bytes, batches of %d messages, %d partition(s)",
+                messageCount, messageSize, batchSize, partitions));
+        System.out.println(String.format(Locale.ENGLISH, "%15s %15s %15s %20s", "interval (ms)", "messages/s", "MB/s", "avg batch (ms)"));
+        for (String interval : Splitter.on(',').trimResults().omitEmptyStrings().split(intervals)) {
+            final File journalDirectory = new File(baseDirectory, "journal-benchmark-" + interval);
+            try {
+                run(Long.parseLong(interval), journalDirectory, serverStatus, payload);
+            } catch (Exception e) {
+                System.err.println("Benchmark with group commit interval " + interval + " failed: " + e.getMessage());
+            } finally {
+                FileUtils.deleteQuietly(journalDirectory);
+            }
+        }
+    }
+
+    private void run(long interval, File journalDirectory, ServerStatus serverStatus, byte[] payload) throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService writers = Executors.newFixedThreadPool(partitions);
+        final KafkaJournal benchmarkJournal = new KafkaJournal(journalDirectory,
+                scheduler,
+                kafkaJournalConfiguration.getMessageJournalSegmentSize(),
+                kafkaJournalConfiguration.getMessageJournalSegmentAge(),
+                Size.gigabytes(100L),
+                kafkaJournalConfiguration.getMessageJournalMaxAge(),
+                kafkaJournalConfiguration.getMessageJournalFlushInterval(),
+                kafkaJournalConfiguration.getMessageJournalFlushAge(),
+                100,
+                partitions,
+                Duration.millis(interval),
+                kafkaJournalConfiguration.getMessageJournalGroupCommitSize(),
+                kafkaJournalConfiguration.getMessageJournalCompression(),
+                new MetricRegistry(),
+                serverStatus);
+        benchmarkJournal.startAsync().awaitRunning();
+        try {
+            final int batches = Math.max(1, messageCount / batchSize / partitions);
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            final List<Future<Long>> results = new ArrayList<>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                final int partition = i;
+                results.add(writers.submit(() -> writeBatches(benchmarkJournal, partition, batches, payload)));
+            }
+            long batchNanos = 0L;
+            for (Future<Long> result : results) {
+                batchNanos += result.get();
+            }
+            final long elapsedMillis = Math.max(1L, stopwatch.elapsed(MILLISECONDS));
+
+            final long written = (long) batches * batchSize * partitions;
+            final double messagesPerSecond = written * 1000.0d / elapsedMillis;
+            System.out.println(String.format(Locale.ENGLISH, "%15d %15.0f %15.1f %20.3f",
+                    interval,
+                    messagesPerSecond,
+                    messagesPerSecond * payload.length / (1024.0d * 1024.0d),
+                    NANOSECONDS.toMicros(batchNanos) / 1000.0d / ((long) batches * partitions)));
+        } finally {
+            writers.shutdownNow();
+            benchmarkJournal.stopAsync().awaitTerminated();
+            scheduler.shutdownNow();
+        }
+    }
+
+    private long writeBatches(Journal benchmarkJournal, int partition, int batches, byte[] payload) throws InterruptedException {
+        final List<Journal.Entry> entries = new ArrayList<>(batchSize);
+        long batchNanos = 0L;
+        for (int batch = 0; batch < batches; batch++) {
+            entries.clear();
+            for (int i = 0; i < batchSize; i++) {
+                final byte[] idBytes = (partition + "-" + batch + "-" + i).getBytes(StandardCharsets.UTF_8);
+                entries.add(benchmarkJournal.createEntry(idBytes, payload));
+            }
+            final long start = System.nanoTime();
+            final long offset = benchmarkJournal.write(entries, partition);
+            benchmarkJournal.awaitFlushed(offset);
+            batchNanos += System.nanoTime() - start;
+        }
+        return batchNanos;
+    }
+}
@@ -47,6 +47,7 @@ public class JournalShow extends AbstractJournalCommand {
         sb.append("Graylog message journal in directory: ").append(kafkaJournalConfiguration.getMessageJournalDir().getAbsolutePath()).append(
                 "\n");
         sb.append("\t").append("Total size in bytes: ").append(sizeInBytes).append("\n");
+        sb.append("\t").append("Number of partitions: ").append(journal.numberOfPartitions()).append("\n");
         sb.append("\t").append("Number of segments: ").append(numSegments).append("\n");
         sb.append("\t").append("Log start offset: ").append(startOffset).append("\n");
         sb.append("\t").append("Log end offset: ").append(lastOffset).append("\n");
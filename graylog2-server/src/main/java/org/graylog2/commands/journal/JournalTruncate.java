@@ -19,6 +19,7 @@ package org.graylog2.commands.journal;
 import com.github.rvesse.airline.annotations.Command;
 import com.github.rvesse.airline.annotations.Option;
 import com.github.rvesse.airline.annotations.restrictions.Required;
+import org.graylog2.shared.journal.KafkaJournal;
 
 @Command(name = "truncate", description = "Truncates the journal to a given offset")
 public class JournalTruncate extends AbstractJournalCommand {
@@ -34,7 +35,12 @@ public class JournalTruncate extends AbstractJournalCommand {
     @Override
     protected void runCommand() {
         try {
-            final long logEndOffset = journal.getLogEndOffset();
+            final int partition = KafkaJournal.partitionOf(offset);
+            if (partition >= journal.numberOfPartitions()) {
+                throw new IllegalArgumentException("Unknown journal partition " + partition);
+            }
+            // offsets of all partitions but the first one carry their partition, see KafkaJournal#journalOffset
+            final long logEndOffset = journal.getLogEndOffset(partition);
             if (offset > logEndOffset) {
                 System.err.println("Truncating journal to " + offset + " has no effect as the largest offset in the log is " + (logEndOffset - 1) + ".");
             } else {
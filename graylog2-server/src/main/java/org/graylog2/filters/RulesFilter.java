@@ -19,6 +19,8 @@ package org.graylog2.filters;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.filters.blacklist.Blacklist;
+import org.graylog2.filters.blacklist.FilterDescription;
 import org.graylog2.filters.events.FilterDescriptionUpdateEvent;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.RulesEngine;
@@ -28,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -41,6 +44,7 @@ public class RulesFilter implements MessageFilter {
     private final FilterService filterService;
     private final ScheduledExecutorService scheduler;
     private final AtomicReference<RulesEngine.RulesSession> privateSession = new AtomicReference<>(null);
+    private final AtomicReference<Blacklist> blacklist = new AtomicReference<>(Blacklist.EMPTY);
 
     @Inject
     public RulesFilter(final RulesEngine rulesEngine,
@@ -59,6 +63,14 @@ public class RulesFilter implements MessageFilter {
 
     @Override
     public boolean filter(Message msg) {
+        if (!rulesEngine.hasCustomRules()) {
+            // Only the built-in blacklist rules are loaded, match the compiled blacklist instead of evaluating them.
+            if (blacklist.get().matches(msg)) {
+                msg.setFilterOut(true);
+            }
+            return msg.getFilterOut();
+        }
+
         // Always run the rules engine to make sure rules from the external rules file will be run.
         privateSession.get().evaluate(msg, true);
 
@@ -78,12 +90,14 @@ public class RulesFilter implements MessageFilter {
         try {
             final RulesEngine.RulesSession newSession = rulesEngine.createPrivateSession();
 
-            filterService.loadAll().forEach(filterDescription -> {
+            final Set<FilterDescription> filterDescriptions = filterService.loadAll();
+            filterDescriptions.forEach(filterDescription -> {
                 LOG.debug("Insert filter description: {}", filterDescription);
                 newSession.insertFact(filterDescription);
             });
 
             privateSession.set(newSession);
+            blacklist.set(Blacklist.compile(filterDescriptions));
         } catch (NotFoundException e) {
             LOG.error("No filters found", e);
         }
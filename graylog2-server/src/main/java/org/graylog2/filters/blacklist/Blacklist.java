@@ -0,0 +1,253 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.filters.blacklist;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.InetAddresses;
+import com.google.common.primitives.Ints;
+import org.graylog2.plugin.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * The blacklist filter descriptions compiled for matching messages without a rules engine session. A message matches
+ * exactly if one of the rules in {@value #RULES_FILE} would filter it out.
+ * <ul>
+ * <li>equality conditions become a set of case folded values per field</li>
+ * <li>the pattern conditions of a field are combined into a single regular expression where that is possible</li>
+ * <li>IPv4 subnets become a sorted table of disjoint address ranges</li>
+ * </ul>
+ */
+public class Blacklist {
+    private static final Logger LOG = LoggerFactory.getLogger(Blacklist.class);
+
+    public static final String RULES_FILE = "blacklist.drl";
+
+    // constructs which can't be wrapped into a group or change their meaning in a combined pattern:
+    // quoting, back references, named groups and comments
+    private static final Pattern UNCOMBINABLE_PATTERN = Pattern.compile("\\\\[Qk1-9]|\\(\\?<|#");
+
+    public static final Blacklist EMPTY = compile(Collections.emptyList());
+
+    private final Map<String, Set<String>> equalValues;
+    private final Map<String, List<Pattern>> patterns;
+    // start and end addresses of the IPv4 subnets, sorted and without overlaps
+    private final long[] ipv4RangeStarts;
+    private final long[] ipv4RangeEnds;
+    // the IPv4 subnets are matched one by one against other addresses, like all other subnets
+    private final List<BlacklistIpMatcherCondition> ipv4Conditions;
+    private final List<BlacklistIpMatcherCondition> otherIpConditions;
+
+    private Blacklist(Map<String, Set<String>> equalValues,
+                      Map<String, List<Pattern>> patterns,
+                      long[] ipv4RangeStarts,
+                      long[] ipv4RangeEnds,
+                      List<BlacklistIpMatcherCondition> ipv4Conditions,
+                      List<BlacklistIpMatcherCondition> otherIpConditions) {
+        this.equalValues = equalValues;
+        this.patterns = patterns;
+        this.ipv4RangeStarts = ipv4RangeStarts;
+        this.ipv4RangeEnds = ipv4RangeEnds;
+        this.ipv4Conditions = ipv4Conditions;
+        this.otherIpConditions = otherIpConditions;
+    }
+
+    public static Blacklist compile(Collection<? extends FilterDescription> descriptions) {
+        // field names may be null, the conditions then never or always match like the rules do
+        final Map<String, Set<String>> equalValues = new HashMap<>();
+        final Map<String, List<String>> regexes = new HashMap<>();
+        final List<long[]> ipv4Ranges = new ArrayList<>();
+        final List<BlacklistIpMatcherCondition> ipv4Conditions = new ArrayList<>();
+        final List<BlacklistIpMatcherCondition> otherIpConditions = new ArrayList<>();
+
+        for (FilterDescription description : descriptions) {
+            if (description.pattern == null) {
+                continue;
+            }
+            if (description instanceof BlacklistFieldEqualityCondition) {
+                equalValues.computeIfAbsent(description.fieldName, fieldName -> new HashSet<>())
+                        .add(caseFold(description.pattern));
+            } else if (description instanceof BlacklistPatternCondition) {
+                regexes.computeIfAbsent(description.fieldName, fieldName -> new ArrayList<>())
+                        .add(description.pattern);
+            } else if (description instanceof BlacklistIpMatcherCondition) {
+                final long[] range = ipv4Range(description.pattern);
+                if (range == null) {
+                    otherIpConditions.add((BlacklistIpMatcherCondition) description);
+                } else {
+                    ipv4Ranges.add(range);
+                    ipv4Conditions.add((BlacklistIpMatcherCondition) description);
+                }
+            }
+        }
+
+        final Map<String, List<Pattern>> patterns = new HashMap<>(regexes.size());
+        regexes.forEach((fieldName, fieldRegexes) -> patterns.put(fieldName, combine(fieldRegexes)));
+
+        final List<long[]> mergedRanges = merge(ipv4Ranges);
+        final long[] starts = new long[mergedRanges.size()];
+        final long[] ends = new long[mergedRanges.size()];
+        for (int i = 0; i < mergedRanges.size(); i++) {
+            starts[i] = mergedRanges.get(i)[0];
+            ends[i] = mergedRanges.get(i)[1];
+        }
+
+        return new Blacklist(equalValues, patterns, starts, ends,
+                ImmutableList.copyOf(ipv4Conditions), ImmutableList.copyOf(otherIpConditions));
+    }
+
+    /**
+     * @return {@code true} if the message matches any of the blacklist conditions
+     */
+    public boolean matches(Message message) {
+        for (Map.Entry<String, Set<String>> entry : equalValues.entrySet()) {
+            final Object value = message.getField(entry.getKey());
+            if (value != null && entry.getValue().contains(caseFold(String.valueOf(value)))) {
+                return true;
+            }
+        }
+        for (Map.Entry<String, List<Pattern>> entry : patterns.entrySet()) {
+            // like the rules, a missing field is matched as "null"
+            final String value = String.valueOf(message.getField(entry.getKey()));
+            for (Pattern pattern : entry.getValue()) {
+                if (pattern.matcher(value).matches()) {
+                    return true;
+                }
+            }
+        }
+        if ((ipv4RangeStarts.length > 0 || !otherIpConditions.isEmpty()) && message.getIsSourceInetAddress()) {
+            return matchesInetAddress(message.getInetAddress());
+        }
+        return false;
+    }
+
+    private boolean matchesInetAddress(InetAddress address) {
+        if (address == null) {
+            return false;
+        }
+        if (address instanceof Inet4Address) {
+            final long ip = Integer.toUnsignedLong(Ints.fromByteArray(address.getAddress()));
+            // the last range starting at or before the address
+            final int index = Arrays.binarySearch(ipv4RangeStarts, ip);
+            final int range = index >= 0 ? index : -index - 2;
+            if (range >= 0 && ip <= ipv4RangeEnds[range]) {
+                return true;
+            }
+        } else {
+            for (BlacklistIpMatcherCondition condition : ipv4Conditions) {
+                if (condition.matchesInetAddress(address)) {
+                    return true;
+                }
+            }
+        }
+        for (BlacklistIpMatcherCondition condition : otherIpConditions) {
+            if (condition.matchesInetAddress(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value of which the case folded values are equal if and only if the values are equal ignoring case,
+     * as in {@link String#equalsIgnoreCase(String)}.
+     */
+    private static String caseFold(String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    private static List<Pattern> combine(List<String> regexes) {
+        final List<String> combinable = regexes.stream()
+                .filter(regex -> !UNCOMBINABLE_PATTERN.matcher(regex).find())
+                .collect(Collectors.toList());
+        if (combinable.size() > 1) {
+            // inline flags only apply within the group of each pattern
+            final String combined = combinable.stream()
+                    .map(regex -> "(?:" + regex + ")")
+                    .collect(Collectors.joining("|"));
+            try {
+                final ImmutableList.Builder<Pattern> patterns = ImmutableList.builder();
+                patterns.add(Pattern.compile(combined));
+                regexes.stream()
+                        .filter(regex -> !combinable.contains(regex))
+                        .forEach(regex -> patterns.add(Pattern.compile(regex)));
+                return patterns.build();
+            } catch (PatternSyntaxException e) {
+                LOG.debug("Couldn't combine blacklist patterns, matching them one by one.", e);
+            }
+        }
+        return regexes.stream().map(Pattern::compile).collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Returns the first and last address of an IPv4 subnet in CIDR notation, {@code null} for any other pattern.
+     */
+    private static long[] ipv4Range(String pattern) {
+        final int slash = pattern.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        final InetAddress address;
+        final int prefixLength;
+        try {
+            address = InetAddresses.forString(pattern.substring(0, slash));
+            prefixLength = Integer.parseInt(pattern.substring(slash + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!(address instanceof Inet4Address) || prefixLength < 0 || prefixLength > 32) {
+            return null;
+        }
+        final long mask = (0xffffffffL << (32 - prefixLength)) & 0xffffffffL;
+        final long start = Integer.toUnsignedLong(Ints.fromByteArray(address.getAddress())) & mask;
+        return new long[]{start, start | (~mask & 0xffffffffL)};
+    }
+
+    private static List<long[]> merge(List<long[]> ranges) {
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        final List<long[]> merged = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            final long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(new long[]{range[0], range[1]});
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a single bulk request, see {@link Messages#bulkIndex(java.util.List)}.
+ */
+@AutoValue
+public abstract class BulkIndexResult {
+    private static final BulkIndexResult EMPTY = create(0, 0, ImmutableList.of(), 0L);
+
+    public abstract int messages();
+
+    /**
+     * @return the number of messages which could not be indexed, not including the rejected messages
+     */
+    public abstract int failedMessages();
+
+    /**
+     * @return the messages which Elasticsearch rejected because its bulk queue was full (HTTP 429), they have not
+     * been indexed but can be sent again
+     */
+    public abstract ImmutableList<Map.Entry<IndexSet, Message>> rejectedEntries();
+
+    /**
+     * @return the length of the serialized request body
+     */
+    public abstract long requestSize();
+
+    public int rejectedMessages() {
+        return rejectedEntries().size();
+    }
+
+    public boolean isSucceeded() {
+        return failedMessages() == 0 && rejectedEntries().isEmpty();
+    }
+
+    public static BulkIndexResult create(int messages, int failedMessages, List<Map.Entry<IndexSet, Message>> rejectedEntries, long requestSize) {
+        return new AutoValue_BulkIndexResult(messages, failedMessages, ImmutableList.copyOf(rejectedEntries), requestSize);
+    }
+
+    public static BulkIndexResult empty() {
+        return EMPTY;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import org.graylog2.indexer.IndexMapping;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serializes messages into the newline delimited body of an Elasticsearch bulk request.
+ * <p>
+ * The action and source lines are written with a Jackson generator into a per-thread byte buffer which is reused
+ * for subsequent requests, instead of building an intermediate map and JSON string for every message.
+ */
+class BulkRequestWriter {
+    // Don't keep huge buffers of a single oversized request around forever
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final ThreadLocal<BulkBuffer> BUFFERS = ThreadLocal.withInitial(BulkBuffer::new);
+
+    // Fields which are skipped or always written separately, see Message#toElasticSearchObject(Meter)
+    private static final Set<String> RESERVED_FIELDS = ImmutableSet.of(
+            Message.FIELD_ID,
+            Message.FIELD_MESSAGE,
+            Message.FIELD_SOURCE,
+            Message.FIELD_STREAMS,
+            Message.FIELD_TIMESTAMP);
+
+    private final ObjectMapper objectMapper;
+    private final Meter invalidTimestampMeter;
+    private final Timer serializationTime;
+    private final Histogram requestBytes;
+
+    BulkRequestWriter(ObjectMapper objectMapper, MetricRegistry metricRegistry, Meter invalidTimestampMeter) {
+        this.objectMapper = objectMapper;
+        this.invalidTimestampMeter = invalidTimestampMeter;
+        this.serializationTime = metricRegistry.timer(name(Messages.class, "bulk-serialization-time"));
+        this.requestBytes = metricRegistry.histogram(name(Messages.class, "bulk-request-bytes"));
+    }
+
+    String write(List<Map.Entry<IndexSet, Message>> messageList) throws IOException {
+        final BulkBuffer buffer = BUFFERS.get();
+        buffer.reset();
+
+        try (Timer.Context ignored = serializationTime.time()) {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)) {
+                // Every line is terminated by a newline, including the last one
+                generator.setRootValueSeparator(null);
+                for (Map.Entry<IndexSet, Message> entry : messageList) {
+                    final Message message = entry.getValue();
+                    writeAction(generator, entry.getKey().getWriteIndexAlias(), message.getId());
+                    writeSource(generator, message);
+                }
+            }
+
+            requestBytes.update(buffer.size());
+            return buffer.toUtf8String();
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    private void writeAction(JsonGenerator generator, String index, String id) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("index");
+        generator.writeStringField("_index", index);
+        generator.writeStringField("_type", IndexMapping.TYPE_MESSAGE);
+        generator.writeStringField("_id", id);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void writeSource(JsonGenerator generator, Message message) throws IOException {
+        if (requiresKeyReplacement(message)) {
+            // Keys with dots can conflict with existing keys, let the message resolve them exactly as before.
+            generator.writeObject(message.toElasticSearchObject(invalidTimestampMeter));
+            generator.writeRaw('\n');
+            return;
+        }
+
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> field : message.getFieldsEntries()) {
+            final String key = field.getKey();
+            // Null values are omitted, like Gson did when serializing the message map
+            if (RESERVED_FIELDS.contains(key) || field.getValue() == null) {
+                continue;
+            }
+            generator.writeFieldName(key);
+            writeValue(generator, field.getValue());
+        }
+
+        generator.writeStringField(Message.FIELD_MESSAGE, message.getMessage());
+        generator.writeStringField(Message.FIELD_SOURCE, message.getSource());
+        generator.writeArrayFieldStart(Message.FIELD_STREAMS);
+        for (String streamId : message.getStreamIds()) {
+            generator.writeString(streamId);
+        }
+        generator.writeEndArray();
+
+        final String timestamp = message.getElasticSearchTimestamp(invalidTimestampMeter);
+        if (timestamp != null) {
+            generator.writeStringField(Message.FIELD_TIMESTAMP, timestamp);
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private static boolean requiresKeyReplacement(Message message) {
+        for (String key : message.getFieldNames()) {
+            if (key != null && key.indexOf('.') >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        // Shortcuts for the common field types, everything else goes through the object mapper
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    private static class BulkBuffer extends ByteArrayOutputStream {
+        BulkBuffer() {
+            super(64 * 1024);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        String toUtf8String() {
+            return new String(buf, 0, count, UTF_8);
+        }
+    }
+}
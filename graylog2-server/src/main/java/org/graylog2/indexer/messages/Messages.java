@@ -18,6 +18,7 @@ package org.graylog2.indexer.messages;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.joschi.jadconfig.util.Duration;
 import com.github.rholder.retry.RetryException;
 import com.github.rholder.retry.Retryer;
@@ -47,9 +48,11 @@ import javax.inject.Singleton;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -64,6 +67,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class Messages {
     private static final Logger LOG = LoggerFactory.getLogger(Messages.class);
     private static final Duration MAX_WAIT_TIME = Duration.seconds(30L);
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
     private static final Retryer<BulkResult> BULK_REQUEST_RETRYER = RetryerBuilder.<BulkResult>newBuilder()
             .retryIfException(t -> t instanceof SocketTimeoutException)
             .withWaitStrategy(WaitStrategies.exponentialWait(MAX_WAIT_TIME.getQuantity(), MAX_WAIT_TIME.getUnit()))
@@ -71,13 +75,16 @@ public class Messages {
 
     private final Meter invalidTimestampMeter;
     private final JestClient client;
+    private final BulkRequestWriter bulkRequestWriter;
     private final LinkedBlockingQueue<List<IndexFailure>> indexFailureQueue;
 
     @Inject
     public Messages(MetricRegistry metricRegistry,
-                    JestClient client) {
+                    JestClient client,
+                    ObjectMapper objectMapper) {
         invalidTimestampMeter = metricRegistry.meter(name(Messages.class, "invalid-timestamps"));
         this.client = client;
+        this.bulkRequestWriter = new BulkRequestWriter(objectMapper, metricRegistry, invalidTimestampMeter);
 
         // TODO: Magic number
         this.indexFailureQueue =  new LinkedBlockingQueue<>(1000);
@@ -109,30 +116,68 @@ public class Messages {
         return terms;
     }
 
-    public boolean bulkIndex(final List<Map.Entry<IndexSet, Message>> messageList) {
+    public BulkIndexResult bulkIndex(final List<Map.Entry<IndexSet, Message>> messageList) {
         if (messageList.isEmpty()) {
-            return true;
+            return BulkIndexResult.empty();
         }
 
-        final Bulk.Builder bulk = new Bulk.Builder();
-        for (Map.Entry<IndexSet, Message> entry : messageList) {
-            final String id = entry.getValue().getId();
-            bulk.addAction(new Index.Builder(entry.getValue().toElasticSearchObject(invalidTimestampMeter))
-                .index(entry.getKey().getWriteIndexAlias())
-                .type(IndexMapping.TYPE_MESSAGE)
-                .id(id)
-                .build());
+        final String data;
+        try {
+            data = bulkRequestWriter.write(messageList);
+        } catch (IOException e) {
+            LOG.error("Couldn't serialize bulk request for " + messageList.size() + " messages.", e);
+            throw new RuntimeException(e);
         }
 
-        final BulkResult result = runBulkRequest(bulk.build(), messageList.size());
+        final BulkResult result = runBulkRequest(new SerializedBulk(data), messageList.size());
 
         LOG.debug("Index: Bulk indexed {} messages, took {} ms, failures: {}",
                 result.getItems().size(), result, result.getFailedItems().size());
-        if (!result.getFailedItems().isEmpty()) {
-            propagateFailure(result.getFailedItems(), messageList, result.getErrorMessage());
+
+        final List<Map.Entry<IndexSet, Message>> rejectedEntries = rejectedEntries(result, messageList);
+        final List<BulkResult.BulkResultItem> failedItems = result.getFailedItems().stream()
+                .filter(item -> item.status != STATUS_TOO_MANY_REQUESTS)
+                .collect(Collectors.toList());
+        if (!failedItems.isEmpty()) {
+            propagateFailure(failedItems, messageList, result.getErrorMessage());
+        }
+        if (!rejectedEntries.isEmpty()) {
+            LOG.debug("Elasticsearch rejected {} of {} messages because its bulk queue is full.", rejectedEntries.size(), messageList.size());
+        }
+
+        return BulkIndexResult.create(messageList.size(), failedItems.size(), rejectedEntries, data.length());
+    }
+
+    /**
+     * Returns the entries which Elasticsearch rejected with HTTP 429 and which thus can be sent again. The items of
+     * the response are in the order of the request, one per entry.
+     */
+    private static List<Map.Entry<IndexSet, Message>> rejectedEntries(BulkResult result, List<Map.Entry<IndexSet, Message>> messageList) {
+        final List<BulkResult.BulkResultItem> items = result.getItems();
+        if (items.isEmpty()) {
+            // the whole request has been rejected
+            return result.getResponseCode() == STATUS_TOO_MANY_REQUESTS ? messageList : Collections.emptyList();
         }
 
-        return result.getFailedItems().isEmpty();
+        final List<Map.Entry<IndexSet, Message>> rejected = new ArrayList<>();
+        if (items.size() == messageList.size()) {
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).status == STATUS_TOO_MANY_REQUESTS) {
+                    rejected.add(messageList.get(i));
+                }
+            }
+        } else {
+            final Set<String> rejectedIds = items.stream()
+                    .filter(item -> item.status == STATUS_TOO_MANY_REQUESTS)
+                    .map(item -> item.id)
+                    .collect(Collectors.toSet());
+            for (Map.Entry<IndexSet, Message> entry : messageList) {
+                if (rejectedIds.contains(entry.getValue().getId())) {
+                    rejected.add(entry);
+                }
+            }
+        }
+        return rejected;
     }
 
     private BulkResult runBulkRequest(final Bulk request, int count) {
@@ -0,0 +1,37 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.google.gson.Gson;
+import io.searchbox.core.Bulk;
+
+/**
+ * A bulk request with a body which has already been serialized by {@link BulkRequestWriter}.
+ */
+class SerializedBulk extends Bulk {
+    private final String data;
+
+    SerializedBulk(String data) {
+        super(new Bulk.Builder());
+        this.data = data;
+    }
+
+    @Override
+    public String getData(Gson gson) {
+        return data;
+    }
+}
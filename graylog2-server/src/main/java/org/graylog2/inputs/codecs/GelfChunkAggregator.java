@@ -18,9 +18,11 @@ package org.graylog2.inputs.codecs;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
 import org.graylog2.inputs.codecs.gelf.GELFMessageChunk;
 import org.graylog2.plugin.Tools;
@@ -34,17 +36,17 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.codahale.metrics.MetricRegistry.name;
-import static java.util.Objects.requireNonNull;
 
 public class GelfChunkAggregator implements CodecAggregator {
     private static final Logger log = LoggerFactory.getLogger(GelfChunkAggregator.class);
@@ -61,42 +63,53 @@ public class GelfChunkAggregator implements CodecAggregator {
     public static final String EXPIRED_MESSAGES = name(GelfChunkAggregator.class, "expired-messages");
     public static final String EXPIRED_CHUNKS = name(GelfChunkAggregator.class, "expired-chunks");
     public static final String DUPLICATE_CHUNKS = name(GelfChunkAggregator.class, "duplicate-chunks");
-
-    private final ConcurrentMap<String, ChunkEntry> chunks = Maps.newConcurrentMap();
-    private final ConcurrentSkipListSet<ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
+    public static final String DROPPED_CHUNKS = name(GelfChunkAggregator.class, "dropped-chunks");
+
+    private final ConcurrentMap<Long, ChunkEntry> chunks = Maps.newConcurrentMap();
+    // Incomplete messages grouped by the CHECK_PERIOD long time slot in which their first chunk arrived.
+    // Entries are identical only to themselves, so entries with the same timestamp never replace each other.
+    private final ConcurrentMap<Long, Set<ChunkEntry>> evictionBuckets = Maps.newConcurrentMap();
+    private final AtomicLong waitingBytes = new AtomicLong(0L);
+    private final long maxWaitingBytes;
     private final Counter chunkCounter;
     private final Counter waitingMessages;
     private final Counter expiredMessages;
     private final Counter expiredChunks;
     private final Counter duplicateChunks;
+    private final Counter droppedChunks;
     private final Counter completeMessages;
 
     @Inject
-    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler, MetricRegistry metricRegistry) {
+    public GelfChunkAggregator(@Named("daemonScheduler") ScheduledExecutorService scheduler,
+                               MetricRegistry metricRegistry,
+                               @Named("gelf_chunks_max_size") Size maxWaitingSize) {
         scheduler.scheduleAtFixedRate(new ChunkEvictionTask(), VALIDITY_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+        this.maxWaitingBytes = maxWaitingSize.toBytes();
         chunkCounter = metricRegistry.counter(CHUNK_COUNTER);
-        // this is a counter instead of a Gauge, because calling sortedEvictionSet.size() is expensive
+        // this is a counter instead of a Gauge, because calling chunks.size() is expensive
         waitingMessages = metricRegistry.counter(WAITING_MESSAGES);
         completeMessages = metricRegistry.counter(COMPLETE_MESSAGES);
         expiredMessages = metricRegistry.counter(EXPIRED_MESSAGES);
         expiredChunks = metricRegistry.counter(EXPIRED_CHUNKS);
         duplicateChunks = metricRegistry.counter(DUPLICATE_CHUNKS);
+        droppedChunks = metricRegistry.counter(DROPPED_CHUNKS);
     }
 
     @Nonnull
     @Override
     public Result addChunk(ChannelBuffer buffer) {
-        final byte[] readable = new byte[buffer.readableBytes()];
-        buffer.toByteBuffer().get(readable, buffer.readerIndex(), buffer.readableBytes());
-
-        final GELFMessage msg = new GELFMessage(readable);
+        if (buffer.readableBytes() < 2) {
+            throw new IllegalStateException("GELF message is too short. Not even the type header would fit.");
+        }
+        final int readerIndex = buffer.readerIndex();
+        final GELFMessage.Type type = GELFMessage.Type.determineType(buffer.getByte(readerIndex), buffer.getByte(readerIndex + 1));
 
         final ChannelBuffer aggregatedBuffer;
-        switch (msg.getGELFType()) {
+        switch (type) {
             case CHUNKED:
                 try {
                     chunkCounter.inc();
-                    aggregatedBuffer = checkForCompletion(msg);
+                    aggregatedBuffer = checkForCompletion(buffer);
                     if (aggregatedBuffer == null) {
                         return VALID_EMPTY_RESULT;
                     }
@@ -122,60 +135,73 @@ public class GelfChunkAggregator implements CodecAggregator {
      * Checks whether the presented gelf message chunk completes the incoming raw message and returns it if it does.
      * If the message isn't complete, it adds the chunk to the internal buffer and waits for more incoming messages.
      * Outdated chunks are being purged regularly.
+     * <p>
+     * The chunk data is kept as a slice of the received buffer, it is only copied once the message is decoded.
      *
-     * @param gelfMessage the gelf message chunk
-     * @return null or a {@link org.graylog2.plugin.journal.RawMessage raw message} object
+     * @param buffer the gelf message chunk
+     * @return null or the assembled message
      */
     @Nullable
-    private ChannelBuffer checkForCompletion(GELFMessage gelfMessage) {
+    private ChannelBuffer checkForCompletion(ChannelBuffer buffer) {
         if (!chunks.isEmpty() && log.isDebugEnabled()) {
             log.debug("Dumping GELF chunk map [chunks for {} messages]:\n{}", chunks.size(), humanReadableChunkMap());
         }
-        final GELFMessageChunk chunk = new GELFMessageChunk(gelfMessage, null); // TODO second parameter
-        final int sequenceCount = chunk.getSequenceCount();
-
-        final String messageId = chunk.getId();
-
-        ChunkEntry entry = new ChunkEntry(sequenceCount, chunk.getArrival(), messageId);
-
-        final ChunkEntry existing = chunks.putIfAbsent(messageId, entry);
-        if (existing == null) {
-            // add this chunk entry to the eviction set
-            waitingMessages.inc();
-            sortedEvictionSet.add(entry);
-        } else {
-            // the entry is already in the eviction set and chunk map
-            entry = existing;
+        final int readerIndex = buffer.readerIndex();
+        final int length = buffer.readableBytes();
+        if (length < GELFMessageChunk.HEADER_TOTAL_LENGTH) {
+            throw new IllegalArgumentException("This GELF message chunk is too short. Cannot even contain the required header.");
+        }
+        final long messageId = buffer.getLong(readerIndex + GELFMessageChunk.HEADER_PART_HASH_START);
+        final int sequenceNumber = buffer.getUnsignedByte(readerIndex + GELFMessageChunk.HEADER_PART_SEQNUM_START);
+        final int sequenceCount = buffer.getUnsignedByte(readerIndex + GELFMessageChunk.HEADER_PART_SEQCNT_START);
+        final ChannelBuffer data = buffer.slice(readerIndex + GELFMessageChunk.HEADER_TOTAL_LENGTH, length - GELFMessageChunk.HEADER_TOTAL_LENGTH);
+
+        ChunkEntry entry = chunks.get(messageId);
+        if (entry == null) {
+            if (waitingBytes.get() + data.readableBytes() > maxWaitingBytes) {
+                log.debug("Too many bytes in incomplete GELF messages, dropping chunk {} of message {}.", sequenceNumber, messageIdString(messageId));
+                droppedChunks.inc();
+                return null;
+            }
+            final ChunkEntry newEntry = new ChunkEntry(sequenceCount, Tools.nowUTC().getMillis(), messageId);
+            entry = chunks.putIfAbsent(messageId, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                waitingMessages.inc();
+                addToEvictionBucket(newEntry);
+            }
         }
 
-        final int sequenceNumber = chunk.getSequenceNumber();
-        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, chunk)) {
-            log.error("Received duplicate chunk {} for message {} from {}", sequenceNumber, messageId, gelfMessage.getSourceAddress());
+        if (!entry.payloadArray.compareAndSet(sequenceNumber, null, data)) {
+            log.error("Received duplicate chunk {} for message {}", sequenceNumber, messageIdString(messageId));
             duplicateChunks.inc();
             return null;
         }
 
+        if (!entry.addBytes(data.readableBytes())) {
+            // the entry has been completed or removed concurrently, its chunks are gone
+            return null;
+        }
+        if (waitingBytes.addAndGet(data.readableBytes()) > maxWaitingBytes) {
+            log.debug("Too many bytes in incomplete GELF messages, dropping message {}.", messageIdString(messageId));
+            dropEntry(entry);
+            return null;
+        }
+
         final int chunkWatermark = entry.chunkSlotsWritten.incrementAndGet();
 
         if (chunkWatermark > MAX_CHUNKS) {
-            getAndCleanupEntry(messageId);
+            removeEntry(entry);
             throw new IllegalStateException("Maximum number of chunks reached, discarding message");
         }
 
-        if (chunkWatermark == sequenceCount) {
+        if (chunkWatermark == entry.payloadArray.length()) {
             // message is complete by chunk count, assemble and return it.
             // it might still be corrupt etc, but we've seen enough chunks
             // remove before operating on it, to avoid racing too much with the clean up job, some race is inevitable, though.
-            entry = getAndCleanupEntry(messageId);
-
-            final byte[] allChunks[] = new byte[sequenceCount][];
-            for (int i = 0; i < entry.payloadArray.length(); i++) {
-                final GELFMessageChunk messageChunk = entry.payloadArray.get(i);
-                if (messageChunk == null) {
-                    log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, messageId);
-                } else {
-                    allChunks[i] = messageChunk.getData();
-                }
+            final ChannelBuffer[] allChunks = removeEntry(entry);
+            if (allChunks == null) {
+                return null;
             }
             completeMessages.inc();
             return ChannelBuffers.wrappedBuffer(allChunks);
@@ -184,39 +210,93 @@ public class GelfChunkAggregator implements CodecAggregator {
         // message isn't complete yet, check if we should remove the other parts as well
         if (isOutdated(entry)) {
             // chunks are outdated, the oldest came in over 5 seconds ago, clean them all up
-            log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", messageId, VALIDITY_PERIOD);
-            expireEntry(messageId);
+            log.debug("Not all chunks of <{}> arrived within {}ms. Dropping chunks.", messageIdString(messageId), VALIDITY_PERIOD);
+            expireEntry(entry);
         }
 
         return null;
     }
 
-    private void expireEntry(String messageId) {
-        final ChunkEntry cleanupEntry = getAndCleanupEntry(messageId);
-        expiredMessages.inc();
-        expiredChunks.inc(cleanupEntry.chunkSlotsWritten.get());
+    private void addToEvictionBucket(ChunkEntry entry) {
+        final long slot = entry.evictionSlot();
+        final Set<ChunkEntry> bucket = evictionBuckets.computeIfAbsent(slot, key -> Sets.newConcurrentHashSet());
+        bucket.add(entry);
+        if (evictionBuckets.get(slot) != bucket) {
+            // the bucket has been evicted while we were adding to it
+            expireEntry(entry);
+        } else if (entry.isClosed()) {
+            // the entry has been completed or removed before it has been added to the bucket
+            bucket.remove(entry);
+        }
+    }
+
+    private void removeFromEvictionBucket(ChunkEntry entry) {
+        final Set<ChunkEntry> bucket = evictionBuckets.get(entry.evictionSlot());
+        if (bucket != null) {
+            bucket.remove(entry);
+        }
+    }
+
+    private void expireEntry(ChunkEntry entry) {
+        final int chunkCount = entry.chunkSlotsWritten.get();
+        if (removeEntry(entry) != null) {
+            expiredMessages.inc();
+            expiredChunks.inc(chunkCount);
+        }
+    }
+
+    private void dropEntry(ChunkEntry entry) {
+        final int chunkCount = entry.chunkSlotsWritten.get();
+        if (removeEntry(entry) != null) {
+            droppedChunks.inc(chunkCount + 1);
+        }
     }
 
     private boolean isOutdated(ChunkEntry entry) {
         return (Tools.nowUTC().getMillis() - entry.firstTimestamp) > VALIDITY_PERIOD;
     }
 
-    private ChunkEntry getAndCleanupEntry(String id) {
-        final ChunkEntry entry = chunks.remove(id);
-        sortedEvictionSet.remove(entry);
+    /**
+     * Removes the entry and releases its chunks.
+     *
+     * @return the chunks of the entry, or null if the entry has already been removed
+     */
+    @Nullable
+    private ChannelBuffer[] removeEntry(ChunkEntry entry) {
+        if (!chunks.remove(entry.id, entry)) {
+            return null;
+        }
         waitingMessages.dec();
-        return entry;
+        waitingBytes.addAndGet(-entry.close());
+        removeFromEvictionBucket(entry);
+
+        final int length = entry.payloadArray.length();
+        final ChannelBuffer[] allChunks = new ChannelBuffer[length];
+        for (int i = 0; i < length; i++) {
+            final ChannelBuffer chunk = entry.payloadArray.getAndSet(i, null);
+            if (chunk == null) {
+                log.debug("Couldn't read chunk {} of message {}, skipping this chunk.", i, messageIdString(entry.id));
+                allChunks[i] = ChannelBuffers.EMPTY_BUFFER;
+            } else {
+                allChunks[i] = chunk;
+            }
+        }
+        return allChunks;
+    }
+
+    private static String messageIdString(long messageId) {
+        return String.format("%016x", messageId);
     }
 
     private String humanReadableChunkMap() {
         final StringBuilder sb = new StringBuilder();
 
-        for (final Map.Entry<String, ChunkEntry> entry : chunks.entrySet()) {
-            sb.append("Message <").append(entry.getKey()).append("> ");
+        for (final Map.Entry<Long, ChunkEntry> entry : chunks.entrySet()) {
+            sb.append("Message <").append(messageIdString(entry.getKey())).append("> ");
             sb.append("\tChunks:\n");
             for (int i = 0; i < entry.getValue().payloadArray.length(); i++) {
-                final GELFMessageChunk chunk = entry.getValue().payloadArray.get(i);
-                sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : chunk).append("\n");
+                final ChannelBuffer chunk = entry.getValue().payloadArray.get(i);
+                sb.append("\t\t").append(chunk == null ? "<not arrived yet>" : "Sequence: " + (i + 1) + "\tData size: " + chunk.readableBytes()).append("\n");
             }
         }
 
@@ -224,55 +304,74 @@ public class GelfChunkAggregator implements CodecAggregator {
     }
 
     @VisibleForTesting
-    static class ChunkEntry implements Comparable<ChunkEntry> {
+    long getWaitingBytes() {
+        return waitingBytes.get();
+    }
+
+    @VisibleForTesting
+    int getEvictionBucketEntries() {
+        int entries = 0;
+        for (Set<ChunkEntry> bucket : evictionBuckets.values()) {
+            entries += bucket.size();
+        }
+        return entries;
+    }
+
+    @VisibleForTesting
+    static class ChunkEntry {
+        private static final long CLOSED = Long.MIN_VALUE;
+
         protected final AtomicInteger chunkSlotsWritten = new AtomicInteger(0);
+        protected final AtomicLong bytes = new AtomicLong(0L);
         protected final long firstTimestamp;
-        protected final AtomicReferenceArray<GELFMessageChunk> payloadArray;
-        protected final String id;
+        protected final AtomicReferenceArray<ChannelBuffer> payloadArray;
+        protected final long id;
 
-        public ChunkEntry(int chunkCount, long firstTimestamp, String id) {
+        public ChunkEntry(int chunkCount, long firstTimestamp, long id) {
             this.payloadArray = new AtomicReferenceArray<>(chunkCount);
             this.firstTimestamp = firstTimestamp;
-            this.id = requireNonNull(id);
+            this.id = id;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            final ChunkEntry that = (ChunkEntry) o;
-
-            if (!id.equals(that.id)) return false;
-            if (firstTimestamp != that.firstTimestamp) return false;
+        /**
+         * Accounts the given number of bytes to this entry.
+         *
+         * @return false if the entry has already been closed
+         */
+        boolean addBytes(long delta) {
+            while (true) {
+                final long current = bytes.get();
+                if (current == CLOSED) {
+                    return false;
+                }
+                if (bytes.compareAndSet(current, current + delta)) {
+                    return true;
+                }
+            }
+        }
 
-            //noinspection RedundantIfStatement
-            return true;
+        boolean isClosed() {
+            return bytes.get() == CLOSED;
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(id, firstTimestamp);
+        long evictionSlot() {
+            return firstTimestamp / CHECK_PERIOD;
         }
 
-        @Override
-        public int compareTo(@Nonnull ChunkEntry o) {
-            if (equals(o)) {
-                return 0;
-            }
-            // If two chunk entries have the same timestamp, we have to compare the IDs. Otherwise the removal from
-            // the eviction set might not work and leak memory.
-            // See: https://github.com/Graylog2/graylog2-server/issues/1462
-            if (firstTimestamp == o.firstTimestamp) {
-                return id.compareTo(o.id);
-            }
-            return firstTimestamp < o.firstTimestamp ? -1 : 1;
+        /**
+         * Closes this entry for further byte accounting.
+         *
+         * @return the number of bytes accounted to this entry
+         */
+        long close() {
+            final long current = bytes.getAndSet(CLOSED);
+            return current == CLOSED ? 0L : current;
         }
 
         @Override
         public String toString() {
             return MoreObjects.toStringHelper(this)
-                    .add("id", id)
+                    .add("id", messageIdString(id))
                     .add("firstTimestamp", firstTimestamp)
                     .add("chunkSlotsWritten", chunkSlotsWritten)
                     .toString();
@@ -284,19 +383,18 @@ public class GelfChunkAggregator implements CodecAggregator {
         @Override
         public void run() {
             try {
-                // loop until we've either evicted all outdated chunk entries, or the set is completely empty.
+                // evict all buckets whose entries are all outdated.
                 // this task will run every second by default (see constant in constructor)
-                while (true) {
-                    // Check if eviction set is empty to avoid a NoElementException when calling first().
-                    if (sortedEvictionSet.isEmpty()) {
-                        break;
+                final long now = Tools.nowUTC().getMillis();
+                final Iterator<Map.Entry<Long, Set<ChunkEntry>>> iterator = evictionBuckets.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<Long, Set<ChunkEntry>> bucket = iterator.next();
+                    if (now - (bucket.getKey() + 1) * CHECK_PERIOD < VALIDITY_PERIOD) {
+                        continue;
                     }
-                    final ChunkEntry oldestChunkEntry = sortedEvictionSet.first();
-                    if (isOutdated(oldestChunkEntry)) {
-                        expireEntry(oldestChunkEntry.id);
-                    } else {
-                        log.debug("No more outdated chunk entries found to evict, leaving cleanup loop.");
-                        break;
+                    iterator.remove();
+                    for (ChunkEntry entry : bucket.getValue()) {
+                        expireEntry(entry);
                     }
                 }
             } catch (Exception e) {
@@ -16,9 +16,15 @@
  */
 package org.graylog2.inputs.codecs;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.NumberInput;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterables;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang3.StringUtils;
 import org.graylog2.inputs.codecs.gelf.GELFMessage;
@@ -43,8 +49,17 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 @Codec(name = "gelf", displayName = "GELF")
 public class GelfCodec extends AbstractCodec {
@@ -55,74 +70,164 @@ public class GelfCodec extends AbstractCodec {
     private final GelfChunkAggregator aggregator;
     private final ObjectMapper objectMapper;
     private final long decompressSizeLimit;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, DecompressionMetrics> decompressionMetrics = new ConcurrentHashMap<>();
+
+    // Marker for JSON null values, a missing key is represented by null.
+    private static final Object NULL_VALUE = new Object();
 
     @Inject
-    public GelfCodec(@Assisted Configuration configuration, GelfChunkAggregator aggregator) {
+    public GelfCodec(@Assisted Configuration configuration, GelfChunkAggregator aggregator, MetricRegistry metricRegistry) {
         super(configuration);
         this.aggregator = aggregator;
+        this.metricRegistry = metricRegistry;
         this.objectMapper = new ObjectMapper().enable(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS);
         this.decompressSizeLimit = configuration.getInt(CK_DECOMPRESS_SIZE_LIMIT, DEFAULT_DECOMPRESS_SIZE_LIMIT);
     }
 
-    private static String stringValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
+    private static String stringValue(final Map<String, Object> json, final String fieldName) {
+        final Object value = json.get(fieldName);
+        if (value == null) {
+            return null;
+        } else if (value == NULL_VALUE) {
+            return "null";
+        } else if (value instanceof JsonContainer) {
+            return "";
+        }
+        return value.toString();
+    }
 
-            if (value != null) {
-                return value.asText();
-            }
+    private static long longValue(final Map<String, Object> json, final String fieldName) {
+        final Object value = json.get(fieldName);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof String) {
+            return NumberInput.parseAsLong((String) value, -1L);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
         }
-        return null;
+        return -1L;
     }
 
-    private static long longValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
+    private static int intValue(final Map<String, Object> json, final String fieldName) {
+        final Object value = json.get(fieldName);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value instanceof String) {
+            return NumberInput.parseAsInt((String) value, -1);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return -1;
+    }
 
-            if (value != null) {
-                return value.asLong(-1L);
-            }
+    private static double doubleValue(final Map<String, Object> json, final String fieldName) {
+        final Object value = json.get(fieldName);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            return NumberInput.parseAsDouble((String) value, -1.0);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
         }
-        return -1L;
+        return -1.0;
     }
 
-    private static int intValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
+    /**
+     * Reads the top-level fields of a GELF JSON object with a streaming parser. Scalar values are kept as
+     * {@link String}, {@link Number}, {@link Boolean} or {@link #NULL_VALUE}, nested objects and arrays are kept
+     * as their serialized JSON. Like a JSON tree, the last value of a duplicate key wins.
+     */
+    private Map<String, Object> readFields(final JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            // Same as a JSON tree of an empty document, an array or a scalar: there are no fields.
+            return Collections.emptyMap();
+        }
 
-            if (value != null) {
-                return value.asInt(-1);
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            final Object value;
+            switch (token) {
+                case VALUE_STRING:
+                    value = parser.getText();
+                    break;
+                case VALUE_NUMBER_INT:
+                    value = parser.getNumberValue();
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    value = parser.getDoubleValue();
+                    break;
+                case VALUE_TRUE:
+                    value = Boolean.TRUE;
+                    break;
+                case VALUE_FALSE:
+                    value = Boolean.FALSE;
+                    break;
+                case START_OBJECT:
+                case START_ARRAY:
+                    value = new JsonContainer(readContainer(parser));
+                    break;
+                default:
+                    value = NULL_VALUE;
             }
+            fields.put(key, value);
         }
-        return -1;
+        return fields;
     }
 
-    private static double doubleValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
+    private String readContainer(final JsonParser parser) throws IOException {
+        final StringWriter writer = new StringWriter();
+        try (final JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
 
-            if (value != null) {
-                return value.asDouble(-1.0);
+    private Map<String, Object> parse(final byte[] json) {
+        try (final JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            return readFields(parser);
+        } catch (final Exception e) {
+            // The byte based parser rejects malformed UTF-8 which used to be replaced while decoding the payload
+            // to a String, so try again the old way before giving up.
+            final String jsonString = new String(json, StandardCharsets.UTF_8);
+            try (final JsonParser parser = objectMapper.getFactory().createParser(jsonString)) {
+                return readFields(parser);
+            } catch (final Exception e2) {
+                log.error("Could not parse JSON, first 400 characters: " +
+                                  StringUtils.abbreviate(jsonString, 403), e2);
+                throw new IllegalStateException("JSON is null/could not be parsed (invalid JSON)", e2);
             }
         }
-        return -1.0;
+    }
+
+    private byte[] getJSONBytes(final GELFMessage gelfMessage, final RawMessage rawMessage) {
+        final GELFMessage.Type type = gelfMessage.getGELFType();
+        if (type != GELFMessage.Type.ZLIB && type != GELFMessage.Type.GZIP) {
+            return gelfMessage.getJSONBytes(decompressSizeLimit);
+        }
+
+        final long start = System.nanoTime();
+        final byte[] json = gelfMessage.getJSONBytes(decompressSizeLimit);
+        final DecompressionMetrics metrics = getDecompressionMetrics(rawMessage);
+        metrics.decompressTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        metrics.decompressRatio.update(json.length * 100L / Math.max(1, gelfMessage.getPayload().length));
+        return json;
+    }
+
+    private DecompressionMetrics getDecompressionMetrics(final RawMessage rawMessage) {
+        final RawMessage.SourceNode sourceNode = Iterables.getLast(rawMessage.getSourceNodes(), null);
+        final String inputId = sourceNode == null ? null : sourceNode.inputId;
+        return decompressionMetrics.computeIfAbsent(inputId == null ? "" : inputId,
+                key -> new DecompressionMetrics(metricRegistry, name(GelfCodec.class, inputId)));
     }
 
     @Nullable
     @Override
     public Message decode(@Nonnull final RawMessage rawMessage) {
         final GELFMessage gelfMessage = new GELFMessage(rawMessage.getPayload(), rawMessage.getRemoteAddress());
-        final String json = gelfMessage.getJSON(decompressSizeLimit);
-
-        final JsonNode node;
-
-        try {
-            node = objectMapper.readTree(json);
-        } catch (final Exception e) {
-            log.error("Could not parse JSON, first 400 characters: " +
-                              StringUtils.abbreviate(json, 403), e);
-            throw new IllegalStateException("JSON is null/could not be parsed (invalid JSON)", e);
-        }
+        final Map<String, Object> node = parse(getJSONBytes(gelfMessage, rawMessage));
 
         // Timestamp.
         final double messageTimestamp = doubleValue(node, Message.FIELD_TIMESTAMP);
@@ -166,11 +271,7 @@ public class GelfCodec extends AbstractCodec {
         }
 
         // Add additional data if there is some.
-        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-
-        while (fields.hasNext()) {
-            final Map.Entry<String, JsonNode> entry = fields.next();
-
+        for (final Map.Entry<String, Object> entry : node.entrySet()) {
             String key = entry.getKey();
             // Do not index useless GELF "version" field.
             if ("version".equals(key)) {
@@ -193,20 +294,20 @@ public class GelfCodec extends AbstractCodec {
             }
 
             // Convert JSON containers to Strings, and pick a suitable number representation.
-            final JsonNode value = entry.getValue();
+            final Object value = entry.getValue();
 
             final Object fieldValue;
-            if (value.isContainerNode()) {
-                fieldValue = value.toString();
-            } else if (value.isFloatingPointNumber()) {
-                fieldValue = value.asDouble();
-            } else if (value.isIntegralNumber()) {
-                fieldValue = value.asLong();
-            } else if (value.isNull()) {
+            if (value instanceof JsonContainer) {
+                fieldValue = ((JsonContainer) value).json;
+            } else if (value instanceof Double) {
+                fieldValue = value;
+            } else if (value instanceof Number) {
+                fieldValue = ((Number) value).longValue();
+            } else if (value == NULL_VALUE) {
                 log.debug("Field [{}] is NULL. Skipping.", key);
                 continue;
-            } else if (value.isTextual()) {
-                fieldValue = value.asText();
+            } else if (value instanceof String) {
+                fieldValue = value;
             } else {
                 log.debug("Field [{}] has unknown value type. Skipping.", key);
                 continue;
@@ -264,6 +365,25 @@ public class GelfCodec extends AbstractCodec {
         }
     }
 
+    private static final class DecompressionMetrics {
+        private final Timer decompressTime;
+        // Size of the decompressed payload in percent of the compressed payload
+        private final Histogram decompressRatio;
+
+        private DecompressionMetrics(MetricRegistry metricRegistry, String baseMetricName) {
+            this.decompressTime = metricRegistry.timer(name(baseMetricName, "decompressTime"));
+            this.decompressRatio = metricRegistry.histogram(name(baseMetricName, "decompressRatio"));
+        }
+    }
+
+    private static final class JsonContainer {
+        private final String json;
+
+        private JsonContainer(String json) {
+            this.json = json;
+        }
+    }
+
     public static class Descriptor extends AbstractCodec.Descriptor {
         @Inject
         public Descriptor() {
@@ -66,7 +66,7 @@ public class JsonPathCodec extends AbstractCodec {
         if (jsonPath == null) {
             return null;
         }
-        final String json = new String(rawMessage.getPayload(), StandardCharsets.UTF_8);
+        final String json = rawMessage.getPayloadAsString(StandardCharsets.UTF_8);
         final Map<String, Object> fields = read(json);
 
         final Message message = new Message(buildShortMessage(fields),
@@ -0,0 +1,216 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.inputs.codecs.gelf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses ZLIB and GZIP compressed GELF payloads with an {@link Inflater} and output buffer which are reused
+ * by all messages decoded on the same thread, instead of allocating new streams and buffers for every message.
+ */
+final class GELFDecompressor {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    // Buffers which grew larger than this while decompressing a huge message are not kept around.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ThreadLocal<GELFDecompressor> ZLIB = ThreadLocal.withInitial(() -> new GELFDecompressor(false));
+    private static final ThreadLocal<GELFDecompressor> GZIP = ThreadLocal.withInitial(() -> new GELFDecompressor(true));
+
+    private final Inflater inflater;
+    private final CRC32 crc = new CRC32();
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private GELFDecompressor(boolean nowrap) {
+        this.inflater = new Inflater(nowrap);
+    }
+
+    /**
+     * Decompress ZLIB (RFC 1950) compressed data.
+     *
+     * @param compressedData A byte array containing the ZLIB-compressed data.
+     * @param maxBytes       The maximum number of uncompressed bytes to read, a negative value means unlimited.
+     * @return The decompressed data
+     */
+    static byte[] decompressZlib(byte[] compressedData, long maxBytes) throws IOException {
+        return ZLIB.get().inflateZlib(compressedData, limit(maxBytes));
+    }
+
+    /**
+     * Decompress GZIP (RFC 1952) compressed data.
+     *
+     * @param compressedData A byte array containing the GZIP-compressed data.
+     * @param maxBytes       The maximum number of uncompressed bytes to read, a negative value means unlimited.
+     * @return The decompressed data
+     */
+    static byte[] decompressGzip(byte[] compressedData, long maxBytes) throws IOException {
+        return GZIP.get().inflateGzip(compressedData, limit(maxBytes));
+    }
+
+    private static int limit(long maxBytes) {
+        return maxBytes < 0 || maxBytes > Integer.MAX_VALUE - 8 ? Integer.MAX_VALUE - 8 : (int) maxBytes;
+    }
+
+    private byte[] inflateZlib(byte[] data, int maxBytes) throws IOException {
+        try {
+            inflater.setInput(data, 0, data.length);
+            final int length = inflate(0, maxBytes);
+            if (length < maxBytes && !inflater.finished()) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            release();
+        }
+    }
+
+    private byte[] inflateGzip(byte[] data, int maxBytes) throws IOException {
+        try {
+            int offset = readGzipHeader(data, 0);
+            int length = 0;
+            // A GZIP file may consist of several members, their contents are concatenated.
+            while (true) {
+                crc.reset();
+                inflater.reset();
+                inflater.setInput(data, offset, data.length - offset);
+                final int start = length;
+                length = inflate(length, maxBytes);
+                crc.update(buffer, start, length - start);
+                if (length == maxBytes && !inflater.finished()) {
+                    // Truncated at the size limit, the trailer can't be verified.
+                    break;
+                }
+                if (!inflater.finished()) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+                offset = data.length - inflater.getRemaining();
+                if (data.length - offset < 8
+                        || readInt(data, offset) != (int) crc.getValue()
+                        || readInt(data, offset + 4) != (int) inflater.getBytesWritten()) {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+                offset += 8;
+
+                if (length == maxBytes || data.length - offset < 2 || readShort(data, offset) != GZIP_MAGIC) {
+                    break;
+                }
+                try {
+                    offset = readGzipHeader(data, offset);
+                } catch (IOException e) {
+                    // Like GZIPInputStream, ignore trailing garbage after the last member.
+                    break;
+                }
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            release();
+        }
+    }
+
+    private int inflate(int length, int maxBytes) throws IOException {
+        try {
+            while (length < maxBytes && !inflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, maxBytes));
+                }
+                final int n = inflater.inflate(buffer, length, Math.min(buffer.length, maxBytes) - length);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("Inflater needs preset dictionary");
+                    }
+                    if (inflater.needsInput()) {
+                        break;
+                    }
+                }
+                length += n;
+            }
+            return length;
+        } catch (DataFormatException e) {
+            final String message = e.getMessage();
+            throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+        }
+    }
+
+    private static int readGzipHeader(byte[] data, int offset) throws IOException {
+        if (data.length - offset < 10) {
+            throw new EOFException("Unexpected end of GZIP header");
+        }
+        if (readShort(data, offset) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (data[offset + 2] != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = data[offset + 3] & 0xff;
+        int position = offset + 10;
+        if ((flags & FEXTRA) == FEXTRA) {
+            checkAvailable(data, position, 2);
+            position += 2 + readShort(data, position);
+        }
+        if ((flags & FNAME) == FNAME) {
+            position = skipZeroTerminated(data, position);
+        }
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            position = skipZeroTerminated(data, position);
+        }
+        if ((flags & FHCRC) == FHCRC) {
+            position += 2;
+        }
+        checkAvailable(data, position, 0);
+        return position;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int position) throws IOException {
+        while (position < data.length && data[position] != 0) {
+            position++;
+        }
+        checkAvailable(data, position, 1);
+        return position + 1;
+    }
+
+    private static void checkAvailable(byte[] data, int position, int count) throws IOException {
+        if (position + count > data.length) {
+            throw new EOFException("Unexpected end of GZIP header");
+        }
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return readShort(data, offset) | readShort(data, offset + 2) << 16;
+    }
+
+    private void release() {
+        inflater.reset();
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+}
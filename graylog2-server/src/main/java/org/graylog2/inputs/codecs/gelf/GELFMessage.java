@@ -68,24 +68,33 @@ public class GELFMessage {
      * @see Tools#decompressZlib(byte[], long)
      */
     public String getJSON(long maxBytes) {
+        return new String(getJSONBytes(maxBytes), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the UTF-8 encoded JSON payload of the GELF message. Uncompressed payloads are returned without copying,
+     * compressed payloads are decompressed with a per-thread reusable {@link java.util.zip.Inflater}.
+     *
+     * @param maxBytes The maximum number of bytes to read from a compressed GELF payload. {@code -1} means unlimited.
+     * @return The extracted JSON payload of the GELF message.
+     */
+    public byte[] getJSONBytes(long maxBytes) {
         try {
             switch (getGELFType()) {
                 case ZLIB:
-                    return Tools.decompressZlib(payload, maxBytes);
+                    return GELFDecompressor.decompressZlib(payload, maxBytes);
                 case GZIP:
-                    return Tools.decompressGzip(payload, maxBytes);
+                    return GELFDecompressor.decompressGzip(payload, maxBytes);
                 case UNCOMPRESSED:
-                    return new String(payload, StandardCharsets.UTF_8);
+                    return payload;
                 case CHUNKED:
                 case UNSUPPORTED:
+                default:
                     throw new IllegalStateException("Unknown GELF type. Not supported.");
             }
         } catch (final IOException e) {
-            // Note that the UnsupportedEncodingException thrown by 'new String' can never happen because UTF-8
-            // is a mandatory JRE encoding which is always present. So we only need to mention the decompress exceptions here.
             throw new IllegalStateException("Failed to decompress the GELF message payload", e);
         }
-        return null;
     }
 
     public byte[] getPayload() {
@@ -131,7 +140,7 @@ public class GELFMessage {
             this.second = second;
         }
 
-        static Type determineType(final byte first, final byte second) {
+        public static Type determineType(final byte first, final byte second) {
 
             if (first == ZLIB.first()) {
                 // zlib's second byte is for flags and a checksum -
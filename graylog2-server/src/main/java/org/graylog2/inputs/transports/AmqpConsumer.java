@@ -123,6 +123,9 @@ public class AmqpConsumer {
                         lastSecBytesReadTmp.addAndGet(body.length);
 
                         final RawMessage rawMessage = new RawMessage(body);
+                        // acknowledge the message once it is safely stored in the journal
+                        final Channel deliveryChannel = getChannel();
+                        rawMessage.setAcknowledgement(() -> acknowledge(deliveryChannel, deliveryTag));
 
                         // TODO figure out if we want to unsubscribe after a certain time, or if simply blocking is enough here
                         if (amqpTransport.isThrottled()) {
@@ -130,7 +133,6 @@ public class AmqpConsumer {
                         }
 
                         sourceInput.processRawMessage(rawMessage);
-                        channel.basicAck(deliveryTag, false);
                     } catch (Exception e) {
                         LOG.error("Error while trying to process AMQP message", e);
                         if (channel.isOpen()) {
@@ -150,6 +152,18 @@ public class AmqpConsumer {
         }
     }
 
+    private void acknowledge(Channel deliveryChannel, long deliveryTag) {
+        if (!deliveryChannel.isOpen()) {
+            LOG.debug("Channel closed, cannot acknowledge message with delivery tag {}", deliveryTag);
+            return;
+        }
+        try {
+            deliveryChannel.basicAck(deliveryTag, false);
+        } catch (IOException e) {
+            LOG.error("Unable to acknowledge AMQP message with delivery tag " + deliveryTag, e);
+        }
+    }
+
     public void connect() throws IOException {
         final ConnectionFactory factory = new ConnectionFactory();
         factory.setHost(hostname);
@@ -0,0 +1,98 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.outputs;
+
+import org.graylog2.indexer.messages.BulkIndexResult;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Adapts the size of bulk requests and the number of concurrent bulk requests to the feedback of Elasticsearch with
+ * additive increase and multiplicative decrease.
+ * <p>
+ * Rejected messages and failed requests halve both targets. Requests slower than the target latency shrink the batch
+ * size by a quarter, requests larger than the maximum request size scale it down proportionally. Every full batch
+ * which has been indexed within the target latency grows the batch size by the minimum batch size, and once the
+ * maximum batch size has been reached, the number of concurrent requests grows by one.
+ */
+class AdaptiveBatchSizer {
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxInflightBatches;
+    private final long targetLatencyNanos;
+    private final long maxRequestSize;
+
+    private volatile int batchSize;
+    private volatile int inflightBatches;
+
+    AdaptiveBatchSizer(int minBatchSize, int maxBatchSize, int initialBatchSize, int maxInflightBatches,
+                       long targetLatencyNanos, long maxRequestSize) {
+        checkArgument(minBatchSize > 0, "Minimum batch size must be positive, was %s", minBatchSize);
+        checkArgument(maxBatchSize >= minBatchSize,
+                "Maximum batch size %s must not be less than the minimum batch size %s", maxBatchSize, minBatchSize);
+        checkArgument(maxInflightBatches > 0, "Maximum in-flight batches must be positive, was %s", maxInflightBatches);
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInflightBatches = maxInflightBatches;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxRequestSize = maxRequestSize;
+        this.batchSize = clampBatchSize(initialBatchSize);
+        this.inflightBatches = maxInflightBatches;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    int getInflightBatches() {
+        return inflightBatches;
+    }
+
+    synchronized void onSuccess(BulkIndexResult result, long latencyNanos) {
+        if (result.messages() == 0) {
+            return;
+        }
+
+        if (result.rejectedMessages() > 0) {
+            decrease();
+        } else if (result.requestSize() > maxRequestSize) {
+            batchSize = clampBatchSize((int) (result.messages() * maxRequestSize / result.requestSize()));
+        } else if (latencyNanos > targetLatencyNanos) {
+            batchSize = clampBatchSize(batchSize - batchSize / 4);
+        } else if (result.messages() >= batchSize) {
+            // only batches which have been flushed because they were full say anything about a larger batch size
+            if (batchSize < maxBatchSize) {
+                batchSize = clampBatchSize(batchSize + minBatchSize);
+            } else if (inflightBatches < maxInflightBatches) {
+                inflightBatches++;
+            }
+        }
+    }
+
+    synchronized void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        batchSize = clampBatchSize(batchSize / 2);
+        inflightBatches = Math.max(1, inflightBatches / 2);
+    }
+
+    private int clampBatchSize(int size) {
+        return Math.min(maxBatchSize, Math.max(minBatchSize, size));
+    }
+}
@@ -96,14 +96,11 @@ public class BenchmarkOutput implements MessageOutput {
 
     @Override
     public void write(List<Message> messages) throws Exception {
-        long maxOffset = Long.MIN_VALUE;
-
+        // the journal only commits contiguous offsets, so every message has to be marked
         for (final Message message : messages) {
-            maxOffset = Math.max(message.getJournalOffset(), maxOffset);
+            journal.markJournalOffsetCommitted(message.getJournalOffset());
         }
 
-        journal.markJournalOffsetCommitted(maxOffset);
-
         messagesWritten.mark(messages.size());
     }
 
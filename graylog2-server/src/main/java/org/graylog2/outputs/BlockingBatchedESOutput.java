@@ -16,16 +16,23 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.github.rholder.retry.RetryException;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.WaitStrategies;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.cluster.Cluster;
+import org.graylog2.indexer.messages.BulkIndexResult;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
@@ -34,9 +41,21 @@ import org.graylog2.shared.journal.Journal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -53,6 +72,10 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     private final Histogram batchSize;
     private final Meter bufferFlushes;
     private final Meter bufferFlushesRequested;
+    private final Meter failedMessages;
+    private final Retryer<List<Map.Entry<IndexSet, Message>>> bulkRetryer;
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+    private volatile boolean stopped = false;
 
     private volatile List<Map.Entry<IndexSet, Message>> buffer;
 
@@ -60,6 +83,21 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     private final AtomicLong lastFlushTime = new AtomicLong();
     private final int outputFlushInterval;
 
+    // Only set if batches are flushed asynchronously
+    @Nullable
+    private final ExecutorService flushExecutor;
+    @Nullable
+    private final AdjustableSemaphore inflightBatches;
+    private final int maxInflightBatches;
+    // Current number of permits of inflightBatches, guarded by inflightBatches
+    private int inflightLimit;
+    // Only set if the batch size adapts to the feedback of Elasticsearch
+    @Nullable
+    private final AdaptiveBatchSizer batchSizer;
+    private final long shutdownTimeout;
+    // Flushed batches in the order they were taken from the buffer, guarded by itself
+    private final Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+
     @AssistedInject
     public BlockingBatchedESOutput(MetricRegistry metricRegistry,
                                    Messages messages,
@@ -85,26 +123,78 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         this.batchSize = metricRegistry.histogram(name(this.getClass(), "batchSize"));
         this.bufferFlushes = metricRegistry.meter(name(this.getClass(), "bufferFlushes"));
         this.bufferFlushesRequested = metricRegistry.meter(name(this.getClass(), "bufferFlushesRequested"));
+        this.failedMessages = metricRegistry.meter(name(this.getClass(), "failedMessages"));
+        this.bulkRetryer = RetryerBuilder.<List<Map.Entry<IndexSet, Message>>>newBuilder()
+                .retryIfException(t -> {
+                    if (t instanceof BulkRequestException) {
+                        log.error("Unable to flush message buffer - retrying with exponential back-off", t.getCause());
+                        return true;
+                    }
+                    return false;
+                })
+                .retryIfResult(remaining -> remaining != null && !remaining.isEmpty())
+                .withWaitStrategy(WaitStrategies.exponentialWait(250, 30, TimeUnit.SECONDS))
+                .withStopStrategy(attempt -> stopped)
+                // wake up immediately when the output is stopped
+                .withBlockStrategy(sleepTime -> stopSignal.await(sleepTime, TimeUnit.MILLISECONDS))
+                .build();
+        this.maxInflightBatches = serverConfiguration.getOutputMaxInflightBatches();
+        this.shutdownTimeout = serverConfiguration.getShutdownTimeout();
+        this.inflightLimit = maxInflightBatches;
+
+        if (serverConfiguration.isOutputAsyncFlush()) {
+            this.flushExecutor = Executors.newFixedThreadPool(maxInflightBatches, new ThreadFactoryBuilder()
+                    .setNameFormat("output-flush-%d")
+                    .setDaemon(true)
+                    .build());
+            this.inflightBatches = new AdjustableSemaphore(maxInflightBatches);
+        } else {
+            this.flushExecutor = null;
+            this.inflightBatches = null;
+        }
+
+        if (serverConfiguration.isOutputBatchSizeAdaptive()) {
+            this.batchSizer = new AdaptiveBatchSizer(
+                    serverConfiguration.getOutputBatchSizeMin(),
+                    serverConfiguration.getOutputBatchSizeMax(),
+                    maxBufferSize,
+                    maxInflightBatches,
+                    serverConfiguration.getOutputBatchTargetLatency().toNanoseconds(),
+                    serverConfiguration.getOutputBatchMaxRequestSize().toBytes());
+            metricRegistry.register(name(this.getClass(), "targetBatchSize"), (Gauge<Integer>) batchSizer::getBatchSize);
+            metricRegistry.register(name(this.getClass(), "targetInflightBatches"),
+                    (Gauge<Integer>) batchSizer::getInflightBatches);
+        } else {
+            this.batchSizer = null;
+        }
 
-        buffer = Lists.newArrayListWithCapacity(maxBufferSize);
+        buffer = Lists.newArrayListWithCapacity(targetBatchSize());
 
     }
 
     @Override
     public void write(Message message) throws Exception {
-        for (IndexSet indexSet : message.getIndexSets()) {
+        final Set<IndexSet> indexSets = message.getIndexSets();
+        if (indexSets.isEmpty()) {
+            // nothing will ever be indexed for this message, don't keep its journal offset uncommitted
+            log.debug("Message <{}> has no index sets, not indexing it.", message.getId());
+            markJournalOffsetCommitted(message);
+            return;
+        }
+        // every entry commits the journal offset of the message once it has been indexed
+        addJournalOffsetReferences(message, indexSets.size());
+        for (IndexSet indexSet : indexSets) {
             writeMessageEntry(Maps.immutableEntry(indexSet, message));
         }
     }
 
     public void writeMessageEntry(Map.Entry<IndexSet, Message> entry) throws Exception {
-        List<Map.Entry<IndexSet, Message>> flushBatch = null;
+        PendingBatch flushBatch = null;
         synchronized (this) {
             buffer.add(entry);
 
-            if (buffer.size() >= maxBufferSize) {
-                flushBatch = buffer;
-                buffer = Lists.newArrayListWithCapacity(maxBufferSize);
+            if (buffer.size() >= targetBatchSize()) {
+                flushBatch = takeBuffer();
             }
         }
         // if the current thread found it had to flush any messages, it does so but blocks.
@@ -115,33 +205,156 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         }
     }
 
-    private void flush(List<Map.Entry<IndexSet, Message>> messages) {
+    // Must be called while holding the lock on this
+    private PendingBatch takeBuffer() {
+        final PendingBatch batch = new PendingBatch(buffer);
+        buffer = Lists.newArrayListWithCapacity(targetBatchSize());
+        if (!batch.messages.isEmpty()) {
+            synchronized (pendingBatches) {
+                pendingBatches.addLast(batch);
+            }
+        }
+        return batch;
+    }
+
+    private void flush(PendingBatch batch) {
+        // never try to flush an empty buffer
+        if (batch.messages.isEmpty()) {
+            return;
+        }
+
+        boolean submitted = false;
+        boolean success = false;
+        try {
+            if (flushExecutor == null) {
+                success = indexBatch(batch.messages);
+            } else {
+                submitted = flushAsync(batch);
+            }
+        } finally {
+            if (!submitted) {
+                completeBatch(batch, success);
+            }
+        }
+    }
+
+    private boolean flushAsync(PendingBatch batch) {
+        final List<Map.Entry<IndexSet, Message>> messages = batch.messages;
+
+        try {
+            // Back-pressure: only block the calling thread if too many bulk requests are in flight already.
+            inflightBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for in-flight bulk requests. Not flushing.", e);
+            return false;
+        }
+
+        try {
+            flushExecutor.execute(() -> {
+                boolean success = false;
+                try {
+                    success = indexBatch(messages);
+                } finally {
+                    inflightBatches.release();
+                    completeBatch(batch, success);
+                }
+            });
+        } catch (RuntimeException e) {
+            inflightBatches.release();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the batch as completed and commits the journal offsets of all completed batches which are not preceded
+     * by a batch still in flight, so the committed journal offset never skips messages which haven't been indexed.
+     * <p>
+     * Failed batches are retried until the output is stopped, so a batch only fails on unexpected errors while the
+     * output is running. Its offsets are committed nevertheless, otherwise the journal would stop reading once the
+     * range of uncommitted offsets it tracks is full. After the output has been stopped, the offsets of failed batches
+     * are left uncommitted and their messages are read again after a restart.
+     */
+    private void completeBatch(PendingBatch batch, boolean success) {
+        synchronized (pendingBatches) {
+            batch.completed = true;
+            batch.success = success;
+
+            PendingBatch head;
+            while ((head = pendingBatches.peekFirst()) != null && head.completed) {
+                pendingBatches.removeFirst();
+                if (head.success) {
+                    markJournalOffsetsCommitted(head.messages);
+                } else if (!stopped) {
+                    log.error("Unable to index {} messages, skipping them.", head.messages.size());
+                    failedMessages.mark(head.messages.size());
+                    markJournalOffsetsCommitted(head.messages);
+                }
+            }
+        }
+    }
+
+    private int targetBatchSize() {
+        return batchSizer == null ? maxBufferSize : batchSizer.getBatchSize();
+    }
+
+    /**
+     * Applies the number of concurrent bulk requests suggested by the batch sizer. Batches which are in flight already
+     * are not affected, fewer permits just delay the next ones.
+     */
+    private void adjustInflightLimit() {
+        if (batchSizer == null || inflightBatches == null) {
+            return;
+        }
+        synchronized (inflightBatches) {
+            final int target = batchSizer.getInflightBatches();
+            if (target > inflightLimit) {
+                inflightBatches.release(target - inflightLimit);
+            } else if (target < inflightLimit) {
+                inflightBatches.reducePermits(inflightLimit - target);
+            }
+            inflightLimit = target;
+        }
+    }
+
+    private boolean waitForCluster() {
         if (!cluster.isConnected() || !cluster.isDeflectorHealthy()) {
             try {
                 cluster.waitForConnectedAndDeflectorHealthy();
             } catch (TimeoutException | InterruptedException e) {
-                log.warn("Error while waiting for healthy Elasticsearch cluster. Not flushing.", e);
-                return;
+                log.warn("Error while waiting for healthy Elasticsearch cluster. Retrying.", e);
+                return false;
             }
         }
-        // never try to flush an empty buffer
-        if (messages.size() == 0) {
-            return;
-        }
+        return true;
+    }
+
+    /**
+     * Indexes the messages, retrying with exponential back-off until they have been indexed or the output is stopped.
+     *
+     * @return true if the messages have been indexed
+     */
+    private boolean indexBatch(List<Map.Entry<IndexSet, Message>> messages) {
         log.debug("Starting flushing {} messages, flush threads active {}",
                  messages.size(),
                  activeFlushThreads.incrementAndGet());
 
-        try (Timer.Context ignored = processTime.time()) {
-            lastFlushTime.set(System.nanoTime());
-            writeMessageEntries(messages);
+        try {
             batchSize.update(messages.size());
+            bulkRetryer.call(new BulkRequest(messages));
             bufferFlushes.mark();
-        } catch (Exception e) {
-            log.error("Unable to flush message buffer", e);
+            return true;
+        } catch (RetryException e) {
+            log.warn("Output has been stopped, not retrying to index {} messages.", messages.size());
+            return false;
+        } catch (ExecutionException e) {
+            log.error("Unable to flush message buffer", e.getCause());
+            return false;
+        } finally {
+            activeFlushThreads.decrementAndGet();
+            log.debug("Flushing {} messages completed", messages.size());
         }
-        activeFlushThreads.decrementAndGet();
-        log.debug("Flushing {} messages completed", messages.size());
     }
 
     public void forceFlushIfTimedout() {
@@ -157,10 +370,9 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
                     return;
                 }
         // flip buffer quickly and initiate flush
-        final List<Map.Entry<IndexSet, Message>> flushBatch;
+        final PendingBatch flushBatch;
         synchronized (this) {
-            flushBatch = buffer;
-            buffer = Lists.newArrayListWithCapacity(maxBufferSize);
+            flushBatch = takeBuffer();
         }
         if (flushBatch != null) {
             bufferFlushesRequested.mark();
@@ -168,6 +380,101 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         }
     }
 
+    @Override
+    public void stop() {
+        super.stop();
+        stopped = true;
+        stopSignal.countDown();
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                // wait for the in-flight bulk requests, so their journal offsets get committed
+                if (!flushExecutor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                    final int inflight;
+                    synchronized (inflightBatches) {
+                        inflight = inflightLimit - inflightBatches.availablePermits();
+                    }
+                    log.warn("Timed out waiting for {} in-flight bulk requests to complete.", inflight);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A single attempt to index the messages, which returns the messages which have to be retried.
+     */
+    private class BulkRequest implements Callable<List<Map.Entry<IndexSet, Message>>> {
+        // the messages which have not been indexed yet
+        private List<Map.Entry<IndexSet, Message>> messages;
+
+        BulkRequest(List<Map.Entry<IndexSet, Message>> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public List<Map.Entry<IndexSet, Message>> call() throws BulkRequestException {
+            if (!waitForCluster()) {
+                return messages;
+            }
+
+            try (Timer.Context ignored = processTime.time()) {
+                final long startTime = System.nanoTime();
+                lastFlushTime.set(startTime);
+                final BulkIndexResult result;
+                try {
+                    result = indexMessageEntries(messages);
+                } catch (Exception e) {
+                    if (batchSizer != null) {
+                        batchSizer.onFailure();
+                        adjustInflightLimit();
+                    }
+                    throw new BulkRequestException(e);
+                }
+                if (batchSizer != null) {
+                    batchSizer.onSuccess(result, System.nanoTime() - startTime);
+                    adjustInflightLimit();
+                }
+                if (!result.rejectedEntries().isEmpty()) {
+                    // the batch size has been reduced already, only send the rejected messages again
+                    log.warn("Elasticsearch rejected {} of {} messages, retrying them with exponential back-off.",
+                            result.rejectedMessages(), messages.size());
+                    messages = result.rejectedEntries();
+                    return messages;
+                }
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    private static class BulkRequestException extends Exception {
+        BulkRequestException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static class AdjustableSemaphore extends Semaphore {
+        AdjustableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private static class PendingBatch {
+        private final List<Map.Entry<IndexSet, Message>> messages;
+        private boolean completed = false;
+        private boolean success = false;
+
+        PendingBatch(List<Map.Entry<IndexSet, Message>> messages) {
+            this.messages = messages;
+        }
+    }
+
     public interface Factory extends ElasticSearchOutput.Factory {
     }
 
@@ -24,6 +24,7 @@ import com.google.common.collect.Ordering;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.BulkIndexResult;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
@@ -93,6 +94,14 @@ public class ElasticSearchOutput implements MessageOutput {
     }
 
     public void writeMessageEntries(List<Map.Entry<IndexSet, Message>> messageList) throws Exception {
+        indexMessageEntries(messageList);
+        markJournalOffsetsCommitted(messageList);
+    }
+
+    /**
+     * Bulk indexes the given messages without committing their journal offsets.
+     */
+    protected BulkIndexResult indexMessageEntries(List<Map.Entry<IndexSet, Message>> messageList) {
         if (LOG.isTraceEnabled()) {
             final List<String> sortedIds = Ordering.natural().sortedCopy(messageList.stream()
                     .map(entry -> entry.getValue().getId())
@@ -102,13 +111,27 @@ public class ElasticSearchOutput implements MessageOutput {
 
         writes.mark(messageList.size());
         try (final Timer.Context ignored = processTime.time()) {
-            messages.bulkIndex(messageList);
+            return messages.bulkIndex(messageList);
         }
+    }
+
+    protected void markJournalOffsetsCommitted(List<Map.Entry<IndexSet, Message>> messageList) {
         for (final Map.Entry<IndexSet, Message> entry : messageList) {
-            journal.markJournalOffsetCommitted(entry.getValue().getJournalOffset());
+            markJournalOffsetCommitted(entry.getValue());
         }
     }
 
+    protected void markJournalOffsetCommitted(Message message) {
+        journal.markJournalOffsetCommitted(message.getJournalOffset());
+    }
+
+    /**
+     * Registers the given number of index entries of the message, its journal offset is committed after the last one.
+     */
+    protected void addJournalOffsetReferences(Message message, int entries) {
+        journal.addJournalOffsetReferences(message.getJournalOffset(), entries - 1);
+    }
+
     @Override
     public void stop() {
         // TODO: Move ES stop code here.
@@ -43,9 +43,12 @@ import javax.inject.Singleton;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Singleton
 public class OutputRegistry {
@@ -57,14 +60,20 @@ public class OutputRegistry {
     private final NotificationService notificationService;
     private final NodeId nodeId;
     private final MessageOutputFactory messageOutputFactory;
+    private final QueuedMessageOutput.Factory queuedMessageOutputFactory;
     private final LoadingCache<String, AtomicInteger> faultCounters;
     private final long faultCountThreshold;
     private final long faultPenaltySeconds;
+    // changes whenever a running output is removed, an output couldn't be launched or its fault penalty ends
+    private final AtomicLong generation = new AtomicLong();
+    // the end of the fault penalty of disabled outputs in System#nanoTime()
+    private final ConcurrentMap<String, Long> penaltyEnds = new ConcurrentHashMap<>();
 
     @Inject
     public OutputRegistry(@DefaultMessageOutput MessageOutput defaultMessageOutput,
                           OutputService outputService,
                           MessageOutputFactory messageOutputFactory,
+                          QueuedMessageOutput.Factory queuedMessageOutputFactory,
                           NotificationService notificationService,
                           NodeId nodeId,
                           @Named("output_fault_count_threshold") long faultCountThreshold,
@@ -74,6 +83,7 @@ public class OutputRegistry {
         this.notificationService = notificationService;
         this.nodeId = nodeId;
         this.messageOutputFactory = messageOutputFactory;
+        this.queuedMessageOutputFactory = queuedMessageOutputFactory;
         this.runningMessageOutputs = CacheBuilder.newBuilder().build();
         this.faultCountThreshold = faultCountThreshold;
         this.faultPenaltySeconds = faultPenaltySeconds;
@@ -102,10 +112,16 @@ public class OutputRegistry {
                 return this.runningMessageOutputs.get(id, loadForIdAndStream(id, stream));
             }
         } catch (ExecutionException | UncheckedExecutionException e) {
-            if (!(e.getCause() instanceof NotFoundException)) {
+            if (e.getCause() instanceof NotFoundException) {
+                // doesn't change until the output is created, which changes the stream
+                return null;
+            } else {
                 final int number = faultCount.addAndGet(1);
                 LOG.error("Unable to fetch output " + id + ", fault #" + number, e);
+                // the output is launched again by a later call
+                generation.incrementAndGet();
                 if (number >= faultCountThreshold) {
+                    penaltyEnds.put(id, System.nanoTime() + TimeUnit.SECONDS.toNanos(faultPenaltySeconds));
                     LOG.error("Output {} has crossed threshold of {} faults in {} seconds. Disabling for {} seconds.",
                             id,
                             faultCountThreshold,
@@ -147,7 +163,8 @@ public class OutputRegistry {
             throw new IllegalArgumentException("Failed to instantiate MessageOutput from Output: " + output);
         }
 
-        return messageOutput;
+        // every stream output gets its own queue, so a slow output can't hold up the others
+        return queuedMessageOutputFactory.create(output.getId(), messageOutput);
     }
 
     @VisibleForTesting
@@ -170,5 +187,34 @@ public class OutputRegistry {
 
         runningMessageOutputs.invalidate(output.getId());
         faultCounters.invalidate(output.getId());
+        penaltyEnds.remove(output.getId());
+        generation.incrementAndGet();
+    }
+
+    /**
+     * The generation changes whenever an output returned by {@link #getOutputForIdAndStream(String, Stream)} might
+     * have changed, i.e. a running output has been removed, an output is missing because it couldn't be launched or
+     * the fault penalty of a disabled output has ended.
+     *
+     * @return the current generation of the running outputs
+     */
+    public long getGeneration() {
+        if (!penaltyEnds.isEmpty()) {
+            expirePenalties();
+        }
+        return generation.get();
+    }
+
+    private void expirePenalties() {
+        final long now = System.nanoTime();
+        boolean expired = false;
+        for (Map.Entry<String, Long> penalty : penaltyEnds.entrySet()) {
+            if (now - penalty.getValue() >= 0 && penaltyEnds.remove(penalty.getKey(), penalty.getValue())) {
+                expired = true;
+            }
+        }
+        if (expired) {
+            generation.incrementAndGet();
+        }
     }
 }
@@ -16,24 +16,53 @@
  */
 package org.graylog2.outputs;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.streams.Output;
 import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.events.StreamsChangedEvent;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
+@Singleton
 public class OutputRouter {
+    // limits for the routing table, which is started over when they are exceeded
+    private static final int MAX_ROUTED_STREAMS = 4096;
+    private static final int MAX_OUTPUT_SETS = 1024;
+
     private final MessageOutput defaultMessageOutput;
     private final OutputRegistry outputRegistry;
+    private final AtomicReference<RoutingTable> routingTable;
 
     @Inject
     public OutputRouter(@DefaultMessageOutput MessageOutput defaultMessageOutput,
-                        OutputRegistry outputRegistry) {
+                        OutputRegistry outputRegistry,
+                        EventBus serverEventBus) {
         this.defaultMessageOutput = defaultMessageOutput;
         this.outputRegistry = outputRegistry;
+        this.routingTable = new AtomicReference<>(new RoutingTable(outputRegistry.getGeneration()));
+
+        // TODO: This class needs lifecycle management to avoid leaking objects in the EventBus
+        serverEventBus.register(this);
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void handleStreamsUpdate(StreamsChangedEvent event) {
+        routingTable.set(new RoutingTable(outputRegistry.getGeneration()));
     }
 
     protected Set<MessageOutput> getMessageOutputsForStream(Stream stream) {
@@ -49,19 +78,99 @@ public class OutputRouter {
     }
 
     public Set<MessageOutput> getOutputsForMessage(final Message msg) {
-        final Set<MessageOutput> result = getStreamOutputsForMessage(msg);
-        result.add(defaultMessageOutput);
-
-        return result;
+        return ImmutableSet.<MessageOutput>builder()
+                .addAll(getStreamOutputsForMessage(msg))
+                .add(defaultMessageOutput)
+                .build();
     }
 
+    /**
+     * @return the immutable set of outputs of all streams the message has been routed to
+     */
     public Set<MessageOutput> getStreamOutputsForMessage(final Message msg) {
-        final Set<MessageOutput> result = new HashSet<>();
+        final Set<Stream> streams = msg.getStreams();
+        if (streams.isEmpty()) {
+            return ImmutableSet.of();
+        }
 
-        for (Stream stream : msg.getStreams()) {
-            result.addAll(getMessageOutputsForStream(stream));
+        final RoutingTable table = getRoutingTable();
+        final StreamRoute[] routes = new StreamRoute[streams.size()];
+        final BitSet key = new BitSet();
+        int i = 0;
+        for (Stream stream : streams) {
+            routes[i] = table.getRoute(stream, this::getMessageOutputsForStream);
+            key.set(routes[i].index);
+            i++;
+        }
+
+        final Set<MessageOutput> outputs = table.outputSets.get(key);
+        if (outputs != null) {
+            return outputs;
+        }
+
+        final ImmutableSet.Builder<MessageOutput> builder = ImmutableSet.builder();
+        for (StreamRoute route : routes) {
+            builder.add(route.outputs);
+        }
+        final Set<MessageOutput> result = builder.build();
+        if (table.outputSets.size() < MAX_OUTPUT_SETS) {
+            table.outputSets.putIfAbsent(key, result);
         }
 
         return result;
     }
+
+    private RoutingTable getRoutingTable() {
+        final RoutingTable table = routingTable.get();
+        final long generation = outputRegistry.getGeneration();
+        if (table.generation == generation && table.nextStreamIndex.get() < MAX_ROUTED_STREAMS) {
+            return table;
+        }
+
+        // the running outputs have changed, start over with a new table
+        routingTable.compareAndSet(table, new RoutingTable(generation));
+        return routingTable.get();
+    }
+
+    /**
+     * Routes from streams to their outputs and the memoized output sets of the stream combinations messages have
+     * been routed to, keyed by the indices of the streams. The routes are resolved when a stream is seen for the first
+     * time, because outputs are only launched on demand. The table is replaced as a whole if the streams or outputs
+     * change.
+     */
+    private static class RoutingTable {
+        private final long generation;
+        // keyed by identity, so the streams of a new stream router engine get their own routes,
+        // and weakly, so the streams of old engines aren't kept
+        private final ConcurrentMap<Stream, StreamRoute> streamRoutes = new MapMaker().weakKeys().makeMap();
+        private final AtomicInteger nextStreamIndex = new AtomicInteger();
+        private final ConcurrentMap<BitSet, Set<MessageOutput>> outputSets = new ConcurrentHashMap<>();
+
+        private RoutingTable(long generation) {
+            this.generation = generation;
+        }
+
+        private StreamRoute getRoute(Stream stream, Function<Stream, Set<MessageOutput>> outputResolver) {
+            final StreamRoute route = streamRoutes.get(stream);
+            if (route != null) {
+                return route;
+            }
+
+            final Set<MessageOutput> outputs = outputResolver.apply(stream);
+            final StreamRoute newRoute = new StreamRoute(nextStreamIndex.getAndIncrement(),
+                    outputs.toArray(new MessageOutput[outputs.size()]));
+            final StreamRoute existingRoute = streamRoutes.putIfAbsent(stream, newRoute);
+            return existingRoute == null ? newRoute : existingRoute;
+        }
+    }
+
+    private static class StreamRoute {
+        private final int index;
+        private final MessageOutput[] outputs;
+
+        private StreamRoute(int index, MessageOutput[] outputs) {
+            this.index = index;
+            this.outputs = outputs;
+        }
+    }
 }
@@ -0,0 +1,289 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.outputs;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.Configuration;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decouples a stream output from the outputbuffer processors with a bounded queue of its own, which is delivered
+ * in batches to {@link MessageOutput#write(List)} by a set of worker threads of its own. A slow output thus only
+ * fills its own queue and, depending on the {@link FullQueuePolicy}, blocks the outputbuffer for a limited time or
+ * drops messages instead of piling up tasks for the shared outputbuffer executor.
+ */
+public class QueuedMessageOutput implements MessageOutput {
+    private static final Logger LOG = LoggerFactory.getLogger(QueuedMessageOutput.class);
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    public enum FullQueuePolicy {
+        /**
+         * Wait until the queue has room again, exerting back pressure on the outputbuffer, but discard the new
+         * message if the queue is still full after the block timeout.
+         */
+        BLOCK,
+        /** Discard the oldest queued message to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new message. */
+        DROP_NEWEST;
+
+        public static FullQueuePolicy fromString(String policy) {
+            try {
+                return valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported output queue policy <" + policy + ">, must be one of "
+                        + "block, drop_oldest or drop_newest", e);
+            }
+        }
+    }
+
+    @Singleton
+    public static class Factory {
+        private final MetricRegistry metricRegistry;
+        private final int queueSize;
+        private final int workers;
+        private final int batchSize;
+        private final FullQueuePolicy fullQueuePolicy;
+        private final long blockTimeout;
+        private final long shutdownTimeout;
+
+        @Inject
+        public Factory(Configuration configuration, MetricRegistry metricRegistry) {
+            this(metricRegistry,
+                    configuration.getOutputQueueSize(),
+                    configuration.getOutputQueueWorkers(),
+                    configuration.getOutputQueueBatchSize(),
+                    FullQueuePolicy.fromString(configuration.getOutputQueueFullPolicy()),
+                    configuration.getOutputModuleTimeout(),
+                    configuration.getShutdownTimeout());
+        }
+
+        public Factory(MetricRegistry metricRegistry, int queueSize, int workers, int batchSize,
+                       FullQueuePolicy fullQueuePolicy, long blockTimeout, long shutdownTimeout) {
+            checkArgument(queueSize > 0, "Output queue size must be positive, was %s", queueSize);
+            checkArgument(workers > 0, "Number of output queue workers must be positive, was %s", workers);
+            checkArgument(batchSize > 0, "Output queue batch size must be positive, was %s", batchSize);
+            this.metricRegistry = metricRegistry;
+            this.queueSize = queueSize;
+            this.workers = workers;
+            this.batchSize = batchSize;
+            this.fullQueuePolicy = fullQueuePolicy;
+            this.blockTimeout = blockTimeout;
+            this.shutdownTimeout = shutdownTimeout;
+        }
+
+        public QueuedMessageOutput create(String outputId, MessageOutput output) {
+            return new QueuedMessageOutput(outputId, output, this);
+        }
+    }
+
+    private final String outputId;
+    private final MessageOutput output;
+    private final BlockingQueue<QueuedMessage> queue;
+    private final int batchSize;
+    private final FullQueuePolicy fullQueuePolicy;
+    private final long blockTimeout;
+    private final long shutdownTimeout;
+    private final ExecutorService workers;
+
+    private final MetricRegistry metricRegistry;
+    private final Map<String, Gauge<?>> gauges;
+    private final Meter written;
+    private final Meter dropped;
+    private final Meter failed;
+
+    private volatile boolean running = true;
+
+    private QueuedMessageOutput(String outputId, MessageOutput output, Factory factory) {
+        this.outputId = outputId;
+        this.output = output;
+        this.queue = new ArrayBlockingQueue<>(factory.queueSize);
+        this.batchSize = factory.batchSize;
+        this.fullQueuePolicy = factory.fullQueuePolicy;
+        this.blockTimeout = factory.blockTimeout;
+        this.shutdownTimeout = factory.shutdownTimeout;
+
+        this.metricRegistry = factory.metricRegistry;
+        this.gauges = ImmutableMap.of(
+                metricName("queueSize"), (Gauge<Integer>) queue::size,
+                metricName("lag"), (Gauge<Long>) this::getLagMillis);
+        gauges.forEach((name, gauge) -> {
+            // a relaunched output replaces the gauges of its predecessor
+            metricRegistry.remove(name);
+            metricRegistry.register(name, gauge);
+        });
+        this.written = metricRegistry.meter(metricName("written"));
+        this.dropped = metricRegistry.meter(metricName("dropped"));
+        this.failed = metricRegistry.meter(metricName("failed"));
+
+        this.workers = Executors.newFixedThreadPool(factory.workers, new ThreadFactoryBuilder()
+                .setNameFormat("output-" + outputId + "-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < factory.workers; i++) {
+            workers.execute(this::deliverMessages);
+        }
+    }
+
+    @Override
+    public void write(Message message) throws Exception {
+        final QueuedMessage queuedMessage = new QueuedMessage(message, System.nanoTime());
+        switch (fullQueuePolicy) {
+            case BLOCK:
+                final long deadline = queuedMessage.enqueuedAt + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                while (!queue.offer(queuedMessage, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        dropped.mark();
+                        return;
+                    }
+                    if (System.nanoTime() - deadline >= 0) {
+                        // don't stall the outputbuffer indefinitely because of a single slow output
+                        LOG.warn("Queue of output {} is still full after {} ms, dropping message.", outputId, blockTimeout);
+                        dropped.mark();
+                        return;
+                    }
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(queuedMessage)) {
+                    if (queue.poll() != null) {
+                        dropped.mark();
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(queuedMessage)) {
+                    dropped.mark();
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void write(List<Message> messages) throws Exception {
+        for (Message message : messages) {
+            write(message);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running && output.isRunning();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        workers.shutdown();
+        try {
+            // the workers deliver the remaining queued messages before they terminate
+            if (!workers.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Timed out delivering the remaining {} queued messages to output {}.", queue.size(), outputId);
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        output.stop();
+
+        gauges.keySet().forEach(metricRegistry::remove);
+        metricRegistry.remove(metricName("written"));
+        metricRegistry.remove(metricName("dropped"));
+        metricRegistry.remove(metricName("failed"));
+    }
+
+    public MessageOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the time the oldest queued message has been waiting for delivery in milliseconds
+     */
+    public long getLagMillis() {
+        final QueuedMessage oldest = queue.peek();
+        return oldest == null ? 0L : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedAt);
+    }
+
+    private void deliverMessages() {
+        final List<QueuedMessage> queuedMessages = new ArrayList<>(batchSize);
+        final List<Message> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                final QueuedMessage first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                queuedMessages.add(first);
+                queue.drainTo(queuedMessages, batchSize - 1);
+                for (QueuedMessage queuedMessage : queuedMessages) {
+                    batch.add(queuedMessage.message);
+                }
+
+                try {
+                    output.write(batch);
+                    written.mark(batch.size());
+                } catch (Throwable e) {
+                    // the worker must survive any failure of the output, otherwise the queue is never drained
+                    failed.mark(batch.size());
+                    LOG.error("Error in output [" + output.getClass() + "].", e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                queuedMessages.clear();
+                batch.clear();
+            }
+        }
+    }
+
+    private String metricName(String name) {
+        return name(QueuedMessageOutput.class, outputId, name);
+    }
+
+    private static class QueuedMessage {
+        private final Message message;
+        private final long enqueuedAt;
+
+        private QueuedMessage(Message message, long enqueuedAt) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
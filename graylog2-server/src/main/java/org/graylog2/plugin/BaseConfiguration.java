@@ -57,6 +57,9 @@ public abstract class BaseConfiguration {
     @Parameter(value = "processbuffer_processors", required = true, validator = PositiveIntegerValidator.class)
     private int processBufferProcessors = 5;
 
+    @Parameter(value = "processbuffer_batch_size", required = true, validator = PositiveIntegerValidator.class)
+    private int processBufferBatchSize = 1;
+
     @Parameter(value = "processor_wait_strategy", required = true)
     private String processorWaitStrategy = "blocking";
 
@@ -245,6 +248,10 @@ public abstract class BaseConfiguration {
         return processBufferProcessors;
     }
 
+    public int getProcessBufferBatchSize() {
+        return processBufferBatchSize;
+    }
+
     private WaitStrategy getWaitStrategy(String waitStrategyName, String configOptionName) {
         switch (waitStrategyName) {
             case "sleeping":
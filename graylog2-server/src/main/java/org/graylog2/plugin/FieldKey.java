@@ -0,0 +1,112 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The normalized form of a message field key: the name instance shared by all messages, whether {@link Message}
+ * accepts it, and the key it has in Elasticsearch.
+ * <p>
+ * Keys are normalized once per distinct key and cached in a table shared by all threads. The table is bounded
+ * because keys are arbitrary user input, keys which don't fit are normalized on every use.
+ */
+public final class FieldKey {
+    private static final int MAX_CACHED_KEYS = 16 * 1024;
+    private static final ConcurrentMap<String, FieldKey> CACHE = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private final String name;
+    private final String elasticSearchName;
+    private final boolean valid;
+
+    private FieldKey(String name, boolean valid) {
+        this.name = name;
+        this.valid = valid;
+        // Elasticsearch does not allow "." characters in keys since version 2.0.
+        this.elasticSearchName = name.indexOf('.') >= 0 ? name.replace('.', Message.KEY_REPLACEMENT_CHAR) : name;
+    }
+
+    /**
+     * Returns the normalized form of the given key.
+     */
+    public static FieldKey of(String name) {
+        final FieldKey cached = CACHE.get(name);
+        if (cached != null) {
+            HITS.increment();
+            return cached;
+        }
+        MISSES.increment();
+
+        // Don't accept protected keys. (some are allowed though lol)
+        final boolean reserved = Message.RESERVED_FIELDS.contains(name) && !Message.RESERVED_SETTABLE_FIELDS.contains(name);
+        final FieldKey key = new FieldKey(name, !reserved && Message.validKey(name));
+        if (CACHE.size() >= MAX_CACHED_KEYS) {
+            return key;
+        }
+        final FieldKey previous = CACHE.putIfAbsent(name, key);
+        return previous == null ? key : previous;
+    }
+
+    public static long cacheSize() {
+        return CACHE.size();
+    }
+
+    public static long cacheHits() {
+        return HITS.sum();
+    }
+
+    public static long cacheMisses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * @return the key, the same instance for all equal keys which have been cached
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the key with all "." replaced, which Elasticsearch does not allow in keys
+     */
+    public String getElasticSearchName() {
+        return elasticSearchName;
+    }
+
+    /**
+     * @return {@code true} if the key needs to be changed to be stored in Elasticsearch
+     */
+    public boolean requiresReplacement() {
+        return elasticSearchName != name;
+    }
+
+    /**
+     * @return {@code true} if the key can be added to a message, i.e. it is valid and not reserved
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
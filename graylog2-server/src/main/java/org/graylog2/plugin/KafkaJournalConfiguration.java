@@ -20,7 +20,11 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.ValidationException;
+import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.util.Size;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
+import org.graylog2.shared.journal.KafkaJournal;
 import org.joda.time.Duration;
 
 import javax.validation.constraints.NotNull;
@@ -79,6 +83,23 @@ public class KafkaJournalConfiguration {
     @JsonProperty("flush_age")
     private Duration messageJournalFlushAge = Duration.standardMinutes(1L);
 
+    @Parameter(value = "message_journal_partitions", validator = PositiveIntegerValidator.class)
+    @JsonProperty("partitions")
+    private int messageJournalPartitions = 1;
+
+    @Parameter("message_journal_group_commit_interval")
+    @JsonFormat(shape = JsonFormat.Shape.NUMBER)
+    @JsonProperty("group_commit_interval")
+    private Duration messageJournalGroupCommitInterval = Duration.ZERO;
+
+    @Parameter("message_journal_group_commit_size")
+    @JsonProperty("group_commit_size")
+    private Size messageJournalGroupCommitSize = Size.megabytes(1L);
+
+    @Parameter("message_journal_compression")
+    @JsonProperty("compression")
+    private String messageJournalCompression = "none";
+
     public File getMessageJournalDir() {
         return messageJournalDir;
     }
@@ -106,4 +127,30 @@ public class KafkaJournalConfiguration {
     public Duration getMessageJournalFlushAge() {
         return messageJournalFlushAge;
     }
+
+    public int getMessageJournalPartitions() {
+        return messageJournalPartitions;
+    }
+
+    public Duration getMessageJournalGroupCommitInterval() {
+        return messageJournalGroupCommitInterval;
+    }
+
+    public Size getMessageJournalGroupCommitSize() {
+        return messageJournalGroupCommitSize;
+    }
+
+    public String getMessageJournalCompression() {
+        return messageJournalCompression;
+    }
+
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateMessageJournalCompression() throws ValidationException {
+        try {
+            KafkaJournal.compressionType(getMessageJournalCompression());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(e.getMessage());
+        }
+    }
 }
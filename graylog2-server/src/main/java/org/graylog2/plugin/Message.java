@@ -17,7 +17,6 @@
 package org.graylog2.plugin;
 
 import com.codahale.metrics.Meter;
-import com.eaio.uuid.UUID;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -35,8 +34,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -45,6 +46,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -66,7 +68,7 @@ public class Message implements Messages {
     public static final String FIELD_STREAMS = "streams";
 
     private static final Pattern VALID_KEY_CHARS = Pattern.compile("^[\\w\\.\\-@]*$");
-    private static final char KEY_REPLACEMENT_CHAR = '_';
+    static final char KEY_REPLACEMENT_CHAR = '_';
 
     private static final ImmutableSet<String> GRAYLOG_FIELDS = ImmutableSet.of(
         "gl2_source_node",
@@ -122,9 +124,13 @@ public class Message implements Messages {
 
     public static final Function<Message, String> ID_FUNCTION = new MessageIdFunction();
 
-    private final Map<String, Object> fields = Maps.newHashMap();
-    private Set<Stream> streams = Sets.newHashSet();
-    private Set<IndexSet> indexSets = Sets.newHashSet();
+    private static final Stream[] NO_STREAMS = new Stream[0];
+
+    private static volatile MessageIdGenerator idGenerator = new TimeOrderedMessageIdGenerator();
+
+    private final MessageFields fields = new MessageFields();
+    // messages are routed into very few streams, a small array takes less memory than a set
+    private Stream[] streams = NO_STREAMS;
     private String sourceInputId;
 
     // Used for drools to filter out messages.
@@ -137,8 +143,11 @@ public class Message implements Messages {
 
     private ArrayList<Recording> recordings;
 
+    // generated id which has not been added to the fields yet, its string is only built when it is needed
+    private UUID pendingId;
+
     public Message(final String message, final String source, final DateTime timestamp) {
-        fields.put(FIELD_ID, new UUID().toString());
+        pendingId = idGenerator.generate();
         addRequiredField(FIELD_MESSAGE, message);
         addRequiredField(FIELD_SOURCE, source);
         addRequiredField(FIELD_TIMESTAMP, timestamp);
@@ -183,6 +192,25 @@ public class Message implements Messages {
         return getFieldAs(String.class, FIELD_ID);
     }
 
+    /**
+     * Replaces the generator of the ids of new messages, the default generates {@link TimeOrderedMessageIdGenerator
+     * time-ordered ids}. Existing messages and messages created with a given id are not affected.
+     */
+    public static void setIdGenerator(final MessageIdGenerator generator) {
+        idGenerator = Preconditions.checkNotNull(generator, "message id generator cannot be null");
+    }
+
+    /**
+     * Adds the generated id to the fields. The read accessors only compute the id of a message without writing it,
+     * this has to be called before the message is shared between threads, e. g. by the outputs.
+     */
+    public void materializeId() {
+        if (pendingId != null) {
+            fields.put(FIELD_ID, pendingId.toString());
+            pendingId = null;
+        }
+    }
+
     public DateTime getTimestamp() {
         return getFieldAs(DateTime.class, FIELD_TIMESTAMP).withZone(UTC);
     }
@@ -190,37 +218,39 @@ public class Message implements Messages {
     public Map<String, Object> toElasticSearchObject(@Nonnull final Meter invalidTimestampMeter) {
         final Map<String, Object> obj = Maps.newHashMapWithExpectedSize(REQUIRED_FIELDS.size() + fields.size());
 
-        for (Map.Entry<String, Object> entry : fields.entrySet()) {
-            final String key = entry.getKey();
+        for (int i = 0; i < fields.size(); i++) {
+            final FieldKey fieldKey = fields.keyAt(i);
+            final String key = fieldKey.getName();
+            final Object value = fields.valueAt(i);
             if (key.equals(FIELD_ID)) {
                 continue;
             }
 
             // Elasticsearch does not allow "." characters in keys since version 2.0.
             // See: https://www.elastic.co/guide/en/elasticsearch/reference/2.0/breaking_20_mapping_changes.html#_field_names_may_not_contain_dots
-            if (key != null && key.contains(".")) {
-                final String newKey = key.replace('.', KEY_REPLACEMENT_CHAR);
+            if (fieldKey.requiresReplacement()) {
+                final String newKey = fieldKey.getElasticSearchName();
 
                 // If the message already contains the transformed key, we skip the field and emit a warning.
                 // This is still not optimal but better than implementing expensive logic with multiple replacement
                 // character options. Conflicts should be rare...
                 if (!obj.containsKey(newKey)) {
-                    obj.put(newKey, entry.getValue());
+                    obj.put(newKey, value);
                 } else {
                     LOG.warn("Keys must not contain a \".\" character! Ignoring field \"{}\"=\"{}\" in message [{}] - Unable to replace \".\" with a \"{}\" because of key conflict: \"{}\"=\"{}\"",
-                        key, entry.getValue(), getId(), KEY_REPLACEMENT_CHAR, newKey, obj.get(newKey));
+                        key, value, getId(), KEY_REPLACEMENT_CHAR, newKey, obj.get(newKey));
                     LOG.debug("Full message with \".\" in message key: {}", this);
                 }
             } else {
-                if (key != null && obj.containsKey(key)) {
+                if (obj.containsKey(key)) {
                     final String newKey = key.replace(KEY_REPLACEMENT_CHAR, '.');
                     // Deliberate warning duplicates because the key with the "." might be transformed before reaching
                     // the duplicate original key with a "_". Otherwise we would silently overwrite the transformed key.
                     LOG.warn("Keys must not contain a \".\" character! Ignoring field \"{}\"=\"{}\" in message [{}] - Unable to replace \".\" with a \"{}\" because of key conflict: \"{}\"=\"{}\"",
-                        newKey, fields.get(newKey), getId(), KEY_REPLACEMENT_CHAR, key, entry.getValue());
+                        newKey, fields.get(newKey), getId(), KEY_REPLACEMENT_CHAR, key, value);
                     LOG.debug("Full message with \".\" in message key: {}", this);
                 }
-                obj.put(key, entry.getValue());
+                obj.put(key, value);
             }
         }
 
@@ -228,6 +258,20 @@ public class Message implements Messages {
         obj.put(FIELD_SOURCE, getSource());
         obj.put(FIELD_STREAMS, getStreamIds());
 
+        final String timestamp = getElasticSearchTimestamp(invalidTimestampMeter);
+        if (timestamp != null) {
+            obj.put(FIELD_TIMESTAMP, timestamp);
+        }
+
+        return obj;
+    }
+
+    /**
+     * Returns the timestamp of this message in the Elasticsearch date format. Timestamps of an unsupported type or
+     * format are replaced by the current time.
+     */
+    @Nullable
+    public String getElasticSearchTimestamp(@Nonnull final Meter invalidTimestampMeter) {
         final Object timestampValue = getField(FIELD_TIMESTAMP);
         DateTime dateTime;
         if (timestampValue instanceof Date) {
@@ -250,11 +294,7 @@ public class Message implements Messages {
             invalidTimestampMeter.mark();
             dateTime = Tools.nowUTC();
         }
-        if (dateTime != null) {
-            obj.put(FIELD_TIMESTAMP, buildElasticSearchTimeFormat(dateTime.withZone(UTC)));
-        }
-
-        return obj;
+        return dateTime == null ? null : buildElasticSearchTimeFormat(dateTime.withZone(UTC));
     }
 
     @Override
@@ -273,7 +313,7 @@ public class Message implements Messages {
 
         sb.append(" { ");
 
-        final Map<String, Object> filteredFields = Maps.newHashMap(fields);
+        final Map<String, Object> filteredFields = Maps.newHashMap(getFields());
         filteredFields.remove(FIELD_SOURCE);
         filteredFields.remove(FIELD_MESSAGE);
 
@@ -305,26 +345,26 @@ public class Message implements Messages {
     }
 
     private void addField(final String key, final Object value, final boolean isRequiredField) {
-        final String trimmedKey = key.trim();
+        // validating the key is cached, the reserved and valid keys are checked once per distinct key
+        final FieldKey fieldKey = FieldKey.of(key.trim());
 
-        // Don't accept protected keys. (some are allowed though lol)
-        if ((RESERVED_FIELDS.contains(trimmedKey) && !RESERVED_SETTABLE_FIELDS.contains(trimmedKey)) || !validKey(trimmedKey)) {
+        if (!fieldKey.isValid()) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Ignoring invalid or reserved key {} for message {}", trimmedKey, getId());
+                LOG.debug("Ignoring invalid or reserved key {} for message {}", fieldKey, getId());
             }
             return;
         }
 
-        if (FIELD_TIMESTAMP.equals(trimmedKey) && value != null && value instanceof Date) {
-            fields.put(FIELD_TIMESTAMP, new DateTime(value));
+        if (FIELD_TIMESTAMP.equals(fieldKey.getName()) && value != null && value instanceof Date) {
+            fields.put(fieldKey, new DateTime(value));
         } else if (value instanceof String) {
             final String str = ((String) value).trim();
 
             if (isRequiredField || !str.isEmpty()) {
-                fields.put(trimmedKey, str);
+                fields.put(fieldKey, str);
             }
         } else if (value != null) {
-            fields.put(trimmedKey, value);
+            fields.put(fieldKey, value);
         }
     }
 
@@ -383,32 +423,50 @@ public class Message implements Messages {
     }
 
     public Object getField(final String key) {
+        final UUID id = pendingId;
+        if (id != null && FIELD_ID.equals(key)) {
+            return id.toString();
+        }
         return fields.get(key);
     }
 
     public Map<String, Object> getFields() {
-        return ImmutableMap.copyOf(fields);
+        final UUID id = pendingId;
+        if (id == null) {
+            return ImmutableMap.copyOf(fields);
+        }
+        return ImmutableMap.<String, Object>builder().put(FIELD_ID, id.toString()).putAll(fields).build();
     }
 
     public Iterable<Map.Entry<String, Object>> getFieldsEntries() {
-        return Iterables.unmodifiableIterable(fields.entrySet());
+        final UUID id = pendingId;
+        if (id == null) {
+            return Iterables.unmodifiableIterable(fields.entrySet());
+        }
+        return Iterables.unmodifiableIterable(Iterables.concat(
+                Collections.singleton(Maps.immutableEntry(FIELD_ID, (Object) id.toString())), fields.entrySet()));
     }
 
     public int getFieldCount() {
-        return fields.size();
+        return pendingId == null ? fields.size() : fields.size() + 1;
     }
 
     public boolean hasField(String field) {
-        return fields.containsKey(field);
+        return (pendingId != null && FIELD_ID.equals(field)) || fields.containsKey(field);
     }
 
     public Set<String> getFieldNames() {
-        return Collections.unmodifiableSet(fields.keySet());
+        final UUID id = pendingId;
+        if (id == null) {
+            return Collections.unmodifiableSet(fields.keySet());
+        }
+        return Sets.union(Collections.singleton(FIELD_ID), fields.keySet());
     }
 
     @Deprecated
     public void setStreams(final List<Stream> streams) {
-        this.streams = Sets.newHashSet(streams);
+        this.streams = NO_STREAMS;
+        addStreams(streams);
     }
 
     /**
@@ -416,7 +474,7 @@ public class Message implements Messages {
      * @return an immutable copy of the current set of assigned streams, empty if no streams have been assigned
      */
     public Set<Stream> getStreams() {
-        return ImmutableSet.copyOf(this.streams);
+        return ImmutableSet.copyOf(streams);
     }
 
     /**
@@ -425,8 +483,10 @@ public class Message implements Messages {
      * @param stream the stream to route this message into
      */
     public void addStream(Stream stream) {
-        indexSets.add(stream.getIndexSet());
-        streams.add(stream);
+        if (indexOfStream(stream) < 0) {
+            streams = Arrays.copyOf(streams, streams.length + 1);
+            streams[streams.length - 1] = stream;
+        }
     }
 
     /**
@@ -445,16 +505,25 @@ public class Message implements Messages {
      * @return <tt>true</tt> if this message was assigned to the stream
      */
     public boolean removeStream(Stream stream) {
-        final boolean removed = streams.remove(stream);
+        final int index = indexOfStream(stream);
+        if (index < 0) {
+            return false;
+        }
+
+        final Stream[] remaining = new Stream[streams.length - 1];
+        System.arraycopy(streams, 0, remaining, 0, index);
+        System.arraycopy(streams, index + 1, remaining, index, remaining.length - index);
+        streams = remaining;
+        return true;
+    }
 
-        if (removed) {
-            indexSets.clear();
-            for (Stream s : streams) {
-                indexSets.add(s.getIndexSet());
+    private int indexOfStream(Stream stream) {
+        for (int i = 0; i < streams.length; i++) {
+            if (streams[i].equals(stream)) {
+                return i;
             }
         }
-
-        return removed;
+        return -1;
     }
 
     /**
@@ -463,7 +532,14 @@ public class Message implements Messages {
      * @return index sets
      */
     public Set<IndexSet> getIndexSets() {
-        return ImmutableSet.copyOf(this.indexSets);
+        final ImmutableSet.Builder<IndexSet> indexSets = ImmutableSet.builder();
+        for (Stream stream : streams) {
+            final IndexSet indexSet = stream.getIndexSet();
+            if (indexSet != null) {
+                indexSets.add(indexSet);
+            }
+        }
+        return indexSets.build();
     }
 
     @SuppressWarnings("unchecked")
@@ -476,7 +552,7 @@ public class Message implements Messages {
             streamField = Collections.emptySet();
         }
 
-        final Set<String> streamIds = streamField == null ? new HashSet<>(streams.size()) : new HashSet<>(streamField);
+        final Set<String> streamIds = streamField == null ? new HashSet<>(streams.length) : new HashSet<>(streamField);
         for (Stream stream : streams) {
             streamIds.add(stream.getId());
         }
@@ -0,0 +1,220 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact storage of the fields of a {@link Message}.
+ * <p>
+ * Field keys and values are kept in parallel arrays, which take a fraction of the memory of the table and entries of
+ * a {@link java.util.HashMap} for the few dozen fields of a message. The keys are the {@link FieldKey normalized keys}
+ * shared by all messages, so common names like {@code source} or {@code gl2_source_input} are not kept once per
+ * message.
+ * Lookups scan the names, which is as fast as hashing for that number of fields. The fields keep their insertion order.
+ * <p>
+ * This class is not thread-safe, like the {@link Message} it belongs to.
+ */
+final class MessageFields extends AbstractMap<String, Object> {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int CAPACITY_INCREMENT = 8;
+
+    private FieldKey[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    MessageFields() {
+        this(INITIAL_CAPACITY);
+    }
+
+    MessageFields(int expectedSize) {
+        this.keys = new FieldKey[expectedSize];
+        this.values = new Object[expectedSize];
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        // String#equals compares the references first, which matches for the shared names
+        for (int i = 0; i < size; i++) {
+            if (key.equals(keys[i].getName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        final int index = indexOf(key);
+        if (index >= 0) {
+            final Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        append(FieldKey.of(key), value);
+        return null;
+    }
+
+    /**
+     * Like {@link #put(String, Object)} for keys which have already been normalized.
+     */
+    Object put(FieldKey key, Object value) {
+        final int index = indexOf(key.getName());
+        if (index >= 0) {
+            final Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        append(key, value);
+        return null;
+    }
+
+    private void append(FieldKey key, Object value) {
+        if (size == keys.length) {
+            // messages rarely get many fields, grow in small steps instead of doubling
+            keys = Arrays.copyOf(keys, size + CAPACITY_INCREMENT);
+            values = Arrays.copyOf(values, size + CAPACITY_INCREMENT);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+    }
+
+    FieldKey keyAt(int index) {
+        return keys[index];
+    }
+
+    Object valueAt(int index) {
+        return values[index];
+    }
+
+    @Override
+    public Object remove(Object key) {
+        final int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        final Object previous = values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    private void removeAt(int index) {
+        final int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            MessageFields.this.clear();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next = 0;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Field(keys[last].getName(), values[last]);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private class Field extends SimpleEntry<String, Object> {
+        private Field(String key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import java.util.UUID;
+
+/**
+ * Generates the ids of new {@link Message messages}.
+ *
+ * @see Message#setIdGenerator(MessageIdGenerator)
+ */
+public interface MessageIdGenerator {
+    /**
+     * @return a new unique message id, its {@link UUID#toString() string form} is used as the message id
+     */
+    UUID generate();
+}
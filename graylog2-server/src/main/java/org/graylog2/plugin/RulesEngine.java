@@ -39,4 +39,12 @@ public interface RulesEngine {
     Object insertFact(Object fact);
 
     boolean deleteFact(Object fact);
+
+    /**
+     * @return {@code true} if rules beyond the built-in blacklist rules are loaded, so sessions have to be evaluated
+     * for every message
+     */
+    default boolean hasCustomRules() {
+        return true;
+    }
 }
@@ -0,0 +1,61 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Generates time-ordered message ids, laid out like a version 7 UUID.
+ * <p>
+ * The upper 64 bits hold the milliseconds since the epoch and a sequence number, the lower 64 bits hold a random value
+ * which is fixed for each generator, i.e. for each node. The ids of a generator are strictly increasing, even if more
+ * than 4096 ids are generated in one millisecond or the clock goes backwards. This keeps consecutive messages close
+ * together in the Elasticsearch indices and generating an id only takes a compare-and-set.
+ */
+public class TimeOrderedMessageIdGenerator implements MessageIdGenerator {
+    private static final int SEQUENCE_BITS = 12;
+    private static final long VERSION = 7L << SEQUENCE_BITS;
+    private static final long VARIANT_MASK = 0x3fffffffffffffffL;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    private final LongSupplier clock;
+    private final long node;
+    // the milliseconds of the last id shifted left by SEQUENCE_BITS, plus its sequence number
+    private final AtomicLong lastTimestampAndSequence = new AtomicLong();
+
+    public TimeOrderedMessageIdGenerator() {
+        this(System::currentTimeMillis, new SecureRandom().nextLong());
+    }
+
+    TimeOrderedMessageIdGenerator(LongSupplier clock, long node) {
+        this.clock = clock;
+        this.node = (node & VARIANT_MASK) | VARIANT;
+    }
+
+    @Override
+    public UUID generate() {
+        final long now = clock.getAsLong() << SEQUENCE_BITS;
+        // running out of sequence numbers borrows from the next millisecond
+        final long timestampAndSequence = lastTimestampAndSequence.accumulateAndGet(now, (last, current) -> Math.max(last + 1, current));
+        final long millis = timestampAndSequence >>> SEQUENCE_BITS;
+        final long sequence = timestampAndSequence & ((1L << SEQUENCE_BITS) - 1);
+        return new UUID((millis << 16) | VERSION | sequence, node);
+    }
+}
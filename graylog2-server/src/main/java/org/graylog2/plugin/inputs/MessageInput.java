@@ -328,13 +328,15 @@ public abstract class MessageInput implements Stoppable {
     }
 
     public void processRawMessage(RawMessage rawMessage) {
-        if (rawMessage.getPayload().length == 0) {
+        if (rawMessage.getPayloadSize() == 0) {
             LOG.debug("Discarding empty message {} from input [{}/{}] (remote address {}). Turn logger org.graylog2.plugin.journal.RawMessage to TRACE to see originating stack trace.",
                       rawMessage.getId(),
                       getTitle(),
                       getId(),
                       rawMessage.getRemoteAddress() == null ? "unknown" : rawMessage.getRemoteAddress());
             emptyMessages.inc();
+            // nothing to journal, but the sender must not wait for it
+            rawMessage.acknowledge();
             return;
         }
 
@@ -347,7 +349,7 @@ public abstract class MessageInput implements Stoppable {
 
         incomingMessages.mark();
         globalIncomingMessages.inc();
-        rawSize.mark(rawMessage.getPayload().length);
+        rawSize.mark(rawMessage.getPayloadSize());
     }
 
     public String getType() {
@@ -20,6 +20,7 @@ import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.UninitializedMessageException;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
@@ -38,8 +39,10 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -61,6 +64,11 @@ import static org.graylog2.plugin.journal.JournalMessages.JournalMessage;
  */
 public class RawMessage implements Serializable {
     public static final byte CURRENT_VERSION = 1;
+    /**
+     * Message format version in which the codec config only contains a reference to a codec configuration stored
+     * outside of the message, see {@link #encode(String)}.
+     */
+    public static final byte CODEC_CONFIG_REFERENCE_VERSION = 2;
 
     private static final Logger log = LoggerFactory.getLogger(RawMessage.class);
 
@@ -68,6 +76,8 @@ public class RawMessage implements Serializable {
     private final UUID id;
     private final long journalOffset;
     private Configuration codecConfig;
+    // not part of the journal entry, only used until the message has been journalled
+    private transient Runnable acknowledgement;
 
     public RawMessage(@Nonnull byte[] payload) {
         this(payload, (ResolvableInetSocketAddress)null);
@@ -127,29 +137,96 @@ public class RawMessage implements Serializable {
         codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
     }
 
+    public RawMessage(JournalMessage journalMessage, long journalOffset, Configuration codecConfig) {
+        this.journalOffset = journalOffset;
+        id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
+        msgBuilder = JournalMessage.newBuilder(journalMessage);
+        this.codecConfig = codecConfig;
+    }
+
     @Nullable
     public static RawMessage decode(final byte[] buffer, final long journalOffset) {
-        try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+        return decode(buffer, journalOffset, codecConfigId -> null);
+    }
 
-            // TODO validate message based on field contents and version number
+    /**
+     * Decodes a journal entry, resolving codec configuration references with the given function.
+     */
+    @Nullable
+    public static RawMessage decode(final byte[] buffer,
+                                    final long journalOffset,
+                                    final Function<String, Configuration> codecConfigLookup) {
+        try {
+            return decode(JournalMessage.parseFrom(buffer), journalOffset, codecConfigLookup);
+        } catch (IOException e) {
+            log.error("Cannot read raw message from journal, ignoring this message.", e);
+            return null;
+        }
+    }
 
-            return new RawMessage(journalMessage, journalOffset);
+    /**
+     * Decodes a journal entry without copying it, the payload of the returned message shares the given bytes.
+     */
+    @Nullable
+    public static RawMessage decode(final ByteString buffer,
+                                    final long journalOffset,
+                                    final Function<String, Configuration> codecConfigLookup) {
+        try {
+            final CodedInputStream input = buffer.newCodedInput();
+            // the byte string is immutable, so the payload can be sliced from it
+            input.enableAliasing(true);
+            return decode(JournalMessage.parseFrom(input), journalOffset, codecConfigLookup);
         } catch (IOException e) {
             log.error("Cannot read raw message from journal, ignoring this message.", e);
             return null;
         }
     }
 
+    @Nullable
+    private static RawMessage decode(final JournalMessage journalMessage,
+                                     final long journalOffset,
+                                     final Function<String, Configuration> codecConfigLookup) {
+        // TODO validate message based on field contents and version number
+
+        if (journalMessage.getVersion() == CODEC_CONFIG_REFERENCE_VERSION) {
+            final String codecConfigId = journalMessage.getCodec().getConfig();
+            final Configuration codecConfig = codecConfigLookup.apply(codecConfigId);
+            if (codecConfig == null) {
+                log.error("Unknown codec configuration {} for raw message at offset {}, ignoring this message.",
+                          codecConfigId, journalOffset);
+                return null;
+            }
+            return new RawMessage(journalMessage, journalOffset, codecConfig);
+        }
+
+        return new RawMessage(journalMessage, journalOffset);
+    }
+
     public byte[] encode() {
+        return encode(CURRENT_VERSION, codecConfig.serializeToJson());
+    }
+
+    /**
+     * Encodes the message with a reference to its codec configuration instead of the configuration itself.
+     * The reference has to be resolved by the codec config lookup passed to
+     * {@link #decode(byte[], long, Function)} when reading the message.
+     */
+    public byte[] encode(String codecConfigId) {
+        checkArgument(!isNullOrEmpty(codecConfigId), "The codec config id must not be null or empty!");
+        return encode(CODEC_CONFIG_REFERENCE_VERSION, codecConfigId);
+    }
+
+    private byte[] encode(int version, @Nullable String codecConfig) {
         try {
             final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
             final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
 
-            final String codecConfigJson = codecConfig.serializeToJson();
-            if (codecConfigJson != null) {
-                builder.setConfig(codecConfigJson);
+            if (codecConfig != null) {
+                builder.setConfig(codecConfig);
+            } else {
+                builder.clearConfig();
             }
+            msgBuilder.setVersion(version);
             msgBuilder.setCodec(builder.build());
 
             final JournalMessage journalMessage = msgBuilder.build();
@@ -174,6 +251,21 @@ public class RawMessage implements Serializable {
         return msgBuilder.getPayload().toByteArray(); // TODO PERFORMANCE array copy
     }
 
+    /**
+     * @return a read-only view of the payload, use this instead of {@link #getPayload()} if the payload isn't kept
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return msgBuilder.getPayload().asReadOnlyByteBuffer();
+    }
+
+    public String getPayloadAsString(Charset charset) {
+        return msgBuilder.getPayload().toString(charset);
+    }
+
+    public int getPayloadSize() {
+        return msgBuilder.getPayload().size();
+    }
+
     public UUID getId() {
         return id;
     }
@@ -252,7 +344,7 @@ public class RawMessage implements Serializable {
         helper.add("id", getId())
                 .add("journalOffset", getJournalOffset())
                 .add("codec", getCodecName())
-                .add("payloadSize", getPayload().length)
+                .add("payloadSize", getPayloadSize())
                 .add("timestamp", getTimestamp());
         if (getRemoteAddress() != null) {
             helper.add("remoteAddress", getRemoteAddress().getInetSocketAddress().toString());
@@ -264,6 +356,31 @@ public class RawMessage implements Serializable {
         return journalOffset;
     }
 
+    /**
+     * Sets a callback which is run once the message has been stored in the journal (and synced to disk if the journal
+     * uses group commit), or handed to the process buffer if the journal is disabled. Inputs can use it to acknowledge
+     * the message to the sender.
+     */
+    public void setAcknowledgement(@Nullable Runnable acknowledgement) {
+        this.acknowledgement = acknowledgement;
+    }
+
+    @Nullable
+    public Runnable getAcknowledgement() {
+        return acknowledgement;
+    }
+
+    /**
+     * Runs the acknowledgement callback of this message, if any, at most once.
+     */
+    public void acknowledge() {
+        final Runnable callback = acknowledgement;
+        acknowledgement = null;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
     public static class SourceNode {
         public String nodeId;
         public String inputId;
@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import org.apache.commons.io.FilenameUtils;
 import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.graylog2.filters.blacklist.Blacklist;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.RulesEngine;
 import org.kie.api.KieServices;
@@ -62,10 +63,13 @@ public class DroolsEngine implements RulesEngine {
     private final List<String> liveRules = Lists.newArrayList();
     private int version = 0;
     private ReleaseId currentReleaseId;
+    private volatile boolean customRules;
 
     @Inject
     public DroolsEngine(Set<URI> builtinRuleUrls) {
         this.builtinRuleUrls = ImmutableSet.copyOf(builtinRuleUrls);
+        this.customRules = this.builtinRuleUrls.stream()
+                .anyMatch(uri -> !Blacklist.RULES_FILE.equals(FilenameUtils.getName(uri.getPath())));
         this.kieServices = KieServices.Factory.get();
         this.liveRules.add("// placeholder rule");
         commitRules();
@@ -91,6 +95,7 @@ public class DroolsEngine implements RulesEngine {
             liveRules.remove(ruleSource);
             return false;
         }
+        customRules = true;
         return true;
     }
 
@@ -140,6 +145,11 @@ public class DroolsEngine implements RulesEngine {
         return true;
     }
 
+    @Override
+    public boolean hasCustomRules() {
+        return customRules;
+    }
+
     private boolean commitRules() {
         final ReleaseId previousReleaseId = currentReleaseId;
         final ReleaseId newReleaseId = nextRulesPackageVersion();
@@ -0,0 +1,33 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.buffers;
+
+import java.util.List;
+
+/**
+ * Callback interface for {@link BatchingWorkProcessor} to handle a contiguous run of ring buffer events at once.
+ *
+ * @param <T> the ring buffer event type
+ */
+public interface BatchWorkHandler<T> {
+    /**
+     * Handles a batch of events. The list is reused by the caller and must not be kept after the method returns.
+     *
+     * @param events the events of the batch, in sequence order
+     */
+    void onEvents(List<T> events) throws Exception;
+}
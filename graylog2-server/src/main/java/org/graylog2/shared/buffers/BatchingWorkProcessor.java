@@ -0,0 +1,147 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.EventProcessor;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.Sequencer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A work processor like {@link com.lmax.disruptor.WorkProcessor} which claims a contiguous run of up to
+ * {@code maxBatchSize} available sequences at once and passes them to a {@link BatchWorkHandler}.
+ *
+ * All processors of a pool share the same work sequence, so every event is handled by exactly one processor.
+ *
+ * @param <T> the ring buffer event type
+ */
+public class BatchingWorkProcessor<T> implements EventProcessor {
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Sequence sequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+    private final RingBuffer<T> ringBuffer;
+    private final SequenceBarrier sequenceBarrier;
+    private final BatchWorkHandler<T> handler;
+    private final ExceptionHandler<? super T> exceptionHandler;
+    private final Sequence workSequence;
+    private final int maxBatchSize;
+    private final List<T> batch;
+
+    public BatchingWorkProcessor(RingBuffer<T> ringBuffer,
+                                 SequenceBarrier sequenceBarrier,
+                                 BatchWorkHandler<T> handler,
+                                 ExceptionHandler<? super T> exceptionHandler,
+                                 Sequence workSequence,
+                                 int maxBatchSize) {
+        this.ringBuffer = ringBuffer;
+        this.sequenceBarrier = sequenceBarrier;
+        this.handler = handler;
+        this.exceptionHandler = exceptionHandler;
+        this.workSequence = workSequence;
+        this.maxBatchSize = maxBatchSize;
+        this.batch = new ArrayList<>(maxBatchSize);
+    }
+
+    /**
+     * Creates a pool of processors sharing one work sequence.
+     */
+    public static <T> BatchingWorkProcessor<T>[] createPool(RingBuffer<T> ringBuffer,
+                                                            ExceptionHandler<? super T> exceptionHandler,
+                                                            int maxBatchSize,
+                                                            List<? extends BatchWorkHandler<T>> handlers) {
+        final Sequence workSequence = new Sequence(Sequencer.INITIAL_CURSOR_VALUE);
+        final SequenceBarrier sequenceBarrier = ringBuffer.newBarrier();
+        @SuppressWarnings("unchecked")
+        final BatchingWorkProcessor<T>[] processors = new BatchingWorkProcessor[handlers.size()];
+        for (int i = 0; i < processors.length; i++) {
+            processors[i] = new BatchingWorkProcessor<>(ringBuffer, sequenceBarrier, handlers.get(i), exceptionHandler, workSequence, maxBatchSize);
+        }
+        return processors;
+    }
+
+    @Override
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void halt() {
+        running.set(false);
+        sequenceBarrier.alert();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Thread is already running");
+        }
+        sequenceBarrier.clearAlert();
+
+        long cachedAvailableSequence = Long.MIN_VALUE;
+        while (true) {
+            final long lo;
+            final long hi;
+            try {
+                long current;
+                long claimed;
+                do {
+                    current = workSequence.get();
+                    // Keep producers from overwriting the events we are about to claim
+                    sequence.set(current);
+                    while (cachedAvailableSequence <= current) {
+                        cachedAvailableSequence = sequenceBarrier.waitFor(current + 1L);
+                    }
+                    claimed = Math.min(cachedAvailableSequence, current + maxBatchSize);
+                } while (!workSequence.compareAndSet(current, claimed));
+                lo = current + 1L;
+                hi = claimed;
+            } catch (AlertException e) {
+                if (!running.get()) {
+                    break;
+                }
+                continue;
+            } catch (final Throwable e) {
+                exceptionHandler.handleEventException(e, sequence.get(), null);
+                continue;
+            }
+
+            for (long s = lo; s <= hi; s++) {
+                batch.add(ringBuffer.get(s));
+            }
+            try {
+                handler.onEvents(batch);
+            } catch (final Throwable e) {
+                exceptionHandler.handleEventException(e, hi, batch.get(batch.size() - 1));
+            } finally {
+                batch.clear();
+            }
+        }
+
+        running.set(false);
+    }
+}
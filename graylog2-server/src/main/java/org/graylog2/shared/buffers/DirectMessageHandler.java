@@ -17,6 +17,7 @@
 package org.graylog2.shared.buffers;
 
 import com.lmax.disruptor.WorkHandler;
+import org.graylog2.plugin.journal.RawMessage;
 
 import javax.inject.Inject;
 
@@ -31,7 +32,9 @@ class DirectMessageHandler implements WorkHandler<RawMessageEvent> {
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
-        processBuffer.insertBlocking(event.getRawMessage());
+        final RawMessage rawMessage = event.getRawMessage();
+        processBuffer.insertBlocking(rawMessage);
+        rawMessage.acknowledge();
         // clear out for gc and to avoid promoting the raw message event to a tenured gen
         event.setRawMessage(null);
     }
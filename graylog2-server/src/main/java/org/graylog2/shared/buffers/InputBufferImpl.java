@@ -28,6 +28,7 @@ import org.graylog2.plugin.BaseConfiguration;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.buffers.InputBuffer;
 import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.journal.Journal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,7 +53,8 @@ public class InputBufferImpl implements InputBuffer {
                            BaseConfiguration configuration,
                            Provider<DirectMessageHandler> directMessageHandlerProvider,
                            Provider<RawMessageEncoderHandler> rawMessageEncoderHandlerProvider,
-                           Provider<JournallingMessageHandler> spoolingMessageHandlerProvider) {
+                           Provider<JournallingMessageHandler> spoolingMessageHandlerProvider,
+                           Journal journal) {
         final Disruptor<RawMessageEvent> disruptor = new Disruptor<>(
                 RawMessageEvent.FACTORY,
                 configuration.getInputBufferRingSize(),
@@ -69,7 +71,14 @@ public class InputBufferImpl implements InputBuffer {
             for (int i = 0; i < numberOfHandlers; i++) {
                 handlers[i] = rawMessageEncoderHandlerProvider.get();
             }
-            disruptor.handleEventsWithWorkerPool(handlers).then(spoolingMessageHandlerProvider.get());
+            // one journalling handler per writable journal partition, each writing every n-th message to its own partition
+            final int numberOfPartitions = journal.numberOfWritablePartitions();
+            final JournallingMessageHandler[] journallingHandlers = new JournallingMessageHandler[numberOfPartitions];
+            for (int i = 0; i < numberOfPartitions; i++) {
+                journallingHandlers[i] = spoolingMessageHandlerProvider.get();
+                journallingHandlers[i].setPartition(i, numberOfPartitions);
+            }
+            disruptor.handleEventsWithWorkerPool(handlers).then(journallingHandlers);
         } else {
             LOG.info("Message journal is disabled.");
             final DirectMessageHandler[] handlers = new DirectMessageHandler[numberOfHandlers];
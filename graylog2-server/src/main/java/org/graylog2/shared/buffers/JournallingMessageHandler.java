@@ -17,35 +17,38 @@
 package org.graylog2.shared.buffers;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.github.rholder.retry.Retryer;
 import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
 import com.github.rholder.retry.WaitStrategies;
-import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.collect.Lists;
 import com.lmax.disruptor.EventHandler;
 import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.metrics.HdrHistogram;
+import org.graylog2.shared.metrics.HdrTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
-import static com.google.common.collect.Lists.transform;
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 
 public class JournallingMessageHandler implements EventHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(JournallingMessageHandler.class);
 
-    private static final Set<Journal.Entry> NULL_SINGLETON = Collections.singleton(null);
+    private static final int INITIAL_BATCH_CAPACITY = 1024;
+    private static final long MAX_TRACKED_BATCH_SIZE = 1_000_000L;
     private static final Retryer<Void> JOURNAL_WRITE_RETRYER = RetryerBuilder.<Void>newBuilder()
             .retryIfException(new Predicate<Throwable>() {
                 @Override
@@ -58,42 +61,68 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
             .withStopStrategy(StopStrategies.neverStop())
             .build();
 
-    private final List<RawMessageEvent> batch = Lists.newArrayList();
+    // reused for every batch, the entries are only referenced until they have been written
+    private final List<Journal.Entry> entries = new ArrayList<>(INITIAL_BATCH_CAPACITY);
+    private final List<Runnable> acknowledgements = new ArrayList<>();
     private final Counter byteCounter;
+    private final Histogram batchSize;
+    private final Timer writeTime;
     private final Journal journal;
     private final Semaphore journalFilled;
+    private int partition = 0;
+    private int numberOfPartitions = 1;
+    private long bytesWritten = 0L;
+    private long lastWriteOffset = -1L;
 
     @Inject
     public JournallingMessageHandler(MetricRegistry metrics, Journal journal, @Named("JournalSignal") Semaphore journalFilled) {
         this.journal = journal;
         this.journalFilled = journalFilled;
         byteCounter = metrics.counter(MetricRegistry.name(JournallingMessageHandler.class, "written_bytes"));
+        batchSize = safelyRegister(metrics, MetricRegistry.name(JournallingMessageHandler.class, "batch_size"),
+                new HdrHistogram(MAX_TRACKED_BATCH_SIZE, 3));
+        writeTime = safelyRegister(metrics, MetricRegistry.name(JournallingMessageHandler.class, "write_time"),
+                new HdrTimer(1, TimeUnit.MINUTES, 1));
+    }
+
+    /**
+     * Makes this handler only journal every {@code numberOfPartitions}-th message, starting at {@code partition},
+     * into the given journal partition. Must be called before the handler receives any events.
+     */
+    public void setPartition(int partition, int numberOfPartitions) {
+        checkArgument(partition >= 0 && partition < numberOfPartitions, "Invalid partition %s of %s", partition, numberOfPartitions);
+        this.partition = partition;
+        this.numberOfPartitions = numberOfPartitions;
     }
 
     @Override
     public void onEvent(RawMessageEvent event, long sequence, boolean endOfBatch) throws Exception {
-        batch.add(event);
-
-        if (endOfBatch) {
-            log.debug("End of batch, journalling {} messages", batch.size());
-            // write batch to journal
-
-            final Converter converter = new Converter();
-            // copy to avoid re-running this all the time
-            final List<Journal.Entry> entries = Lists.newArrayList(transform(batch, converter));
-
-            // Remove all null values returned from the converter (might happen if the Converter throws an exception)
-            entries.removeAll(NULL_SINGLETON);
+        // The messages have been encoded by the RawMessageEncoderHandler workers, which keep encoding the following
+        // events while this handler is blocked writing the batch.
+        if (sequence % numberOfPartitions == partition) {
+            final Runnable acknowledgement = event.getAcknowledgement();
+            if (acknowledgement != null) {
+                acknowledgements.add(acknowledgement);
+                event.setAcknowledgement(null);
+            }
+            final Journal.Entry entry = toEntry(event);
+            // null might be returned if the conversion throws an exception
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
 
-            // Clear the batch list after transforming it with the Converter because the fields of the RawMessageEvent
-            // objects in there have been set to null and cannot be used anymore.
-            batch.clear();
+        if (endOfBatch && entries.isEmpty()) {
+            acknowledgeBatch();
+        } else if (endOfBatch) {
+            log.debug("End of batch, journalling {} messages", entries.size());
+            batchSize.update(entries.size());
 
             // Catch all exceptions that might happen during the journal write and retry the operation.
             // This basically blocks if the journal write always throws an exception. Once the write succeeds, we will
             // continue.
             try {
-                writeToJournal(converter, entries);
+                writeToJournal();
             } catch (Exception e) {
                 log.error("Unable to write to journal - retrying", e);
 
@@ -101,53 +130,75 @@ public class JournallingMessageHandler implements EventHandler<RawMessageEvent>
                 JOURNAL_WRITE_RETRYER.call(new Callable<Void>() {
                     @Override
                     public Void call() throws Exception {
-                        writeToJournal(converter, entries);
+                        writeToJournal();
                         return null;
                     }
                 });
             }
+            entries.clear();
+            bytesWritten = 0L;
+
+            try {
+                // with group commit this waits for the next shared flush of the journal
+                journal.awaitFlushed(lastWriteOffset);
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for the journal flush, not acknowledging {} messages.", acknowledgements.size());
+                acknowledgements.clear();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            acknowledgeBatch();
         }
     }
 
-    private void writeToJournal(Converter converter, List<Journal.Entry> entries) {
-        final long lastOffset = journal.write(entries);
+    private void writeToJournal() {
+        final long lastOffset;
+        try (Timer.Context ignored = writeTime.time()) {
+            lastOffset = journal.write(entries, partition);
+        }
+        lastWriteOffset = lastOffset;
         log.debug("Processed batch, wrote {} bytes, last journal offset: {}, signalling reader.",
-                converter.getBytesWritten(),
+                bytesWritten,
                 lastOffset);
         journalFilled.release();
     }
 
-    private class Converter implements Function<RawMessageEvent, Journal.Entry> {
-        private long bytesWritten = 0;
-
-        public long getBytesWritten() {
-            return bytesWritten;
-        }
-
-        @Nullable
-        @Override
-        public Journal.Entry apply(RawMessageEvent input) {
+    /**
+     * Lets the inputs acknowledge the messages of the batch, which are safely stored in the journal now.
+     */
+    private void acknowledgeBatch() {
+        for (Runnable acknowledgement : acknowledgements) {
             try {
-                if (log.isTraceEnabled()) {
-                    log.trace("Journalling message {}", input.getMessageId());
-                }
-                final byte[] messageIdBytes = input.getMessageIdBytes();
-                final byte[] encodedRawMessage = input.getEncodedRawMessage();
-
-                // stats
-                final int size = encodedRawMessage.length;
-                bytesWritten += size;
-                byteCounter.inc(size);
-
-                // clear for gc and to avoid promotion to tenured space
-                input.setMessageIdBytes(null);
-                input.setEncodedRawMessage(null);
-                // convert to journal entry
-                return journal.createEntry(messageIdBytes, encodedRawMessage);
+                acknowledgement.run();
             } catch (Exception e) {
-                log.error("Unable to convert RawMessageEvent to Journal.Entry - skipping event", e);
-                return null;
+                log.error("Unable to acknowledge journalled message", e);
+            }
+        }
+        acknowledgements.clear();
+    }
+
+    @Nullable
+    private Journal.Entry toEntry(RawMessageEvent input) {
+        try {
+            if (log.isTraceEnabled()) {
+                log.trace("Journalling message {}", input.getMessageId());
             }
+            final byte[] messageIdBytes = input.getMessageIdBytes();
+            final byte[] encodedRawMessage = input.getEncodedRawMessage();
+
+            // stats
+            final int size = encodedRawMessage.length;
+            bytesWritten += size;
+            byteCounter.inc(size);
+
+            // clear for gc and to avoid promotion to tenured space
+            input.setMessageIdBytes(null);
+            input.setEncodedRawMessage(null);
+            // convert to journal entry
+            return journal.createEntry(messageIdBytes, encodedRawMessage);
+        } catch (Exception e) {
+            log.error("Unable to convert RawMessageEvent to Journal.Entry - skipping event", e);
+            return null;
         }
     }
 }
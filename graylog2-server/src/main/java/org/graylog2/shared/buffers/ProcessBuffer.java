@@ -20,11 +20,13 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.InstrumentedThreadFactory;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import org.graylog2.plugin.FieldKey;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.buffers.Buffer;
 import org.graylog2.plugin.buffers.MessageEvent;
@@ -38,6 +40,7 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.Arrays;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -55,6 +58,7 @@ public class ProcessBuffer extends Buffer {
                          DecodingProcessor.Factory decodingProcessorFactory,
                          ProcessBufferProcessor.Factory bufferProcessorFactory,
                          @Named("processbuffer_processors") int processorCount,
+                         @Named("processbuffer_batch_size") int batchSize,
                          @Named("ring_size") int ringSize,
                          @Named("processor_wait_strategy") String waitStrategyName) {
         this.ringBufferSize = ringSize;
@@ -69,6 +73,7 @@ public class ProcessBuffer extends Buffer {
             }
         });
         safelyRegister(metricRegistry, GlobalMetricNames.PROCESS_BUFFER_SIZE, constantGauge(ringBufferSize));
+        registerFieldKeyCacheMetrics(metricRegistry);
 
         final WaitStrategy waitStrategy = getWaitStrategy(waitStrategyName, "processor_wait_strategy");
         final Disruptor<MessageEvent> disruptor = new Disruptor<>(
@@ -78,20 +83,40 @@ public class ProcessBuffer extends Buffer {
                 ProducerType.MULTI,
                 waitStrategy
         );
-        disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler(LOG));
+        final LoggingExceptionHandler exceptionHandler = new LoggingExceptionHandler(LOG);
+        disruptor.setDefaultExceptionHandler(exceptionHandler);
 
-        LOG.info("Initialized ProcessBuffer with ring size <{}> and wait strategy <{}>.",
-                ringBufferSize, waitStrategy.getClass().getSimpleName());
+        LOG.info("Initialized ProcessBuffer with ring size <{}>, batch size <{}> and wait strategy <{}>.",
+                ringBufferSize, batchSize, waitStrategy.getClass().getSimpleName());
 
         final ProcessBufferProcessor[] processors = new ProcessBufferProcessor[processorCount];
         for (int i = 0; i < processorCount; i++) {
             processors[i] = bufferProcessorFactory.create(decodingProcessorFactory.create(decodeTime, parseTime));
         }
-        disruptor.handleEventsWithWorkerPool(processors);
+        if (batchSize > 1) {
+            // Every processor claims up to "batchSize" contiguous events at once and processes them as one batch.
+            disruptor.handleEventsWith(BatchingWorkProcessor.createPool(
+                    disruptor.getRingBuffer(), exceptionHandler, Math.min(batchSize, ringBufferSize), Arrays.asList(processors)));
+        } else {
+            disruptor.handleEventsWithWorkerPool(processors);
+        }
 
         ringBuffer = disruptor.start();
     }
 
+    private static void registerFieldKeyCacheMetrics(MetricRegistry metricRegistry) {
+        safelyRegister(metricRegistry, name(FieldKey.class, "cacheSize"), (Gauge<Long>) FieldKey::cacheSize);
+        safelyRegister(metricRegistry, name(FieldKey.class, "cacheHits"), (Gauge<Long>) FieldKey::cacheHits);
+        safelyRegister(metricRegistry, name(FieldKey.class, "cacheMisses"), (Gauge<Long>) FieldKey::cacheMisses);
+        safelyRegister(metricRegistry, name(FieldKey.class, "cacheHitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                final long hits = FieldKey.cacheHits();
+                return Ratio.of(hits, hits + FieldKey.cacheMisses());
+            }
+        });
+    }
+
     private ThreadFactory threadFactory(MetricRegistry metricRegistry) {
         final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("processbufferprocessor-%d").build();
         return new InstrumentedThreadFactory(
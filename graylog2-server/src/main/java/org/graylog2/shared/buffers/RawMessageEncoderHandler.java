@@ -19,6 +19,8 @@ package org.graylog2.shared.buffers;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.lmax.disruptor.WorkHandler;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.journal.CodecConfigDictionary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,17 +31,23 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(RawMessageEncoderHandler.class);
     private final Meter incomingMessages;
+    private final CodecConfigDictionary codecConfigDictionary;
 
     @Inject
-    public RawMessageEncoderHandler(MetricRegistry metricRegistry) {
+    public RawMessageEncoderHandler(MetricRegistry metricRegistry, CodecConfigDictionary codecConfigDictionary) {
+        this.codecConfigDictionary = codecConfigDictionary;
         incomingMessages = metricRegistry.meter(name(RawMessageEncoderHandler.class, "incomingMessages"));
     }
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
-        event.setEncodedRawMessage(event.getRawMessage().encode());
-        event.setMessageIdBytes(event.getRawMessage().getIdBytes());
+        final RawMessage rawMessage = event.getRawMessage();
+        // only store a reference to the codec configuration, unless it cannot be stored in the dictionary
+        final String codecConfigId = codecConfigDictionary.register(rawMessage.getCodecConfig());
+        event.setEncodedRawMessage(codecConfigId == null ? rawMessage.encode() : rawMessage.encode(codecConfigId));
+        event.setMessageIdBytes(rawMessage.getIdBytes());
+        event.setAcknowledgement(rawMessage.getAcknowledgement());
         
         if (log.isTraceEnabled()) {
             log.trace("Serialized message {} for journal, size {} bytes",
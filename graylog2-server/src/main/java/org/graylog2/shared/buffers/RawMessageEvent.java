@@ -32,6 +32,8 @@ public class RawMessageEvent {
     // once these fields are set, do NOT rely on rawMessage still being non-null!
     private byte[] messageIdBytes;
     private byte[] encodedRawMessage;
+    // taken over from the raw message, run once the message has been journalled
+    private Runnable acknowledgement;
 
     public static final EventFactory<RawMessageEvent> FACTORY = new EventFactory<RawMessageEvent>() {
         @Override
@@ -71,6 +73,14 @@ public class RawMessageEvent {
         this.encodedRawMessage = encodedRawMessage;
     }
 
+    public Runnable getAcknowledgement() {
+        return acknowledgement;
+    }
+
+    public void setAcknowledgement(Runnable acknowledgement) {
+        this.acknowledgement = acknowledgement;
+    }
+
     public void setMessageIdBytes(byte[] messageIdBytes) {
         this.messageIdBytes = messageIdBytes;
     }
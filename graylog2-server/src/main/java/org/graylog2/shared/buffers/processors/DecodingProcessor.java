@@ -17,11 +17,14 @@
 
 package org.graylog2.shared.buffers.processors;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.net.InetAddresses;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -30,9 +33,12 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.inputs.codecs.MultiMessageCodec;
 import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.rest.models.system.inputs.responses.InputDeleted;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.utilities.ExceptionUtils;
 import org.slf4j.Logger;
@@ -43,6 +49,9 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -63,11 +72,16 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     private final Journal journal;
     private final Timer parseTime;
 
+    // Codec instances and their metrics per input and codec configuration. Every processor has its own cache, so the
+    // cached codecs are only ever used by a single thread.
+    private final ConcurrentMap<CodecKey, CachedCodec> codecCache = new ConcurrentHashMap<>();
+
     @AssistedInject
     public DecodingProcessor(Map<String, Codec.Factory<? extends Codec>> codecFactory,
                              final ServerStatus serverStatus,
                              final MetricRegistry metricRegistry,
                              final Journal journal,
+                             final EventBus serverEventBus,
                              @Assisted("decodeTime") Timer decodeTime,
                              @Assisted("parseTime") Timer parseTime) {
         this.codecFactory = codecFactory;
@@ -78,6 +92,25 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         // these metrics are global to all processors, thus they are passed in directly to avoid relying on the class name
         this.parseTime = parseTime;
         this.decodeTime = decodeTime;
+
+        serverEventBus.register(this);
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void handleInputUpdate(final InputUpdated event) {
+        invalidateCodecs(event.id());
+    }
+
+    @Subscribe
+    @SuppressWarnings("unused")
+    public void handleInputDelete(final InputDeleted event) {
+        invalidateCodecs(event.id());
+    }
+
+    private void invalidateCodecs(final String inputId) {
+        LOG.debug("Removing cached codecs for input <{}>", inputId);
+        codecCache.keySet().removeIf(key -> Objects.equals(key.inputId, inputId));
     }
 
     @Override
@@ -122,15 +155,14 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             inputIdOnCurrentNode = null;
         }
 
-        final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
-        if (factory == null) {
+        final CachedCodec cachedCodec = getCodec(raw, inputIdOnCurrentNode);
+        if (cachedCodec == null) {
             LOG.warn("Couldn't find factory for codec <{}>, skipping message {} on input <{}>.",
                     raw.getCodecName(), raw, inputIdOnCurrentNode);
+            journal.markJournalOffsetCommitted(raw.getJournalOffset());
             return;
         }
-
-        final Codec codec = factory.create(raw.getCodecConfig());
-        final String baseMetricName = name(codec.getClass(), inputIdOnCurrentNode);
+        final Codec codec = cachedCodec.codec;
 
         Message message = null;
         Collection<Message> messages = null;
@@ -147,37 +179,65 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         } catch (RuntimeException e) {
             LOG.error("Unable to decode raw message {} on input <{}>.", raw, inputIdOnCurrentNode);
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            cachedCodec.failures.mark();
             throw e;
         } finally {
             decodeTime = decodeTimeCtx.stop();
         }
 
         if (message != null) {
-            event.setMessage(postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, message, decodeTime));
+            event.setMessage(postProcessMessage(raw, cachedCodec, inputIdOnCurrentNode, message, decodeTime));
         } else if (messages != null && !messages.isEmpty()) {
             final List<Message> processedMessages = Lists.newArrayListWithCapacity(messages.size());
 
             for (final Message msg : messages) {
-                final Message processedMessage = postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, msg, decodeTime);
+                final Message processedMessage = postProcessMessage(raw, cachedCodec, inputIdOnCurrentNode, msg, decodeTime);
 
                 if (processedMessage != null) {
                     processedMessages.add(processedMessage);
                 }
             }
 
+            // every decoded message commits the journal offset of the raw message once
+            journal.addJournalOffsetReferences(raw.getJournalOffset(), processedMessages.size() - 1);
             event.setMessages(processedMessages);
         }
+
+        if (event.getMessage() == null && (event.getMessages() == null || event.getMessages().isEmpty())) {
+            // nothing left to process, the journal offset of the raw message would never be committed otherwise
+            journal.markJournalOffsetCommitted(raw.getJournalOffset());
+        }
     }
 
     @Nullable
-    private Message postProcessMessage(RawMessage raw, Codec codec, String inputIdOnCurrentNode, String baseMetricName, Message message, long decodeTime) {
+    private CachedCodec getCodec(RawMessage raw, @Nullable String inputIdOnCurrentNode) {
+        final Configuration codecConfig = raw.getCodecConfig();
+        final CodecKey key = new CodecKey(inputIdOnCurrentNode, raw.getCodecName(),
+                codecConfig == null ? null : codecConfig.getSource());
+        final CachedCodec cachedCodec = codecCache.get(key);
+        if (cachedCodec != null) {
+            return cachedCodec;
+        }
+
+        final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
+        if (factory == null) {
+            return null;
+        }
+
+        final Codec codec = factory.create(codecConfig);
+        final CachedCodec newCodec = new CachedCodec(codec, metricRegistry, name(codec.getClass(), inputIdOnCurrentNode));
+        codecCache.put(key, newCodec);
+        return newCodec;
+    }
+
+    @Nullable
+    private Message postProcessMessage(RawMessage raw, CachedCodec cachedCodec, String inputIdOnCurrentNode, Message message, long decodeTime) {
         if (message == null) {
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            cachedCodec.failures.mark();
             return null;
         }
         if (!message.isComplete()) {
-            metricRegistry.meter(name(baseMetricName, "incomplete")).mark();
+            cachedCodec.incomplete.mark();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Dropping incomplete message {} on input <{}>. Parsed fields: [{}]",
                         raw, inputIdOnCurrentNode, message.getFields());
@@ -187,7 +247,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
 
         message.setJournalOffset(raw.getJournalOffset());
         message.recordTiming(serverStatus, "parse", decodeTime);
-        metricRegistry.timer(name(baseMetricName, "parseTime")).update(decodeTime, TimeUnit.NANOSECONDS);
+        cachedCodec.parseTime.update(decodeTime, TimeUnit.NANOSECONDS);
 
         for (final RawMessage.SourceNode node : raw.getSourceNodes()) {
             switch (node.type) {
@@ -236,8 +296,8 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         }
 
-        if (codec.getConfiguration() != null && codec.getConfiguration().stringIsSet(Codec.Config.CK_OVERRIDE_SOURCE)) {
-            message.setSource(codec.getConfiguration().getString(Codec.Config.CK_OVERRIDE_SOURCE));
+        if (cachedCodec.overrideSource != null) {
+            message.setSource(cachedCodec.overrideSource);
         }
 
         // Make sure that there is a value for the source field.
@@ -245,7 +305,64 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             message.setSource("unknown");
         }
 
-        metricRegistry.meter(name(baseMetricName, "processedMessages")).mark();
+        cachedCodec.processedMessages.mark();
         return message;
     }
+
+    private static final class CodecKey {
+        private final String inputId;
+        private final String codecName;
+        private final Map<String, Object> config;
+        private final int hashCode;
+
+        CodecKey(@Nullable String inputId, String codecName, @Nullable Map<String, Object> config) {
+            this.inputId = inputId;
+            this.codecName = codecName;
+            this.config = config;
+            this.hashCode = Objects.hash(inputId, codecName, config);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CodecKey that = (CodecKey) o;
+            return hashCode == that.hashCode
+                    && Objects.equals(inputId, that.inputId)
+                    && Objects.equals(codecName, that.codecName)
+                    && Objects.equals(config, that.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedCodec {
+        private final Codec codec;
+        private final String overrideSource;
+        private final Meter failures;
+        private final Meter incomplete;
+        private final Meter processedMessages;
+        private final Timer parseTime;
+
+        CachedCodec(Codec codec, MetricRegistry metricRegistry, String baseMetricName) {
+            this.codec = codec;
+            final Configuration configuration = codec.getConfiguration();
+            if (configuration != null && configuration.stringIsSet(Codec.Config.CK_OVERRIDE_SOURCE)) {
+                this.overrideSource = configuration.getString(Codec.Config.CK_OVERRIDE_SOURCE);
+            } else {
+                this.overrideSource = null;
+            }
+            this.failures = metricRegistry.meter(name(baseMetricName, "failures"));
+            this.incomplete = metricRegistry.meter(name(baseMetricName, "incomplete"));
+            this.processedMessages = metricRegistry.meter(name(baseMetricName, "processedMessages"));
+            this.parseTime = metricRegistry.timer(name(baseMetricName, "parseTime"));
+        }
+    }
 }
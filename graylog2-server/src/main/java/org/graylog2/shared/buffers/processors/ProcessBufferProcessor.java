@@ -16,9 +16,11 @@
  */
 package org.graylog2.shared.buffers.processors;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
@@ -26,43 +28,57 @@ import com.lmax.disruptor.WorkHandler;
 import org.graylog2.buffers.OutputBuffer;
 import org.graylog2.messageprocessors.OrderedMessageProcessors;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
 import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.buffers.MessageEvent;
 import org.graylog2.plugin.messageprocessors.MessageProcessor;
 import org.graylog2.plugin.streams.DefaultStream;
 import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.buffers.BatchWorkHandler;
+import org.graylog2.shared.journal.Journal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
-public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
+public class ProcessBufferProcessor implements WorkHandler<MessageEvent>, BatchWorkHandler<MessageEvent> {
     private static final Logger LOG = LoggerFactory.getLogger(ProcessBufferProcessor.class);
 
     private final Meter incomingMessages;
 
     private final Timer processTime;
+    private final Timer batchProcessTime;
+    private final Histogram batchSize;
     private final Meter outgoingMessages;
+    private final Meter failedMessages;
     private final OrderedMessageProcessors orderedMessageProcessors;
 
     private final OutputBuffer outputBuffer;
     private final DecodingProcessor decodingProcessor;
     private final Provider<Stream> defaultStreamProvider;
+    private final Journal journal;
 
     @AssistedInject
     public ProcessBufferProcessor(MetricRegistry metricRegistry, OrderedMessageProcessors orderedMessageProcessors, OutputBuffer outputBuffer,
-                                  @Assisted DecodingProcessor decodingProcessor, @DefaultStream Provider<Stream> defaultStreamProvider) {
+                                  Journal journal, @Assisted DecodingProcessor decodingProcessor,
+                                  @DefaultStream Provider<Stream> defaultStreamProvider) {
         this.orderedMessageProcessors = orderedMessageProcessors;
         this.outputBuffer = outputBuffer;
+        this.journal = journal;
         this.decodingProcessor = decodingProcessor;
         this.defaultStreamProvider = defaultStreamProvider;
 
         incomingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "incomingMessages"));
         outgoingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages"));
+        failedMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "failedMessages"));
         processTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "processTime"));
+        batchProcessTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "batchProcessTime"));
+        batchSize = metricRegistry.histogram(name(ProcessBufferProcessor.class, "batchSize"));
     }
 
     @Override
@@ -91,16 +107,133 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
     }
 
+    @Override
+    public void onEvents(List<MessageEvent> events) throws Exception {
+        final List<Message> batch = new ArrayList<>(events.size());
+        try {
+            for (final MessageEvent event : events) {
+                decodingProcessor.onEvent(event, 0L, false);
+
+                if (event.isSingleMessage()) {
+                    final Message message = event.getMessage();
+                    if (message != null) {
+                        batch.add(message);
+                    }
+                } else {
+                    final Collection<Message> messageList = event.getMessages();
+                    if (messageList != null) {
+                        batch.addAll(messageList);
+                    }
+                }
+            }
+        } finally {
+            for (final MessageEvent event : events) {
+                event.clearMessages();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            dispatchBatch(batch);
+        }
+    }
+
+    private void dispatchBatch(final List<Message> batch) {
+        final int size = batch.size();
+        batchSize.update(size);
+        incomingMessages.mark(size);
+
+        LOG.debug("Starting to process batch of <{}> messages.", size);
+
+        final List<Message> processed;
+        try (final Timer.Context ignored = batchProcessTime.time()) {
+            processed = processBatch(batch);
+        }
+
+        try {
+            outputBuffer.insertBlocking(processed);
+            LOG.debug("Finished processing batch of <{}> messages.", size);
+        } finally {
+            outgoingMessages.mark(size);
+        }
+    }
+
+    private List<Message> processBatch(final List<Message> batch) {
+        final Stream defaultStream = defaultStreamProvider.get();
+        for (final Message message : batch) {
+            message.addStream(defaultStream);
+        }
+
+        final List<MessageProcessor> processors = ImmutableList.copyOf(orderedMessageProcessors);
+        Messages messages = new MessageCollection(batch);
+        for (int i = 0; i < processors.size(); i++) {
+            // the processors may return a different collection, keep the input to recover from failures
+            final MessageCollection input = new MessageCollection(messages);
+            try {
+                messages = processors.get(i).process(input);
+            } catch (Exception e) {
+                return recoverBatch(input, processors, i, e);
+            }
+        }
+
+        final List<Message> result = new ArrayList<>(batch.size());
+        for (Message message : messages) {
+            result.add(message);
+        }
+        return result;
+    }
+
+    /**
+     * Continues the processing of a batch after the message processor at the given index failed on it.
+     * <p>
+     * Processors may iterate the whole batch before processing any message, so the message which caused the failure
+     * can't be told from the ones which have been processed fine. Every message of the batch is thus processed one by
+     * one again, starting with the failing processor, and only the messages which fail on their own are dropped.
+     */
+    private List<Message> recoverBatch(Messages input, List<MessageProcessor> processors, int failed, Exception e) {
+        final List<Message> result = new ArrayList<>();
+        int total = 0;
+        int dropped = 0;
+        // the iterator skips the messages which have been filtered out, their offsets have been committed already
+        for (final Message message : input) {
+            total++;
+            try {
+                Messages messages = message;
+                for (int i = failed; i < processors.size(); i++) {
+                    messages = processors.get(i).process(messages);
+                }
+                for (Message processed : messages) {
+                    result.add(processed);
+                }
+            } catch (Exception processingException) {
+                LOG.warn("Unable to process message <{}>: {}", message.getId(), processingException);
+                dropped++;
+                journal.markJournalOffsetCommitted(message.getJournalOffset());
+            }
+        }
+
+        failedMessages.mark(dropped);
+        LOG.warn("Message processor <{}> failed on a batch of <{}> messages, dropped <{}> of them: {}",
+                processors.get(failed).getClass().getCanonicalName(), total, dropped, e);
+        return result;
+    }
+
     private void dispatchMessage(final Message msg) {
         incomingMessages.mark();
 
-        LOG.debug("Starting to process message <{}>.", msg.getId());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Starting to process message <{}>.", msg.getId());
+        }
 
         try (final Timer.Context ignored = processTime.time()) {
             handleMessage(msg);
-            LOG.debug("Finished processing message <{}>. Writing to output buffer.", msg.getId());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Finished processing message <{}>. Writing to output buffer.", msg.getId());
+            }
         } catch (Exception e) {
             LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
+            failedMessages.mark();
+            // the message is dropped, don't hold back the journal offsets committed after it
+            journal.markJournalOffsetCommitted(msg.getJournalOffset());
         } finally {
             outgoingMessages.mark();
         }
@@ -0,0 +1,216 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import org.graylog2.plugin.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the codec configurations of all journalled messages in a file next to the journal segments, so journal
+ * entries only have to carry a short reference instead of the full configuration JSON.
+ * <p>
+ * The reference is a fingerprint of the serialized configuration. New configurations are appended to the dictionary
+ * file and synced to disk before their reference is handed out, thus every reference in the journal can be resolved
+ * after a restart. The file only grows while the server is running and is {@link #compact() compacted} at startup,
+ * when no journal entry references the configurations of earlier runs anymore.
+ */
+@Singleton
+public class CodecConfigDictionary {
+    private static final Logger LOG = LoggerFactory.getLogger(CodecConfigDictionary.class);
+    private static final String FILE_NAME = "graylog2-codec-configs";
+
+    private final File dictionaryFile;
+    // Codec configurations are shared by all messages of an input, so look them up by identity
+    private final ConcurrentMap<Configuration, String> idsByConfig = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<String, Configuration> configsById = new MapMaker().makeMap();
+    // references handed out since the dictionary has been loaded, these are kept when compacting
+    private final Set<String> registeredIds = Sets.newConcurrentHashSet();
+    // set if the last write was interrupted, guarded by this
+    private boolean partialLastLine = false;
+
+    @Inject
+    public CodecConfigDictionary(@Named("message_journal_dir") File journalDirectory) {
+        this.dictionaryFile = new File(journalDirectory, FILE_NAME);
+        load();
+    }
+
+    /**
+     * Returns the reference for the given codec configuration and persists the configuration if it's not known yet.
+     *
+     * @return the reference or {@code null} if the configuration is empty or couldn't be persisted, in which case it
+     * has to be stored in the journal entry itself.
+     */
+    @Nullable
+    public String register(@Nullable Configuration codecConfig) {
+        if (codecConfig == null) {
+            return null;
+        }
+
+        final String cachedId = idsByConfig.get(codecConfig);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        final String json = codecConfig.serializeToJson();
+        if (json == null) {
+            return null;
+        }
+
+        final String id = Hashing.murmur3_128().hashString(json, StandardCharsets.UTF_8).toString();
+        // before checking for the configuration, so a concurrent compaction keeps it
+        registeredIds.add(id);
+        if (!configsById.containsKey(id) && !persist(id, json)) {
+            return null;
+        }
+        configsById.putIfAbsent(id, codecConfig);
+        idsByConfig.put(codecConfig, id);
+
+        return id;
+    }
+
+    /**
+     * Returns the codec configuration for the given reference or {@code null} if it is unknown.
+     */
+    @Nullable
+    public Configuration get(String id) {
+        return configsById.get(id);
+    }
+
+    /**
+     * Rewrites the dictionary file with only the configurations which have been registered since it has been loaded.
+     * The references to all other configurations are lost, so this must only be called while the journal contains no
+     * entries which still have to be decoded.
+     */
+    public synchronized void compact() {
+        if (!dictionaryFile.exists()) {
+            return;
+        }
+
+        final StringBuilder content = new StringBuilder();
+        int kept = 0;
+        for (Map.Entry<String, Configuration> entry : configsById.entrySet()) {
+            if (registeredIds.contains(entry.getKey())) {
+                content.append(entry.getKey()).append(' ').append(entry.getValue().serializeToJson()).append('\n');
+                kept++;
+            }
+        }
+        final int removed = configsById.size() - kept;
+        if (removed == 0 && !partialLastLine) {
+            return;
+        }
+
+        final File compactedFile = new File(dictionaryFile.getParentFile(), FILE_NAME + ".compacted");
+        try (final FileOutputStream fos = new FileOutputStream(compactedFile)) {
+            fos.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        } catch (IOException e) {
+            LOG.warn("Cannot write " + compactedFile.getAbsolutePath() + ", not compacting codec configurations.", e);
+            compactedFile.delete();
+            return;
+        }
+        try {
+            Files.move(compactedFile.toPath(), dictionaryFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Cannot replace " + dictionaryFile.getAbsolutePath() + ", not compacting codec configurations.", e);
+            compactedFile.delete();
+            return;
+        }
+
+        partialLastLine = false;
+        configsById.keySet().retainAll(registeredIds);
+        LOG.debug("Removed {} unused codec configurations from {}", removed, dictionaryFile.getAbsolutePath());
+    }
+
+    @VisibleForTesting
+    int size() {
+        return configsById.size();
+    }
+
+    private synchronized boolean persist(String id, String json) {
+        if (configsById.containsKey(id)) {
+            return true;
+        }
+
+        final File directory = dictionaryFile.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            LOG.warn("Cannot create journal directory at {}, storing codec configuration in journal entries.",
+                    directory.getAbsolutePath());
+            return false;
+        }
+
+        final String line = (partialLastLine ? "\n" : "") + id + ' ' + json + '\n';
+        try (final FileOutputStream fos = new FileOutputStream(dictionaryFile, true)) {
+            fos.write(line.getBytes(StandardCharsets.UTF_8));
+            // the journal entries referencing this configuration must never hit the disk before the configuration
+            fos.getFD().sync();
+        } catch (IOException e) {
+            LOG.warn("Cannot write " + dictionaryFile.getAbsolutePath() + ", storing codec configuration in journal entries.", e);
+            return false;
+        }
+
+        partialLastLine = false;
+        configsById.put(id, Configuration.deserializeFromJson(json));
+        return true;
+    }
+
+    private synchronized void load() {
+        if (!dictionaryFile.exists()) {
+            return;
+        }
+
+        final byte[] content;
+        try {
+            content = Files.readAllBytes(dictionaryFile.toPath());
+        } catch (IOException e) {
+            LOG.error("Cannot read " + dictionaryFile.getAbsolutePath() + ", journal entries referencing codec configurations cannot be decoded.", e);
+            return;
+        }
+
+        // a crash during a write can leave an incomplete line, which has never been referenced by the journal
+        partialLastLine = content.length > 0 && content[content.length - 1] != '\n';
+        for (String line : new String(content, StandardCharsets.UTF_8).split("\n")) {
+            final int separator = line.indexOf(' ');
+            final Configuration config = separator > 0 ? Configuration.deserializeFromJson(line.substring(separator + 1)) : null;
+            // empty configurations are never written, so this is an incomplete line
+            if (config == null || config == Configuration.EMPTY_CONFIGURATION) {
+                LOG.warn("Skipping malformed line in codec configuration file {}", dictionaryFile.getAbsolutePath());
+                continue;
+            }
+            configsById.put(line.substring(0, separator), config);
+        }
+        LOG.debug("Loaded {} codec configurations from {}", configsById.size(), dictionaryFile.getAbsolutePath());
+    }
+}
@@ -16,6 +16,10 @@
  */
 package org.graylog2.shared.journal;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface Journal {
@@ -23,12 +27,66 @@ public interface Journal {
 
     long write(List<Entry> entries);
 
+    /**
+     * Writes the entries to the given partition, journals without partitions write them like {@link #write(List)}.
+     */
+    default long write(List<Entry> entries, int partition) {
+        return write(entries);
+    }
+
     long write(byte[] idBytes, byte[] messageBytes);
 
     List<JournalReadEntry> read(long maximumCount);
 
+    /**
+     * Reads entries from the given partition, journals without partitions read them like {@link #read(long)}.
+     */
+    default List<JournalReadEntry> read(int partition, long maximumCount) {
+        return read(maximumCount);
+    }
+
     void markJournalOffsetCommitted(long offset);
 
+    /**
+     * Registers further messages or index entries which share the given journal offset, e. g. the messages decoded
+     * from a single entry or the entries of a message written to several indices. Each of them has to be committed
+     * before the offset counts as committed.
+     *
+     * @param offset     the shared journal offset
+     * @param references the number of commits expected in addition to the one of the message itself
+     */
+    default void addJournalOffsetReferences(long offset, int references) {
+    }
+
+    /**
+     * Blocks until the entries up to the given offset, as returned by {@link #write(List, int)}, are stored durably.
+     * Journals which don't group their disk syncs return immediately.
+     */
+    default void awaitFlushed(long offset) throws InterruptedException {
+    }
+
+    /**
+     * @return the number of entries which have been written but not committed yet
+     */
+    default long uncommittedEntries() {
+        return 0L;
+    }
+
+    /**
+     * @return the number of partitions which can be read from independently, including partitions left over from a
+     * previous configuration with more partitions which are only read until they are empty
+     */
+    default int numberOfPartitions() {
+        return 1;
+    }
+
+    /**
+     * @return the number of partitions which new entries are written to, the first ones of {@link #numberOfPartitions()}
+     */
+    default int numberOfWritablePartitions() {
+        return numberOfPartitions();
+    }
+
     class Entry {
         private final byte[] idBytes;
         private final byte[] messageBytes;
@@ -49,10 +107,21 @@ public interface Journal {
 
     class JournalReadEntry {
 
-        private final byte[] payload;
+        private final ByteString payload;
         private final long offset;
 
         public JournalReadEntry(byte[] payload, long offset) {
+            this(ByteBuffer.wrap(payload), offset);
+        }
+
+        /**
+         * Creates an entry sharing the given buffer, which must not be modified afterwards.
+         */
+        public JournalReadEntry(ByteBuffer payload, long offset) {
+            this(UnsafeByteOperations.unsafeWrap(payload), offset);
+        }
+
+        private JournalReadEntry(ByteString payload, long offset) {
             this.payload = payload;
             this.offset = offset;
         }
@@ -61,8 +130,29 @@ public interface Journal {
             return offset;
         }
 
+        /**
+         * @return a copy of the payload
+         */
         public byte[] getPayload() {
+            return payload.toByteArray();
+        }
+
+        /**
+         * @return a read-only view of the payload
+         */
+        public ByteBuffer getPayloadBuffer() {
+            return payload.asReadOnlyByteBuffer();
+        }
+
+        /**
+         * @return the payload without copying it
+         */
+        public ByteString getPayloadBytes() {
             return payload;
         }
+
+        public int getPayloadSize() {
+            return payload.size();
+        }
     }
 }
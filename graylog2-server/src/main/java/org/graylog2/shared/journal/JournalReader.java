@@ -20,9 +20,11 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.plugin.lifecycles.Lifecycle;
@@ -33,7 +35,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -46,23 +53,27 @@ public class JournalReader extends AbstractExecutionThreadService {
     private final Semaphore journalFilled;
     private final MetricRegistry metricRegistry;
     private final EventBus eventBus;
+    private final CodecConfigDictionary codecConfigDictionary;
     private final Meter readMessages;
     private volatile boolean shouldBeReading;
     private Histogram requestedReadCount;
     private final Counter readBlocked;
     private Thread executionThread;
+    private volatile ExecutorService partitionReaders;
 
     @Inject
     public JournalReader(Journal journal,
                          ProcessBuffer processBuffer,
                          @Named("JournalSignal") Semaphore journalFilled,
                          MetricRegistry metricRegistry,
-                         EventBus eventBus) {
+                         EventBus eventBus,
+                         CodecConfigDictionary codecConfigDictionary) {
         this.journal = journal;
         this.processBuffer = processBuffer;
         this.journalFilled = journalFilled;
         this.metricRegistry = metricRegistry;
         this.eventBus = eventBus;
+        this.codecConfigDictionary = codecConfigDictionary;
         shouldBeReading = false;
         readBlocked = metricRegistry.counter(name(this.getClass(), "readBlocked"));
         readMessages = metricRegistry.meter(name(this.getClass(), "readMessages"));
@@ -72,6 +83,10 @@ public class JournalReader extends AbstractExecutionThreadService {
     protected void startUp() throws Exception {
         eventBus.register(this);
         executionThread = Thread.currentThread();
+        if (journal.uncommittedEntries() == 0) {
+            // no journal entry references the codec configurations of earlier runs anymore
+            codecConfigDictionary.compact();
+        }
     }
 
     @Override
@@ -82,6 +97,10 @@ public class JournalReader extends AbstractExecutionThreadService {
     @Override
     protected void triggerShutdown() {
         executionThread.interrupt();
+        final ExecutorService readers = partitionReaders;
+        if (readers != null) {
+            readers.shutdownNow();
+        }
     }
 
     @Subscribe
@@ -126,6 +145,54 @@ public class JournalReader extends AbstractExecutionThreadService {
             throw e;
         }
 
+        // every partition of the journal gets its own reader, the first one is read by the service thread itself
+        final int partitions = journal.numberOfPartitions();
+        final List<Future<?>> readers = new ArrayList<>(partitions);
+        if (partitions > 1) {
+            partitionReaders = Executors.newFixedThreadPool(partitions - 1, new ThreadFactoryBuilder()
+                    .setNameFormat("journal-reader-%d")
+                    .setDaemon(true)
+                    .build());
+            for (int partition = 1; partition < partitions; partition++) {
+                final int readerPartition = partition;
+                readers.add(partitionReaders.submit(() -> readPartitionOrStop(readerPartition, partitions)));
+            }
+        }
+        try {
+            readPartition(0, partitions);
+
+            // fail the service if any of the other readers failed
+            for (Future<?> reader : readers) {
+                try {
+                    reader.get();
+                } catch (ExecutionException e) {
+                    Throwables.throwIfUnchecked(e.getCause());
+                    throw e;
+                }
+            }
+        } finally {
+            if (partitionReaders != null) {
+                partitionReaders.shutdownNow();
+            }
+        }
+        log.info("Stopping.");
+    }
+
+    /**
+     * Reads a partition on a thread of its own, a failing reader stops the whole service rather than leaving its
+     * partition unread.
+     */
+    private void readPartitionOrStop(int partition, int partitions) {
+        try {
+            readPartition(partition, partitions);
+        } catch (RuntimeException | Error e) {
+            log.error("Reading from journal partition " + partition + " failed, stopping the journal reader.", e);
+            stopAsync();
+            throw e;
+        }
+    }
+
+    private void readPartition(int partition, int partitions) {
         while (isRunning()) {
             // TODO interfere with reading if we are not 100% certain we should be reading, see #listenForLifecycleChanges
             if (!shouldBeReading) {
@@ -133,16 +200,23 @@ public class JournalReader extends AbstractExecutionThreadService {
                 // don't read immediately, but check if we should be shutting down.
                 continue;
             }
-            // approximate count to read from the journal to backfill the processing chain
-            final long remainingCapacity = processBuffer.getRemainingCapacity();
+            // approximate count to read from the journal to backfill the processing chain, shared by all partitions
+            final long remainingCapacity = processBuffer.getRemainingCapacity() / partitions;
             requestedReadCount.update(remainingCapacity);
-            final List<Journal.JournalReadEntry> encodedRawMessages = journal.read(remainingCapacity);
+            final List<Journal.JournalReadEntry> encodedRawMessages = journal.read(partition, remainingCapacity);
             if (encodedRawMessages.isEmpty()) {
                 log.debug("No messages to read from Journal, waiting until the writer adds more messages.");
                 // block until something is written to the journal again
                 try {
                     readBlocked.inc();
-                    journalFilled.acquire();
+                    if (partitions == 1 && journal.uncommittedEntries() == 0) {
+                        journalFilled.acquire();
+                    } else if (!journalFilled.tryAcquire(100, MILLISECONDS)) {
+                        // the readers share the signal, don't miss writes to this partition if another reader took it.
+                        // Uncommitted entries might also be left unread because too many messages are in flight,
+                        // only commits make them readable again, which don't signal the reader.
+                        continue;
+                    }
                 } catch (InterruptedException ignored) {
                     // this can happen when we are blocked but the system wants to shut down. We don't have to do anything in that case.
                     continue;
@@ -154,11 +228,13 @@ public class JournalReader extends AbstractExecutionThreadService {
                 readMessages.mark(encodedRawMessages.size());
                 log.debug("Processing {} messages from journal.", encodedRawMessages.size());
                 for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
-                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
-                                                                    encodedRawMessage.getOffset());
+                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayloadBytes(),
+                                                                    encodedRawMessage.getOffset(),
+                                                                    codecConfigDictionary::get);
                     if (rawMessage == null) {
                         // never insert null objects into the ringbuffer, as that is useless
-                        log.error("Found null raw message!");
+                        log.error("Skipping journal entry at offset {} which cannot be decoded, see the previous error for the reason.",
+                                encodedRawMessage.getOffset());
                         journal.markJournalOffsetCommitted(encodedRawMessage.getOffset());
                         continue;
                     }
@@ -167,7 +243,6 @@ public class JournalReader extends AbstractExecutionThreadService {
                 }
             }
         }
-        log.info("Stopping.");
     }
 
 
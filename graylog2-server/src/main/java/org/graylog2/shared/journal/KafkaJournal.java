@@ -24,15 +24,18 @@ import com.github.joschi.jadconfig.util.Size;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import kafka.common.KafkaException;
 import kafka.common.OffsetOutOfRangeException;
 import kafka.common.TopicAndPartition;
 import kafka.log.CleanerConfig;
+import kafka.log.FileMessageSet;
 import kafka.log.Log;
 import kafka.log.LogAppendInfo;
 import kafka.log.LogConfig;
@@ -69,6 +72,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
@@ -82,13 +86,17 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
 import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -103,6 +111,30 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
 
     public static final long DEFAULT_COMMITTED_OFFSET = Long.MIN_VALUE;
     public static final int NOTIFY_ON_UTILIZATION_PERCENTAGE = 95;
+    public static final int MAX_PARTITIONS = 1024;
+
+    private static final String TOPIC = "messagejournal";
+    public static final String COMPRESSION_NONE = "none";
+    // journal compression setting to Kafka compression type, only codecs which don't need native libraries
+    private static final Map<String, String> COMPRESSION_TYPES = ImmutableMap.of(
+            COMPRESSION_NONE, "uncompressed",
+            "lz4", "lz4",
+            "gzip", "gzip");
+    private static final String COMMITTED_READ_OFFSET_FILE = "graylog2-committed-read-offset";
+    // Journal offsets carry the partition in their upper bits, thus the journal offsets of the first partition are
+    // identical to the offsets in its Kafka log.
+    private static final int PARTITION_SHIFT = 48;
+    private static final long LOG_OFFSET_MASK = (1L << PARTITION_SHIFT) - 1;
+
+    // Bounds of the number of bytes read from the log at once, see #readAheadBytes(long)
+    private static final int DEFAULT_READ_AHEAD_BYTES = 5 * 1024 * 1024;
+    private static final int MIN_READ_AHEAD_BYTES = 64 * 1024;
+    private static final int MAX_READ_AHEAD_BYTES = 32 * 1024 * 1024;
+    // Initial size of the buffer the message sets are written into, it grows up to the maximum segment size
+    private static final int INITIAL_WRITE_BUFFER_BYTES = 1024 * 1024;
+    // Number of messages which may be read but not yet committed, shared by all partitions
+    private static final int MAX_IN_FLIGHT_MESSAGES = 256 * 1024;
+    private static final int MIN_IN_FLIGHT_MESSAGES_PER_PARTITION = 4096;
     private final ServerStatus serverStatus;
 
     // this exists so we can use JodaTime's millis provider in tests.
@@ -125,13 +157,24 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
     };
 
     private final LogManager logManager;
-    private final Log kafkaLog;
-    private final File committedReadOffsetFile;
-    private final AtomicLong committedOffset = new AtomicLong(DEFAULT_COMMITTED_OFFSET);
+    private final List<Partition> partitions;
+    // outstanding commits of journal offsets shared by several messages or index entries, absent for all others
+    private final ConcurrentMap<Long, Integer> sharedOffsetReferences = new ConcurrentHashMap<>();
+    // number of partitions new messages are written to, there might be more partitions left over from an earlier
+    // configuration which are still being read
+    private final int writablePartitions;
+    private final AtomicInteger nextReadPartition = new AtomicInteger();
+    // group commit: writers wait until a shared flush has synced their messages to disk
+    private final long groupCommitIntervalMs;
+    private final long groupCommitBytes;
+    private final Object groupCommitLock = new Object();
+    private final AtomicLong unflushedBytes = new AtomicLong();
+    private Thread groupCommitThread;
     private final ScheduledExecutorService scheduler;
     private final Timer writeTime;
 
     private final Timer readTime;
+    private final Timer groupCommitTime;
     private final KafkaScheduler kafkaScheduler;
     private final Meter writtenMessages;
     private final Meter readMessages;
@@ -142,9 +185,9 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
     private final RecoveryCheckpointFlusher recoveryCheckpointFlusher;
     private final LogRetentionCleaner logRetentionCleaner;
     private final long maxSegmentSize;
+    private final boolean compressed;
     private final int maxMessageSize;
 
-    private long nextReadOffset = 0L;
     private ScheduledFuture<?> checkpointFlusherFuture;
     private ScheduledFuture<?> dirtyLogFlushFuture;
     private ScheduledFuture<?> logRetentionFuture;
@@ -155,6 +198,21 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
 
     private final int throttleThresholdPercentage;
 
+    public KafkaJournal(File journalDirectory,
+                        ScheduledExecutorService scheduler,
+                        Size segmentSize,
+                        Duration segmentAge,
+                        Size retentionSize,
+                        Duration retentionAge,
+                        long flushInterval,
+                        Duration flushAge,
+                        int throttleThresholdPercentage,
+                        MetricRegistry metricRegistry,
+                        ServerStatus serverStatus) {
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+                throttleThresholdPercentage, 1, Duration.ZERO, Size.megabytes(1L), COMPRESSION_NONE, metricRegistry, serverStatus);
+    }
+
     @Inject
     public KafkaJournal(@Named("message_journal_dir") File journalDirectory,
                         @Named("scheduler") ScheduledExecutorService scheduler,
@@ -165,9 +223,20 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                         @Named("message_journal_flush_interval") long flushInterval,
                         @Named("message_journal_flush_age") Duration flushAge,
                         @Named("lb_throttle_threshold_percentage") int throttleThresholdPercentage,
+                        @Named("message_journal_partitions") int numberOfPartitions,
+                        @Named("message_journal_group_commit_interval") Duration groupCommitInterval,
+                        @Named("message_journal_group_commit_size") Size groupCommitSize,
+                        @Named("message_journal_compression") String compression,
                         MetricRegistry metricRegistry,
                         ServerStatus serverStatus) {
+        checkArgument(numberOfPartitions > 0 && numberOfPartitions <= MAX_PARTITIONS,
+                "The number of journal partitions must be between 1 and " + MAX_PARTITIONS);
         this.scheduler = scheduler;
+        this.writablePartitions = numberOfPartitions;
+        this.groupCommitIntervalMs = groupCommitInterval.getMillis();
+        this.groupCommitBytes = groupCommitSize.toBytes();
+        final String compressionType = compressionType(compression);
+        this.compressed = !COMPRESSION_NONE.equals(compression.trim().toLowerCase(Locale.ENGLISH));
         this.throttleThresholdPercentage = intRange(throttleThresholdPercentage, 0, 100);
         this.serverStatus = serverStatus;
         this.maxSegmentSize = segmentSize.toBytes();
@@ -183,6 +252,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         // the registerHdrTimer helper doesn't throw on existing metrics
         this.writeTime = registerHdrTimer(metricRegistry, name(this.getClass(), "writeTime"));
         this.readTime = registerHdrTimer(metricRegistry, name(this.getClass(), "readTime"));
+        this.groupCommitTime = registerHdrTimer(metricRegistry, name(this.getClass(), "groupCommitTime"));
 
         final Map<String, Object> config = ImmutableMap.<String, Object>builder()
                 // segmentSize: The soft maximum for the size of a segment file in the log
@@ -195,8 +265,8 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                 .put(LogConfig.FlushMessagesProp(), flushInterval)
                 // flushMs: The amount of time the log can have dirty data before a flush is forced
                 .put(LogConfig.FlushMsProp(), flushAge.getMillis())
-                // retentionSize: The approximate total number of bytes this log can use
-                .put(LogConfig.RetentionBytesProp(), retentionSize.toBytes())
+                // retentionSize: The approximate total number of bytes this log can use, shared by all partitions
+                .put(LogConfig.RetentionBytesProp(), retentionSize.toBytes() / numberOfPartitions)
                 // retentionMs: The age approximate maximum age of the last segment that is retained
                 .put(LogConfig.RetentionMsProp(), retentionAge.getMillis())
                 // maxMessageSize: The maximum size of a message in the log (ensure that it's not larger than the max segment size)
@@ -216,6 +286,8 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                 // uncleanLeaderElectionEnable Indicates whether unclean leader election is enabled; actually a controller-level property
                 //                             but included here for topic-specific configuration validation purposes
                 .put(LogConfig.UncleanLeaderElectionEnableProp(), true)
+                // compressionType: The codec the log compresses every appended message set with into a single wrapper message
+                .put(LogConfig.CompressionTypeProp(), compressionType)
                 // minInSyncReplicas If number of insync replicas drops below this number, we stop accepting writes with -1 (or all) required acks
                 .put(LogConfig.MinInSyncReplicasProp(), 1)
                 .build();
@@ -242,23 +314,6 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
             throw new RuntimeException(accessDeniedException);
         }
 
-        // TODO add check for directory, etc
-        committedReadOffsetFile = new File(journalDirectory, "graylog2-committed-read-offset");
-        try {
-            if (!committedReadOffsetFile.createNewFile()) {
-                final String line = Files.readFirstLine(committedReadOffsetFile, StandardCharsets.UTF_8);
-                // the file contains the last offset graylog2 has successfully processed.
-                // thus the nextReadOffset is one beyond that number
-                if (line != null) {
-                    committedOffset.set(Long.parseLong(line.trim()));
-                    nextReadOffset = committedOffset.get() + 1;
-                }
-            }
-        } catch (IOException e) {
-            LOG.error("Cannot access offset file: {}", e.getMessage());
-            final AccessDeniedException accessDeniedException = new AccessDeniedException(committedReadOffsetFile.getAbsolutePath(), null, e.getMessage());
-            throw new RuntimeException(accessDeniedException);
-        }
         try {
             final BrokerState brokerState = new BrokerState();
             brokerState.newState(RunningAsBroker.state());
@@ -277,14 +332,20 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                     brokerState,
                     JODA_TIME);
 
-            final TopicAndPartition topicAndPartition = new TopicAndPartition("messagejournal", 0);
-            final Option<Log> messageLog = logManager.getLog(topicAndPartition);
-            if (messageLog.isEmpty()) {
-                kafkaLog = logManager.createLog(topicAndPartition, logManager.defaultConfig());
-            } else {
-                kafkaLog = messageLog.get();
+            // keep reading partitions of an earlier configuration with more partitions until they are empty
+            int existingPartitions = 0;
+            for (TopicAndPartition topicAndPartition : JavaConversions.asJavaIterable(logManager.logsByTopicPartition().keys())) {
+                if (TOPIC.equals(topicAndPartition.topic())) {
+                    existingPartitions = Math.max(existingPartitions, topicAndPartition.partition() + 1);
+                }
+            }
+            final int totalPartitions = Math.max(numberOfPartitions, existingPartitions);
+            final List<Partition> partitionList = new ArrayList<>(totalPartitions);
+            for (int i = 0; i < totalPartitions; i++) {
+                partitionList.add(openPartition(journalDirectory, i));
             }
-            LOG.info("Initialized Kafka based journal at {}", journalDirectory);
+            this.partitions = Collections.unmodifiableList(partitionList);
+            LOG.info("Initialized Kafka based journal at {} with {} partitions", journalDirectory, totalPartitions);
             setupKafkaLogMetrics(metricRegistry);
 
             offsetFlusher = new OffsetFileFlusher();
@@ -313,6 +374,72 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         return Integer.min(Integer.max(min, i), max);
     }
 
+    /**
+     * Maps the journal compression setting to the Kafka compression type.
+     *
+     * @param compression the value of {@code message_journal_compression}
+     * @return the Kafka compression type
+     * @throws IllegalArgumentException if the journal compression isn't supported
+     */
+    public static String compressionType(String compression) {
+        final String compressionType = COMPRESSION_TYPES.get(compression.trim().toLowerCase(Locale.ENGLISH));
+        checkArgument(compressionType != null, "Unsupported journal compression <%s>, must be one of %s", compression, COMPRESSION_TYPES.keySet());
+        return compressionType;
+    }
+
+    private Partition openPartition(File journalDirectory, int id) {
+        final TopicAndPartition topicAndPartition = new TopicAndPartition(TOPIC, id);
+        final Option<Log> messageLog = logManager.getLog(topicAndPartition);
+        final Log log;
+        if (messageLog.isEmpty()) {
+            log = logManager.createLog(topicAndPartition, logManager.defaultConfig());
+        } else {
+            log = messageLog.get();
+        }
+
+        // the first partition keeps the file name of the single partition journal
+        final String offsetFileName = id == 0 ? COMMITTED_READ_OFFSET_FILE : COMMITTED_READ_OFFSET_FILE + "-" + id;
+        final File committedReadOffsetFile = new File(journalDirectory, offsetFileName);
+        long committedOffset = DEFAULT_COMMITTED_OFFSET;
+        try {
+            if (!committedReadOffsetFile.createNewFile()) {
+                final String line = Files.readFirstLine(committedReadOffsetFile, StandardCharsets.UTF_8);
+                // the file contains the last offset graylog2 has successfully processed.
+                // thus the nextReadOffset is one beyond that number
+                if (line != null) {
+                    committedOffset = Long.parseLong(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot access offset file: {}", e.getMessage());
+            final AccessDeniedException accessDeniedException = new AccessDeniedException(committedReadOffsetFile.getAbsolutePath(), null, e.getMessage());
+            throw new RuntimeException(accessDeniedException);
+        }
+        return new Partition(id, log, committedReadOffsetFile, committedOffset, inFlightMessagesPerPartition());
+    }
+
+    /**
+     * Splits the in-flight messages between the configured partitions, the offset trackers need a power of two.
+     */
+    private int inFlightMessagesPerPartition() {
+        return Math.max(MIN_IN_FLIGHT_MESSAGES_PER_PARTITION, Integer.highestOneBit(MAX_IN_FLIGHT_MESSAGES / writablePartitions));
+    }
+
+    /**
+     * Encodes the offset of an entry in the log of the given partition into a journal offset.
+     */
+    public static long journalOffset(int partition, long logOffset) {
+        return ((long) partition << PARTITION_SHIFT) | logOffset;
+    }
+
+    public static int partitionOf(long journalOffset) {
+        return (int) (journalOffset >>> PARTITION_SHIFT);
+    }
+
+    public static long logOffsetOf(long journalOffset) {
+        return journalOffset & LOG_OFFSET_MASK;
+    }
+
     private Timer registerHdrTimer(MetricRegistry metricRegistry, final String metricName) {
         Timer timer;
         try {
@@ -327,7 +454,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
     private void registerUncommittedGauge(MetricRegistry metricRegistry, String name) {
         try {
             metricRegistry.register(name,
-                    (Gauge<Long>) () -> Math.max(0, getLogEndOffset() - 1 - committedOffset.get()));
+                    (Gauge<Long>) this::uncommittedEntries);
         } catch (IllegalArgumentException ignored) {
             // already registered, we'll ignore that.
         }
@@ -338,12 +465,19 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
     }
 
     private void setupKafkaLogMetrics(final MetricRegistry metricRegistry) {
-        metricRegistry.register(name(KafkaJournal.class, "size"), (Gauge<Long>) kafkaLog::size);
-        metricRegistry.register(name(KafkaJournal.class, "logEndOffset"), (Gauge<Long>) kafkaLog::logEndOffset);
-        metricRegistry.register(name(KafkaJournal.class, "numberOfSegments"), (Gauge<Integer>) kafkaLog::numberOfSegments);
-        metricRegistry.register(name(KafkaJournal.class, "unflushedMessages"), (Gauge<Long>) kafkaLog::unflushedMessages);
-        metricRegistry.register(name(KafkaJournal.class, "recoveryPoint"), (Gauge<Long>) kafkaLog::recoveryPoint);
-        metricRegistry.register(name(KafkaJournal.class, "lastFlushTime"), (Gauge<Long>) kafkaLog::lastFlushTime);
+        metricRegistry.register(name(KafkaJournal.class, "size"), (Gauge<Long>) this::size);
+        metricRegistry.register(name(KafkaJournal.class, "logEndOffset"), (Gauge<Long>) this::getLogEndOffset);
+        metricRegistry.register(name(KafkaJournal.class, "numberOfSegments"), (Gauge<Integer>) this::numberOfSegments);
+        metricRegistry.register(name(KafkaJournal.class, "unflushedMessages"),
+                (Gauge<Long>) () -> partitions.stream().mapToLong(partition -> partition.log.unflushedMessages()).sum());
+        metricRegistry.register(name(KafkaJournal.class, "inFlightMessages"),
+                (Gauge<Long>) () -> partitions.stream().mapToLong(Partition::inFlightMessages).sum());
+        metricRegistry.register(name(KafkaJournal.class, "trackingWindowFull"),
+                (Gauge<Long>) () -> partitions.stream().filter(partition -> partition.trackingWindowFull).count());
+        metricRegistry.register(name(KafkaJournal.class, "recoveryPoint"),
+                (Gauge<Long>) () -> partitions.stream().mapToLong(partition -> partition.log.recoveryPoint()).sum());
+        metricRegistry.register(name(KafkaJournal.class, "lastFlushTime"),
+                (Gauge<Long>) () -> partitions.stream().mapToLong(partition -> partition.log.lastFlushTime()).min().orElse(0L));
         // must not be a lambda, because the serialization cannot determine the proper Metric type :(
         metricRegistry.register(GlobalMetricNames.JOURNAL_OLDEST_SEGMENT, (Gauge<Date>) new Gauge<Date>() {
             @Override
@@ -379,82 +513,116 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
      */
     @Override
     public long write(List<Entry> entries) {
+        return write(entries, 0);
+    }
+
+    /**
+     * Writes the list of entries to the given partition of the journal. Partition numbers larger than the number of
+     * configured partitions are wrapped around.
+     *
+     * @param entries   journal entries to be written
+     * @param partition the partition to write to
+     * @return the last position written to in the journal
+     */
+    @Override
+    public long write(List<Entry> entries, int partition) {
+        final Partition target = partitions.get(Math.floorMod(partition, writablePartitions));
         try (Timer.Context ignored = writeTime.time()) {
-            long payloadSize = 0L;
-            long messageSetSize = 0L;
-            long lastWriteOffset = 0L;
-
-            final List<Message> messages = new ArrayList<>(entries.size());
-            for (final Entry entry : entries) {
-                final byte[] messageBytes = entry.getMessageBytes();
-                final byte[] idBytes = entry.getIdBytes();
-
-                payloadSize += messageBytes.length;
-
-                final Message newMessage = new Message(messageBytes, idBytes);
-                // Calculate the size of the new message in the message set by including the overhead for the log entry.
-                final int newMessageSize = MessageSet.entrySize(newMessage);
-
-                if (newMessageSize > maxMessageSize) {
-                    writeDiscardedMessages.mark();
-                    LOG.warn("Message with ID <{}> is too large to store in journal, skipping! (size: {} bytes / max: {} bytes)",
-                            new String(idBytes, StandardCharsets.UTF_8), newMessageSize, maxMessageSize);
-                    payloadSize = 0;
-                    continue;
-                }
+            // the write buffer of the partition is reused for every write
+            synchronized (target) {
+                long payloadSize = 0L;
+                long lastWriteOffset = -1L;
+                int messageCount = 0;
+
+                target.writeBuffer.clear();
+                for (final Entry entry : entries) {
+                    final byte[] messageBytes = entry.getMessageBytes();
+                    final byte[] idBytes = entry.getIdBytes();
+
+                    // Calculate the size of the new message in the message set by including the overhead for the log entry.
+                    final int newMessageSize = entrySize(idBytes, messageBytes);
+
+                    if (newMessageSize > maxMessageSize) {
+                        writeDiscardedMessages.mark();
+                        LOG.warn("Message with ID <{}> is too large to store in journal, skipping! (size: {} bytes / max: {} bytes)",
+                                new String(idBytes, StandardCharsets.UTF_8), newMessageSize, maxMessageSize);
+                        continue;
+                    }
+
+                    // If adding the new message to the message set would overflow the max segment size, flush the current
+                    // list of message to avoid a MessageSetSizeTooLargeException.
+                    final int messageSetSize = target.writeBuffer.position();
+                    if ((messageSetSize + newMessageSize) > maxSegmentSize) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Flushing {} bytes message set with {} messages to avoid overflowing segment with max size of {} bytes",
+                                    messageSetSize, messageCount, maxSegmentSize);
+                        }
+                        lastWriteOffset = flushMessages(target, messageCount, payloadSize);
+                        // Reset the counters to start a new batch.
+                        messageCount = 0;
+                        payloadSize = 0;
+                    }
+                    target.appendToWriteBuffer(idBytes, messageBytes, newMessageSize);
+                    messageCount++;
+                    payloadSize += messageBytes.length;
 
-                // If adding the new message to the message set would overflow the max segment size, flush the current
-                // list of message to avoid a MessageSetSizeTooLargeException.
-                if ((messageSetSize + newMessageSize) > maxSegmentSize) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Flushing {} bytes message set with {} messages to avoid overflowing segment with max size of {} bytes",
-                                messageSetSize, messages.size(), maxSegmentSize);
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Message {} contains bytes {}", bytesToHex(idBytes), bytesToHex(messageBytes));
                     }
-                    lastWriteOffset = flushMessages(messages, payloadSize);
-                    // Reset the messages list and size counters to start a new batch.
-                    messages.clear();
-                    messageSetSize = 0;
-                    payloadSize = 0;
                 }
-                messages.add(newMessage);
-                messageSetSize += newMessageSize;
 
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("Message {} contains bytes {}", bytesToHex(idBytes), bytesToHex(messageBytes));
+                // Flush the rest of the messages.
+                if (messageCount > 0) {
+                    lastWriteOffset = flushMessages(target, messageCount, payloadSize);
                 }
-            }
 
-            // Flush the rest of the messages.
-            if (messages.size() > 0) {
-                lastWriteOffset = flushMessages(messages, payloadSize);
+                return lastWriteOffset;
             }
-
-            return lastWriteOffset;
         }
     }
 
-    private long flushMessages(List<Message> messages, long payloadSize) {
-        if (messages.isEmpty()) {
+    /**
+     * The size of a message with the given key and payload in a message set, including the overhead for the log entry.
+     *
+     * @see MessageSet#entrySize(Message)
+     */
+    private static int entrySize(byte[] key, byte[] payload) {
+        return MessageSet.LogOverhead() + Message.MinHeaderSize() + (key == null ? 0 : key.length) + payload.length;
+    }
+
+    private long flushMessages(Partition partition, int messageCount, long payloadSize) {
+        if (messageCount == 0) {
             LOG.debug("No messages to flush, not trying to write an empty message set.");
             return -1L;
         }
 
-        final ByteBufferMessageSet messageSet = new ByteBufferMessageSet(JavaConversions.asScalaBuffer(messages).toSeq());
+        final ByteBuffer buffer = partition.writeBuffer;
+        buffer.flip();
+        final ByteBufferMessageSet messageSet = new ByteBufferMessageSet(buffer);
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Trying to write ByteBufferMessageSet with size of {} bytes to journal", messageSet.sizeInBytes());
         }
 
-        final LogAppendInfo appendInfo = kafkaLog.append(messageSet, true);
+        // the log assigns the offsets in place and writes the buffer to the segment file before returning
+        final LogAppendInfo appendInfo = partition.log.append(messageSet, true);
         long lastWriteOffset = appendInfo.lastOffset();
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Wrote {} messages to journal: {} bytes (payload {} bytes), log position {} to {}",
-                    messages.size(), messageSet.sizeInBytes(), payloadSize, appendInfo.firstOffset(), lastWriteOffset);
+            LOG.debug("Wrote {} messages to journal partition {}: {} bytes (payload {} bytes), log position {} to {}",
+                    messageCount, partition.id, messageSet.sizeInBytes(), payloadSize, appendInfo.firstOffset(), lastWriteOffset);
+        }
+        writtenMessages.mark(messageCount);
+        buffer.clear();
+
+        if (isGroupCommitEnabled() && unflushedBytes.addAndGet(messageSet.sizeInBytes()) >= groupCommitBytes) {
+            // don't wait for the group commit interval to pass
+            synchronized (groupCommitLock) {
+                groupCommitLock.notifyAll();
+            }
         }
-        writtenMessages.mark(messages.size());
 
-        return lastWriteOffset;
+        return journalOffset(partition.id, lastWriteOffset);
     }
 
     /**
@@ -470,12 +638,57 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         return write(Collections.singletonList(journalEntry));
     }
 
+    /**
+     * Reads from the partitions in turn and returns the messages of the first partition which has any.
+     */
     @Override
     public List<JournalReadEntry> read(long requestedMaximumCount) {
-        return read(nextReadOffset, requestedMaximumCount);
+        final int start = Math.floorMod(nextReadPartition.getAndIncrement(), partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            final List<JournalReadEntry> messages = read((start + i) % partitions.size(), requestedMaximumCount);
+            if (!messages.isEmpty()) {
+                return messages;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<JournalReadEntry> read(int partition, long requestedMaximumCount) {
+        final Partition source = partitions.get(partition);
+        final long readOffset = source.nextReadOffset;
+        final long logStartOffset = source.logStartOffset();
+        if (readOffset < logStartOffset) {
+            // the skipped messages have been removed from the log and will never be committed
+            source.committedOffsets.skipTo(logStartOffset);
+        }
+        // don't read more messages than can be tracked until they are committed
+        final long trackableCount = source.committedOffsets.getOffsetLimit() - Math.max(readOffset, logStartOffset);
+        if (trackableCount <= 0) {
+            if (!source.trackingWindowFull) {
+                source.trackingWindowFull = true;
+                LOG.warn("Too many uncommitted messages ({}) in flight for journal partition {}, not reading any more " +
+                                "until the oldest uncommitted message at log offset {} has been committed.",
+                        source.inFlightMessages(), partition, source.committedOffsets.getNextOffset());
+            } else {
+                LOG.debug("Too many uncommitted messages in flight for journal partition {}, not reading any more.", partition);
+            }
+            return Collections.emptyList();
+        }
+        if (source.trackingWindowFull) {
+            source.trackingWindowFull = false;
+            LOG.info("Resuming to read from journal partition {}, uncommitted messages have been committed.", partition);
+        }
+        return read(source, readOffset, Math.min(requestedMaximumCount, trackableCount));
     }
 
     public List<JournalReadEntry> read(long readOffset, long requestedMaximumCount) {
+        final int partition = partitionOf(readOffset);
+        checkArgument(partition < partitions.size(), "Journal offset %s refers to unknown partition %s", readOffset, partition);
+        return read(partitions.get(partition), logOffsetOf(readOffset), requestedMaximumCount);
+    }
+
+    private List<JournalReadEntry> read(Partition partition, long readOffset, long requestedMaximumCount) {
         // Always read at least one!
         final long maximumCount = Math.max(1, requestedMaximumCount);
         long maxOffset = readOffset + maximumCount;
@@ -485,7 +698,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         }
         final List<JournalReadEntry> messages = new ArrayList<>(Ints.saturatedCast(maximumCount));
         try (Timer.Context ignored = readTime.time()) {
-            final long logStartOffset = getLogStartOffset();
+            final long logStartOffset = partition.logStartOffset();
 
             if (readOffset < logStartOffset) {
                 LOG.info(
@@ -495,38 +708,60 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                 readOffset = logStartOffset;
                 maxOffset = readOffset + maximumCount;
             }
-            LOG.debug("Requesting to read a maximum of {} messages (or 5MB) from the journal, offset interval [{}, {})",
-                    maximumCount, readOffset, maxOffset);
+            final int readAheadBytes = partition.readAheadBytes(maximumCount);
+            LOG.debug("Requesting to read a maximum of {} messages (or {} bytes) from journal partition {}, offset interval [{}, {})",
+                    maximumCount, readAheadBytes, partition.id, readOffset, maxOffset);
 
-            // TODO benchmark and make read-ahead strategy configurable for performance tuning
-            final MessageSet messageSet = kafkaLog.read(readOffset,
-                    5 * 1024 * 1024,
-                    Option.<Object>apply(maxOffset)).messageSet();
+            final MessageSet messageSet = readIntoBuffer(partition.log.read(readOffset,
+                    readAheadBytes,
+                    Option.<Object>apply(maxOffset)).messageSet());
 
             final Iterator<MessageAndOffset> iterator = messageSet.iterator();
             long firstOffset = Long.MIN_VALUE;
             long lastOffset = Long.MIN_VALUE;
             long totalBytes = 0;
+            long totalEntryBytes = 0;
             while (iterator.hasNext()) {
                 final MessageAndOffset messageAndOffset = iterator.next();
 
+                // a compressed message set is read as a whole, skip the messages outside of the requested interval
+                if (messageAndOffset.offset() < readOffset) {
+                    continue;
+                }
+                if (messageAndOffset.offset() >= maxOffset) {
+                    break;
+                }
+
                 if (firstOffset == Long.MIN_VALUE) firstOffset = messageAndOffset.offset();
                 // always remember the last seen offset for debug purposes below
                 lastOffset = messageAndOffset.offset();
 
-                final byte[] payloadBytes = ByteBufferUtils.readBytes(messageAndOffset.message().payload());
+                // the payload is a slice of the buffer the message set has been read into, no need to copy it
+                final JournalReadEntry entry = new JournalReadEntry(messageAndOffset.message().payload(),
+                        journalOffset(partition.id, messageAndOffset.offset()));
                 if (LOG.isTraceEnabled()) {
                     final byte[] keyBytes = ByteBufferUtils.readBytes(messageAndOffset.message().key());
-                    LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(payloadBytes));
+                    LOG.trace("Read message {} contains {}", bytesToHex(keyBytes), bytesToHex(entry.getPayload()));
                 }
-                totalBytes += payloadBytes.length;
-                messages.add(new JournalReadEntry(payloadBytes, messageAndOffset.offset()));
+                totalBytes += entry.getPayloadSize();
+                totalEntryBytes += MessageSet.entrySize(messageAndOffset.message());
+                messages.add(entry);
                 // remember where to read from
-                nextReadOffset = messageAndOffset.nextOffset();
+                partition.nextReadOffset = messageAndOffset.nextOffset();
             }
             if (messages.isEmpty()) {
+                if (messageSet.sizeInBytes() >= readAheadBytes) {
+                    // the next entry is larger than the read-ahead, make sure it fits next time
+                    partition.minReadAheadBytes = Ints.saturatedCast(2L * readAheadBytes);
+                    LOG.debug("Journal entry at offset {} exceeds {} bytes, increasing read-ahead.", readOffset, readAheadBytes);
+                }
                 LOG.debug("No messages available to read for offset interval [{}, {}).", readOffset, maxOffset);
             } else {
+                // the read-ahead is based on the size of the entries on disk, i.e. after compression
+                if (compressed && messageSet instanceof ByteBufferMessageSet) {
+                    totalEntryBytes = ((ByteBufferMessageSet) messageSet).validBytes();
+                }
+                partition.updateAverageEntrySize(totalEntryBytes, messages.size());
                 LOG.debug(
                         "Read {} messages, total payload size {}, from journal, offset interval [{}, {}], requested read at {}",
                         messages.size(),
@@ -559,25 +794,115 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
     }
 
     /**
-     * Upon fully processing, and persistently storing, a batch of messages, the system should mark the message with the
-     * highest offset as committed. A background job will write the last position to disk periodically.
+     * Reads all messages of a file based message set with a single read into one buffer, so the messages can be
+     * sliced from it instead of allocating and copying each message separately.
+     */
+    private static MessageSet readIntoBuffer(MessageSet messageSet) {
+        if (messageSet instanceof FileMessageSet) {
+            final FileMessageSet fileMessageSet = (FileMessageSet) messageSet;
+            final ByteBuffer buffer = ByteBuffer.allocate(fileMessageSet.sizeInBytes());
+            return new ByteBufferMessageSet(fileMessageSet.readInto(buffer, 0));
+        }
+        return messageSet;
+    }
+
+    /**
+     * Upon fully processing, and persistently storing, a message, the system should mark its offset as committed.
+     * Messages may be committed in any order, the committed offset of a partition only advances once all messages
+     * before it have been committed as well. A background job will write the last position to disk periodically.
      *
-     * @param offset the offset of the latest committed message
+     * @param offset the offset of the committed message
      */
     @Override
     public void markJournalOffsetCommitted(long offset) {
-        long prev;
-        // the caller will not care about offsets going backwards, so we need to make sure we don't backtrack
-        int i = 0;
-        do {
-            prev = committedOffset.get();
-            // at least warn if this spins often, that would be a sign of very high contention, which should not happen
-            if (++i % 10 == 0) {
-                LOG.warn("Committing journal offset spins {} times now, this might be a bug. Continuing to try update.",
-                        i);
+        if (offset < 0) {
+            // messages which have never been written to the journal, e.g. from inputs which bypass it
+            LOG.debug("Ignoring commit of journal offset {} of a message which has not been journalled", offset);
+            return;
+        }
+        if (!releaseReference(offset)) {
+            // other messages or index entries sharing the offset haven't been committed yet
+            return;
+        }
+        final int partitionId = partitionOf(offset);
+        if (partitionId >= partitions.size()) {
+            LOG.warn("Ignoring commit of invalid journal offset {}", offset);
+            return;
+        }
+        if (!partitions.get(partitionId).committedOffsets.complete(logOffsetOf(offset))) {
+            LOG.warn("Ignoring commit of journal offset {}, it is beyond the range of uncommitted messages which are tracked.", offset);
+        }
+    }
+
+    @Override
+    public void addJournalOffsetReferences(long offset, int references) {
+        if (offset < 0 || references <= 0) {
+            return;
+        }
+        // the first registration accounts for the message itself as well
+        sharedOffsetReferences.merge(offset, references + 1, (outstanding, added) -> outstanding + references);
+    }
+
+    /**
+     * @return {@code true} if the commit of the given offset was the last one outstanding
+     */
+    private boolean releaseReference(long offset) {
+        if (sharedOffsetReferences.isEmpty()) {
+            return true;
+        }
+        final boolean[] last = {true};
+        sharedOffsetReferences.computeIfPresent(offset, (key, outstanding) -> {
+            if (outstanding > 1) {
+                last[0] = false;
+                return outstanding - 1;
+            }
+            return null;
+        });
+        return last[0];
+    }
+
+    private boolean isGroupCommitEnabled() {
+        return groupCommitIntervalMs > 0;
+    }
+
+    /**
+     * Blocks until the message at the given offset has been synced to disk by the group commit. Returns immediately
+     * if group commit is disabled, in which case the logs are flushed according to the flush interval and age.
+     *
+     * @param offset the offset returned by {@link #write(List, int)}
+     */
+    @Override
+    public void awaitFlushed(long offset) throws InterruptedException {
+        final int partitionId = partitionOf(offset);
+        if (!isGroupCommitEnabled() || offset < 0 || partitionId >= partitions.size()) {
+            return;
+        }
+        final Log log = partitions.get(partitionId).log;
+        final long logOffset = logOffsetOf(offset);
+        synchronized (groupCommitLock) {
+            // the recovery point is the offset up to which the log has been flushed
+            while (log.recoveryPoint() <= logOffset && !shuttingDown) {
+                groupCommitLock.wait(groupCommitIntervalMs);
             }
-        } while (!committedOffset.compareAndSet(prev, Math.max(offset, prev)));
+        }
+    }
 
+    /**
+     * Flushes all partitions with unflushed messages and wakes up the writers waiting for them.
+     */
+    private void groupCommit() {
+        unflushedBytes.set(0L);
+        try (Timer.Context ignored = groupCommitTime.time()) {
+            for (Partition partition : partitions) {
+                if (partition.log.unflushedMessages() > 0) {
+                    partition.log.flush();
+                }
+            }
+        } finally {
+            synchronized (groupCommitLock) {
+                groupCommitLock.notifyAll();
+            }
+        }
     }
 
     /**
@@ -607,12 +932,47 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    /**
+     * Returns the number of committed messages expressed as an offset into the journal, i.e. the sum of the
+     * committed offsets of all partitions. Partitions without any committed messages count as committed up to the
+     * start of their log. This keeps the difference between {@link #getLogEndOffset()} and the committed offset equal
+     * to the number of uncommitted messages.
+     *
+     * @return the aggregated committed offset or {@link #DEFAULT_COMMITTED_OFFSET} if nothing has been committed yet
+     */
     public long getCommittedOffset() {
-        return committedOffset.get();
+        long committed = 0L;
+        boolean anyCommitted = false;
+        for (Partition partition : partitions) {
+            final long partitionCommitted = partition.committedOffset();
+            if (partitionCommitted == DEFAULT_COMMITTED_OFFSET) {
+                committed += partition.logStartOffset() - 1;
+            } else {
+                committed += partitionCommitted;
+                anyCommitted = true;
+            }
+        }
+        // committed offsets are inclusive, so every partition but one adds one too little
+        return anyCommitted ? committed + partitions.size() - 1 : DEFAULT_COMMITTED_OFFSET;
     }
 
     public long getNextReadOffset() {
-        return nextReadOffset;
+        return partitions.stream().mapToLong(partition -> partition.nextReadOffset).sum();
+    }
+
+    @Override
+    public int numberOfPartitions() {
+        return partitions.size();
+    }
+
+    @Override
+    public int numberOfWritablePartitions() {
+        return writablePartitions;
+    }
+
+    @Override
+    public long uncommittedEntries() {
+        return Math.max(0, getLogEndOffset() - 1 - getCommittedOffset());
     }
 
     @Override
@@ -643,6 +1003,15 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
 
         // regularly write the currently committed read offset to disk
         offsetFlusherFuture = scheduler.scheduleAtFixedRate(offsetFlusher, 1, 1, SECONDS);
+
+        if (isGroupCommitEnabled()) {
+            groupCommitThread = new ThreadFactoryBuilder()
+                    .setNameFormat("journal-group-commit-%d")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(new GroupCommitFlusher());
+            groupCommitThread.start();
+        }
     }
 
     @Override
@@ -654,6 +1023,10 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         logRetentionFuture.cancel(false);
         checkpointFlusherFuture.cancel(false);
         dirtyLogFlushFuture.cancel(false);
+        if (groupCommitThread != null) {
+            groupCommitThread.interrupt();
+            groupCommitThread.join();
+        }
 
         kafkaScheduler.shutdown();
         logManager.shutdown();
@@ -672,7 +1045,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
 
     // default visibility for tests
     public Iterable<LogSegment> getSegments() {
-        return JavaConversions.asJavaIterable(kafkaLog.logSegments());
+        return Iterables.concat(Lists.transform(partitions, partition -> JavaConversions.asJavaIterable(partition.log.logSegments())));
     }
 
     /**
@@ -681,7 +1054,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
      * @return journal size in bytes
      */
     public long size() {
-        return kafkaLog.size();
+        return partitions.stream().mapToLong(partition -> partition.log.size()).sum();
     }
 
     /**
@@ -690,7 +1063,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
      * @return number of segments
      */
     public int numberOfSegments() {
-        return kafkaLog.numberOfSegments();
+        return partitions.stream().mapToInt(partition -> partition.log.numberOfSegments()).sum();
     }
 
     /**
@@ -702,41 +1075,49 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
      * </p>
      *
      * @return the offset of the last message which has been successfully processed.
+     * @see #getCommittedOffset()
      */
     public long getCommittedReadOffset() {
-        return committedOffset.get();
+        return getCommittedOffset();
     }
 
     /**
-     * Discards all data in the journal prior to the given offset.
+     * Discards all data in the journal partition of the given offset after that offset.
      *
-     * @param offset offset to truncate to, so that no offset in the journal is larger than this.
+     * @param offset offset to truncate to, so that no offset in its partition is larger than this.
      */
     public void truncateTo(long offset) {
-        kafkaLog.truncateTo(offset);
+        final int partition = partitionOf(offset);
+        checkArgument(partition < partitions.size(), "Journal offset %s refers to unknown partition %s", offset, partition);
+        partitions.get(partition).log.truncateTo(logOffsetOf(offset));
     }
 
     /**
-     * Returns the first valid offset in the entire journal.
+     * Returns the first valid offset in the entire journal. With multiple partitions this is the sum of the start
+     * offsets of all partitions.
      *
      * @return first offset
      */
     public long getLogStartOffset() {
-        final Iterable<LogSegment> logSegments = JavaConversions.asJavaIterable(kafkaLog.logSegments());
-        final LogSegment segment = Iterables.getFirst(logSegments, null);
-        if (segment == null) {
-            return 0;
-        }
-        return segment.baseOffset();
+        return partitions.stream().mapToLong(Partition::logStartOffset).sum();
     }
 
     /**
-     * returns the offset for the next value to be inserted in the entire journal.
+     * returns the offset for the next value to be inserted in the entire journal. With multiple partitions this is
+     * the sum of the end offsets of all partitions, thus the difference to {@link #getLogStartOffset()} is the number
+     * of messages in the journal.
      *
      * @return the next offset value (last valid offset is this number - 1)
      */
     public long getLogEndOffset() {
-        return kafkaLog.logEndOffset();
+        return partitions.stream().mapToLong(partition -> partition.log.logEndOffset()).sum();
+    }
+
+    /**
+     * Returns the end offset of a single partition, as a journal offset.
+     */
+    public long getLogEndOffset(int partition) {
+        return journalOffset(partition, partitions.get(partition).log.logEndOffset());
     }
 
     /**
@@ -756,12 +1137,18 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
     public class OffsetFileFlusher implements Runnable {
         @Override
         public void run() {
+            for (Partition partition : partitions) {
+                writeOffsetFile(partition.committedOffset(), partition.committedReadOffsetFile);
+            }
+        }
+
+        private void writeOffsetFile(long committedOffset, File committedReadOffsetFile) {
             // Do not write the file if committedOffset has never been updated.
-            if (committedOffset.get() == DEFAULT_COMMITTED_OFFSET) {
+            if (committedOffset == DEFAULT_COMMITTED_OFFSET) {
                 return;
             }
             try (final FileOutputStream fos = new FileOutputStream(committedReadOffsetFile)) {
-                fos.write(String.valueOf(committedOffset.get()).getBytes(StandardCharsets.UTF_8));
+                fos.write(String.valueOf(committedOffset).getBytes(StandardCharsets.UTF_8));
                 // flush stream
                 fos.flush();
                 // actually sync to disk
@@ -796,12 +1183,32 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
             loggerForCleaner.debug("Beginning log cleanup");
             int total = 0;
             final Timer.Context ctx = new Timer().time();
-            for (final Log kafkaLog : JavaConversions.asJavaIterable(logManager.allLogs())) {
-                if (kafkaLog.config().compact()) continue;
-                loggerForCleaner.debug("Garbage collecting {}", kafkaLog.name());
-                total += cleanupExpiredSegments(kafkaLog) +
-                        cleanupSegmentsToMaintainSize(kafkaLog) +
-                        cleanupSegmentsToRemoveCommitted(kafkaLog);
+            KafkaJournal.this.purgedSegmentsInLastRetention.set(0);
+
+            for (final Partition partition : partitions) {
+                if (partition.log.config().compact()) continue;
+                loggerForCleaner.debug("Garbage collecting {}", partition.log.name());
+                total += cleanupExpiredSegments(partition.log);
+            }
+
+            // the retention size is split evenly between the partitions, the utilization is the one of the whole journal
+            long retentionSize = 0L;
+            long currentSize = 0L;
+            for (final Partition partition : partitions) {
+                retentionSize += Math.max(0L, partition.log.config().retentionSize());
+                currentSize += partition.log.size();
+            }
+            final double utilizationPercentage = retentionSize > 0 ? (currentSize * 100) / retentionSize : 0.0;
+            if (utilizationPercentage > KafkaJournal.NOTIFY_ON_UTILIZATION_PERCENTAGE) {
+                LOG.warn("Journal utilization ({}%) has gone over {}%.", utilizationPercentage,
+                        KafkaJournal.NOTIFY_ON_UTILIZATION_PERCENTAGE);
+            }
+            updateLoadBalancerStatus(utilizationPercentage);
+
+            for (final Partition partition : partitions) {
+                if (partition.log.config().compact()) continue;
+                total += cleanupSegmentsToMaintainSize(partition.log) +
+                        cleanupSegmentsToRemoveCommitted(partition.log, partition.committedOffset());
             }
 
             loggerForCleaner.debug("Log cleanup completed. {} files deleted in {} seconds",
@@ -813,7 +1220,6 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         private int cleanupExpiredSegments(final Log kafkaLog) {
             // don't run if nothing will be done
             if (kafkaLog.size() == 0 && kafkaLog.numberOfSegments() < 1) {
-                KafkaJournal.this.purgedSegmentsInLastRetention.set(0);
                 return 0;
             }
             int deletedSegments = kafkaLog.deleteOldSegments(new AbstractFunction1<LogSegment, Object>() {
@@ -830,7 +1236,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                     return shouldDelete;
                 }
             });
-            KafkaJournal.this.purgedSegmentsInLastRetention.set(deletedSegments);
+            KafkaJournal.this.purgedSegmentsInLastRetention.addAndGet(deletedSegments);
             return deletedSegments;
         }
 
@@ -860,15 +1266,7 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         private int cleanupSegmentsToMaintainSize(Log kafkaLog) {
             final long retentionSize = kafkaLog.config().retentionSize();
             final long currentSize = kafkaLog.size();
-            final double utilizationPercentage = retentionSize > 0 ? (currentSize * 100) / retentionSize : 0.0;
-            if (utilizationPercentage > KafkaJournal.NOTIFY_ON_UTILIZATION_PERCENTAGE) {
-                LOG.warn("Journal utilization ({}%) has gone over {}%.", utilizationPercentage,
-                        KafkaJournal.NOTIFY_ON_UTILIZATION_PERCENTAGE);
-            }
-            updateLoadBalancerStatus(utilizationPercentage);
-
             if (retentionSize < 0 || currentSize < retentionSize) {
-                KafkaJournal.this.purgedSegmentsInLastRetention.set(0);
                 return 0;
             }
             final long[] diff = {currentSize - retentionSize};
@@ -889,11 +1287,11 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
                     }
                 }
             });
-            KafkaJournal.this.purgedSegmentsInLastRetention.set(deletedSegments);
+            KafkaJournal.this.purgedSegmentsInLastRetention.addAndGet(deletedSegments);
             return deletedSegments;
         }
 
-        private int cleanupSegmentsToRemoveCommitted(Log kafkaLog) {
+        private int cleanupSegmentsToRemoveCommitted(Log kafkaLog, long committedOffset) {
             if (kafkaLog.numberOfSegments() <= 1) {
                 loggerForCleaner.debug(
                         "[cleanup-committed] The journal is already minimal at {} segment(s), not trying to remove more segments.",
@@ -903,7 +1301,6 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
             // we need to iterate through all segments to the find the cutoff point for the committed offset.
             // unfortunately finding the largest offset contained in a segment is expensive (it involves reading the entire file)
             // so we have to get a global view.
-            final long committedOffset = KafkaJournal.this.committedOffset.get();
             final HashSet<LogSegment> logSegments = Sets.newHashSet(
                     JavaConversions.asJavaIterable(kafkaLog.logSegments(committedOffset, Long.MAX_VALUE))
             );
@@ -924,6 +1321,117 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    /**
+     * The Kafka log of a single journal partition together with its read and commit state.
+     */
+    private static class Partition {
+        private final int id;
+        private final Log log;
+        private final File committedReadOffsetFile;
+        // completed messages, the next offset of the tracker is one beyond the committed offset
+        private final OffsetTracker committedOffsets;
+        private volatile long nextReadOffset;
+        // set while no more messages are read because the tracker cannot track more uncommitted messages
+        private volatile boolean trackingWindowFull = false;
+        // moving average of the size of the entries in the log (including the log overhead), 0 until the first read
+        private volatile int averageEntrySize = 0;
+        // raised if a single entry did not fit into the read-ahead
+        private volatile int minReadAheadBytes = MIN_READ_AHEAD_BYTES;
+        // message set which is being written, guarded by the partition
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_WRITE_BUFFER_BYTES);
+        private final CRC32 crc = new CRC32();
+
+        private Partition(int id, Log log, File committedReadOffsetFile, long committedOffset, int maxInFlightMessages) {
+            this.id = id;
+            this.log = log;
+            this.committedReadOffsetFile = committedReadOffsetFile;
+            this.nextReadOffset = committedOffset == DEFAULT_COMMITTED_OFFSET ? 0L : committedOffset + 1;
+            this.committedOffsets = new OffsetTracker(nextReadOffset, maxInFlightMessages);
+        }
+
+        /**
+         * @return the highest offset up to which all messages have been committed or {@link #DEFAULT_COMMITTED_OFFSET}
+         */
+        private long committedOffset() {
+            final long nextOffset = committedOffsets.getNextOffset();
+            return nextOffset == 0L ? DEFAULT_COMMITTED_OFFSET : nextOffset - 1;
+        }
+
+        /**
+         * @return the number of messages which have been read but not committed yet
+         */
+        private long inFlightMessages() {
+            return Math.max(0L, nextReadOffset - committedOffsets.getNextOffset());
+        }
+
+        /**
+         * Appends a message to the message set in the write buffer, in the format of {@link Message} with magic value 0,
+         * to avoid creating and copying a {@link Message} object for every journal entry.
+         */
+        private void appendToWriteBuffer(byte[] key, byte[] payload, int entrySize) {
+            if (writeBuffer.remaining() < entrySize) {
+                final int capacity = Ints.saturatedCast(Math.max(2L * writeBuffer.capacity(), (long) writeBuffer.position() + entrySize));
+                final ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+                writeBuffer.flip();
+                newBuffer.put(writeBuffer);
+                writeBuffer = newBuffer;
+            }
+
+            // the offset is assigned by the log
+            writeBuffer.putLong(0L);
+            writeBuffer.putInt(entrySize - MessageSet.LogOverhead());
+            final int crcPosition = writeBuffer.position();
+            writeBuffer.putInt(0);
+            writeBuffer.put(Message.CurrentMagicValue());
+            // attributes, no compression
+            writeBuffer.put((byte) 0);
+            if (key == null) {
+                writeBuffer.putInt(-1);
+            } else {
+                writeBuffer.putInt(key.length);
+                writeBuffer.put(key);
+            }
+            writeBuffer.putInt(payload.length);
+            writeBuffer.put(payload);
+
+            // the checksum covers everything after itself
+            final int checksummedPosition = crcPosition + Message.CrcLength();
+            crc.reset();
+            crc.update(writeBuffer.array(), writeBuffer.arrayOffset() + checksummedPosition, writeBuffer.position() - checksummedPosition);
+            writeBuffer.putInt(crcPosition, (int) crc.getValue());
+        }
+
+        private long logStartOffset() {
+            final LogSegment segment = Iterables.getFirst(JavaConversions.asJavaIterable(log.logSegments()), null);
+            if (segment == null) {
+                return 0;
+            }
+            return segment.baseOffset();
+        }
+
+        /**
+         * Estimates the number of bytes needed to read the requested number of messages from the observed sizes of
+         * previously read entries, instead of always reading ahead a fixed amount of data.
+         */
+        private int readAheadBytes(long maximumCount) {
+            final int entrySize = averageEntrySize;
+            final int minBytes = minReadAheadBytes;
+            if (entrySize == 0) {
+                return Math.max(DEFAULT_READ_AHEAD_BYTES, minBytes);
+            }
+
+            // leave some headroom for messages larger than the average
+            final long expectedBytes = entrySize * maximumCount + entrySize * maximumCount / 4;
+            return Ints.saturatedCast(Math.max(minBytes, Math.min(MAX_READ_AHEAD_BYTES, Math.max(MIN_READ_AHEAD_BYTES, expectedBytes))));
+        }
+
+        private void updateAverageEntrySize(long totalEntryBytes, int count) {
+            final int observed = Ints.saturatedCast(totalEntryBytes / count);
+            final int current = averageEntrySize;
+            averageEntrySize = current == 0 ? observed : (3 * current + observed) / 4;
+        }
+    }
+
     public class RecoveryCheckpointFlusher implements Runnable {
         @Override
         public void run() {
@@ -935,6 +1443,33 @@ public class KafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    public class GroupCommitFlusher implements Runnable {
+        @Override
+        public void run() {
+            while (!shuttingDown) {
+                try {
+                    synchronized (groupCommitLock) {
+                        final long deadline = System.nanoTime() + MILLISECONDS.toNanos(groupCommitIntervalMs);
+                        long remaining;
+                        while (!shuttingDown && unflushedBytes.get() < groupCommitBytes
+                                && (remaining = deadline - System.nanoTime()) > 0) {
+                            NANOSECONDS.timedWait(groupCommitLock, remaining);
+                        }
+                    }
+                    groupCommit();
+                } catch (InterruptedException e) {
+                    LOG.debug("Interrupted while waiting for the next group commit.");
+                } catch (Exception e) {
+                    LOG.error("Unable to flush journal for group commit. Will try again.", e);
+                }
+            }
+            // wake up the remaining writers
+            synchronized (groupCommitLock) {
+                groupCommitLock.notifyAll();
+            }
+        }
+    }
+
     public class DirtyLogFlusher implements Runnable {
         @Override
         public void run() {
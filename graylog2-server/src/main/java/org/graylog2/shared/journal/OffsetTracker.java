@@ -0,0 +1,135 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.journal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Tracks the completion of log offsets which are processed out of order by many threads. The watermark only advances
+ * over contiguous completed offsets, thus everything below it has been fully processed.
+ * <p>
+ * Completed offsets are recorded in a ring of {@code capacity} slots, so only offsets less than {@code capacity} beyond
+ * the watermark can be tracked. Readers must not hand out offsets beyond {@link #getOffsetLimit()}.
+ */
+class OffsetTracker {
+    // consecutive offsets are spread over 2^STRIPE_BITS cache lines, threads completing neighbouring offsets
+    // thus do not contend for the same cache line
+    private static final int STRIPE_BITS = 3;
+
+    // each slot contains the last offset completed in it plus one, so the initial value 0 never matches an offset
+    private final AtomicLongArray slots;
+    private final int capacity;
+    private final long mask;
+    private final int stripeShift;
+    private final AtomicBoolean advancing = new AtomicBoolean(false);
+    // the lowest offset which has not been completed yet
+    private volatile long nextOffset;
+
+    OffsetTracker(long nextOffset, int capacity) {
+        checkArgument(Integer.bitCount(capacity) == 1 && capacity >= 1 << STRIPE_BITS,
+                "Capacity must be a power of two of at least %s, was %s", 1 << STRIPE_BITS, capacity);
+        this.slots = new AtomicLongArray(capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.stripeShift = Integer.numberOfTrailingZeros(capacity) - STRIPE_BITS;
+        this.nextOffset = nextOffset;
+    }
+
+    /**
+     * Marks the given offset as completed and advances the watermark if it was the lowest offset in flight.
+     *
+     * @return {@code false} if the offset is too far beyond the watermark to be tracked, {@code true} otherwise
+     */
+    boolean complete(long offset) {
+        if (offset < nextOffset) {
+            // already below the watermark, e.g. a message which has been written to several outputs
+            return true;
+        }
+        if (offset >= getOffsetLimit()) {
+            return false;
+        }
+        // a slot is only ever raised, so late duplicates of older offsets can't hide the completion of newer ones
+        slots.accumulateAndGet(slot(offset), offset + 1, Math::max);
+        advance();
+        return true;
+    }
+
+    /**
+     * Moves the watermark forward to the given offset, for offsets which will never be completed because they have
+     * been removed from the log before being read.
+     */
+    void skipTo(long offset) {
+        // skipping is rare, spinning until the advancing thread is done is good enough
+        while (!advancing.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+        try {
+            if (offset > nextOffset) {
+                nextOffset = offset;
+            }
+        } finally {
+            advancing.set(false);
+        }
+        advance();
+    }
+
+    /**
+     * @return the lowest offset which has not been completed yet
+     */
+    long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * @return the first offset which can't be tracked until the watermark advances
+     */
+    long getOffsetLimit() {
+        return nextOffset + capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private void advance() {
+        // only one thread advances the watermark at a time, the others return immediately
+        while (advancing.compareAndSet(false, true)) {
+            try {
+                long next = nextOffset;
+                while (slots.get(slot(next)) == next + 1) {
+                    next++;
+                }
+                nextOffset = next;
+            } finally {
+                advancing.set(false);
+            }
+            // retry if the next offset has been completed while this thread was still advancing
+            final long next = nextOffset;
+            if (slots.get(slot(next)) != next + 1) {
+                return;
+            }
+        }
+    }
+
+    private int slot(long offset) {
+        final long index = offset & mask;
+        return (int) (((index & ((1 << STRIPE_BITS) - 1)) << stripeShift) | (index >>> STRIPE_BITS));
+    }
+}
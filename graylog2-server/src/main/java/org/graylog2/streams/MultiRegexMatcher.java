@@ -0,0 +1,845 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.streams;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Matches a set of regular expressions against an input in a single linear pass.
+ *
+ * The patterns are compiled into one Thompson NFA which is lazily converted into a DFA while matching, so there is no
+ * backtracking and matching can't take longer than linear time in the length of the input. The result is the same
+ * as {@code Pattern.compile(regex, Pattern.DOTALL).matcher(input).find()} for every pattern.
+ *
+ * Only a subset of the {@link java.util.regex.Pattern} syntax is supported: literals, {@code .}, character classes
+ * (without unions and intersections), the predefined classes {@code \d \D \s \S \w \W}, groups, alternations, greedy
+ * and lazy quantifiers, a leading {@code ^} and a trailing {@code $}. {@link Builder#add(String)} rejects all other
+ * patterns (e. g. backreferences, lookaround, embedded flags) so they can be matched with {@link java.util.regex}.
+ *
+ * Instances are safe to use from multiple threads.
+ */
+class MultiRegexMatcher {
+    // Limits to avoid state explosions with large repetitions or many patterns
+    private static final int MAX_NFA_STATES_PER_PATTERN = 10_000;
+    private static final int MAX_CACHED_DFA_STATES = 10_000;
+    private static final int MAX_CHAR = Character.MAX_VALUE;
+
+    private static final char[] ANY = {0, MAX_CHAR};
+    private static final char[] DIGIT = {'0', '9'};
+    private static final char[] SPACE = {'\t', '\r', ' ', ' '};
+    private static final char[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+
+    private static final int RANGE = 0;
+    private static final int SPLIT = 1;
+    private static final int MATCH = 2;
+
+    private final int patternCount;
+    private final boolean[] endAnchored;
+    private final int[] unanchoredStarts;
+
+    // NFA states
+    private final int[] type;
+    private final int[] out1;
+    private final int[] out2;
+    private final char[][] ranges;
+    private final int[] matchPattern;
+
+    private final ConcurrentMap<StateSet, DfaState> dfaStates = new ConcurrentHashMap<>();
+    private final DfaState initialState;
+
+    private MultiRegexMatcher(Builder builder) {
+        this.patternCount = builder.patternCount;
+        this.endAnchored = Arrays.copyOf(builder.endAnchored, patternCount);
+        this.type = Arrays.copyOf(builder.nfa.type, builder.nfa.size);
+        this.out1 = Arrays.copyOf(builder.nfa.out1, builder.nfa.size);
+        this.out2 = Arrays.copyOf(builder.nfa.out2, builder.nfa.size);
+        this.ranges = Arrays.copyOf(builder.nfa.ranges, builder.nfa.size);
+        this.matchPattern = Arrays.copyOf(builder.nfa.matchPattern, builder.nfa.size);
+
+        final int[] allStarts = new int[patternCount];
+        final int[] unanchored = new int[patternCount];
+        int unanchoredCount = 0;
+        for (int i = 0; i < patternCount; i++) {
+            allStarts[i] = builder.starts[i];
+            if (!builder.startAnchored[i]) {
+                unanchored[unanchoredCount++] = builder.starts[i];
+            }
+        }
+        this.unanchoredStarts = Arrays.copyOf(unanchored, unanchoredCount);
+        this.initialState = dfaState(closure(allStarts, allStarts.length));
+    }
+
+    /**
+     * Returns the number of patterns.
+     */
+    int size() {
+        return patternCount;
+    }
+
+    /**
+     * Returns an array indexed by pattern which is {@code true} for every pattern which can be found in the input, or
+     * {@code null} if the input contains surrogate characters which can't be matched by the automaton.
+     */
+    boolean[] findAll(CharSequence input) {
+        final boolean[] found = new boolean[patternCount];
+        final int length = input.length();
+        int remaining = patternCount;
+
+        DfaState state = initialState;
+        remaining -= state.markMatches(found);
+        remaining -= markEndMatches(state, input, 0, found);
+        for (int i = 0; i < length && remaining > 0; i++) {
+            final char c = input.charAt(i);
+            if (Character.isSurrogate(c)) {
+                return null;
+            }
+            state = next(state, c);
+            remaining -= state.markMatches(found);
+            remaining -= markEndMatches(state, input, i + 1, found);
+        }
+
+        return found;
+    }
+
+    // Same semantics as "$" in java.util.regex without the MULTILINE and UNIX_LINES flags
+    private int markEndMatches(DfaState state, CharSequence input, int position, boolean[] found) {
+        if (state.endMatches.length == 0) {
+            return 0;
+        }
+        final int length = input.length();
+        final boolean atEnd;
+        if (position == length) {
+            atEnd = true;
+        } else if (position == length - 1) {
+            final char c = input.charAt(position);
+            atEnd = (c == '\n' && (position == 0 || input.charAt(position - 1) != '\r'))
+                    || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+        } else {
+            atEnd = position == length - 2 && input.charAt(position) == '\r' && input.charAt(position + 1) == '\n';
+        }
+        if (!atEnd) {
+            return 0;
+        }
+
+        int marked = 0;
+        for (int pattern : state.endMatches) {
+            if (!found[pattern]) {
+                found[pattern] = true;
+                marked++;
+            }
+        }
+        return marked;
+    }
+
+    private DfaState next(DfaState state, char c) {
+        DfaState next = state.cached(c);
+        if (next == null) {
+            final int[] moved = new int[state.nfaStates.length + unanchoredStarts.length];
+            int count = 0;
+            for (int s : state.nfaStates) {
+                if (type[s] == RANGE && contains(ranges[s], c)) {
+                    moved[count++] = out1[s];
+                }
+            }
+            System.arraycopy(unanchoredStarts, 0, moved, count, unanchoredStarts.length);
+            next = dfaState(closure(moved, count + unanchoredStarts.length));
+            state.cache(c, next);
+        }
+        return next;
+    }
+
+    private DfaState dfaState(StateSet stateSet) {
+        final DfaState cached = dfaStates.get(stateSet);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int[] matches = new int[patternCount];
+        final int[] endMatches = new int[patternCount];
+        int matchCount = 0;
+        int endMatchCount = 0;
+        for (int s : stateSet.states) {
+            if (type[s] == MATCH) {
+                final int pattern = matchPattern[s];
+                if (endAnchored[pattern]) {
+                    endMatches[endMatchCount++] = pattern;
+                } else {
+                    matches[matchCount++] = pattern;
+                }
+            }
+        }
+        final DfaState state = new DfaState(stateSet.states, Arrays.copyOf(matches, matchCount), Arrays.copyOf(endMatches, endMatchCount));
+
+        // Don't grow the cache beyond its limit, states are computed on the fly then.
+        if (dfaStates.size() >= MAX_CACHED_DFA_STATES) {
+            return state.uncacheable();
+        }
+        final DfaState existing = dfaStates.putIfAbsent(stateSet, state);
+        return existing == null ? state : existing;
+    }
+
+    // Epsilon closure, only keeps RANGE and MATCH states
+    private StateSet closure(int[] states, int count) {
+        final BitSet visited = new BitSet(type.length);
+        final int[] stack = new int[type.length];
+        int stackSize = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            stack[stackSize++] = states[i];
+        }
+
+        final BitSet result = new BitSet(type.length);
+        while (stackSize > 0) {
+            final int s = stack[--stackSize];
+            if (visited.get(s)) {
+                continue;
+            }
+            visited.set(s);
+            if (type[s] == SPLIT) {
+                stack[stackSize++] = out2[s];
+                stack[stackSize++] = out1[s];
+            } else {
+                result.set(s);
+            }
+        }
+        return new StateSet(result.stream().toArray());
+    }
+
+    private static boolean contains(char[] ranges, char c) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (c < ranges[i]) {
+                return false;
+            }
+            if (c <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class StateSet {
+        private final int[] states;
+        private final int hashCode;
+
+        StateSet(int[] states) {
+            this.states = states;
+            this.hashCode = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof StateSet && Arrays.equals(states, ((StateSet) o).states));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class DfaState {
+        private final int[] nfaStates;
+        private final int[] matches;
+        private final int[] endMatches;
+        private final boolean cacheable;
+        // Transitions are filled lazily. Concurrent writes are harmless because every thread computes an equal state.
+        private final DfaState[] asciiTransitions;
+        private final ConcurrentMap<Character, DfaState> transitions;
+
+        DfaState(int[] nfaStates, int[] matches, int[] endMatches) {
+            this(nfaStates, matches, endMatches, true);
+        }
+
+        private DfaState(int[] nfaStates, int[] matches, int[] endMatches, boolean cacheable) {
+            this.nfaStates = nfaStates;
+            this.matches = matches;
+            this.endMatches = endMatches;
+            this.cacheable = cacheable;
+            this.asciiTransitions = cacheable ? new DfaState[128] : null;
+            this.transitions = cacheable ? new ConcurrentHashMap<>() : null;
+        }
+
+        DfaState uncacheable() {
+            return new DfaState(nfaStates, matches, endMatches, false);
+        }
+
+        DfaState cached(char c) {
+            if (!cacheable) {
+                return null;
+            }
+            return c < 128 ? asciiTransitions[c] : transitions.get(c);
+        }
+
+        void cache(char c, DfaState next) {
+            if (!cacheable || !next.cacheable) {
+                return;
+            }
+            if (c < 128) {
+                asciiTransitions[c] = next;
+            } else {
+                transitions.putIfAbsent(c, next);
+            }
+        }
+
+        int markMatches(boolean[] found) {
+            int marked = 0;
+            for (int pattern : matches) {
+                if (!found[pattern]) {
+                    found[pattern] = true;
+                    marked++;
+                }
+            }
+            return marked;
+        }
+    }
+
+    static class Builder {
+        private final Nfa nfa = new Nfa();
+        private int patternCount = 0;
+        private int[] starts = new int[8];
+        private boolean[] startAnchored = new boolean[8];
+        private boolean[] endAnchored = new boolean[8];
+
+        /**
+         * Adds a pattern to the matcher.
+         *
+         * @param regex the regular expression
+         * @return the index of the pattern in the array returned by {@link #findAll(CharSequence)}, or {@code -1}
+         * if the pattern is not supported by the automaton
+         */
+        int add(String regex) {
+            final Parser parser = new Parser(regex);
+            final Node node;
+            try {
+                node = parser.parse();
+            } catch (UnsupportedPatternException e) {
+                return -1;
+            }
+
+            final int pattern = patternCount;
+            final int mark = nfa.size;
+            final int start;
+            try {
+                final int match = nfa.add(MATCH, -1, -1, null);
+                nfa.matchPattern[match] = pattern;
+                start = node.compile(nfa, match, mark + MAX_NFA_STATES_PER_PATTERN);
+            } catch (UnsupportedPatternException e) {
+                nfa.size = mark;
+                return -1;
+            }
+
+            if (patternCount == starts.length) {
+                starts = Arrays.copyOf(starts, patternCount * 2);
+                startAnchored = Arrays.copyOf(startAnchored, patternCount * 2);
+                endAnchored = Arrays.copyOf(endAnchored, patternCount * 2);
+            }
+            starts[pattern] = start;
+            startAnchored[pattern] = parser.startAnchored;
+            endAnchored[pattern] = parser.endAnchored;
+            patternCount++;
+
+            return pattern;
+        }
+
+        MultiRegexMatcher build() {
+            return new MultiRegexMatcher(this);
+        }
+    }
+
+    private static class Nfa {
+        private int size = 0;
+        private int[] type = new int[64];
+        private int[] out1 = new int[64];
+        private int[] out2 = new int[64];
+        private char[][] ranges = new char[64][];
+        private int[] matchPattern = new int[64];
+
+        int add(int stateType, int next1, int next2, char[] stateRanges) {
+            if (size == type.length) {
+                final int capacity = size * 2;
+                type = Arrays.copyOf(type, capacity);
+                out1 = Arrays.copyOf(out1, capacity);
+                out2 = Arrays.copyOf(out2, capacity);
+                ranges = Arrays.copyOf(ranges, capacity);
+                matchPattern = Arrays.copyOf(matchPattern, capacity);
+            }
+            type[size] = stateType;
+            out1[size] = next1;
+            out2[size] = next2;
+            ranges[size] = stateRanges;
+            return size++;
+        }
+    }
+
+    private static class UnsupportedPatternException extends Exception {
+        UnsupportedPatternException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private interface Node {
+        /**
+         * Adds the NFA states for this node which continue with the state {@code next} and returns the start state.
+         */
+        int compile(Nfa nfa, int next, int maxSize) throws UnsupportedPatternException;
+    }
+
+    private static class CharNode implements Node {
+        private final char[] ranges;
+
+        CharNode(char[] ranges) {
+            this.ranges = ranges;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next, int maxSize) throws UnsupportedPatternException {
+            checkSize(nfa, maxSize);
+            return nfa.add(RANGE, next, -1, ranges);
+        }
+    }
+
+    private static class ConcatNode implements Node {
+        private final List<Node> nodes;
+
+        ConcatNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next, int maxSize) throws UnsupportedPatternException {
+            int start = next;
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                start = nodes.get(i).compile(nfa, start, maxSize);
+            }
+            return start;
+        }
+    }
+
+    private static class AlternationNode implements Node {
+        private final List<Node> alternatives;
+
+        AlternationNode(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next, int maxSize) throws UnsupportedPatternException {
+            int start = alternatives.get(alternatives.size() - 1).compile(nfa, next, maxSize);
+            for (int i = alternatives.size() - 2; i >= 0; i--) {
+                final int alternative = alternatives.get(i).compile(nfa, next, maxSize);
+                checkSize(nfa, maxSize);
+                start = nfa.add(SPLIT, alternative, start, null);
+            }
+            return start;
+        }
+    }
+
+    private static class RepeatNode implements Node {
+        private final Node node;
+        private final int min;
+        // -1 for unbounded
+        private final int max;
+
+        RepeatNode(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public int compile(Nfa nfa, int next, int maxSize) throws UnsupportedPatternException {
+            int start = next;
+            if (max < 0) {
+                // loop: SPLIT(node -> loop, next)
+                checkSize(nfa, maxSize);
+                final int loop = nfa.add(SPLIT, -1, next, null);
+                final int body = node.compile(nfa, loop, maxSize);
+                nfa.out1[loop] = body;
+                start = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    final int optional = node.compile(nfa, start, maxSize);
+                    checkSize(nfa, maxSize);
+                    start = nfa.add(SPLIT, optional, next, null);
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                start = node.compile(nfa, start, maxSize);
+            }
+            return start;
+        }
+    }
+
+    private static void checkSize(Nfa nfa, int maxSize) throws UnsupportedPatternException {
+        if (nfa.size >= maxSize) {
+            throw new UnsupportedPatternException();
+        }
+    }
+
+    private static class Parser {
+        private final String regex;
+        private int position = 0;
+        private boolean startAnchored = false;
+        private boolean endAnchored = false;
+        private boolean topLevelAlternation = false;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() throws UnsupportedPatternException {
+            int end = regex.length();
+            if (regex.startsWith("^")) {
+                startAnchored = true;
+                position = 1;
+            }
+            if (end > position && regex.charAt(end - 1) == '$' && !isEscaped(end - 1)) {
+                endAnchored = true;
+                end--;
+            }
+
+            final Node node = parseAlternation(end, 0);
+            if (position != end) {
+                throw new UnsupportedPatternException();
+            }
+            if ((startAnchored || endAnchored) && topLevelAlternation) {
+                throw new UnsupportedPatternException();
+            }
+            return node;
+        }
+
+        private boolean isEscaped(int index) {
+            int backslashes = 0;
+            for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+                backslashes++;
+            }
+            return backslashes % 2 == 1;
+        }
+
+        private Node parseAlternation(int end, int depth) throws UnsupportedPatternException {
+            final List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseConcat(end, depth));
+            while (position < end && regex.charAt(position) == '|') {
+                topLevelAlternation |= depth == 0;
+                position++;
+                alternatives.add(parseConcat(end, depth));
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives);
+        }
+
+        private Node parseConcat(int end, int depth) throws UnsupportedPatternException {
+            final List<Node> nodes = new ArrayList<>();
+            while (position < end) {
+                final char c = regex.charAt(position);
+                if (c == '|' || (c == ')' && depth > 0)) {
+                    break;
+                }
+                nodes.add(parseQuantifiers(parseAtom(end, depth), end));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+        }
+
+        private Node parseQuantifiers(Node atom, int end) throws UnsupportedPatternException {
+            if (position >= end) {
+                return atom;
+            }
+            final int min;
+            final int max;
+            switch (regex.charAt(position)) {
+                case '*':
+                    min = 0;
+                    max = -1;
+                    position++;
+                    break;
+                case '+':
+                    min = 1;
+                    max = -1;
+                    position++;
+                    break;
+                case '?':
+                    min = 0;
+                    max = 1;
+                    position++;
+                    break;
+                case '{':
+                    position++;
+                    min = parseNumber(end);
+                    if (position < end && regex.charAt(position) == ',') {
+                        position++;
+                        max = (position < end && regex.charAt(position) == '}') ? -1 : parseNumber(end);
+                    } else {
+                        max = min;
+                    }
+                    if (position >= end || regex.charAt(position) != '}' || (max >= 0 && max < min)) {
+                        throw new UnsupportedPatternException();
+                    }
+                    position++;
+                    break;
+                default:
+                    return atom;
+            }
+
+            if (position < end) {
+                final char modifier = regex.charAt(position);
+                if (modifier == '?') {
+                    // Lazy quantifiers don't change whether a match can be found
+                    position++;
+                } else if (modifier == '+') {
+                    // Possessive quantifiers do
+                    throw new UnsupportedPatternException();
+                }
+            }
+            if (position < end && isQuantifier(regex.charAt(position))) {
+                throw new UnsupportedPatternException();
+            }
+
+            return new RepeatNode(atom, min, max);
+        }
+
+        private int parseNumber(int end) throws UnsupportedPatternException {
+            final int start = position;
+            while (position < end && regex.charAt(position) >= '0' && regex.charAt(position) <= '9') {
+                position++;
+            }
+            if (position == start || position - start > 4) {
+                throw new UnsupportedPatternException();
+            }
+            return Integer.parseInt(regex.substring(start, position));
+        }
+
+        private Node parseAtom(int end, int depth) throws UnsupportedPatternException {
+            final char c = regex.charAt(position);
+            switch (c) {
+                case '(':
+                    position++;
+                    if (position < end && regex.charAt(position) == '?') {
+                        // Only non-capturing and named groups, no lookaround, flags or atomic groups
+                        if (regex.startsWith("?:", position)) {
+                            position += 2;
+                        } else if (regex.startsWith("?<", position) && position + 2 < end && Character.isLetter(regex.charAt(position + 2))) {
+                            final int close = regex.indexOf('>', position);
+                            if (close < 0 || close >= end) {
+                                throw new UnsupportedPatternException();
+                            }
+                            position = close + 1;
+                        } else {
+                            throw new UnsupportedPatternException();
+                        }
+                    }
+                    final Node group = parseAlternation(end, depth + 1);
+                    if (position >= end || regex.charAt(position) != ')') {
+                        throw new UnsupportedPatternException();
+                    }
+                    position++;
+                    return group;
+                case '[':
+                    position++;
+                    return new CharNode(parseCharClass(end));
+                case '.':
+                    position++;
+                    return new CharNode(ANY);
+                case '\\':
+                    position++;
+                    return new CharNode(parseEscape(end, false));
+                case '^':
+                case '$':
+                case ')':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedPatternException();
+                default:
+                    position++;
+                    return new CharNode(singleChar(c));
+            }
+        }
+
+        private char[] parseCharClass(int end) throws UnsupportedPatternException {
+            boolean negated = false;
+            if (position < end && regex.charAt(position) == '^') {
+                negated = true;
+                position++;
+            }
+            if (position < end && regex.charAt(position) == ']') {
+                throw new UnsupportedPatternException();
+            }
+
+            final List<char[]> items = new ArrayList<>();
+            while (true) {
+                if (position >= end) {
+                    throw new UnsupportedPatternException();
+                }
+                final char c = regex.charAt(position);
+                if (c == ']') {
+                    position++;
+                    break;
+                }
+                if (c == '[' || regex.startsWith("&&", position)) {
+                    throw new UnsupportedPatternException();
+                }
+
+                final char[] from = parseClassChar(end);
+                if (position + 1 < end && regex.charAt(position) == '-' && regex.charAt(position + 1) != ']') {
+                    position++;
+                    final char[] to = parseClassChar(end);
+                    if (!isSingleChar(from) || !isSingleChar(to) || from[0] > to[0]) {
+                        throw new UnsupportedPatternException();
+                    }
+                    items.add(new char[]{from[0], to[0]});
+                } else {
+                    items.add(from);
+                }
+            }
+
+            final char[] ranges = union(items);
+            return negated ? complement(ranges) : ranges;
+        }
+
+        private char[] parseClassChar(int end) throws UnsupportedPatternException {
+            final char c = regex.charAt(position++);
+            if (c == '\\') {
+                return parseEscape(end, true);
+            }
+            return singleChar(c);
+        }
+
+        private char[] parseEscape(int end, boolean inClass) throws UnsupportedPatternException {
+            if (position >= end) {
+                throw new UnsupportedPatternException();
+            }
+            final char c = regex.charAt(position++);
+            switch (c) {
+                case 'd':
+                    return DIGIT;
+                case 'D':
+                    return complement(DIGIT);
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return complement(SPACE);
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return complement(WORD);
+                case 't':
+                    return singleChar('\t');
+                case 'n':
+                    return singleChar('\n');
+                case 'r':
+                    return singleChar('\r');
+                case 'f':
+                    return singleChar('\f');
+                case 'a':
+                    return singleChar('\u0007');
+                case 'e':
+                    return singleChar('\u001B');
+                case 'x':
+                    return singleChar((char) parseHex(2, end));
+                case 'u':
+                    return singleChar((char) parseHex(4, end));
+                default:
+                    // Escaped non-alphanumeric characters are literals, everything else is a construct we don't support.
+                    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                        throw new UnsupportedPatternException();
+                    }
+                    return singleChar(c);
+            }
+        }
+
+        private int parseHex(int digits, int end) throws UnsupportedPatternException {
+            if (position + digits > end) {
+                throw new UnsupportedPatternException();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                final int digit = Character.digit(regex.charAt(position++), 16);
+                if (digit < 0) {
+                    throw new UnsupportedPatternException();
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        private static char[] singleChar(char c) throws UnsupportedPatternException {
+            // Supplementary characters are matched by code point in java.util.regex
+            if (Character.isSurrogate(c)) {
+                throw new UnsupportedPatternException();
+            }
+            return new char[]{c, c};
+        }
+
+        private static boolean isSingleChar(char[] ranges) {
+            return ranges.length == 2 && ranges[0] == ranges[1];
+        }
+
+        private static boolean isQuantifier(char c) {
+            return c == '*' || c == '+' || c == '?' || c == '{';
+        }
+
+        // Merges the given sorted range lists into one sorted list of disjoint ranges
+        private static char[] union(List<char[]> items) {
+            final List<int[]> all = new ArrayList<>();
+            for (char[] item : items) {
+                for (int i = 0; i < item.length; i += 2) {
+                    all.add(new int[]{item[i], item[i + 1]});
+                }
+            }
+            all.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+            final List<int[]> merged = new ArrayList<>();
+            for (int[] range : all) {
+                final int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && range[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], range[1]);
+                } else {
+                    merged.add(new int[]{range[0], range[1]});
+                }
+            }
+
+            final char[] result = new char[merged.size() * 2];
+            for (int i = 0; i < merged.size(); i++) {
+                result[2 * i] = (char) merged.get(i)[0];
+                result[2 * i + 1] = (char) merged.get(i)[1];
+            }
+            return result;
+        }
+
+        private static char[] complement(char[] ranges) {
+            final char[] result = new char[ranges.length + 2];
+            int count = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result[count++] = (char) next;
+                    result[count++] = (char) (ranges[i] - 1);
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= MAX_CHAR) {
+                result[count++] = (char) next;
+                result[count++] = (char) MAX_CHAR;
+            }
+            return Arrays.copyOf(result, count);
+        }
+    }
+}
@@ -35,11 +35,15 @@ public class StreamMetrics {
     private final Map<String, Meter> streamExceptionMeters = Maps.newHashMap();
     private final Map<String, Meter> streamRuleTimeoutMeters = Maps.newHashMap();
     private final Map<String, Meter> streamFaultsExceededMeters = Maps.newHashMap();
+    private final Meter regexAutomatonEvaluations;
+    private final Meter regexFallbackEvaluations;
 
 
     @Inject
     public StreamMetrics(final MetricRegistry metricRegistry) {
         this.metricRegistry = metricRegistry;
+        this.regexAutomatonEvaluations = metricRegistry.meter(MetricRegistry.name(StreamRouterEngine.class, "regexAutomatonEvaluations"));
+        this.regexFallbackEvaluations = metricRegistry.meter(MetricRegistry.name(StreamRouterEngine.class, "regexFallbackEvaluations"));
     }
 
     public void markIncomingMeter(String streamId) {
@@ -69,6 +73,14 @@ public class StreamMetrics {
         getStreamFaultsExceededMeter(streamId).mark();
     }
 
+    public void markRegexAutomatonEvaluations(long count) {
+        regexAutomatonEvaluations.mark(count);
+    }
+
+    public void markRegexFallbackEvaluation() {
+        regexFallbackEvaluations.mark();
+    }
+
     private Meter getIncomingMeter(String streamId) {
         Meter meter = this.streamIncomingMeters.get(streamId);
         if (meter == null) {
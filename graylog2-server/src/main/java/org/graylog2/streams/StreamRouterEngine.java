@@ -21,9 +21,7 @@ import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog2.plugin.Message;
@@ -31,25 +29,26 @@ import org.graylog2.plugin.streams.DefaultStream;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
 import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.matchers.RegexMatcher;
 import org.graylog2.streams.matchers.StreamRuleMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Stream routing engine to select matching streams for a message.
  *
- * This class is NOT thread-safe! Use one instance per thread.
+ * Non-inverted EXACT, PRESENCE, GREATER, SMALLER and CONTAINS rules are compiled into a {@link StreamRuleIndex},
+ * REGEX rules are combined into one {@link MultiRegexMatcher} per field if possible, all other rules are evaluated
+ * one by one.
  */
 public class StreamRouterEngine {
     private static final Logger LOG = LoggerFactory.getLogger(StreamRouterEngine.class);
@@ -58,40 +57,62 @@ public class StreamRouterEngine {
     private final List<Stream> streams;
     private final StreamFaultManager streamFaultManager;
     private final StreamMetrics streamMetrics;
-    private final TimeLimiter timeLimiter;
     private final long streamProcessingTimeout;
     private final String fingerprint;
     private final Provider<Stream> defaultStreamProvider;
 
-    private final List<Rule> rulesList;
+    // Per stream (indexed like "streams"): matching type and number of valid rules
+    private final Stream.MatchingType[] matchingTypes;
+    private final int[] ruleCounts;
+    // Number of rules per stream which are always evaluated before the "rules" list, i. e. ALWAYS_MATCH and indexed rules
+    private final int[] precomputedRuleCounts;
+    private final int[] alwaysMatchHits;
+    private final StreamRuleIndex ruleIndex;
+    // Rules which can't be indexed, evaluated one by one. "ruleStreams[i]" is the stream index of "rules[i]".
+    private final Rule[] rules;
+    private final int[] ruleStreams;
+    // REGEX rules matched with a combined automaton per field
+    private final List<RegexRuleGroup> regexRuleGroups;
+    // REGEX rules matched with java.util.regex, evaluated last because they are the most expensive ones
+    private final Rule[] regexRules;
+    private final int[] regexRuleStreams;
 
     public interface Factory {
-        StreamRouterEngine create(List<Stream> streams, ExecutorService executorService);
+        StreamRouterEngine create(List<Stream> streams);
     }
 
     @Inject
     public StreamRouterEngine(@Assisted List<Stream> streams,
-                              @Assisted ExecutorService executorService,
                               StreamFaultManager streamFaultManager,
                               StreamMetrics streamMetrics,
-                              @DefaultStream Provider<Stream> defaultStreamProvider) {
+                              @DefaultStream Provider<Stream> defaultStreamProvider,
+                              @Named("stream_processing_regex_automaton") boolean regexAutomatonEnabled) {
         this.streams = streams;
         this.streamFaultManager = streamFaultManager;
         this.streamMetrics = streamMetrics;
-        this.timeLimiter = new SimpleTimeLimiter(executorService);
         this.streamProcessingTimeout = streamFaultManager.getStreamProcessingTimeout();
         this.fingerprint = new StreamListFingerprint(streams).getFingerprint();
         this.defaultStreamProvider = defaultStreamProvider;
 
-        final List<Rule> alwaysMatchRules = Lists.newArrayList();
+        final int streamCount = streams.size();
+        this.matchingTypes = new Stream.MatchingType[streamCount];
+        this.ruleCounts = new int[streamCount];
+        this.precomputedRuleCounts = new int[streamCount];
+        this.alwaysMatchHits = new int[streamCount];
+
+        final StreamRuleIndex.Builder indexBuilder = new StreamRuleIndex.Builder();
         final List<Rule> presenceRules = Lists.newArrayList();
         final List<Rule> exactRules = Lists.newArrayList();
         final List<Rule> greaterRules = Lists.newArrayList();
         final List<Rule> smallerRules = Lists.newArrayList();
         final List<Rule> regexRules = Lists.newArrayList();
         final List<Rule> containsRules = Lists.newArrayList();
+        final Map<Rule, Integer> ruleStreamIndexes = Maps.newIdentityHashMap();
+        final Map<String, RegexRuleGroupBuilder> regexRuleGroupBuilders = Maps.newLinkedHashMap();
 
-        for (Stream stream : streams) {
+        for (int i = 0; i < streamCount; i++) {
+            final Stream stream = streams.get(i);
+            matchingTypes[i] = stream.getMatchingType();
             for (StreamRule streamRule : stream.getStreamRules()) {
                 final Rule rule;
                 try {
@@ -100,10 +121,29 @@ public class StreamRouterEngine {
                     LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
                     continue;
                 }
+                ruleCounts[i]++;
+
+                if (streamRule.getType() == StreamRuleType.ALWAYS_MATCH) {
+                    alwaysMatchHits[i]++;
+                    precomputedRuleCounts[i]++;
+                    continue;
+                }
+                if (StreamRuleIndex.isIndexable(streamRule)) {
+                    indexBuilder.add(i, streamRule);
+                    precomputedRuleCounts[i]++;
+                    continue;
+                }
+
+                if (streamRule.getType() == StreamRuleType.REGEX && regexAutomatonEnabled && streamRule.getValue() != null) {
+                    final RegexRuleGroupBuilder groupBuilder = regexRuleGroupBuilders.computeIfAbsent(streamRule.getField(), RegexRuleGroupBuilder::new);
+                    if (groupBuilder.add(rule, i)) {
+                        continue;
+                    }
+                    LOG.debug("Stream rule <{}> can't be matched with the regular expression automaton, using java.util.regex", streamRule.getId());
+                }
+
+                ruleStreamIndexes.put(rule, i);
                 switch (streamRule.getType()) {
-                    case ALWAYS_MATCH:
-                        alwaysMatchRules.add(rule);
-                        break;
                     case PRESENCE:
                         presenceRules.add(rule);
                         break;
@@ -126,15 +166,33 @@ public class StreamRouterEngine {
             }
         }
 
-        final int size = alwaysMatchRules.size() + presenceRules.size() + exactRules.size() + greaterRules.size() + smallerRules.size() + containsRules.size() + regexRules.size();
-        this.rulesList = Lists.newArrayListWithCapacity(size);
-        this.rulesList.addAll(alwaysMatchRules);
-        this.rulesList.addAll(presenceRules);
-        this.rulesList.addAll(exactRules);
-        this.rulesList.addAll(greaterRules);
-        this.rulesList.addAll(smallerRules);
-        this.rulesList.addAll(containsRules);
-        this.rulesList.addAll(regexRules);
+        this.ruleIndex = indexBuilder.build();
+
+        final List<Rule> rulesList = Lists.newArrayListWithCapacity(ruleStreamIndexes.size());
+        rulesList.addAll(presenceRules);
+        rulesList.addAll(exactRules);
+        rulesList.addAll(greaterRules);
+        rulesList.addAll(smallerRules);
+        rulesList.addAll(containsRules);
+        this.rules = rulesList.toArray(new Rule[0]);
+        this.ruleStreams = streamIndexes(rules, ruleStreamIndexes);
+        this.regexRules = regexRules.toArray(new Rule[0]);
+        this.regexRuleStreams = streamIndexes(this.regexRules, ruleStreamIndexes);
+
+        this.regexRuleGroups = Lists.newArrayListWithCapacity(regexRuleGroupBuilders.size());
+        for (RegexRuleGroupBuilder groupBuilder : regexRuleGroupBuilders.values()) {
+            if (groupBuilder.size() > 0) {
+                regexRuleGroups.add(groupBuilder.build());
+            }
+        }
+    }
+
+    private static int[] streamIndexes(Rule[] rules, Map<Rule, Integer> ruleStreamIndexes) {
+        final int[] result = new int[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            result[i] = ruleStreamIndexes.get(rules[i]);
+        }
+        return result;
     }
 
     /**
@@ -162,47 +220,30 @@ public class StreamRouterEngine {
      * @return the list of matching streams
      */
     public List<Stream> match(Message message) {
-        final Set<Stream> result = Sets.newHashSet();
-        final Set<Stream> blackList = Sets.newHashSet();
-
-        for (final Rule rule : rulesList) {
-            if (blackList.contains(rule.getStream())) {
-                continue;
-            }
-
-            final StreamRule streamRule = rule.getStreamRule();
-            final StreamRuleType streamRuleType = streamRule.getType();
-            final Stream.MatchingType matchingType = rule.getMatchingType();
-            if (!ruleTypesNotNeedingFieldPresence.contains(streamRuleType)
-                && !message.hasField(streamRule.getField())) {
-                if (matchingType == Stream.MatchingType.AND) {
-                    result.remove(rule.getStream());
-                    // blacklist stream because it can't match anymore
-                    blackList.add(rule.getStream());
-                }
-
-                continue;
+        final int[] hits = alwaysMatchHits.clone();
+        ruleIndex.collectMatches(message, hits);
+
+        final boolean[] blackList = new boolean[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            if (matchingTypes[i] == Stream.MatchingType.AND) {
+                // blacklist stream because one of the indexed rules did not match
+                blackList[i] = hits[i] < precomputedRuleCounts[i];
+            } else if (matchingTypes[i] == Stream.MatchingType.OR) {
+                // blacklist stream because it is already matched
+                blackList[i] = hits[i] > 0;
             }
+        }
 
-            final Stream stream;
-            if (streamRuleType != StreamRuleType.REGEX) {
-                stream = rule.match(message);
-            } else {
-                stream = rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS);
-            }
+        matchRules(message, rules, ruleStreams, hits, blackList);
+        for (RegexRuleGroup regexRuleGroup : regexRuleGroups) {
+            regexRuleGroup.match(message, hits, blackList);
+        }
+        matchRules(message, regexRules, regexRuleStreams, hits, blackList);
 
-            if (stream == null) {
-                if (matchingType == Stream.MatchingType.AND) {
-                    result.remove(rule.getStream());
-                    // blacklist stream because it can't match anymore
-                    blackList.add(rule.getStream());
-                }
-            } else {
-                result.add(stream);
-                if (matchingType == Stream.MatchingType.OR) {
-                    // blacklist stream because it is already matched
-                    blackList.add(rule.getStream());
-                }
+        final List<Stream> result = Lists.newArrayList();
+        for (int i = 0; i < hits.length; i++) {
+            if (isMatched(i, hits[i])) {
+                result.add(streams.get(i));
             }
         }
 
@@ -232,6 +273,52 @@ public class StreamRouterEngine {
         return ImmutableList.copyOf(result);
     }
 
+    private void matchRules(Message message, Rule[] rules, int[] ruleStreams, int[] hits, boolean[] blackList) {
+        for (int i = 0; i < rules.length; i++) {
+            final int streamIndex = ruleStreams[i];
+            if (blackList[streamIndex]) {
+                continue;
+            }
+
+            final Rule rule = rules[i];
+            final StreamRule streamRule = rule.getStreamRule();
+            final StreamRuleType streamRuleType = streamRule.getType();
+            final boolean matched;
+            if (!ruleTypesNotNeedingFieldPresence.contains(streamRuleType)
+                && !message.hasField(streamRule.getField())) {
+                matched = false;
+            } else if (streamRuleType != StreamRuleType.REGEX) {
+                matched = rule.match(message) != null;
+            } else {
+                streamMetrics.markRegexFallbackEvaluation();
+                matched = rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS) != null;
+            }
+
+            recordMatch(streamIndex, matched, hits, blackList);
+        }
+    }
+
+    private void recordMatch(int streamIndex, boolean matched, int[] hits, boolean[] blackList) {
+        final Stream.MatchingType matchingType = matchingTypes[streamIndex];
+        if (matched) {
+            hits[streamIndex]++;
+            if (matchingType == Stream.MatchingType.OR) {
+                // blacklist stream because it is already matched
+                blackList[streamIndex] = true;
+            }
+        } else if (matchingType == Stream.MatchingType.AND) {
+            // blacklist stream because it can't match anymore
+            blackList[streamIndex] = true;
+        }
+    }
+
+    private boolean isMatched(int streamIndex, int hits) {
+        if (matchingTypes[streamIndex] == Stream.MatchingType.AND) {
+            return ruleCounts[streamIndex] > 0 && hits == ruleCounts[streamIndex];
+        }
+        return hits > 0;
+    }
+
     /**
      * Returns a list of stream rule matches. Can be used to test streams and stream rule matches.
      * This is meant for testing, do NOT use in production processing pipeline! (use {@link #match(org.graylog2.plugin.Message) match} instead)
@@ -296,17 +383,21 @@ public class StreamRouterEngine {
             }
         }
 
+        /**
+         * Matches REGEX rules in the calling thread and aborts the regular expression matching once the timeout
+         * is exceeded.
+         */
         @Nullable
         private Stream matchWithTimeOut(final Message message, long timeout, TimeUnit unit) {
-            Stream matchedStream = null;
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
             try (final Timer.Context ignored = streamMetrics.getExecutionTimer(rule.getId()).time()) {
-                matchedStream = timeLimiter.callWithTimeout(new Callable<Stream>() {
-                    @Override
-                    @Nullable
-                    public Stream call() throws Exception {
-                        return match(message);
-                    }
-                }, timeout, unit, true);
+                final boolean matched;
+                if (matcher instanceof RegexMatcher) {
+                    matched = ((RegexMatcher) matcher).match(message, rule, deadline);
+                } else {
+                    matched = matcher.match(message, rule);
+                }
+                return matched ? stream : null;
             } catch (UncheckedTimeoutException e) {
                 streamFaultManager.registerFailure(stream);
             } catch (Exception e) {
@@ -314,7 +405,7 @@ public class StreamRouterEngine {
                 streamMetrics.markExceptionMeter(rule.getStreamId());
             }
 
-            return matchedStream;
+            return null;
         }
 
         public StreamRule getStreamRule() {
@@ -326,6 +417,90 @@ public class StreamRouterEngine {
         }
     }
 
+    /**
+     * All REGEX rules on one field, matched in a single pass with a {@link MultiRegexMatcher}.
+     */
+    private class RegexRuleGroup {
+        private final String field;
+        private final MultiRegexMatcher matcher;
+        private final Rule[] rules;
+        private final int[] ruleStreams;
+        private final int[] rulePatterns;
+
+        RegexRuleGroup(String field, MultiRegexMatcher matcher, Rule[] rules, int[] ruleStreams, int[] rulePatterns) {
+            this.field = field;
+            this.matcher = matcher;
+            this.rules = rules;
+            this.ruleStreams = ruleStreams;
+            this.rulePatterns = rulePatterns;
+        }
+
+        void match(Message message, int[] hits, boolean[] blackList) {
+            if (allBlackListed(blackList)) {
+                return;
+            }
+
+            final Object value = message.getField(field);
+            final boolean[] found = value == null ? null : matcher.findAll(value.toString());
+            if (value != null && found == null) {
+                // The automaton can't match this value, fall back to java.util.regex
+                matchRules(message, rules, ruleStreams, hits, blackList);
+                return;
+            }
+
+            streamMetrics.markRegexAutomatonEvaluations(rules.length);
+            for (int i = 0; i < rules.length; i++) {
+                final int streamIndex = ruleStreams[i];
+                if (blackList[streamIndex]) {
+                    continue;
+                }
+                // Same semantics as RegexMatcher
+                final boolean matched = rules[i].getStreamRule().getInverted() ^ (found != null && found[rulePatterns[i]]);
+                recordMatch(streamIndex, matched, hits, blackList);
+            }
+        }
+
+        private boolean allBlackListed(boolean[] blackList) {
+            for (int streamIndex : ruleStreams) {
+                if (!blackList[streamIndex]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private class RegexRuleGroupBuilder {
+        private final String field;
+        private final MultiRegexMatcher.Builder matcherBuilder = new MultiRegexMatcher.Builder();
+        private final List<Rule> rules = Lists.newArrayList();
+        private final List<Integer> ruleStreams = Lists.newArrayList();
+        private final List<Integer> rulePatterns = Lists.newArrayList();
+
+        RegexRuleGroupBuilder(String field) {
+            this.field = field;
+        }
+
+        boolean add(Rule rule, int streamIndex) {
+            final int pattern = matcherBuilder.add(rule.getStreamRule().getValue());
+            if (pattern < 0) {
+                return false;
+            }
+            rules.add(rule);
+            ruleStreams.add(streamIndex);
+            rulePatterns.add(pattern);
+            return true;
+        }
+
+        int size() {
+            return rules.size();
+        }
+
+        RegexRuleGroup build() {
+            return new RegexRuleGroup(field, matcherBuilder.build(), rules.toArray(new Rule[0]), Ints.toArray(ruleStreams), Ints.toArray(rulePatterns));
+        }
+    }
+
     /**
      * Contains matching results for a stream. This is useful for testing to see if a stream matches and which
      * rules matched.
@@ -0,0 +1,452 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.streams;
+
+import com.google.common.primitives.Ints;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.graylog2.plugin.Tools.getDouble;
+
+/**
+ * Compiled lookup structure for non-inverted {@code EXACT}, {@code PRESENCE}, {@code GREATER}, {@code SMALLER} and
+ * {@code CONTAINS} stream rules.
+ *
+ * Rules are grouped by field so a message only touches the rules of fields it actually has. Every matching rule
+ * increments the hit counter of the stream it belongs to, the caller decides about AND/OR semantics.
+ *
+ * Instances are immutable and safe to use from multiple threads.
+ */
+class StreamRuleIndex {
+    private final String[] fields;
+    private final FieldRules[] fieldRules;
+    private final int ruleCount;
+
+    private StreamRuleIndex(String[] fields, FieldRules[] fieldRules, int ruleCount) {
+        this.fields = fields;
+        this.fieldRules = fieldRules;
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * Returns {@code true} if the given rule can be evaluated by the index.
+     */
+    static boolean isIndexable(StreamRule rule) {
+        if (rule.getInverted()) {
+            return false;
+        }
+        switch (rule.getType()) {
+            case EXACT:
+            case PRESENCE:
+            case GREATER:
+            case SMALLER:
+            case CONTAINS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the number of rules in the index.
+     */
+    int size() {
+        return ruleCount;
+    }
+
+    /**
+     * Increments {@code streamHits[streamIndex]} once for every indexed rule that matches the given message.
+     *
+     * @param message    the message to match
+     * @param streamHits hit counters, indexed by the stream index passed to {@link Builder#add(int, StreamRule)}
+     */
+    void collectMatches(Message message, int[] streamHits) {
+        for (int i = 0; i < fields.length; i++) {
+            final Object value = message.getField(fields[i]);
+            if (value != null) {
+                fieldRules[i].collectMatches(value, streamHits);
+            }
+        }
+    }
+
+    static class Builder {
+        private final Map<String, FieldRulesBuilder> fields = new LinkedHashMap<>();
+        private int ruleCount = 0;
+
+        /**
+         * Adds a rule to the index. The rule must be {@link #isIndexable(StreamRule) indexable}.
+         */
+        Builder add(int streamIndex, StreamRule rule) {
+            if (!isIndexable(rule)) {
+                throw new IllegalArgumentException("Stream rule <" + rule.getId() + "> cannot be indexed");
+            }
+            fields.computeIfAbsent(rule.getField(), k -> new FieldRulesBuilder()).add(streamIndex, rule);
+            ruleCount++;
+            return this;
+        }
+
+        StreamRuleIndex build() {
+            final String[] fieldNames = new String[fields.size()];
+            final FieldRules[] rules = new FieldRules[fields.size()];
+            int i = 0;
+            for (Map.Entry<String, FieldRulesBuilder> entry : fields.entrySet()) {
+                fieldNames[i] = entry.getKey();
+                rules[i] = entry.getValue().build();
+                i++;
+            }
+            return new StreamRuleIndex(fieldNames, rules, ruleCount);
+        }
+    }
+
+    private static class FieldRules {
+        private final Map<String, int[]> exact;
+        private final int[] presence;
+        // Sorted ascending, greaterStreams[i] belongs to greaterThresholds[i]
+        private final double[] greaterThresholds;
+        private final int[] greaterStreams;
+        // Sorted ascending, smallerStreams[i] belongs to smallerThresholds[i]
+        private final double[] smallerThresholds;
+        private final int[] smallerStreams;
+        private final MultiStringMatcher contains;
+        private final int[][] containsStreams;
+
+        private FieldRules(Map<String, int[]> exact,
+                           int[] presence,
+                           double[] greaterThresholds,
+                           int[] greaterStreams,
+                           double[] smallerThresholds,
+                           int[] smallerStreams,
+                           MultiStringMatcher contains,
+                           int[][] containsStreams) {
+            this.exact = exact;
+            this.presence = presence;
+            this.greaterThresholds = greaterThresholds;
+            this.greaterStreams = greaterStreams;
+            this.smallerThresholds = smallerThresholds;
+            this.smallerStreams = smallerStreams;
+            this.contains = contains;
+            this.containsStreams = containsStreams;
+        }
+
+        void collectMatches(Object value, int[] streamHits) {
+            final String stringValue = (exact.isEmpty() && presence.length == 0 && contains == null) ? null : value.toString();
+
+            // Same semantics as FieldPresenceMatcher
+            if (presence.length > 0 && !(value instanceof String && stringValue.trim().isEmpty())) {
+                increment(presence, streamHits);
+            }
+
+            // Same semantics as ExactMatcher
+            if (!exact.isEmpty()) {
+                final int[] streams = exact.get(stringValue.trim());
+                if (streams != null) {
+                    increment(streams, streamHits);
+                }
+            }
+
+            // Same semantics as GreaterMatcher and SmallerMatcher
+            if (greaterThresholds.length > 0 || smallerThresholds.length > 0) {
+                final Double number = getDouble(value);
+                if (number != null && !number.isNaN()) {
+                    final double d = number;
+                    // All thresholds smaller than the value match
+                    final int greaterEnd = firstNotSmallerThan(greaterThresholds, d);
+                    for (int i = 0; i < greaterEnd; i++) {
+                        streamHits[greaterStreams[i]]++;
+                    }
+                    // All thresholds greater than the value match
+                    for (int i = firstGreaterThan(smallerThresholds, d); i < smallerThresholds.length; i++) {
+                        streamHits[smallerStreams[i]]++;
+                    }
+                }
+            }
+
+            // Same semantics as ContainsMatcher
+            if (contains != null) {
+                final boolean[] found = contains.findAll(stringValue);
+                for (int i = 0; i < found.length; i++) {
+                    if (found[i]) {
+                        increment(containsStreams[i], streamHits);
+                    }
+                }
+            }
+        }
+
+        private static void increment(int[] streams, int[] streamHits) {
+            for (int stream : streams) {
+                streamHits[stream]++;
+            }
+        }
+
+        private static int firstNotSmallerThan(double[] sorted, double value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (sorted[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static int firstGreaterThan(double[] sorted, double value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (sorted[mid] > value) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static class FieldRulesBuilder {
+        private final Map<String, List<Integer>> exact = new HashMap<>();
+        private final List<Integer> presence = new ArrayList<>();
+        private final List<Threshold> greater = new ArrayList<>();
+        private final List<Threshold> smaller = new ArrayList<>();
+        private final Map<String, List<Integer>> contains = new LinkedHashMap<>();
+
+        void add(int streamIndex, StreamRule rule) {
+            final String value = rule.getValue();
+            switch (rule.getType()) {
+                case PRESENCE:
+                    presence.add(streamIndex);
+                    break;
+                case EXACT:
+                    // A rule without value can never match.
+                    if (value != null) {
+                        exact.computeIfAbsent(value, k -> new ArrayList<>()).add(streamIndex);
+                    }
+                    break;
+                case GREATER:
+                case SMALLER:
+                    // A rule with a non-numeric value can never match.
+                    final Double threshold = getDouble(value);
+                    if (threshold != null && !threshold.isNaN()) {
+                        final List<Threshold> thresholds = rule.getType() == StreamRuleType.GREATER ? greater : smaller;
+                        thresholds.add(new Threshold(threshold, streamIndex));
+                    }
+                    break;
+                case CONTAINS:
+                    if (value != null) {
+                        contains.computeIfAbsent(value, k -> new ArrayList<>()).add(streamIndex);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported stream rule type " + rule.getType());
+            }
+        }
+
+        FieldRules build() {
+            final Map<String, int[]> exactIndex = new HashMap<>(exact.size());
+            for (Map.Entry<String, List<Integer>> entry : exact.entrySet()) {
+                exactIndex.put(entry.getKey(), Ints.toArray(entry.getValue()));
+            }
+
+            greater.sort(null);
+            smaller.sort(null);
+
+            final MultiStringMatcher containsMatcher;
+            final int[][] containsStreams;
+            if (contains.isEmpty()) {
+                containsMatcher = null;
+                containsStreams = new int[0][];
+            } else {
+                containsMatcher = new MultiStringMatcher(new ArrayList<>(contains.keySet()));
+                containsStreams = new int[contains.size()][];
+                int i = 0;
+                for (List<Integer> streams : contains.values()) {
+                    containsStreams[i++] = Ints.toArray(streams);
+                }
+            }
+
+            return new FieldRules(
+                    exactIndex,
+                    Ints.toArray(presence),
+                    Threshold.values(greater),
+                    Threshold.streams(greater),
+                    Threshold.values(smaller),
+                    Threshold.streams(smaller),
+                    containsMatcher,
+                    containsStreams);
+        }
+    }
+
+    private static class Threshold implements Comparable<Threshold> {
+        private final double value;
+        private final int stream;
+
+        Threshold(double value, int stream) {
+            this.value = value;
+            this.stream = stream;
+        }
+
+        @Override
+        public int compareTo(Threshold other) {
+            return Double.compare(value, other.value);
+        }
+
+        static double[] values(List<Threshold> thresholds) {
+            final double[] result = new double[thresholds.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = thresholds.get(i).value;
+            }
+            return result;
+        }
+
+        static int[] streams(List<Threshold> thresholds) {
+            final int[] result = new int[thresholds.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = thresholds.get(i).stream;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton which finds all occurrences of a fixed set of strings in a single pass over the input.
+     */
+    static class MultiStringMatcher {
+        private static final int[] NO_OUTPUT = new int[0];
+
+        private final int patternCount;
+        // Sorted transition characters per state and the matching target states
+        private final char[][] transitionChars;
+        private final int[][] transitionTargets;
+        private final int[] failure;
+        // Patterns (including the ones reachable via failure links) which end in a state
+        private final int[][] output;
+
+        MultiStringMatcher(List<String> patterns) {
+            this.patternCount = patterns.size();
+
+            // Build the trie
+            final List<Map<Character, Integer>> trie = new ArrayList<>();
+            final List<List<Integer>> outputs = new ArrayList<>();
+            trie.add(new HashMap<>());
+            outputs.add(new ArrayList<>());
+            for (int p = 0; p < patterns.size(); p++) {
+                final String pattern = patterns.get(p);
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    final Character c = pattern.charAt(i);
+                    Integer next = trie.get(state).get(c);
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new HashMap<>());
+                        outputs.add(new ArrayList<>());
+                        trie.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                outputs.get(state).add(p);
+            }
+
+            final int stateCount = trie.size();
+            this.transitionChars = new char[stateCount][];
+            this.transitionTargets = new int[stateCount][];
+            for (int s = 0; s < stateCount; s++) {
+                final Character[] chars = trie.get(s).keySet().toArray(new Character[0]);
+                Arrays.sort(chars);
+                transitionChars[s] = new char[chars.length];
+                transitionTargets[s] = new int[chars.length];
+                for (int i = 0; i < chars.length; i++) {
+                    transitionChars[s][i] = chars[i];
+                    transitionTargets[s][i] = trie.get(s).get(chars[i]);
+                }
+            }
+
+            // Compute failure links breadth-first and merge outputs along them
+            this.failure = new int[stateCount];
+            final int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            for (int target : transitionTargets[0]) {
+                failure[target] = 0;
+                queue[tail++] = target;
+            }
+            while (head < tail) {
+                final int state = queue[head++];
+                for (int i = 0; i < transitionChars[state].length; i++) {
+                    final char c = transitionChars[state][i];
+                    final int target = transitionTargets[state][i];
+                    int f = failure[state];
+                    int next = transition(f, c);
+                    while (next < 0 && f != 0) {
+                        f = failure[f];
+                        next = transition(f, c);
+                    }
+                    failure[target] = next < 0 ? 0 : next;
+                    outputs.get(target).addAll(outputs.get(failure[target]));
+                    queue[tail++] = target;
+                }
+            }
+
+            this.output = new int[stateCount][];
+            for (int s = 0; s < stateCount; s++) {
+                output[s] = outputs.get(s).isEmpty() ? NO_OUTPUT : Ints.toArray(outputs.get(s));
+            }
+        }
+
+        private int transition(int state, char c) {
+            final int i = Arrays.binarySearch(transitionChars[state], c);
+            return i < 0 ? -1 : transitionTargets[state][i];
+        }
+
+        /**
+         * Returns an array indexed by pattern which is {@code true} for every pattern contained in the input.
+         */
+        boolean[] findAll(String input) {
+            final boolean[] found = new boolean[patternCount];
+            // Empty patterns are contained in every string
+            for (int p : output[0]) {
+                found[p] = true;
+            }
+
+            int state = 0;
+            for (int i = 0; i < input.length(); i++) {
+                final char c = input.charAt(i);
+                int next = transition(state, c);
+                while (next < 0 && state != 0) {
+                    state = failure[state];
+                    next = transition(state, c);
+                }
+                state = next < 0 ? 0 : next;
+                for (int p : output[state]) {
+                    found[p] = true;
+                }
+            }
+            return found;
+        }
+    }
+}
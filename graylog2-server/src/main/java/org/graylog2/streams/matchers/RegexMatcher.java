@@ -21,6 +21,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.utilities.DeadlineCharSequence;
 import org.graylog2.utilities.InterruptibleCharSequence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,4 +59,25 @@ public class RegexMatcher implements StreamRuleMatcher {
         return false;
     }
 
+    /**
+     * Matches like {@link #match(Message, StreamRule)} but aborts in the calling thread with an
+     * {@link com.google.common.util.concurrent.UncheckedTimeoutException} once the deadline has passed.
+     *
+     * @param deadlineNanos the deadline in terms of {@link System#nanoTime()}
+     */
+    public boolean match(Message msg, StreamRule rule, long deadlineNanos) {
+        if (msg.getField(rule.getField()) == null)
+            return rule.getInverted();
+
+        try {
+            final Pattern pattern = patternCache.get(rule.getValue());
+            final CharSequence charSequence = new DeadlineCharSequence(msg.getField(rule.getField()).toString(), deadlineNanos);
+            return rule.getInverted() ^ pattern.matcher(charSequence).find();
+        } catch (ExecutionException e) {
+            LOG.error("Unable to get pattern from regex cache: ", e);
+        }
+
+        return false;
+    }
+
 }
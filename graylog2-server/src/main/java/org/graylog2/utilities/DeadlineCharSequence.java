@@ -0,0 +1,69 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.utilities;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * A {@link CharSequence} which aborts long running operations on it (like regular expression matching) after a
+ * deadline in the calling thread.
+ *
+ * The deadline is only checked every {@link #CHECK_INTERVAL} calls of {@link #charAt(int)} to keep the overhead
+ * of {@link System#nanoTime()} low.
+ */
+public class DeadlineCharSequence implements CharSequence {
+    static final int CHECK_INTERVAL = 1024;
+
+    private final CharSequence inner;
+    private final long deadlineNanos;
+    private int calls = 0;
+
+    /**
+     * @param inner         the wrapped character sequence
+     * @param deadlineNanos the deadline in terms of {@link System#nanoTime()}
+     */
+    public DeadlineCharSequence(CharSequence inner, long deadlineNanos) {
+        this.inner = inner;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++calls == CHECK_INTERVAL) {
+            calls = 0;
+            if (System.nanoTime() - deadlineNanos > 0) {
+                throw new UncheckedTimeoutException("Deadline exceeded while reading character sequence");
+            }
+        }
+        return inner.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return inner.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new DeadlineCharSequence(inner.subSequence(start, end), deadlineNanos);
+    }
+
+    @Override
+    public String toString() {
+        return inner.toString();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import org.graylog2.Configuration;
+import org.graylog2.outputs.OutputRouter;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OutputBufferProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private Configuration configuration;
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private OutputRouter outputRouter;
+    @Mock
+    private MessageOutput defaultOutput;
+
+    private MetricRegistry metricRegistry;
+    private AtomicReference<Thread> defaultOutputThread;
+
+    @Before
+    public void setUp() throws Exception {
+        metricRegistry = new MetricRegistry();
+        defaultOutputThread = new AtomicReference<>();
+
+        when(configuration.getOutputBufferProcessorThreadsCorePoolSize()).thenReturn(1);
+        when(configuration.getOutputBufferProcessorThreadsMaxPoolSize()).thenReturn(1);
+        when(configuration.getOutputBufferProcessorKeepAliveTime()).thenReturn(1000);
+        when(configuration.getOutputModuleTimeout()).thenReturn(10000L);
+        when(defaultOutput.isRunning()).thenReturn(true);
+        doAnswer(invocation -> {
+            defaultOutputThread.set(Thread.currentThread());
+            return null;
+        }).when(defaultOutput).write(any(Message.class));
+    }
+
+    @Test
+    public void writesDefaultOutputWithExecutor() throws Exception {
+        when(outputRouter.getStreamOutputsForMessage(any(Message.class))).thenReturn(Collections.emptySet());
+
+        final Message message = new Message("test", "source", Tools.nowUTC());
+        processor().onEvent(event(message));
+
+        verify(defaultOutput).write(message);
+        assertThat(defaultOutputThread.get()).isNotSameAs(Thread.currentThread());
+    }
+
+    @Test
+    public void writesDefaultOutputInline() throws Exception {
+        when(configuration.isOutputBufferProcessorInlineDefaultOutput()).thenReturn(true);
+        final MessageOutput streamOutput = mock(MessageOutput.class);
+        when(streamOutput.isRunning()).thenReturn(true);
+        when(outputRouter.getStreamOutputsForMessage(any(Message.class))).thenReturn(ImmutableSet.of(streamOutput));
+
+        final Message message = new Message("test", "source", Tools.nowUTC());
+        processor().onEvent(event(message));
+
+        verify(defaultOutput).write(message);
+        verify(streamOutput).write(message);
+        assertThat(defaultOutputThread.get()).isSameAs(Thread.currentThread());
+        assertThat(metricRegistry.getTimers().get(name(streamOutput.getClass(), "executorWaitTime")).getCount())
+                .isEqualTo(1L);
+        assertThat(metricRegistry.getCounters().get(name(streamOutput.getClass(), "executorQueueSize")).getCount())
+                .isEqualTo(0L);
+    }
+
+    private OutputBufferProcessor processor() {
+        return new OutputBufferProcessor(configuration, metricRegistry, serverStatus, outputRouter, defaultOutput);
+    }
+
+    private static MessageEvent event(Message message) {
+        final MessageEvent event = new MessageEvent();
+        event.setMessage(message);
+        return event;
+    }
+}
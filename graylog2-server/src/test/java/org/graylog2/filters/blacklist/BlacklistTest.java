@@ -0,0 +1,144 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.filters.blacklist;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlacklistTest {
+    @Test
+    public void emptyBlacklistMatchesNothing() {
+        final Message message = message();
+        message.addField("gl2_remote_ip", "192.0.2.1");
+
+        assertThat(Blacklist.EMPTY.matches(message)).isFalse();
+        assertThat(Blacklist.compile(Collections.emptyList()).matches(message)).isFalse();
+    }
+
+    @Test
+    public void matchesFieldValuesIgnoringCase() {
+        final Blacklist blacklist = Blacklist.compile(ImmutableList.of(
+                equality("source", "Example.org"),
+                equality("facility", "42")));
+
+        assertThat(blacklist.matches(message("example.ORG"))).isTrue();
+        assertThat(blacklist.matches(message("example.com"))).isFalse();
+
+        final Message message = message("example.com");
+        message.addField("facility", 42L);
+        assertThat(blacklist.matches(message)).isTrue();
+        message.addField("facility", 43L);
+        assertThat(blacklist.matches(message)).isFalse();
+    }
+
+    @Test
+    public void matchesCombinedPatterns() {
+        final Blacklist blacklist = Blacklist.compile(ImmutableList.of(
+                pattern("source", "(?i)foo.*"),
+                pattern("source", "bar\\d+"),
+                pattern("source", "(baz)\\1"),
+                pattern("source", "\\Qq|x\\E")));
+
+        assertThat(blacklist.matches(message("FOOBAR"))).isTrue();
+        assertThat(blacklist.matches(message("bar42"))).isTrue();
+        // the case insensitive flag of the first pattern must not apply to the others
+        assertThat(blacklist.matches(message("BAR42"))).isFalse();
+        assertThat(blacklist.matches(message("bar42x"))).isFalse();
+        assertThat(blacklist.matches(message("bazbaz"))).isTrue();
+        assertThat(blacklist.matches(message("q|x"))).isTrue();
+        assertThat(blacklist.matches(message("x"))).isFalse();
+    }
+
+    @Test
+    public void matchesPatternAgainstMissingFieldAsNull() {
+        final Blacklist blacklist = Blacklist.compile(ImmutableList.of(pattern("does_not_exist", "null")));
+
+        assertThat(blacklist.matches(message())).isTrue();
+    }
+
+    @Test
+    public void matchesSourceAddress() {
+        final Blacklist blacklist = Blacklist.compile(ImmutableList.of(
+                ipRange("192.0.2.0/25"),
+                ipRange("192.0.2.128/25"),
+                ipRange("198.51.100.42/32"),
+                ipRange("10.0.0.0/8"),
+                ipRange("10.1.0.0/16"),
+                ipRange("2001:DB8::/32")));
+
+        assertThat(blacklist.matches(remoteMessage("192.0.2.0"))).isTrue();
+        assertThat(blacklist.matches(remoteMessage("192.0.2.255"))).isTrue();
+        assertThat(blacklist.matches(remoteMessage("192.0.3.0"))).isFalse();
+        assertThat(blacklist.matches(remoteMessage("198.51.100.42"))).isTrue();
+        assertThat(blacklist.matches(remoteMessage("198.51.100.43"))).isFalse();
+        assertThat(blacklist.matches(remoteMessage("10.255.255.255"))).isTrue();
+        assertThat(blacklist.matches(remoteMessage("11.0.0.0"))).isFalse();
+        assertThat(blacklist.matches(remoteMessage("9.255.255.255"))).isFalse();
+        assertThat(blacklist.matches(remoteMessage("2001:DB8::42"))).isTrue();
+        assertThat(blacklist.matches(remoteMessage("2001:DB9::42"))).isFalse();
+        assertThat(blacklist.matches(remoteMessage("not an address"))).isFalse();
+        assertThat(blacklist.matches(message())).isFalse();
+    }
+
+    @Test
+    public void matchesSourceAddressWithSubnetMask() {
+        final Blacklist blacklist = Blacklist.compile(ImmutableList.of(ipRange("192.0.2.0/255.255.255.0")));
+
+        assertThat(blacklist.matches(remoteMessage("192.0.2.42"))).isTrue();
+        assertThat(blacklist.matches(remoteMessage("192.0.3.42"))).isFalse();
+    }
+
+    private static Message message() {
+        return message("example.com");
+    }
+
+    private static Message message(String source) {
+        return new Message("message", source, Tools.nowUTC());
+    }
+
+    private static Message remoteMessage(String remoteIp) {
+        final Message message = message();
+        message.addField("gl2_remote_ip", remoteIp);
+        return message;
+    }
+
+    private static FilterDescription equality(String fieldName, String pattern) {
+        final BlacklistFieldEqualityCondition condition = new BlacklistFieldEqualityCondition();
+        condition.fieldName = fieldName;
+        condition.pattern = pattern;
+        return condition;
+    }
+
+    private static FilterDescription pattern(String fieldName, String pattern) {
+        final BlacklistPatternCondition condition = new BlacklistPatternCondition();
+        condition.fieldName = fieldName;
+        condition.setPattern(pattern);
+        return condition;
+    }
+
+    private static FilterDescription ipRange(String pattern) {
+        final BlacklistIpMatcherCondition condition = new BlacklistIpMatcherCondition();
+        condition.setPattern(pattern);
+        return condition;
+    }
+}
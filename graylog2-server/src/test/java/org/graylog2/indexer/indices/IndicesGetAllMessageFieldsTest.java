@@ -32,6 +32,7 @@ import org.graylog2.indexer.IndexMappingFactory;
 import org.graylog2.indexer.cluster.Node;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.system.NodeId;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -58,7 +59,7 @@ public class IndicesGetAllMessageFieldsTest extends AbstractESTest {
         indices = new Indices(jestClient(),
                 new Gson(),
                 new IndexMappingFactory(node),
-                new Messages(new MetricRegistry(), jestClient()),
+                new Messages(new MetricRegistry(), jestClient(), new ObjectMapperProvider().get()),
                 mock(NodeId.class),
                 new NullAuditEventSender(),
                 new EventBus());
@@ -124,7 +124,7 @@ public class IndicesTest extends AbstractESTest {
         indices = new Indices(jestClient(),
                 new Gson(),
                 indexMappingFactory,
-                new Messages(new MetricRegistry(), jestClient()),
+                new Messages(new MetricRegistry(), jestClient(), new ObjectMapperProvider().get()),
                 mock(NodeId.class),
                 new NullAuditEventSender(),
                 eventBus);
@@ -0,0 +1,118 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkRequestWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private MetricRegistry metricRegistry;
+    private Meter invalidTimestampMeter;
+    private BulkRequestWriter writer;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        invalidTimestampMeter = metricRegistry.meter("invalid-timestamps");
+        writer = new BulkRequestWriter(objectMapper, metricRegistry, invalidTimestampMeter);
+    }
+
+    @Test
+    public void writesActionAndSourceLines() throws Exception {
+        final IndexSet indexSet = mock(IndexSet.class);
+        when(indexSet.getWriteIndexAlias()).thenReturn("graylog_deflector");
+        final Message message = new Message("message", "source", new DateTime(2017, 5, 1, 12, 0, DateTimeZone.UTC));
+        message.addField("count", 42L);
+        message.addField("empty", null);
+
+        final String body = writer.write(Collections.singletonList(Maps.immutableEntry(indexSet, message)));
+
+        assertThat(body).endsWith("\n");
+        final String[] lines = body.split("\n");
+        assertThat(lines).hasSize(2);
+
+        final JsonNode action = objectMapper.readTree(lines[0]).path("index");
+        assertThat(action.path("_index").asText()).isEqualTo("graylog_deflector");
+        assertThat(action.path("_type").asText()).isEqualTo("message");
+        assertThat(action.path("_id").asText()).isEqualTo(message.getId());
+
+        final JsonNode source = objectMapper.readTree(lines[1]);
+        assertThat(source.has(Message.FIELD_ID)).isFalse();
+        assertThat(source.has("empty")).isFalse();
+        assertThat(source.path("message").asText()).isEqualTo("message");
+        assertThat(source.path("source").asText()).isEqualTo("source");
+        assertThat(source.path("count").asLong()).isEqualTo(42L);
+        assertThat(source.path("streams").isArray()).isTrue();
+        assertThat(source.path("timestamp").asText()).isEqualTo("2017-05-01 12:00:00.000");
+    }
+
+    @Test
+    public void sourceMatchesElasticSearchObject() throws Exception {
+        final IndexSet indexSet = mock(IndexSet.class);
+        when(indexSet.getWriteIndexAlias()).thenReturn("graylog_deflector");
+        final Message message1 = new Message("message1", "source", new DateTime(2017, 5, 1, 12, 0, DateTimeZone.UTC));
+        message1.addField("foo", "bar");
+        message1.addField("number", 1.5d);
+        final Message message2 = new Message("message2", "source", new DateTime(2017, 5, 1, 12, 0, DateTimeZone.UTC));
+        message2.addField("dotted.key", "value");
+        message2.addField("dotted_key", "other");
+        final List<Map.Entry<IndexSet, Message>> messageList = Arrays.asList(
+                Maps.immutableEntry(indexSet, message1),
+                Maps.immutableEntry(indexSet, message2));
+
+        final String[] lines = writer.write(messageList).split("\n");
+
+        assertThat(lines).hasSize(4);
+        assertThat(objectMapper.readTree(lines[1]))
+                .isEqualTo(objectMapper.valueToTree(message1.toElasticSearchObject(invalidTimestampMeter)));
+        assertThat(objectMapper.readTree(lines[3]))
+                .isEqualTo(objectMapper.valueToTree(message2.toElasticSearchObject(invalidTimestampMeter)));
+    }
+
+    @Test
+    public void invalidTimestampIsReplaced() throws Exception {
+        final IndexSet indexSet = mock(IndexSet.class);
+        when(indexSet.getWriteIndexAlias()).thenReturn("graylog_deflector");
+        final Message message = new Message("message", "source", DateTime.now(DateTimeZone.UTC));
+        message.addField(Message.FIELD_TIMESTAMP, "invalid");
+
+        final String[] lines = writer.write(Collections.singletonList(Maps.immutableEntry(indexSet, message))).split("\n");
+
+        assertThat(objectMapper.readTree(lines[1]).path("timestamp").asText()).isNotEqualTo("invalid");
+        assertThat(invalidTimestampMeter.getCount()).isEqualTo(1L);
+    }
+}
@@ -23,6 +23,7 @@ import io.searchbox.core.Index;
 import org.graylog2.AbstractESTest;
 import org.graylog2.indexer.results.ResultMessage;
 import org.graylog2.plugin.Message;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -40,7 +41,7 @@ public class MessagesTest extends AbstractESTest {
     public void setUp() throws Exception {
         super.setUp();
 
-        messages = new Messages(new MetricRegistry(), jestClient());
+        messages = new Messages(new MetricRegistry(), jestClient(), new ObjectMapperProvider().get());
     }
 
     @Test
@@ -19,6 +19,7 @@ package org.graylog2.inputs.codecs;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import org.graylog2.plugin.InstantMillisProvider;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -34,13 +35,12 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
-import static org.assertj.core.api.Assertions.assertThat;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.CHUNK_COUNTER;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.COMPLETE_MESSAGES;
-import static org.graylog2.inputs.codecs.GelfChunkAggregator.ChunkEntry;
+import static org.graylog2.inputs.codecs.GelfChunkAggregator.DROPPED_CHUNKS;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.DUPLICATE_CHUNKS;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_CHUNKS;
 import static org.graylog2.inputs.codecs.GelfChunkAggregator.EXPIRED_MESSAGES;
@@ -66,7 +66,7 @@ public class GelfChunkAggregatorTest {
     public void before() {
         poolExecutor = new ScheduledThreadPoolExecutor(1);
         metricRegistry = new MetricRegistry();
-        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry);
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.megabytes(64L));
     }
 
     @After
@@ -150,7 +150,7 @@ public class GelfChunkAggregatorTest {
         // we don't want the clean up task to run automatically
         poolExecutor = mock(ScheduledThreadPoolExecutor.class);
         final MetricRegistry metricRegistry = new MetricRegistry();
-        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry);
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.megabytes(64L));
         final GelfChunkAggregator.ChunkEvictionTask evictionTask = aggregator.new ChunkEvictionTask();
 
         final ChannelBuffer[] chunks = createChunkedMessage(4096 + 512, 1024); // creates 5 chunks
@@ -259,44 +259,101 @@ public class GelfChunkAggregatorTest {
     }
 
     @Test
-    public void testChunkEntryCompareTo() throws Exception {
-        // Test if the ChunkEntry#compareTo() method can handle ChunkEntry objects which have the same timestamp.
-        // See: https://github.com/Graylog2/graylog2-server/issues/1462
-
-        final ConcurrentSkipListSet<GelfChunkAggregator.ChunkEntry> sortedEvictionSet = new ConcurrentSkipListSet<>();
-        final long currentTime = System.currentTimeMillis();
+    public void assembledMessageContainsAllChunks() {
+        final byte[] messageId = generateMessageId(1);
+        final ChannelBuffer chunk1 = createChunk(messageId, (byte) 0, (byte) 2, "foo".getBytes(StandardCharsets.UTF_8));
+        final ChannelBuffer chunk2 = createChunk(messageId, (byte) 1, (byte) 2, "bar".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(aggregator.addChunk(chunk2).getMessage());
+        assertEquals(3L, aggregator.getWaitingBytes());
+
+        final ChannelBuffer message = aggregator.addChunk(chunk1).getMessage();
+        assertNotNull(message);
+        assertEquals("foobar", message.toString(StandardCharsets.UTF_8));
+        assertEquals(0L, aggregator.getWaitingBytes());
+    }
 
-        for (int i = 0; i < 10; i++) {
-            sortedEvictionSet.add(new GelfChunkAggregator.ChunkEntry(1, currentTime, "a" + i));
-        }
+    @Test
+    public void chunksAreDroppedWhenMaxSizeIsExceeded() {
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.kilobytes(2L));
+        final ChannelBuffer[] msg1 = createChunkedMessage(4096 + 1, 1024, generateMessageId(1)); // 5 chunks
+        final ChannelBuffer[] msg2 = createChunkedMessage(1024 + 1, 1024, generateMessageId(2)); // 2 chunks
+
+        // the first two chunks fit, the third one exceeds the limit and drops the whole message
+        assertTrue(aggregator.addChunk(msg1[0]).isValid());
+        assertTrue(aggregator.addChunk(msg1[1]).isValid());
+        assertEquals(2048L, aggregator.getWaitingBytes());
+        assertNull(aggregator.addChunk(msg1[2]).getMessage());
+        assertEquals(0L, aggregator.getWaitingBytes());
+        assertEquals(3, counterValueNamed(metricRegistry, DROPPED_CHUNKS));
+        assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
 
-        final int size = sortedEvictionSet.size();
+        // other messages can use the space again
+        assertNull(aggregator.addChunk(msg2[0]).getMessage());
+        assertNotNull(aggregator.addChunk(msg2[1]).getMessage());
+        assertEquals(1, counterValueNamed(metricRegistry, COMPLETE_MESSAGES));
+        assertEquals(3, counterValueNamed(metricRegistry, DROPPED_CHUNKS));
+    }
 
-        for (int i = 0; i < size; i++) {
-            sortedEvictionSet.remove(sortedEvictionSet.first());
+    @Test
+    public void entriesWithSameTimestampAreEvictedIndependently() {
+        // Incomplete messages whose first chunks arrive at the same time must neither replace nor hide each other.
+        // See: https://github.com/Graylog2/graylog2-server/issues/1462
+        final InstantMillisProvider clock = new InstantMillisProvider(new DateTime(2014, 1, 1, 1, 59, 59, 0, DateTimeZone.UTC));
+        DateTimeUtils.setCurrentMillisProvider(clock);
+        try {
+            poolExecutor.shutdown();
+            poolExecutor = mock(ScheduledThreadPoolExecutor.class);
+            aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.megabytes(64L));
+            final GelfChunkAggregator.ChunkEvictionTask evictionTask = aggregator.new ChunkEvictionTask();
+
+            for (int i = 0; i < 10; i++) {
+                final ChannelBuffer[] chunks = createChunkedMessage(1024 + 1, 1024, generateMessageId(i));
+                assertNull(aggregator.addChunk(chunks[0]).getMessage());
+            }
+            assertEquals(10, aggregator.getEvictionBucketEntries());
+            assertEquals(10, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+
+            clock.tick(Period.seconds(10));
+            evictionTask.run();
+
+            assertEquals(0, aggregator.getEvictionBucketEntries());
+            assertEquals(0, counterValueNamed(metricRegistry, WAITING_MESSAGES));
+            assertEquals(10, counterValueNamed(metricRegistry, EXPIRED_MESSAGES));
+            assertEquals(0L, aggregator.getWaitingBytes());
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
         }
-
-        assertTrue("eviction set should be empty", sortedEvictionSet.isEmpty());
     }
 
     @Test
-    public void testChunkEntryEquals() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+    public void completedEntriesAreRemovedFromEvictionBuckets() {
+        final ChannelBuffer[] msg1 = createChunkedMessage(1024 + 1, 1024, generateMessageId(1));
+        final ChannelBuffer[] msg2 = createChunkedMessage(1024 + 1, 1024, generateMessageId(2));
+
+        assertNull(aggregator.addChunk(msg1[0]).getMessage());
+        assertNull(aggregator.addChunk(msg2[0]).getMessage());
+        assertEquals(2, aggregator.getEvictionBucketEntries());
 
-        assertThat(entry).isEqualTo(new ChunkEntry(1, 0L, "id"));
-        assertThat(entry).isEqualTo(new ChunkEntry(2, 0L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 1L, "id"));
-        assertThat(entry).isNotEqualTo(new ChunkEntry(1, 0L, "foo"));
+        assertNotNull(aggregator.addChunk(msg1[1]).getMessage());
+        assertEquals(1, aggregator.getEvictionBucketEntries());
+
+        assertNotNull(aggregator.addChunk(msg2[1]).getMessage());
+        assertEquals(0, aggregator.getEvictionBucketEntries());
     }
 
     @Test
-    public void testChunkEntryHashCode() throws Exception {
-        final GelfChunkAggregator.ChunkEntry entry = new ChunkEntry(1, 0L, "id");
+    public void droppedEntriesAreRemovedFromEvictionBuckets() {
+        aggregator = new GelfChunkAggregator(poolExecutor, metricRegistry, Size.kilobytes(2L));
+        final ChannelBuffer[] chunks = createChunkedMessage(4096 + 1, 1024, generateMessageId(1)); // 5 chunks
+
+        aggregator.addChunk(chunks[0]);
+        aggregator.addChunk(chunks[1]);
+        assertEquals(1, aggregator.getEvictionBucketEntries());
 
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(1, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isEqualTo(new ChunkEntry(2, 0L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 1L, "id").hashCode());
-        assertThat(entry.hashCode()).isNotEqualTo(new ChunkEntry(1, 0L, "foo").hashCode());
+        // exceeds the limit and drops the message
+        aggregator.addChunk(chunks[2]);
+        assertEquals(0, aggregator.getEvictionBucketEntries());
     }
 
     private ChannelBuffer[] createChunkedMessage(int messageSize, int maxChunkSize) {
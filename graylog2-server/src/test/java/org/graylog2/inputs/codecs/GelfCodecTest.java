@@ -16,6 +16,7 @@
  */
 package org.graylog2.inputs.codecs;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.core.JsonParseException;
 import org.graylog2.inputs.TestHelper;
 import org.graylog2.plugin.Message;
@@ -50,7 +51,7 @@ public class GelfCodecTest {
 
     @Before
     public void setUp() {
-        codec = new GelfCodec(new Configuration(Collections.emptyMap()), aggregator);
+        codec = new GelfCodec(new Configuration(Collections.emptyMap()), aggregator, new MetricRegistry());
     }
 
     @Test(expected = IllegalStateException.class)
@@ -118,6 +119,52 @@ public class GelfCodecTest {
                 "_id", "source", "message", "full_message", "timestamp", "level",
                 "user_id", "some_info", "some_env_var");
     }
+    @Test
+    public void decodeConvertsAdditionalFieldValues() throws Exception {
+        final String json = "{"
+                + "\"version\": \"1.1\","
+                + "\"host\": \"example.org\","
+                + "\"short_message\": \"A short message\","
+                + "\"line\": \"42\","
+                + "\"_object\": {\"a\": [1, 2.5, \"x\"], \"b\": null},"
+                + "\"_array\": [],"
+                + "\"_double\": 1.5,"
+                + "\"_big\": 12345678901234,"
+                + "\"_null\": null,"
+                + "\"_bool\": true,"
+                + "\"_dup\": \"first\","
+                + "\"_dup\": \"second\""
+                + "}";
+
+        final RawMessage rawMessage = new RawMessage(TestHelper.zlibCompress(json));
+        final Message message = codec.decode(rawMessage);
+
+        assertThat(message).isNotNull();
+        assertThat(message.getField("line")).isEqualTo(42L);
+        assertThat(message.getField("object")).isEqualTo("{\"a\":[1,2.5,\"x\"],\"b\":null}");
+        assertThat(message.getField("array")).isEqualTo("[]");
+        assertThat(message.getField("double")).isEqualTo(1.5d);
+        assertThat(message.getField("big")).isEqualTo(12345678901234L);
+        assertThat(message.getField("dup")).isEqualTo("second");
+        assertThat(message.hasField("null")).isFalse();
+        assertThat(message.hasField("bool")).isFalse();
+    }
+
+    @Test
+    public void decodeAcceptsMalformedUtf8() throws Exception {
+        final byte[] prefix = "{\"host\":\"example.org\",\"short_message\":\"foo".getBytes(StandardCharsets.UTF_8);
+        final byte[] suffix = "bar\"}".getBytes(StandardCharsets.UTF_8);
+        final byte[] payload = new byte[prefix.length + 1 + suffix.length];
+        System.arraycopy(prefix, 0, payload, 0, prefix.length);
+        payload[prefix.length] = (byte) 0xff;
+        System.arraycopy(suffix, 0, payload, prefix.length + 1, suffix.length);
+
+        final Message message = codec.decode(new RawMessage(payload));
+
+        assertThat(message).isNotNull();
+        assertThat(message.getMessage()).isEqualTo("foo\uFFFDbar");
+    }
+
     @Test
     public void decodeLargeCompressedMessageFails() throws Exception {
         expectedException.expect(IllegalStateException.class);
@@ -125,7 +172,7 @@ public class GelfCodecTest {
         expectedException.expectCause(isA(JsonParseException.class));
 
         final Configuration configuration = new Configuration(Collections.singletonMap("decompress_size_limit", 100));
-        final GelfCodec codec = new GelfCodec(configuration, aggregator);
+        final GelfCodec codec = new GelfCodec(configuration, aggregator, new MetricRegistry());
         final String json = "{"
             + "\"version\": \"1.1\","
             + "\"host\": \"example.org\","
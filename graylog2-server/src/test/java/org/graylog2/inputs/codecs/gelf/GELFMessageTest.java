@@ -16,9 +16,12 @@
  */
 package org.graylog2.inputs.codecs.gelf;
 
+import com.google.common.base.Strings;
 import org.graylog2.inputs.TestHelper;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -79,6 +82,28 @@ public class GELFMessageTest {
         assertEquals(GELF_JSON, msg.getJSON(1024));
     }
 
+    @Test
+    public void testGetJSONFromCompressedMessagesReusesDecompressor() throws Exception {
+        // Alternate between compressed formats and sizes to make sure no state leaks between messages
+        for (int i = 0; i < 100; i++) {
+            final String json = GELF_JSON + Strings.repeat(" ", i * 1000);
+            final byte[] payload = i % 2 == 0 ? TestHelper.zlibCompress(json) : TestHelper.gzipCompress(json);
+            assertEquals(json, new GELFMessage(payload).getJSON(-1L));
+        }
+    }
+
+    @Test
+    public void testGetJSONFromCompressedMessageIsLimited() throws Exception {
+        assertEquals(GELF_JSON.substring(0, 10), new GELFMessage(TestHelper.zlibCompress(GELF_JSON)).getJSON(10));
+        assertEquals(GELF_JSON.substring(0, 10), new GELFMessage(TestHelper.gzipCompress(GELF_JSON)).getJSON(10));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetJSONFromTruncatedCompressedMessageFails() throws Exception {
+        final byte[] payload = TestHelper.gzipCompress(GELF_JSON);
+        new GELFMessage(Arrays.copyOf(payload, payload.length - 4)).getJSON(1024);
+    }
+
     @Test
     public void testGetJSONFromUncompressedMessage() throws Exception {
         byte[] text = GELF_JSON.getBytes("UTF-8");
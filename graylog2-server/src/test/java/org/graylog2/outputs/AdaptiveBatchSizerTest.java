@@ -0,0 +1,133 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.outputs;
+
+import com.google.common.collect.Maps;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.BulkIndexResult;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveBatchSizerTest {
+    private static final long TARGET_LATENCY = TimeUnit.SECONDS.toNanos(1L);
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final long MAX_REQUEST_SIZE = 1024 * 1024;
+    private static final Map.Entry<IndexSet, Message> REJECTED_ENTRY =
+            Maps.immutableEntry(null, new Message("message", "test", Tools.nowUTC()));
+
+    private AdaptiveBatchSizer sizer;
+
+    @Before
+    public void setUp() {
+        sizer = new AdaptiveBatchSizer(100, 1000, 500, 4, TARGET_LATENCY, MAX_REQUEST_SIZE);
+    }
+
+    @Test
+    public void startsWithInitialBatchSizeWithinBounds() {
+        assertThat(sizer.getBatchSize()).isEqualTo(500);
+        assertThat(sizer.getInflightBatches()).isEqualTo(4);
+        assertThat(new AdaptiveBatchSizer(100, 1000, 5000, 4, TARGET_LATENCY, MAX_REQUEST_SIZE).getBatchSize()).isEqualTo(1000);
+        assertThat(new AdaptiveBatchSizer(100, 1000, 10, 4, TARGET_LATENCY, MAX_REQUEST_SIZE).getBatchSize()).isEqualTo(100);
+    }
+
+    @Test
+    public void fullFastBatchesIncreaseBatchSizeAdditively() {
+        sizer.onSuccess(result(500, 0, 1024), FAST);
+        assertThat(sizer.getBatchSize()).isEqualTo(600);
+
+        sizer.onSuccess(result(600, 0, 1024), FAST);
+        assertThat(sizer.getBatchSize()).isEqualTo(700);
+    }
+
+    @Test
+    public void partialBatchesDoNotIncreaseBatchSize() {
+        sizer.onSuccess(result(20, 0, 1024), FAST);
+
+        assertThat(sizer.getBatchSize()).isEqualTo(500);
+    }
+
+    @Test
+    public void batchSizeDoesNotExceedMaximum() {
+        for (int i = 0; i < 20; i++) {
+            sizer.onSuccess(result(sizer.getBatchSize(), 0, 1024), FAST);
+        }
+
+        assertThat(sizer.getBatchSize()).isEqualTo(1000);
+    }
+
+    @Test
+    public void rejectedMessagesHalveBatchSizeAndInflightBatches() {
+        sizer.onSuccess(result(500, 10, 1024), FAST);
+
+        assertThat(sizer.getBatchSize()).isEqualTo(250);
+        assertThat(sizer.getInflightBatches()).isEqualTo(2);
+    }
+
+    @Test
+    public void failuresHalveDownToMinimum() {
+        for (int i = 0; i < 10; i++) {
+            sizer.onFailure();
+        }
+
+        assertThat(sizer.getBatchSize()).isEqualTo(100);
+        assertThat(sizer.getInflightBatches()).isEqualTo(1);
+    }
+
+    @Test
+    public void inflightBatchesRecoverOnceBatchSizeIsAtMaximum() {
+        sizer.onFailure();
+        assertThat(sizer.getInflightBatches()).isEqualTo(2);
+
+        while (sizer.getBatchSize() < 1000) {
+            sizer.onSuccess(result(sizer.getBatchSize(), 0, 1024), FAST);
+            assertThat(sizer.getInflightBatches()).isEqualTo(2);
+        }
+        sizer.onSuccess(result(1000, 0, 1024), FAST);
+        sizer.onSuccess(result(1000, 0, 1024), FAST);
+        sizer.onSuccess(result(1000, 0, 1024), FAST);
+
+        assertThat(sizer.getBatchSize()).isEqualTo(1000);
+        assertThat(sizer.getInflightBatches()).isEqualTo(4);
+    }
+
+    @Test
+    public void slowBatchesDecreaseBatchSize() {
+        sizer.onSuccess(result(500, 0, 1024), TARGET_LATENCY + 1);
+
+        assertThat(sizer.getBatchSize()).isEqualTo(375);
+        assertThat(sizer.getInflightBatches()).isEqualTo(4);
+    }
+
+    @Test
+    public void oversizedRequestsScaleBatchSizeToMaximumRequestSize() {
+        sizer.onSuccess(result(500, 0, 2 * MAX_REQUEST_SIZE), FAST);
+
+        assertThat(sizer.getBatchSize()).isEqualTo(250);
+    }
+
+    private static BulkIndexResult result(int messages, int rejected, long requestSize) {
+        return BulkIndexResult.create(messages, 0, Collections.nCopies(rejected, REJECTED_ENTRY), requestSize);
+    }
+}
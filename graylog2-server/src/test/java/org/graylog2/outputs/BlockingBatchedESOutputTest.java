@@ -16,15 +16,18 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import org.graylog2.Configuration;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.cluster.Cluster;
+import org.graylog2.indexer.messages.BulkIndexResult;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.Tools;
+import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.journal.NoopJournal;
 import org.junit.Before;
 import org.junit.Rule;
@@ -36,10 +39,15 @@ import org.mockito.junit.MockitoRule;
 import java.util.List;
 import java.util.Map;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -61,6 +69,7 @@ public class BlockingBatchedESOutputTest {
     public void setUp() throws Exception {
         this.metricRegistry = new MetricRegistry();
         this.journal = new NoopJournal();
+        when(messages.bulkIndex(anyList())).thenReturn(BulkIndexResult.empty());
         this.config = new Configuration() {
             @Override
             public int getOutputBatchSize() {
@@ -145,6 +154,140 @@ public class BlockingBatchedESOutputTest {
         verify(messages, times(1)).bulkIndex(eq(messageList));
     }
 
+    @Test
+    public void writeAsyncCommitsJournalOffsetsAfterBulkIndexing() throws Exception {
+        when(cluster.isConnected()).thenReturn(true);
+        when(cluster.isDeflectorHealthy()).thenReturn(true);
+
+        final Configuration asyncConfig = new Configuration() {
+            @Override
+            public int getOutputBatchSize() {
+                return 3;
+            }
+
+            @Override
+            public boolean isOutputAsyncFlush() {
+                return true;
+            }
+        };
+        final Journal mockJournal = mock(Journal.class);
+
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, cluster, asyncConfig, mockJournal);
+
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(asyncConfig.getOutputBatchSize());
+        long offset = 0L;
+        for (Map.Entry<IndexSet, Message> entry : messageList) {
+            entry.getValue().setJournalOffset(offset++);
+            output.writeMessageEntry(entry);
+        }
+
+        verify(messages, timeout(5000)).bulkIndex(eq(messageList));
+        verify(mockJournal, timeout(5000).times(messageList.size())).markJournalOffsetCommitted(anyLong());
+
+        output.stop();
+    }
+
+    @Test
+    public void retriesFailedBatchUntilItHasBeenIndexed() throws Exception {
+        when(cluster.isConnected()).thenReturn(true);
+        when(cluster.isDeflectorHealthy()).thenReturn(true);
+        when(messages.bulkIndex(anyList()))
+                .thenThrow(new RuntimeException("Elasticsearch unavailable"))
+                .thenReturn(BulkIndexResult.empty());
+        final Journal mockJournal = mock(Journal.class);
+
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, cluster, config, mockJournal);
+
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(config.getOutputBatchSize());
+        for (Map.Entry<IndexSet, Message> entry : messageList) {
+            output.writeMessageEntry(entry);
+        }
+
+        verify(messages, times(2)).bulkIndex(eq(messageList));
+        verify(mockJournal, times(messageList.size())).markJournalOffsetCommitted(anyLong());
+        assertThat(metricRegistry.meter(name(BlockingBatchedESOutput.class, "failedMessages")).getCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void commitsJournalOffsetsOfBatchWhichCannotBeIndexed() throws Exception {
+        when(cluster.isConnected()).thenReturn(false);
+        doThrow(RuntimeException.class).when(cluster).waitForConnectedAndDeflectorHealthy();
+        final Journal mockJournal = mock(Journal.class);
+
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, cluster, config, mockJournal);
+
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(config.getOutputBatchSize());
+        for (Map.Entry<IndexSet, Message> entry : messageList) {
+            output.writeMessageEntry(entry);
+        }
+
+        verify(messages, never()).bulkIndex(anyList());
+        verify(mockJournal, times(messageList.size())).markJournalOffsetCommitted(anyLong());
+        assertThat(metricRegistry.meter(name(BlockingBatchedESOutput.class, "failedMessages")).getCount()).isEqualTo(3L);
+    }
+
+    @Test
+    public void writeCommitsJournalOffsetOfMessageWithoutIndexSets() throws Exception {
+        final Journal mockJournal = mock(Journal.class);
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, cluster, config, mockJournal);
+
+        final Message message = new Message("message", "test", Tools.nowUTC());
+        message.setJournalOffset(42L);
+        output.write(message);
+
+        verify(mockJournal, times(1)).markJournalOffsetCommitted(42L);
+        verify(messages, never()).bulkIndex(anyList());
+    }
+
+    @Test
+    public void adaptiveBatchSizeShrinksAndRetriesIfMessagesAreRejected() throws Exception {
+        when(cluster.isConnected()).thenReturn(true);
+        when(cluster.isDeflectorHealthy()).thenReturn(true);
+        final List<Map.Entry<IndexSet, Message>> firstBatch = buildMessages(4);
+        final List<Map.Entry<IndexSet, Message>> rejected = ImmutableList.of(firstBatch.get(3));
+        when(messages.bulkIndex(anyList()))
+                .thenReturn(BulkIndexResult.create(4, 0, rejected, 1024L))
+                .thenReturn(BulkIndexResult.empty());
+        final Journal mockJournal = mock(Journal.class);
+
+        final Configuration adaptiveConfig = new Configuration() {
+            @Override
+            public int getOutputBatchSize() {
+                return 4;
+            }
+
+            @Override
+            public boolean isOutputBatchSizeAdaptive() {
+                return true;
+            }
+
+            @Override
+            public int getOutputBatchSizeMin() {
+                return 1;
+            }
+        };
+
+        final BlockingBatchedESOutput output = new BlockingBatchedESOutput(metricRegistry, messages, cluster, adaptiveConfig, mockJournal);
+
+        for (Map.Entry<IndexSet, Message> entry : firstBatch) {
+            output.writeMessageEntry(entry);
+        }
+        // the rejected message is sent again, the batch is committed once all messages have been indexed
+        verify(messages, times(1)).bulkIndex(eq(firstBatch));
+        verify(messages, times(1)).bulkIndex(eq(rejected));
+        verify(mockJournal, times(firstBatch.size())).markJournalOffsetCommitted(anyLong());
+        assertThat(metricRegistry.meter(name(BlockingBatchedESOutput.class, "failedMessages")).getCount()).isEqualTo(0L);
+
+        final List<Map.Entry<IndexSet, Message>> secondBatch = buildMessages(2);
+        for (Map.Entry<IndexSet, Message> entry : secondBatch) {
+            output.writeMessageEntry(entry);
+        }
+        verify(messages, times(1)).bulkIndex(eq(secondBatch));
+
+        final Gauge<?> targetBatchSize = metricRegistry.getGauges().get(name(BlockingBatchedESOutput.class, "targetBatchSize"));
+        assertThat(targetBatchSize.getValue()).isEqualTo(2);
+    }
+
     private List<Map.Entry<IndexSet, Message>> buildMessages(final int count) {
         final ImmutableList.Builder<Map.Entry<IndexSet, Message>> builder = ImmutableList.builder();
         for (int i = 0; i < count; i++) {
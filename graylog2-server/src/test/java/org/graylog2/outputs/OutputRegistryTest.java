@@ -16,11 +16,14 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Iterables;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.notifications.NotificationService;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.outputs.MessageOutputConfigurationException;
+import org.graylog2.plugin.system.NodeId;
 import org.graylog2.plugin.streams.Output;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.streams.OutputService;
@@ -36,8 +39,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -59,7 +64,7 @@ public class OutputRegistryTest {
 
     @Test
     public void testMessageOutputsIncludesDefault() {
-        OutputRegistry registry = new OutputRegistry(messageOutput, null, null, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
+        OutputRegistry registry = new OutputRegistry(messageOutput, null, null, null, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
 
         Set<MessageOutput> outputs = registry.getMessageOutputs();
         assertSame("we should only have the default MessageOutput", Iterables.getOnlyElement(outputs, null), messageOutput);
@@ -67,7 +72,7 @@ public class OutputRegistryTest {
 
     @Test(expected = IllegalArgumentException.class)
     public void testThrowExceptionForUnknownOutputType() throws MessageOutputConfigurationException {
-        OutputRegistry registry = new OutputRegistry(null, null, messageOutputFactory, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
+        OutputRegistry registry = new OutputRegistry(null, null, messageOutputFactory, null, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
 
         registry.launchOutput(output, null);
     }
@@ -79,14 +84,21 @@ public class OutputRegistryTest {
         when(messageOutputFactory.fromStreamOutput(eq(output), eq(stream), any(Configuration.class))).thenReturn(messageOutput);
         when(outputService.load(eq(outputId))).thenReturn(output);
 
-        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, messageOutputFactory, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
+        when(output.getId()).thenReturn(outputId);
+        final QueuedMessageOutput.Factory queuedMessageOutputFactory = new QueuedMessageOutput.Factory(
+                new MetricRegistry(), 10, 1, 10, QueuedMessageOutput.FullQueuePolicy.BLOCK, 1000L, 1000L);
+
+        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, messageOutputFactory, queuedMessageOutputFactory, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
         assertEquals(outputRegistry.getRunningMessageOutputs().size(), 0);
 
         MessageOutput result = outputRegistry.getOutputForIdAndStream(outputId, stream);
 
-        assertSame(result, messageOutput);
+        assertTrue(result instanceof QueuedMessageOutput);
+        assertSame(((QueuedMessageOutput) result).getOutput(), messageOutput);
         assertNotNull(outputRegistry.getRunningMessageOutputs());
         assertEquals(outputRegistry.getRunningMessageOutputs().size(), 1);
+
+        result.stop();
     }
 
     @Test
@@ -95,7 +107,7 @@ public class OutputRegistryTest {
         final Stream stream = mock(Stream.class);
         when(outputService.load(eq(outputId))).thenThrow(NotFoundException.class);
 
-        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, null, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
+        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, null, null, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
 
         MessageOutput messageOutput = outputRegistry.getOutputForIdAndStream(outputId, stream);
 
@@ -110,7 +122,7 @@ public class OutputRegistryTest {
         when(messageOutputFactory.fromStreamOutput(eq(output), any(Stream.class), any(Configuration.class))).thenThrow(new MessageOutputConfigurationException());
         when(outputService.load(eq(outputId))).thenReturn(output);
 
-        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, messageOutputFactory, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
+        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, messageOutputFactory, null, null, null, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
         assertEquals(outputRegistry.getRunningMessageOutputs().size(), 0);
 
         MessageOutput result = outputRegistry.getOutputForIdAndStream(outputId, stream);
@@ -118,4 +130,27 @@ public class OutputRegistryTest {
         assertNull(result);
         assertEquals(outputRegistry.getRunningMessageOutputs().size(), 0);
     }
+
+    @Test
+    public void generationChangesOnFailedLaunchesAndPenaltyEndButNotDuringPenalty() throws Exception {
+        final String outputId = "foobar";
+        final Stream stream = mock(Stream.class);
+        when(messageOutputFactory.fromStreamOutput(eq(output), any(Stream.class), any(Configuration.class))).thenThrow(new MessageOutputConfigurationException());
+        when(outputService.load(eq(outputId))).thenReturn(output);
+
+        final OutputRegistry outputRegistry = new OutputRegistry(null, outputService, messageOutputFactory, null,
+                mock(NotificationService.class, RETURNS_DEEP_STUBS), mock(NodeId.class), 1, 1);
+        final long initialGeneration = outputRegistry.getGeneration();
+
+        assertNull(outputRegistry.getOutputForIdAndStream(outputId, stream));
+        final long disabledGeneration = outputRegistry.getGeneration();
+        assertTrue(disabledGeneration > initialGeneration);
+
+        // the output is disabled, looking it up again doesn't invalidate the routes
+        assertNull(outputRegistry.getOutputForIdAndStream(outputId, stream));
+        assertEquals(disabledGeneration, outputRegistry.getGeneration());
+
+        Thread.sleep(1100L);
+        assertTrue(outputRegistry.getGeneration() > disabledGeneration);
+    }
 }
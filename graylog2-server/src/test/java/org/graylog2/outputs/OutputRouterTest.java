@@ -17,10 +17,12 @@
 package org.graylog2.outputs;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.streams.Output;
 import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.events.StreamsChangedEvent;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mock;
@@ -32,10 +34,13 @@ import java.util.Collection;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OutputRouterTest {
@@ -50,7 +55,7 @@ public class OutputRouterTest {
     @Test
     public void testAlwaysIncludeDefaultOutput() throws Exception {
         final Message message = mock(Message.class);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getOutputsForMessage(message);
 
@@ -61,7 +66,7 @@ public class OutputRouterTest {
     @Test
     public void testGetMessageOutputsForEmptyStream() throws Exception {
         final Stream stream = mock(Stream.class);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getMessageOutputsForStream(stream);
 
@@ -78,7 +83,7 @@ public class OutputRouterTest {
         when(stream.getOutputs()).thenReturn(outputSet);
         when(output.getId()).thenReturn(outputId);
         when(outputRegistry.getOutputForIdAndStream(eq(outputId), eq(stream))).thenReturn(messageOutput);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getMessageOutputsForStream(stream);
 
@@ -101,7 +106,7 @@ public class OutputRouterTest {
         when(output2.getId()).thenReturn(output2Id);
         when(outputRegistry.getOutputForIdAndStream(eq(output1Id), eq(stream))).thenReturn(messageOutput1);
         when(outputRegistry.getOutputForIdAndStream(eq(output2Id), eq(stream))).thenReturn(messageOutput2);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getMessageOutputsForStream(stream);
 
@@ -119,7 +124,7 @@ public class OutputRouterTest {
         final MessageOutput messageOutput = mock(MessageOutput.class);
         final Set<MessageOutput> messageOutputList = ImmutableSet.of(messageOutput);
 
-        final OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        final OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus()));
         doReturn(messageOutputList).when(outputRouter).getMessageOutputsForStream(eq(stream));
 
         // Call to test
@@ -142,7 +147,7 @@ public class OutputRouterTest {
         final Message message = mock(Message.class);
         when(message.getStreams()).thenReturn(ImmutableSet.of(stream1, stream2));
 
-        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus()));
         doReturn(messageOutputSet1).when(outputRouter).getMessageOutputsForStream(eq(stream1));
         doReturn(messageOutputSet2).when(outputRouter).getMessageOutputsForStream(eq(stream2));
 
@@ -163,7 +168,7 @@ public class OutputRouterTest {
         final Message message = mock(Message.class);
         when(message.getStreams()).thenReturn(ImmutableSet.of(stream1, stream2));
 
-        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus()));
         doReturn(messageOutputSet).when(outputRouter).getMessageOutputsForStream(eq(stream1));
         doReturn(messageOutputSet).when(outputRouter).getMessageOutputsForStream(eq(stream2));
 
@@ -173,4 +178,79 @@ public class OutputRouterTest {
         assertTrue(result.contains(defaultMessageOutput));
         assertTrue(result.contains(messageOutput));
     }
+
+    @Test
+    public void testStreamOutputsAreResolvedOnce() throws Exception {
+        final Stream stream = streamWithOutput("foobar", mock(MessageOutput.class));
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
+
+        final Set<MessageOutput> result1 = outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+        final Set<MessageOutput> result2 = outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+
+        assertEquals(result1.size(), 1);
+        assertSame(result1, result2);
+        verify(outputRegistry, times(1)).getOutputForIdAndStream(eq("foobar"), eq(stream));
+    }
+
+    @Test
+    public void testStreamOutputsAreResolvedAgainIfOutputsChanged() throws Exception {
+        final Stream stream = streamWithOutput("foobar", mock(MessageOutput.class));
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
+
+        outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+        when(outputRegistry.getGeneration()).thenReturn(1L);
+        outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+        outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+
+        verify(outputRegistry, times(2)).getOutputForIdAndStream(eq("foobar"), eq(stream));
+    }
+
+    @Test
+    public void testStreamOutputsAreResolvedAgainIfStreamsChanged() throws Exception {
+        final Stream stream = streamWithOutput("foobar", mock(MessageOutput.class));
+        final EventBus eventBus = new EventBus();
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, eventBus);
+
+        outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+        eventBus.post(StreamsChangedEvent.create("stream-id"));
+        outputRouter.getStreamOutputsForMessage(messageInStreams(stream));
+
+        verify(outputRegistry, times(2)).getOutputForIdAndStream(eq("foobar"), eq(stream));
+    }
+
+    @Test
+    public void testOutputsOfStreamCombinations() throws Exception {
+        final MessageOutput messageOutput1 = mock(MessageOutput.class);
+        final MessageOutput messageOutput2 = mock(MessageOutput.class);
+        final Stream stream1 = streamWithOutput("foo", messageOutput1);
+        final Stream stream2 = streamWithOutput("bar", messageOutput2);
+        final Stream stream3 = streamWithOutput("baz", messageOutput1);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, new EventBus());
+
+        assertEquals(outputRouter.getStreamOutputsForMessage(messageInStreams(stream1)),
+                ImmutableSet.of(messageOutput1));
+        assertEquals(outputRouter.getStreamOutputsForMessage(messageInStreams(stream1, stream2)),
+                ImmutableSet.of(messageOutput1, messageOutput2));
+        assertEquals(outputRouter.getStreamOutputsForMessage(messageInStreams(stream2, stream3)),
+                ImmutableSet.of(messageOutput1, messageOutput2));
+        assertEquals(outputRouter.getStreamOutputsForMessage(messageInStreams(stream1, stream3)),
+                ImmutableSet.of(messageOutput1));
+        assertEquals(outputRouter.getStreamOutputsForMessage(messageInStreams(stream2)),
+                ImmutableSet.of(messageOutput2));
+    }
+
+    private Stream streamWithOutput(String outputId, MessageOutput messageOutput) {
+        final Stream stream = mock(Stream.class);
+        final Output output = mock(Output.class);
+        when(output.getId()).thenReturn(outputId);
+        when(stream.getOutputs()).thenReturn(ImmutableSet.of(output));
+        when(outputRegistry.getOutputForIdAndStream(eq(outputId), eq(stream))).thenReturn(messageOutput);
+        return stream;
+    }
+
+    private static Message messageInStreams(Stream... streams) {
+        final Message message = mock(Message.class);
+        when(message.getStreams()).thenReturn(ImmutableSet.copyOf(streams));
+        return message;
+    }
 }
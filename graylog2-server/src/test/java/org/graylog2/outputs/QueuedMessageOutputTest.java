@@ -0,0 +1,205 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.outputs;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueuedMessageOutputTest {
+    private static final String OUTPUT_ID = "output-id";
+
+    private MetricRegistry metricRegistry;
+    private RecordingOutput output;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        output = new RecordingOutput();
+    }
+
+    @Test
+    public void deliversAllQueuedMessagesInBatches() throws Exception {
+        output.release.countDown();
+        final QueuedMessageOutput queuedOutput = create(100, 10, QueuedMessageOutput.FullQueuePolicy.BLOCK);
+        final List<Message> messages = messages(25);
+
+        queuedOutput.write(messages);
+        queuedOutput.stop();
+
+        assertThat(output.messages).containsExactlyElementsOf(messages);
+        assertThat(output.batchSizes).allMatch(size -> size <= 10);
+        assertThat(output.isRunning()).isFalse();
+        assertThat(metricRegistry.getMetrics()).isEmpty();
+    }
+
+    @Test
+    public void dropsNewestMessagesIfQueueIsFull() throws Exception {
+        final QueuedMessageOutput queuedOutput = create(2, 10, QueuedMessageOutput.FullQueuePolicy.DROP_NEWEST);
+        final List<Message> messages = messages(4);
+
+        fillQueueWhileOutputIsBlocked(queuedOutput, messages);
+        assertThat(metricRegistry.meter(name(QueuedMessageOutput.class, OUTPUT_ID, "dropped")).getCount()).isEqualTo(1L);
+
+        output.release.countDown();
+        queuedOutput.stop();
+
+        assertThat(output.messages).containsExactly(messages.get(0), messages.get(1), messages.get(2));
+    }
+
+    @Test
+    public void dropsOldestMessagesIfQueueIsFull() throws Exception {
+        final QueuedMessageOutput queuedOutput = create(2, 10, QueuedMessageOutput.FullQueuePolicy.DROP_OLDEST);
+        final List<Message> messages = messages(4);
+
+        fillQueueWhileOutputIsBlocked(queuedOutput, messages);
+        assertThat(metricRegistry.meter(name(QueuedMessageOutput.class, OUTPUT_ID, "dropped")).getCount()).isEqualTo(1L);
+
+        output.release.countDown();
+        queuedOutput.stop();
+
+        assertThat(output.messages).containsExactly(messages.get(0), messages.get(2), messages.get(3));
+    }
+
+    @Test
+    public void dropsNewMessageIfQueueIsStillFullAfterBlockTimeout() throws Exception {
+        final QueuedMessageOutput queuedOutput = create(1, 10, QueuedMessageOutput.FullQueuePolicy.BLOCK, 200L);
+        final List<Message> messages = messages(3);
+
+        fillQueueWhileOutputIsBlocked(queuedOutput, messages);
+        assertThat(metricRegistry.meter(name(QueuedMessageOutput.class, OUTPUT_ID, "dropped")).getCount()).isEqualTo(1L);
+
+        output.release.countDown();
+        queuedOutput.stop();
+
+        assertThat(output.messages).containsExactly(messages.get(0), messages.get(1));
+    }
+
+    @Test
+    public void workerSurvivesErrorsOfTheOutput() throws Exception {
+        output.release.countDown();
+        output.failure = new AssertionError("boom");
+        final QueuedMessageOutput queuedOutput = create(10, 1, QueuedMessageOutput.FullQueuePolicy.BLOCK);
+        final List<Message> messages = messages(3);
+
+        queuedOutput.write(messages);
+        queuedOutput.stop();
+
+        assertThat(output.messages).containsExactlyElementsOf(messages);
+        assertThat(metricRegistry.getMetrics()).isEmpty();
+    }
+
+    @Test
+    public void reportsQueueSizeAndLag() throws Exception {
+        final QueuedMessageOutput queuedOutput = create(10, 10, QueuedMessageOutput.FullQueuePolicy.BLOCK);
+
+        fillQueueWhileOutputIsBlocked(queuedOutput, messages(3));
+
+        assertThat(metricRegistry.getGauges().get(name(QueuedMessageOutput.class, OUTPUT_ID, "queueSize")).getValue())
+                .isEqualTo(2);
+        assertThat(queuedOutput.getLagMillis()).isGreaterThanOrEqualTo(0L);
+
+        output.release.countDown();
+        queuedOutput.stop();
+
+        assertThat(queuedOutput.getLagMillis()).isEqualTo(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicy() {
+        QueuedMessageOutput.FullQueuePolicy.fromString("spill");
+    }
+
+    @Test
+    public void parsesPolicyIgnoringCase() {
+        assertThat(QueuedMessageOutput.FullQueuePolicy.fromString(" Drop_Oldest "))
+                .isEqualTo(QueuedMessageOutput.FullQueuePolicy.DROP_OLDEST);
+    }
+
+    private QueuedMessageOutput create(int queueSize, int batchSize, QueuedMessageOutput.FullQueuePolicy policy) {
+        return create(queueSize, batchSize, policy, 10000L);
+    }
+
+    private QueuedMessageOutput create(int queueSize, int batchSize, QueuedMessageOutput.FullQueuePolicy policy, long blockTimeout) {
+        return new QueuedMessageOutput.Factory(metricRegistry, queueSize, 1, batchSize, policy, blockTimeout, 10000L)
+                .create(OUTPUT_ID, output);
+    }
+
+    /**
+     * Writes the first message and waits until the worker is blocked delivering it, then queues the remaining ones.
+     */
+    private void fillQueueWhileOutputIsBlocked(QueuedMessageOutput queuedOutput, List<Message> messages) throws Exception {
+        queuedOutput.write(messages.get(0));
+        assertThat(output.writing.await(10, TimeUnit.SECONDS)).isTrue();
+        queuedOutput.write(messages.subList(1, messages.size()));
+    }
+
+    private static List<Message> messages(int count) {
+        final ImmutableList.Builder<Message> messages = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message("message " + i, "source", Tools.nowUTC()));
+        }
+        return messages.build();
+    }
+
+    private static class RecordingOutput implements MessageOutput {
+        private final List<Message> messages = new CopyOnWriteArrayList<>();
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile Error failure;
+        private volatile boolean running = true;
+
+        @Override
+        public boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public void write(Message message) throws Exception {
+            write(ImmutableList.of(message));
+        }
+
+        @Override
+        public void write(List<Message> batch) throws Exception {
+            writing.countDown();
+            release.await();
+            messages.addAll(batch);
+            batchSizes.add(batch.size());
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FieldKeyTest {
+    @Test
+    public void validatesKeys() {
+        assertThat(FieldKey.of("foo_bar-1@baz").isValid()).isTrue();
+        assertThat(FieldKey.of("foo bar").isValid()).isFalse();
+        assertThat(FieldKey.of("foo$").isValid()).isFalse();
+        // reserved keys which may be set
+        assertThat(FieldKey.of(Message.FIELD_SOURCE).isValid()).isTrue();
+        assertThat(FieldKey.of("gl2_source_input").isValid()).isTrue();
+        // reserved keys which may not be set
+        assertThat(FieldKey.of(Message.FIELD_ID).isValid()).isFalse();
+        assertThat(FieldKey.of("_index").isValid()).isFalse();
+    }
+
+    @Test
+    public void replacesDotsForElasticsearch() {
+        final FieldKey dotted = FieldKey.of("foo.bar.baz");
+        assertThat(dotted.requiresReplacement()).isTrue();
+        assertThat(dotted.getName()).isEqualTo("foo.bar.baz");
+        assertThat(dotted.getElasticSearchName()).isEqualTo("foo_bar_baz");
+
+        final FieldKey plain = FieldKey.of("foo_bar");
+        assertThat(plain.requiresReplacement()).isFalse();
+        assertThat(plain.getElasticSearchName()).isSameAs(plain.getName());
+    }
+
+    @Test
+    public void cachesKeys() {
+        final FieldKey key = FieldKey.of(new String("cached_key"));
+        final long hits = FieldKey.cacheHits();
+
+        assertThat(FieldKey.of(new String("cached_key"))).isSameAs(key);
+        assertThat(FieldKey.cacheHits()).isGreaterThan(hits);
+        assertThat(FieldKey.cacheSize()).isGreaterThan(0L);
+    }
+}
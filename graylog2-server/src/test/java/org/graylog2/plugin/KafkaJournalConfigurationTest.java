@@ -0,0 +1,50 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import com.github.joschi.jadconfig.JadConfig;
+import com.github.joschi.jadconfig.RepositoryException;
+import com.github.joschi.jadconfig.ValidationException;
+import com.github.joschi.jadconfig.repositories.InMemoryRepository;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KafkaJournalConfigurationTest {
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void testSupportedMessageJournalCompression() throws RepositoryException, ValidationException {
+        final KafkaJournalConfiguration configuration = new KafkaJournalConfiguration();
+        new JadConfig(new InMemoryRepository(ImmutableMap.of("message_journal_compression", "LZ4")), configuration).process();
+
+        assertThat(configuration.getMessageJournalCompression()).isEqualTo("LZ4");
+    }
+
+    @Test
+    public void testUnsupportedMessageJournalCompression() throws RepositoryException, ValidationException {
+        expectedException.expect(ValidationException.class);
+        expectedException.expectMessage("Unsupported journal compression <snappy>, must be one of [none, lz4, gzip]");
+
+        final KafkaJournalConfiguration configuration = new KafkaJournalConfiguration();
+        new JadConfig(new InMemoryRepository(ImmutableMap.of("message_journal_compression", "snappy")), configuration).process();
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class MessageFieldsTest {
+    @Test
+    public void putGetAndRemoveFields() {
+        final MessageFields fields = new MessageFields(2);
+        for (int i = 0; i < 20; i++) {
+            assertThat(fields.put("field" + i, i)).isNull();
+        }
+
+        assertThat(fields).hasSize(20);
+        assertThat(fields.put("field3", "three")).isEqualTo(3);
+        assertThat(fields.get("field3")).isEqualTo("three");
+        assertThat(fields.containsKey("field19")).isTrue();
+        assertThat(fields.containsKey("field20")).isFalse();
+        assertThat(fields.get(null)).isNull();
+
+        assertThat(fields.remove("field0")).isEqualTo(0);
+        assertThat(fields.remove("field0")).isNull();
+        assertThat(fields).hasSize(19);
+        assertThat(fields.keySet().iterator().next()).isEqualTo("field1");
+    }
+
+    @Test
+    public void supportsNullValues() {
+        final MessageFields fields = new MessageFields();
+        fields.put("source", null);
+
+        assertThat(fields.containsKey("source")).isTrue();
+        assertThat(fields.get("source")).isNull();
+    }
+
+    @Test
+    public void iteratesInInsertionOrder() {
+        final MessageFields fields = new MessageFields();
+        fields.put("b", 1);
+        fields.put("a", 2);
+        fields.put("c", 3);
+
+        assertThat(fields.entrySet()).containsExactly(entry("b", 1), entry("a", 2), entry("c", 3));
+    }
+
+    @Test
+    public void iteratorRemovesAndEntriesWriteThrough() {
+        final MessageFields fields = new MessageFields();
+        fields.put("a", 1);
+        fields.put("b", 2);
+        fields.put("c", 3);
+
+        final Iterator<Map.Entry<String, Object>> iterator = fields.entrySet().iterator();
+        iterator.next();
+        iterator.remove();
+        iterator.next().setValue(20);
+        assertThat(iterator.next().getKey()).isEqualTo("c");
+        assertThat(iterator.hasNext()).isFalse();
+
+        assertThat(fields).containsOnly(entry("b", 20), entry("c", 3));
+    }
+
+    @Test
+    public void fieldNamesAreShared() {
+        final MessageFields fields1 = new MessageFields();
+        final MessageFields fields2 = new MessageFields();
+        fields1.put(new String("facility"), "test");
+        fields2.put(new String("facility"), "test");
+
+        assertThat(fields1.keySet().iterator().next()).isSameAs(fields2.keySet().iterator().next());
+    }
+}
@@ -311,6 +311,36 @@ public class MessageTest {
         assertTrue(pattern.matcher(message.getId()).matches());
     }
 
+    @Test
+    public void testGeneratedIdIsPartOfTheFields() throws Exception {
+        assertThat(message.hasField(Message.FIELD_ID)).isTrue();
+        assertThat(message.getFieldCount()).isEqualTo(4);
+
+        final String id = message.getId();
+        assertThat(message.getFields()).containsEntry(Message.FIELD_ID, id);
+        assertThat(message.getFieldNames()).contains(Message.FIELD_ID);
+        assertThat(message.getFieldCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testMaterializingTheIdKeepsIt() throws Exception {
+        final String id = message.getId();
+        assertThat(message.getFieldsEntries()).contains(Maps.immutableEntry(Message.FIELD_ID, (Object) id));
+
+        message.materializeId();
+
+        assertThat(message.getId()).isEqualTo(id);
+        assertThat(message.getFields()).containsEntry(Message.FIELD_ID, id);
+        assertThat(message.getFieldCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testMessagesKeepGivenIds() throws Exception {
+        final Message copy = new Message(ImmutableMap.of(Message.FIELD_ID, "existing-id", "message", "foo"));
+
+        assertThat(copy.getId()).isEqualTo("existing-id");
+    }
+
     @Test
     public void testGetTimestamp() {
         try {
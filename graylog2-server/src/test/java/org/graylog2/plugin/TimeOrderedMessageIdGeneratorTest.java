@@ -0,0 +1,63 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.plugin;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeOrderedMessageIdGeneratorTest {
+    private final AtomicLong clock = new AtomicLong(1_500_000_000_000L);
+    private final TimeOrderedMessageIdGenerator generator = new TimeOrderedMessageIdGenerator(clock::get, 42L);
+
+    @Test
+    public void generatesVersion7Ids() {
+        final UUID id = generator.generate();
+
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(id.getMostSignificantBits() >>> 16).isEqualTo(clock.get());
+        assertThat(id.getLeastSignificantBits() & 0xff).isEqualTo(42L);
+    }
+
+    @Test
+    public void idsAreStrictlyIncreasing() {
+        String previous = generator.generate().toString();
+        for (int i = 0; i < 10_000; i++) {
+            if (i == 5_000) {
+                // the clock goes backwards
+                clock.addAndGet(-1000L);
+            }
+            final String id = generator.generate().toString();
+            assertThat(id).isGreaterThan(previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void idsFollowTheClock() {
+        final UUID first = generator.generate();
+        clock.addAndGet(1L);
+        final UUID second = generator.generate();
+
+        assertThat(second.getMostSignificantBits() >>> 16).isEqualTo((first.getMostSignificantBits() >>> 16) + 1);
+        assertThat(second.getMostSignificantBits() & 0xfff).isEqualTo(0L);
+    }
+}
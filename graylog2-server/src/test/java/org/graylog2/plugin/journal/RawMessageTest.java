@@ -16,6 +16,7 @@
  */
 package org.graylog2.plugin.journal;
 
+import com.google.common.collect.ImmutableMap;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.system.NodeId;
 import org.junit.Test;
@@ -23,10 +24,13 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class RawMessageTest {
     @Test
@@ -44,4 +48,46 @@ public class RawMessageTest {
         assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
         assertEquals("raw", decodedMsg.getCodecName());
     }
+
+    @Test
+    public void encodeDecodeWithCodecConfigReference() throws IOException {
+        final Configuration codecConfig = new Configuration(ImmutableMap.of("foo", "bar"));
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(codecConfig);
+
+        final byte[] encoded = rawMessage.encode("config-id");
+        assertNull(RawMessage.decode(encoded, 1, id -> null));
+
+        final RawMessage decodedMsg = RawMessage.decode(encoded, 1, id -> "config-id".equals(id) ? codecConfig : null);
+        assertNotNull(decodedMsg);
+        assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
+        assertEquals("raw", decodedMsg.getCodecName());
+        assertSame(codecConfig, decodedMsg.getCodecConfig());
+    }
+
+    @Test
+    public void acknowledgeRunsCallbackOnce() {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        final AtomicInteger acknowledgements = new AtomicInteger();
+        rawMessage.setAcknowledgement(acknowledgements::incrementAndGet);
+
+        rawMessage.acknowledge();
+        rawMessage.acknowledge();
+
+        assertEquals(1, acknowledgements.get());
+        assertNull(rawMessage.getAcknowledgement());
+    }
+
+    @Test
+    public void decodeWithLookupAcceptsEmbeddedCodecConfig() throws IOException {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(new Configuration(ImmutableMap.of("foo", "bar")));
+
+        final RawMessage decodedMsg = RawMessage.decode(rawMessage.encode(), 1, id -> null);
+
+        assertNotNull(decodedMsg);
+        assertEquals("bar", decodedMsg.getCodecConfig().getString("foo"));
+    }
 }
@@ -0,0 +1,155 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.buffers;
+
+import com.google.common.collect.ImmutableList;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class BatchingWorkProcessorTest {
+    private static final int EVENTS = 100;
+
+    private Disruptor<ValueEvent> disruptor;
+
+    @After
+    public void tearDown() {
+        if (disruptor != null) {
+            disruptor.halt();
+        }
+    }
+
+    @Test
+    public void handsEventsToHandlerInBatchesOfAtMostMaxBatchSize() throws Exception {
+        final RecordingHandler handler = new RecordingHandler(EVENTS);
+        final RingBuffer<ValueEvent> ringBuffer = start(4, ImmutableList.of(handler));
+
+        publish(ringBuffer, EVENTS);
+
+        assertThat(handler.done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(handler.values).hasSize(EVENTS);
+        assertThat(handler.batchSizes).allMatch(size -> size >= 1 && size <= 4);
+        // a single processor sees the events in sequence order
+        for (int i = 0; i < EVENTS; i++) {
+            assertThat(handler.values.get(i)).isEqualTo((long) i);
+        }
+    }
+
+    @Test
+    public void everyEventIsHandledByExactlyOneProcessorOfThePool() throws Exception {
+        final CountDownLatch done = new CountDownLatch(EVENTS);
+        final RecordingHandler first = new RecordingHandler(done);
+        final RecordingHandler second = new RecordingHandler(done);
+        final RingBuffer<ValueEvent> ringBuffer = start(8, ImmutableList.of(first, second));
+
+        publish(ringBuffer, EVENTS);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        final List<Long> values = new ArrayList<>(first.values);
+        values.addAll(second.values);
+        Collections.sort(values);
+        assertThat(values).hasSize(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            assertThat(values.get(i)).isEqualTo((long) i);
+        }
+    }
+
+    @Test
+    public void failingBatchIsPassedToExceptionHandlerAndProcessingContinues() throws Exception {
+        @SuppressWarnings("unchecked")
+        final ExceptionHandler<ValueEvent> exceptionHandler = mock(ExceptionHandler.class);
+        final RecordingHandler handler = new RecordingHandler(2) {
+            @Override
+            public void onEvents(List<ValueEvent> events) throws Exception {
+                if (events.get(0).value == 0L) {
+                    throw new IllegalStateException("Failing on purpose");
+                }
+                super.onEvents(events);
+            }
+        };
+        final RingBuffer<ValueEvent> ringBuffer = start(1, ImmutableList.of(handler), exceptionHandler);
+
+        publish(ringBuffer, 3);
+
+        assertThat(handler.done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(handler.values).containsExactly(1L, 2L);
+        verify(exceptionHandler, timeout(5000)).handleEventException(any(IllegalStateException.class), anyLong(), any(ValueEvent.class));
+    }
+
+    private RingBuffer<ValueEvent> start(int maxBatchSize, List<RecordingHandler> handlers) {
+        @SuppressWarnings("unchecked")
+        final ExceptionHandler<ValueEvent> exceptionHandler = mock(ExceptionHandler.class);
+        return start(maxBatchSize, handlers, exceptionHandler);
+    }
+
+    private RingBuffer<ValueEvent> start(int maxBatchSize, List<RecordingHandler> handlers, ExceptionHandler<ValueEvent> exceptionHandler) {
+        disruptor = new Disruptor<>(ValueEvent::new, 16, Executors.defaultThreadFactory(), ProducerType.MULTI, new BlockingWaitStrategy());
+        disruptor.handleEventsWith(BatchingWorkProcessor.createPool(disruptor.getRingBuffer(), exceptionHandler, maxBatchSize, handlers));
+        return disruptor.start();
+    }
+
+    private static void publish(RingBuffer<ValueEvent> ringBuffer, int count) {
+        for (long i = 0; i < count; i++) {
+            ringBuffer.publishEvent((event, sequence, value) -> event.value = value, i);
+        }
+    }
+
+    private static class ValueEvent {
+        private long value;
+    }
+
+    private static class RecordingHandler implements BatchWorkHandler<ValueEvent> {
+        private final List<Long> values = Collections.synchronizedList(new ArrayList<>());
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch done;
+
+        RecordingHandler(int expected) {
+            this(new CountDownLatch(expected));
+        }
+
+        RecordingHandler(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onEvents(List<ValueEvent> events) throws Exception {
+            batchSizes.add(events.size());
+            for (ValueEvent event : events) {
+                values.add(event.value);
+                done.countDown();
+            }
+        }
+    }
+}
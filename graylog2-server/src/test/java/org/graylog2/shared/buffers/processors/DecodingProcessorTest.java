@@ -0,0 +1,128 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.NodeId;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
+import org.graylog2.shared.journal.Journal;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.SortedMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DecodingProcessorTest {
+    private static final String INPUT_ID = "input-1";
+
+    private Codec.Factory<Codec> codecFactory;
+    private MetricRegistry metricRegistry;
+    private EventBus eventBus;
+    private DecodingProcessor decodingProcessor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        final Codec codec = mock(Codec.class);
+        when(codec.decode(any(RawMessage.class))).thenAnswer(invocation -> new Message("hello", "example.org", Tools.nowUTC()));
+
+        codecFactory = mock(Codec.Factory.class);
+        when(codecFactory.create(any(Configuration.class))).thenReturn(codec);
+
+        final ServerStatus serverStatus = mock(ServerStatus.class);
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+
+        metricRegistry = new MetricRegistry();
+        eventBus = new EventBus();
+        decodingProcessor = new DecodingProcessor(
+                Collections.<String, Codec.Factory<? extends Codec>>singletonMap("test", codecFactory),
+                serverStatus,
+                metricRegistry,
+                mock(Journal.class),
+                eventBus,
+                new Timer(),
+                new Timer());
+    }
+
+    @Test
+    public void codecIsCreatedOncePerInputAndConfiguration() throws Exception {
+        final Configuration config = new Configuration(ImmutableMap.of("key", "value"));
+
+        assertThat(decode(config).getMessage()).isNotNull();
+        assertThat(decode(config).getMessage()).isNotNull();
+        // Same configuration contents in a different instance, as read from the journal
+        assertThat(decode(new Configuration(ImmutableMap.of("key", "value"))).getMessage()).isNotNull();
+        verify(codecFactory, times(1)).create(any(Configuration.class));
+
+        decode(new Configuration(ImmutableMap.of("key", "other")));
+        verify(codecFactory, times(2)).create(any(Configuration.class));
+    }
+
+    @Test
+    public void inputUpdateInvalidatesCachedCodecs() throws Exception {
+        final Configuration config = new Configuration(ImmutableMap.of("key", "value"));
+
+        decode(config);
+        eventBus.post(InputUpdated.create(INPUT_ID));
+        decode(config);
+
+        verify(codecFactory, times(2)).create(any(Configuration.class));
+    }
+
+    @Test
+    public void metricsAreStillRecordedPerInput() throws Exception {
+        final Configuration config = new Configuration(ImmutableMap.of("key", "value"));
+
+        decode(config);
+        decode(config);
+
+        final SortedMap<String, Meter> meters = metricRegistry.getMeters((name, metric) -> name.endsWith(INPUT_ID + ".processedMessages"));
+        assertThat(meters).hasSize(1);
+        assertThat(meters.values().iterator().next().getCount()).isEqualTo(2L);
+    }
+
+    private MessageEvent decode(Configuration config) throws Exception {
+        final RawMessage raw = new RawMessage("hello".getBytes(StandardCharsets.UTF_8));
+        raw.setCodecName("test");
+        raw.setCodecConfig(config);
+        raw.addSourceNode(INPUT_ID, mock(NodeId.class));
+
+        final MessageEvent event = new MessageEvent();
+        event.setRaw(raw);
+        decodingProcessor.onEvent(event, 0L, false);
+        return event;
+    }
+}
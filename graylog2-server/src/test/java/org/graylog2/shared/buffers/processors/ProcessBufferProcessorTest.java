@@ -0,0 +1,228 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.buffers.OutputBuffer;
+import org.graylog2.messageprocessors.OrderedMessageProcessors;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.journal.Journal;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProcessBufferProcessorTest {
+    private MetricRegistry metricRegistry;
+    private OutputBuffer outputBuffer;
+    private Journal journal;
+    private Stream defaultStream;
+    private List<MessageProcessor> processors;
+    private ProcessBufferProcessor processor;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        outputBuffer = mock(OutputBuffer.class);
+        journal = mock(Journal.class);
+        defaultStream = mock(Stream.class);
+        processors = new ArrayList<>();
+
+        final OrderedMessageProcessors orderedMessageProcessors = mock(OrderedMessageProcessors.class);
+        when(orderedMessageProcessors.iterator()).thenAnswer(invocation -> processors.iterator());
+
+        processor = new ProcessBufferProcessor(metricRegistry, orderedMessageProcessors, outputBuffer, journal,
+                mock(DecodingProcessor.class), () -> defaultStream);
+    }
+
+    @Test
+    public void processesBatchWithSingleProcessorCallAndOutputBufferInsert() throws Exception {
+        final CountingProcessor counting = new CountingProcessor("count", -1);
+        processors.add(counting);
+        final List<Message> messages = messages(3);
+
+        processor.onEvents(events(messages));
+
+        assertThat(counting.calls).isEqualTo(1);
+        verify(outputBuffer, times(1)).insertBlocking(messages);
+        for (Message message : messages) {
+            assertThat(message.getField("count")).isEqualTo(1);
+            assertThat(message.getStreams()).containsExactly(defaultStream);
+        }
+        assertThat(metricRegistry.histogram(name(ProcessBufferProcessor.class, "batchSize")).getSnapshot().getMax()).isEqualTo(3L);
+    }
+
+    @Test
+    public void doesNotForwardFilteredOutMessages() throws Exception {
+        processors.add(messages -> {
+            for (Message message : messages) {
+                if ("message1".equals(message.getMessage())) {
+                    message.setFilterOut(true);
+                }
+            }
+            return messages;
+        });
+        final List<Message> messages = messages(3);
+
+        processor.onEvents(events(messages));
+
+        verify(outputBuffer).insertBlocking(ImmutableList.of(messages.get(0), messages.get(2)));
+    }
+
+    @Test
+    public void failingProcessorDropsOnlyTheMessageItFailsOn() throws Exception {
+        processors.add(new FailingProcessor("message4"));
+        final CountingProcessor second = new CountingProcessor("second", -1);
+        processors.add(second);
+        final List<Message> messages = messages(5);
+
+        processor.onEvents(events(messages));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<Message>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outputBuffer).insertBlocking(captor.capture());
+        assertThat(captor.getValue()).containsExactlyElementsOf(messages.subList(0, 4));
+        for (Message message : messages.subList(0, 4)) {
+            assertThat(message.getField("second")).isEqualTo(1);
+        }
+        assertThat(messages.get(4).getField("second")).isNull();
+    }
+
+    @Test
+    public void failingProcessorKeepsMessagesAfterTheFailingOne() throws Exception {
+        processors.add(new FailingProcessor("message1"));
+        final List<Message> messages = messages(3);
+
+        processor.onEvents(events(messages));
+
+        verify(outputBuffer).insertBlocking(ImmutableList.of(messages.get(0), messages.get(2)));
+    }
+
+    @Test
+    public void commitsJournalOffsetsOfDroppedMessages() throws Exception {
+        processors.add(new FailingProcessor("message1"));
+        final List<Message> messages = messages(3);
+
+        processor.onEvents(events(messages));
+
+        verify(journal).markJournalOffsetCommitted(1L);
+        verify(journal, times(1)).markJournalOffsetCommitted(anyLong());
+        assertThat(metricRegistry.meter(name(ProcessBufferProcessor.class, "failedMessages")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void commitsJournalOffsetOfSingleMessageWhichCannotBeProcessed() throws Exception {
+        processors.add(new CountingProcessor("first", 0));
+        final Message message = messages(1).get(0);
+        final MessageEvent event = new MessageEvent();
+        event.setMessage(message);
+
+        processor.onEvent(event);
+
+        verify(journal).markJournalOffsetCommitted(0L);
+        verify(outputBuffer, never()).insertBlocking(anyList());
+        verify(journal, times(1)).markJournalOffsetCommitted(anyLong());
+    }
+
+    private static List<Message> messages(int count) {
+        final List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Message message = new Message("message" + i, "source", Tools.nowUTC());
+            message.setJournalOffset(i);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static List<MessageEvent> events(List<Message> messages) {
+        final List<MessageEvent> events = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            final MessageEvent event = new MessageEvent();
+            event.setMessage(message);
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Increments a counter field on every message and fails on the message with the given index of each call.
+     */
+    private static class CountingProcessor implements MessageProcessor {
+        private final String field;
+        private final int failAt;
+        private int calls = 0;
+
+        CountingProcessor(String field, int failAt) {
+            this.field = field;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public org.graylog2.plugin.Messages process(org.graylog2.plugin.Messages messages) {
+            calls++;
+            int index = 0;
+            for (Message message : messages) {
+                if (index++ == failAt) {
+                    throw new IllegalStateException("Failing on purpose");
+                }
+                final Object count = message.getField(field);
+                message.addField(field, count == null ? 1 : (Integer) count + 1);
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Iterates over all messages before processing them, like the built-in processors, and fails on the message
+     * with the given text.
+     */
+    private static class FailingProcessor implements MessageProcessor {
+        private final String failOn;
+
+        FailingProcessor(String failOn) {
+            this.failOn = failOn;
+        }
+
+        @Override
+        public org.graylog2.plugin.Messages process(org.graylog2.plugin.Messages messages) {
+            final List<Message> input = ImmutableList.copyOf(messages);
+            for (Message message : input) {
+                if (failOn.equals(message.getMessage())) {
+                    throw new IllegalStateException("Failing on purpose");
+                }
+            }
+            return messages;
+        }
+    }
+}
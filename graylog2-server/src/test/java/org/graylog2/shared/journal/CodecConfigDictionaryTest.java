@@ -0,0 +1,107 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CodecConfigDictionaryTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void registerReturnsStableReference() throws Exception {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(temporaryFolder.newFolder());
+        final Configuration config = new Configuration(ImmutableMap.of("foo", "bar"));
+
+        final String id = dictionary.register(config);
+
+        assertThat(id).isNotEmpty();
+        assertThat(dictionary.register(config)).isEqualTo(id);
+        assertThat(dictionary.register(new Configuration(ImmutableMap.of("foo", "bar")))).isEqualTo(id);
+        assertThat(dictionary.register(new Configuration(ImmutableMap.of("foo", "baz")))).isNotEqualTo(id);
+        assertThat(dictionary.get(id)).isSameAs(config);
+    }
+
+    @Test
+    public void emptyConfigurationIsNotRegistered() throws Exception {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(temporaryFolder.newFolder());
+
+        assertThat(dictionary.register(null)).isNull();
+        assertThat(dictionary.register(Configuration.EMPTY_CONFIGURATION)).isNull();
+        assertThat(dictionary.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void configurationsArePersisted() throws Exception {
+        final File journalDirectory = temporaryFolder.newFolder();
+        final String id = new CodecConfigDictionary(journalDirectory)
+                .register(new Configuration(ImmutableMap.<String, Object>of("foo", "bar", "port", 12201)));
+
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+
+        final Configuration config = dictionary.get(id);
+        assertThat(config).isNotNull();
+        assertThat(config.getString("foo")).isEqualTo("bar");
+        assertThat(config.getInt("port")).isEqualTo(12201);
+    }
+
+    @Test
+    public void incompleteLinesAreSkipped() throws Exception {
+        final File journalDirectory = temporaryFolder.newFolder();
+        final File dictionaryFile = new File(journalDirectory, "graylog2-codec-configs");
+        Files.write(dictionaryFile.toPath(), "abc {\"source\":{\"fo".getBytes(StandardCharsets.UTF_8));
+
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        assertThat(dictionary.get("abc")).isNull();
+        final String id = dictionary.register(new Configuration(ImmutableMap.of("foo", "bar")));
+
+        final CodecConfigDictionary reloaded = new CodecConfigDictionary(journalDirectory);
+        assertThat(reloaded.size()).isEqualTo(1);
+        assertThat(reloaded.get(id)).isNotNull();
+    }
+
+    @Test
+    public void compactionKeepsOnlyConfigurationsRegisteredSinceLoading() throws Exception {
+        final File journalDirectory = temporaryFolder.newFolder();
+        final CodecConfigDictionary previousRun = new CodecConfigDictionary(journalDirectory);
+        final String unusedId = previousRun.register(new Configuration(ImmutableMap.of("foo", "bar")));
+        final String usedId = previousRun.register(new Configuration(ImmutableMap.of("foo", "baz")));
+
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        assertThat(dictionary.register(new Configuration(ImmutableMap.of("foo", "baz")))).isEqualTo(usedId);
+        dictionary.compact();
+
+        assertThat(dictionary.get(unusedId)).isNull();
+        assertThat(dictionary.get(usedId)).isNotNull();
+
+        final CodecConfigDictionary reloaded = new CodecConfigDictionary(journalDirectory);
+        assertThat(reloaded.size()).isEqualTo(1);
+        assertThat(reloaded.get(usedId)).isNotNull();
+        final String newId = reloaded.register(new Configuration(ImmutableMap.of("foo", "qux")));
+        assertThat(new CodecConfigDictionary(journalDirectory).get(newId)).isNotNull();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.journal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.lifecycles.Lifecycle;
+import org.graylog2.shared.buffers.ProcessBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JournalReaderTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private Journal journal;
+    @Mock
+    private ProcessBuffer processBuffer;
+    @Mock
+    private CodecConfigDictionary codecConfigDictionary;
+
+    private EventBus eventBus;
+    private JournalReader journalReader;
+
+    @Before
+    public void setUp() {
+        when(journal.numberOfPartitions()).thenReturn(1);
+        when(journal.read(eq(0), anyLong())).thenReturn(Collections.emptyList());
+        when(processBuffer.getRingBufferSize()).thenReturn(1024);
+        when(processBuffer.getRemainingCapacity()).thenReturn(1024L);
+        eventBus = new EventBus("JournalReaderTest");
+        journalReader = new JournalReader(journal, processBuffer, new Semaphore(0), new MetricRegistry(), eventBus,
+                codecConfigDictionary);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journalReader.stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void keepsReadingWithoutWritesWhileEntriesAreUncommitted() throws Exception {
+        // nothing can be read because too many messages are in flight, only commits make the entries readable
+        when(journal.uncommittedEntries()).thenReturn(1000L);
+
+        journalReader.startAsync().awaitRunning();
+        eventBus.post(Lifecycle.RUNNING);
+
+        verify(journal, timeout(5000).atLeast(3)).read(eq(0), anyLong());
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.journal;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.github.joschi.jadconfig.util.Size;
 import com.google.common.collect.Iterators;
@@ -50,6 +51,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.UUID;
@@ -64,6 +66,7 @@ import static org.apache.commons.io.filefilter.FileFilterUtils.suffixFileFilter;
 import static org.apache.commons.lang.RandomStringUtils.randomAlphanumeric;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -127,6 +130,33 @@ public class KafkaJournalTest {
         assertEquals("message", new String(firstMessage.getPayload(), UTF_8));
     }
 
+    @Test
+    public void sharedJournalOffsetIsCommittedWithTheLastReference() throws Exception {
+        final KafkaJournal journal = new KafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+
+        final long offset = journal.write("id".getBytes(UTF_8), "message".getBytes(UTF_8));
+        assertEquals(1, journal.read(1).size());
+
+        // e. g. a message written to three indices
+        journal.addJournalOffsetReferences(offset, 2);
+        journal.markJournalOffsetCommitted(offset);
+        journal.markJournalOffsetCommitted(offset);
+        assertEquals(KafkaJournal.DEFAULT_COMMITTED_OFFSET, journal.getCommittedOffset());
+
+        journal.markJournalOffsetCommitted(offset);
+        assertEquals(offset, journal.getCommittedOffset());
+    }
+
     @Test
     public void readAtLeastOne() throws Exception {
         final Journal journal = new KafkaJournal(journalDirectory,
@@ -154,6 +184,154 @@ public class KafkaJournalTest {
         assertEquals("message1", new String(firstMessage.getPayload(), UTF_8));
     }
 
+    @Test
+    public void readReturnsAllMessagesInOrder() throws Exception {
+        final Journal journal = new KafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            journal.write(("id" + i).getBytes(UTF_8), ("message" + i).getBytes(UTF_8));
+        }
+
+        // the read-ahead adapts to the message size after the first read
+        int read = 0;
+        while (read < count) {
+            final List<Journal.JournalReadEntry> messages = journal.read(7);
+            assertFalse(messages.isEmpty());
+            for (Journal.JournalReadEntry entry : messages) {
+                assertEquals(read, entry.getOffset());
+                assertEquals("message" + read, new String(entry.getPayload(), UTF_8));
+                assertTrue(entry.getPayloadBuffer().isReadOnly());
+                read++;
+            }
+        }
+        assertTrue(journal.read(1).isEmpty());
+    }
+
+    @Test
+    public void writeAndReadMultiplePartitions() throws Exception {
+        final KafkaJournal journal = new KafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                4,
+                Duration.ZERO,
+                Size.megabytes(1L),
+                KafkaJournal.COMPRESSION_NONE,
+                new MetricRegistry(),
+                serverStatus);
+
+        assertEquals(4, journal.numberOfPartitions());
+        assertEquals(4, journal.numberOfWritablePartitions());
+        for (int i = 0; i < 8; i++) {
+            final Journal.Entry entry = journal.createEntry(("id" + i).getBytes(UTF_8), ("message" + i).getBytes(UTF_8));
+            final long offset = journal.write(Collections.singletonList(entry), i);
+            assertEquals(i % 4, KafkaJournal.partitionOf(offset));
+            assertEquals(i / 4, KafkaJournal.logOffsetOf(offset));
+        }
+        assertEquals(8, journal.getLogEndOffset() - journal.getLogStartOffset());
+        assertTrue(new File(journalDirectory, "messagejournal-3").isDirectory());
+
+        final List<Journal.JournalReadEntry> messages = journal.read(2, 10);
+        assertEquals(2, messages.size());
+        assertEquals("message2", new String(messages.get(0).getPayload(), UTF_8));
+        assertEquals("message6", new String(messages.get(1).getPayload(), UTF_8));
+        assertEquals(KafkaJournal.journalOffset(2, 1), messages.get(1).getOffset());
+
+        // committing in one partition counts all messages of the others as uncommitted
+        assertEquals(KafkaJournal.DEFAULT_COMMITTED_OFFSET, journal.getCommittedOffset());
+        journal.markJournalOffsetCommitted(messages.get(1).getOffset());
+        // the committed offset waits for the earlier message of the partition
+        assertEquals(KafkaJournal.DEFAULT_COMMITTED_OFFSET, journal.getCommittedOffset());
+        journal.markJournalOffsetCommitted(messages.get(0).getOffset());
+        assertEquals(6, journal.getLogEndOffset() - 1 - journal.getCommittedOffset());
+    }
+
+    @Test
+    public void compressedJournalReadsMessagesFromTheMiddleOfABatch() throws Exception {
+        final KafkaJournal journal = new KafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                1,
+                Duration.ZERO,
+                Size.megabytes(1L),
+                "lz4",
+                new MetricRegistry(),
+                serverStatus);
+
+        final List<Journal.Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            entries.add(journal.createEntry(("id" + i).getBytes(UTF_8), ("message" + i).getBytes(UTF_8)));
+        }
+        assertEquals(99, journal.write(entries));
+        // the whole batch is stored as a single compressed entry, smaller than the uncompressed message headers alone
+        assertTrue(journal.size() < 100 * (MessageSet.LogOverhead() + Message.MinHeaderSize()));
+
+        final List<Journal.JournalReadEntry> messages = journal.read(50, 10);
+        assertEquals(10, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(50 + i, messages.get(i).getOffset());
+            assertEquals("message" + (50 + i), new String(messages.get(i).getPayload(), UTF_8));
+        }
+    }
+
+    @Test
+    public void groupCommitWaitsForFlush() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final KafkaJournal journal = new KafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardHours(1),
+                100,
+                1,
+                Duration.millis(10L),
+                Size.megabytes(1L),
+                KafkaJournal.COMPRESSION_NONE,
+                metricRegistry,
+                serverStatus);
+        journal.startAsync().awaitRunning();
+        try {
+            final Gauge<?> unflushedMessages = metricRegistry.getGauges().get("org.graylog2.shared.journal.KafkaJournal.unflushedMessages");
+            final long offset = journal.write("id".getBytes(UTF_8), "message".getBytes(UTF_8));
+            journal.awaitFlushed(offset);
+
+            assertEquals(0L, unflushedMessages.getValue());
+        } finally {
+            journal.stopAsync().awaitTerminated();
+        }
+    }
+
+    private void markJournalOffsetsCommitted(KafkaJournal journal, long fromOffset, long toOffset) {
+        for (long offset = fromOffset; offset <= toOffset; offset++) {
+            journal.markJournalOffsetCommitted(offset);
+        }
+    }
+
     private int createBulkChunks(KafkaJournal journal, Size segmentSize, int bulkCount) {
         // Magic numbers deduced by magic…
         int bulkSize = Ints.saturatedCast(segmentSize.toBytes() / (2L * 16L));
@@ -405,15 +583,15 @@ public class KafkaJournalTest {
         assertEquals(numberOfSegments, 3);
 
         // mark first half of first segment committed, should not clean anything
-        journal.markJournalOffsetCommitted(bulkSize / 2);
+        markJournalOffsetsCommitted(journal, 0, bulkSize / 2);
         assertEquals("should not touch segments", journal.cleanupLogs(), 0);
         assertEquals(countSegmentsInDir(messageJournalDir), 3);
 
-        journal.markJournalOffsetCommitted(bulkSize + 1);
+        markJournalOffsetsCommitted(journal, bulkSize / 2 + 1, bulkSize + 1);
         assertEquals("first segment should've been purged", journal.cleanupLogs(), 1);
         assertEquals(countSegmentsInDir(messageJournalDir), 2);
 
-        journal.markJournalOffsetCommitted(bulkSize * 4);
+        markJournalOffsetsCommitted(journal, bulkSize + 2, bulkSize * 4);
         assertEquals("only purge one segment, not the active one", journal.cleanupLogs(), 1);
         assertEquals(countSegmentsInDir(messageJournalDir), 1);
     }
@@ -0,0 +1,119 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.shared.journal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffsetTrackerTest {
+    @Test
+    public void watermarkAdvancesOverContiguousOffsets() {
+        final OffsetTracker tracker = new OffsetTracker(10L, 16);
+
+        assertThat(tracker.complete(11L)).isTrue();
+        assertThat(tracker.complete(12L)).isTrue();
+        assertThat(tracker.getNextOffset()).isEqualTo(10L);
+
+        assertThat(tracker.complete(10L)).isTrue();
+        assertThat(tracker.getNextOffset()).isEqualTo(13L);
+        assertThat(tracker.getOffsetLimit()).isEqualTo(29L);
+    }
+
+    @Test
+    public void ignoresOffsetsBelowTheWatermark() {
+        final OffsetTracker tracker = new OffsetTracker(0L, 16);
+        tracker.complete(0L);
+        tracker.complete(1L);
+
+        // a duplicate of an offset which is already committed must not count for the offset using its slot next
+        assertThat(tracker.complete(0L)).isTrue();
+        tracker.complete(17L);
+        assertThat(tracker.getNextOffset()).isEqualTo(2L);
+
+        for (long offset = 2L; offset < 16L; offset++) {
+            tracker.complete(offset);
+        }
+        assertThat(tracker.getNextOffset()).isEqualTo(16L);
+        tracker.complete(16L);
+        assertThat(tracker.getNextOffset()).isEqualTo(18L);
+    }
+
+    @Test
+    public void rejectsOffsetsBeyondTheCapacity() {
+        final OffsetTracker tracker = new OffsetTracker(0L, 16);
+
+        assertThat(tracker.complete(16L)).isFalse();
+        assertThat(tracker.complete(15L)).isTrue();
+        assertThat(tracker.getNextOffset()).isEqualTo(0L);
+    }
+
+    @Test
+    public void skipToMovesWatermarkForward() {
+        final OffsetTracker tracker = new OffsetTracker(0L, 16);
+        tracker.complete(6L);
+
+        tracker.skipTo(6L);
+        assertThat(tracker.getNextOffset()).isEqualTo(7L);
+
+        tracker.skipTo(3L);
+        assertThat(tracker.getNextOffset()).isEqualTo(7L);
+    }
+
+    @Test
+    public void concurrentCompletionsAdvanceToTheEnd() throws Exception {
+        final int capacity = 1024;
+        final OffsetTracker tracker = new OffsetTracker(0L, capacity);
+        final List<Long> offsets = new ArrayList<>(capacity);
+        for (long offset = 0L; offset < capacity; offset++) {
+            offsets.add(offset);
+        }
+        Collections.shuffle(offsets);
+
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < threads; i++) {
+                final List<Long> share = offsets.subList(i * capacity / threads, (i + 1) * capacity / threads);
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    share.forEach(tracker::complete);
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(tracker.getNextOffset()).isEqualTo(capacity);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.streams;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultiRegexMatcherTest {
+    private static final String[] PATTERNS = {
+            "^foo",
+            "bar$",
+            "\\d{2,3}-\\w+",
+            "[^a-z ]+x",
+            "(?:ab|cd)*e",
+            "a.c",
+            "",
+            "^$",
+            "\\s\\S?\\.",
+            "(?<name>x|y)z+?"
+    };
+
+    private static final String[] INPUTS = {
+            "",
+            "foo",
+            "xfoo bar",
+            "bar\n",
+            "bar\r\n",
+            "bar\n\n",
+            "12-abc",
+            "1-abc",
+            "ABCx",
+            "abcdcde",
+            "a\nc",
+            " .",
+            "\n",
+            "yzz"
+    };
+
+    @Test
+    public void findAllMatchesLikeJavaUtilRegex() {
+        final MultiRegexMatcher.Builder builder = new MultiRegexMatcher.Builder();
+        for (int i = 0; i < PATTERNS.length; i++) {
+            assertThat(builder.add(PATTERNS[i])).isEqualTo(i);
+        }
+        final MultiRegexMatcher matcher = builder.build();
+        assertThat(matcher.size()).isEqualTo(PATTERNS.length);
+
+        for (String input : INPUTS) {
+            final boolean[] found = matcher.findAll(input);
+            for (int i = 0; i < PATTERNS.length; i++) {
+                final boolean expected = Pattern.compile(PATTERNS[i], Pattern.DOTALL).matcher(input).find();
+                assertThat(found[i])
+                        .as("Pattern <%s> on input <%s>", PATTERNS[i], input)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void addRejectsUnsupportedPatterns() {
+        final MultiRegexMatcher.Builder builder = new MultiRegexMatcher.Builder();
+
+        assertThat(builder.add("(a)\\1")).isEqualTo(-1);
+        assertThat(builder.add("foo(?=bar)")).isEqualTo(-1);
+        assertThat(builder.add("(?<!foo)bar")).isEqualTo(-1);
+        assertThat(builder.add("(?i)foo")).isEqualTo(-1);
+        assertThat(builder.add("a++")).isEqualTo(-1);
+        assertThat(builder.add("\\bfoo")).isEqualTo(-1);
+        assertThat(builder.add("[a&&b]")).isEqualTo(-1);
+        assertThat(builder.add("^a|b")).isEqualTo(-1);
+        assertThat(builder.add("a{100000}")).isEqualTo(-1);
+        assertThat(builder.add("foo")).isEqualTo(0);
+    }
+
+    @Test
+    public void findAllDoesNotBacktrack() {
+        final MultiRegexMatcher.Builder builder = new MultiRegexMatcher.Builder();
+        builder.add("(a+)+b");
+        builder.add("^(a|aa)*$");
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            input.append('a');
+        }
+        input.append('c');
+
+        assertThat(builder.build().findAll(input)).containsExactly(false, false);
+    }
+
+    @Test
+    public void findAllReturnsNullForSurrogates() {
+        final MultiRegexMatcher.Builder builder = new MultiRegexMatcher.Builder();
+        builder.add("a.b");
+
+        assertThat(builder.build().findAll("a\uD83D\uDE00b")).isNull();
+    }
+}
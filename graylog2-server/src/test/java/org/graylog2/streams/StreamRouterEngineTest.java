@@ -25,7 +25,6 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
 import org.graylog2.plugin.streams.StreamRuleType;
-import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.streams.matchers.StreamRuleMock;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -40,7 +39,6 @@ import javax.inject.Provider;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -49,6 +47,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class StreamRouterEngineTest {
@@ -61,18 +60,23 @@ public class StreamRouterEngineTest {
     private Stream defaultStream;
     private Provider<Stream> defaultStreamProvider;
 
+    private MetricRegistry metricRegistry;
     private StreamMetrics streamMetrics;
 
     @Before
     public void setUp() throws Exception {
         defaultStreamProvider = () -> defaultStream;
-        streamMetrics = new StreamMetrics(new MetricRegistry());
+        metricRegistry = new MetricRegistry();
+        streamMetrics = new StreamMetrics(metricRegistry);
         when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(250L);
     }
 
-    @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
     private StreamRouterEngine newEngine(List<Stream> streams) {
-        return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics, defaultStreamProvider);
+        return newEngine(streams, true);
+    }
+
+    private StreamRouterEngine newEngine(List<Stream> streams, boolean regexAutomatonEnabled) {
+        return new StreamRouterEngine(streams, streamFaultManager, streamMetrics, defaultStreamProvider, regexAutomatonEnabled);
     }
 
     @Test
@@ -269,6 +273,83 @@ public class StreamRouterEngineTest {
         assertEquals(engine.match(message), Lists.newArrayList(stream));
     }
 
+    @Test
+    public void testRegexAutomatonAndFallbackMatch() throws Exception {
+        final StreamMock automatonStream = getStreamMock("automaton");
+        final StreamMock fallbackStream = getStreamMock("fallback");
+        final StreamRuleMock automatonRule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield",
+                "value", "^(foo|bar)\\d+$",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", automatonStream.getId()
+        ));
+        final StreamRuleMock invertedAutomatonRule = new StreamRuleMock(ImmutableMap.<String, Object>builder()
+                .put("_id", new ObjectId())
+                .put("field", "testfield")
+                .put("value", "bar")
+                .put("type", StreamRuleType.REGEX.toInteger())
+                .put("inverted", true)
+                .put("stream_id", automatonStream.getId())
+                .build()
+        );
+        // Backreferences can't be matched by the automaton
+        final StreamRuleMock fallbackRule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield",
+                "value", "(o)\\1",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", fallbackStream.getId()
+        ));
+
+        automatonStream.setStreamRules(Lists.newArrayList(automatonRule, invertedAutomatonRule));
+        fallbackStream.setStreamRules(Lists.newArrayList(fallbackRule));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(automatonStream, fallbackStream));
+
+        final Message message1 = getMessage();
+        message1.addField("testfield", "foo123");
+        assertThat(engine.match(message1)).containsOnly(automatonStream, fallbackStream);
+
+        final Message message2 = getMessage();
+        message2.addField("testfield", "bar123");
+        assertThat(engine.match(message2)).isEmpty();
+
+        final Message message3 = getMessage();
+        message3.addField("testfield", "foo123x");
+        assertThat(engine.match(message3)).containsOnly(fallbackStream);
+
+        assertThat(metricRegistry.meter(MetricRegistry.name(StreamRouterEngine.class, "regexAutomatonEvaluations")).getCount()).isEqualTo(6L);
+        assertThat(metricRegistry.meter(MetricRegistry.name(StreamRouterEngine.class, "regexFallbackEvaluations")).getCount()).isEqualTo(3L);
+
+        // Same results without the automaton
+        final StreamRouterEngine fallbackEngine = newEngine(Lists.newArrayList(automatonStream, fallbackStream), false);
+        assertThat(fallbackEngine.match(message1)).containsOnly(automatonStream, fallbackStream);
+        assertThat(fallbackEngine.match(message2)).isEmpty();
+        assertThat(fallbackEngine.match(message3)).containsOnly(fallbackStream);
+    }
+
+    @Test
+    public void testRegexMatchTimeout() throws Exception {
+        final StreamMock stream = getStreamMock("test");
+        final StreamRuleMock rule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "testfield",
+                "value", "(a+)+b",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", stream.getId()
+        ));
+
+        stream.setStreamRules(Lists.newArrayList(rule));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream), false);
+        final Message message = getMessage();
+        message.addField("testfield", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+        assertThat(engine.match(message)).isEmpty();
+        verify(streamFaultManager).registerFailure(stream);
+    }
+
     @Test
     public void testMultipleRulesMatch() throws Exception {
         final StreamMock stream = getStreamMock("test");
@@ -729,6 +810,57 @@ public class StreamRouterEngineTest {
                 Lists.newArrayList(stream), engine.match(message2));
     }
 
+    @Test
+    public void testIndexedAndNonIndexedRulesMatch() throws Exception {
+        final StreamMock andStream = getStreamMock("and");
+        final StreamMock orStream = getStreamMock("or", Stream.MatchingType.OR);
+        final StreamRuleMock exactRule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "source",
+                "value", "example.org",
+                "type", StreamRuleType.EXACT.toInteger(),
+                "stream_id", andStream.getId()
+        ));
+        final StreamRuleMock invertedContainsRule = new StreamRuleMock(ImmutableMap.<String, Object>builder()
+                .put("_id", new ObjectId())
+                .put("field", "message")
+                .put("value", "debug")
+                .put("type", StreamRuleType.CONTAINS.toInteger())
+                .put("inverted", true)
+                .put("stream_id", andStream.getId())
+                .build()
+        );
+        final StreamRuleMock regexRule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "message",
+                "value", "^foo",
+                "type", StreamRuleType.REGEX.toInteger(),
+                "stream_id", orStream.getId()
+        ));
+        final StreamRuleMock greaterRule = new StreamRuleMock(ImmutableMap.of(
+                "_id", new ObjectId(),
+                "field", "level",
+                "value", "5",
+                "type", StreamRuleType.GREATER.toInteger(),
+                "stream_id", orStream.getId()
+        ));
+
+        andStream.setStreamRules(Lists.newArrayList(exactRule, invertedContainsRule));
+        orStream.setStreamRules(Lists.newArrayList(regexRule, greaterRule));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(andStream, orStream));
+
+        final Message message1 = new Message("foo bar", "example.org", new DateTime(DateTimeZone.UTC));
+        assertThat(engine.match(message1)).containsOnly(andStream, orStream);
+
+        final Message message2 = new Message("debug bar", "example.org", new DateTime(DateTimeZone.UTC));
+        assertThat(engine.match(message2)).isEmpty();
+
+        final Message message3 = new Message("debug bar", "example.com", new DateTime(DateTimeZone.UTC));
+        message3.addField("level", 6);
+        assertThat(engine.match(message3)).containsOnly(orStream);
+    }
+
     private StreamMock getStreamMock(String title) {
         return getStreamMock(title, Stream.MatchingType.AND);
     }
@@ -0,0 +1,88 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.streams;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.matchers.StreamRuleMock;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamRuleIndexTest {
+    @Test
+    public void multiStringMatcherFindsAllPatterns() {
+        final StreamRuleIndex.MultiStringMatcher matcher = new StreamRuleIndex.MultiStringMatcher(
+                ImmutableList.of("he", "she", "his", "hers", "", "xyz"));
+
+        assertThat(matcher.findAll("ushers")).containsExactly(true, true, false, true, true, false);
+        assertThat(matcher.findAll("")).containsExactly(false, false, false, false, true, false);
+        assertThat(matcher.findAll("this xyz")).containsExactly(false, false, true, false, true, true);
+    }
+
+    @Test
+    public void multiStringMatcherFollowsFailureLinks() {
+        final StreamRuleIndex.MultiStringMatcher matcher = new StreamRuleIndex.MultiStringMatcher(
+                ImmutableList.of("aab", "ab", "b"));
+
+        assertThat(matcher.findAll("aaab")).containsExactly(true, true, true);
+        assertThat(matcher.findAll("aa")).containsExactly(false, false, false);
+    }
+
+    @Test
+    public void collectMatchesCountsMatchingRulesPerStream() {
+        final StreamRuleIndex index = new StreamRuleIndex.Builder()
+                .add(0, rule(StreamRuleType.EXACT, "source", "example.org"))
+                .add(0, rule(StreamRuleType.GREATER, "level", "3"))
+                .add(1, rule(StreamRuleType.SMALLER, "level", "5"))
+                .add(1, rule(StreamRuleType.CONTAINS, "message", "error"))
+                .add(2, rule(StreamRuleType.PRESENCE, "facility", null))
+                .add(2, rule(StreamRuleType.GREATER, "level", "not-a-number"))
+                .build();
+
+        assertThat(index.size()).isEqualTo(6);
+
+        final Message message = new Message("an error occurred", "example.org", new DateTime(DateTimeZone.UTC));
+        message.addField("level", 4);
+        final int[] hits = new int[3];
+        index.collectMatches(message, hits);
+        assertThat(hits).containsExactly(2, 2, 0);
+
+        message.addField("level", 3);
+        message.addField("facility", "kernel");
+        final int[] hits2 = new int[3];
+        index.collectMatches(message, hits2);
+        assertThat(hits2).containsExactly(1, 2, 1);
+    }
+
+    private StreamRuleMock rule(StreamRuleType type, String field, String value) {
+        final ImmutableMap.Builder<String, Object> builder = ImmutableMap.<String, Object>builder()
+                .put("_id", new ObjectId())
+                .put("field", field)
+                .put("type", type.toInteger())
+                .put("stream_id", new ObjectId().toHexString());
+        if (value != null) {
+            builder.put("value", value);
+        }
+        return new StreamRuleMock(builder.build());
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * This file is part of Graylog.
+ *
+ * Graylog is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.graylog2.utilities;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeadlineCharSequenceTest {
+    @Test
+    public void charAtReturnsCharactersBeforeDeadline() {
+        final CharSequence sequence = new DeadlineCharSequence("foobar", System.nanoTime() + 60_000_000_000L);
+
+        assertThat(sequence.length()).isEqualTo(6);
+        assertThat(sequence.charAt(3)).isEqualTo('b');
+        assertThat(sequence.subSequence(1, 3).toString()).isEqualTo("oo");
+        assertThat(Pattern.compile("o+b").matcher(sequence).find()).isTrue();
+    }
+
+    @Test
+    public void charAtThrowsAfterDeadline() {
+        final CharSequence sequence = new DeadlineCharSequence("foobar", System.nanoTime() - 1L);
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < DeadlineCharSequence.CHECK_INTERVAL; i++) {
+                sequence.charAt(0);
+            }
+        }).isInstanceOf(UncheckedTimeoutException.class);
+    }
+
+    @Test
+    public void catastrophicBacktrackingIsAborted() {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            input.append('a');
+        }
+        final CharSequence sequence = new DeadlineCharSequence(input, System.nanoTime() + 100_000_000L);
+
+        assertThatThrownBy(() -> Pattern.compile("(a+)+b").matcher(sequence).find())
+                .isInstanceOf(UncheckedTimeoutException.class);
+    }
+}